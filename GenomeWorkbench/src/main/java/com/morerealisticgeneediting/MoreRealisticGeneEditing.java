@@ -4,8 +4,10 @@ import com.morerealisticgeneediting.block.LabEquipmentBlocks;
 import com.morerealisticgeneediting.block.entity.ModBlockEntities;
 import com.morerealisticgeneediting.block.ModBlocks;
 import com.morerealisticgeneediting.command.EthicsCommand;
+import com.morerealisticgeneediting.command.SequencingCommand;
 import com.morerealisticgeneediting.ethics.EthicsCasebook;
 import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.index.ReferenceIndexStore;
 import com.morerealisticgeneediting.genome.provider.GenomeProviderRegistry;
 import com.morerealisticgeneediting.item.LabEquipmentItems;
 import com.morerealisticgeneediting.item.ModItems;
@@ -14,9 +16,12 @@ import com.morerealisticgeneediting.project.ProjectRegistry;
 import com.morerealisticgeneediting.project.ServerProjectManager;
 import com.morerealisticgeneediting.recipe.ModRecipes;
 import com.morerealisticgeneediting.screen.ModScreenHandlers;
+import com.morerealisticgeneediting.util.TickJobs;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.minecraft.util.WorldSavePath;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +36,9 @@ public class MoreRealisticGeneEditing implements ModInitializer {
 
     public static final Map<UUID, Genome> genomeCache = new HashMap<>();
 
+    // Replaced with a world-backed store once the server has started
+    public static ReferenceIndexStore referenceIndexes = new ReferenceIndexStore(null);
+
     @Override
     public void onInitialize() {
         LOGGER.info("===========================================");
@@ -72,11 +80,21 @@ public class MoreRealisticGeneEditing implements ModInitializer {
         // Register commands using v2 API
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
             EthicsCommand.register(dispatcher);
+            SequencingCommand.register(dispatcher);
         });
 
         // Register the available genome providers
         GenomeProviderRegistry.registerDefaults();
 
+        // Persist reference indexes alongside the world save
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            referenceIndexes = new ReferenceIndexStore(
+                server.getSavePath(WorldSavePath.ROOT).resolve(MOD_ID).resolve("indexes"));
+        });
+
+        // Step tick-budgeted jobs (e.g. in-game assemblies) on the server thread
+        TickJobs.register();
+
         // Register player event handlers for the project system
         ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
             ServerProjectManager.onPlayerJoin(handler.player);
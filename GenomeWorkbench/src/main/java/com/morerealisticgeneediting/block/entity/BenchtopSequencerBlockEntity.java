@@ -2,6 +2,7 @@ package com.morerealisticgeneediting.block.entity;
 
 import com.morerealisticgeneediting.block.LabEquipmentBlockEntity;
 import com.morerealisticgeneediting.equipment.EquipmentTier;
+import com.morerealisticgeneediting.genome.sequencing.SequencingStatsAccumulator;
 import com.morerealisticgeneediting.item.LabEquipmentItems;
 import com.morerealisticgeneediting.item.ModItems;
 import net.minecraft.block.BlockState;
@@ -92,6 +93,10 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
     private float[] qualityPerCycleA;
     private float[] qualityPerCycleB;
 
+    // Live run statistics for progress displays (not persisted; rebuilt by the next run)
+    private SequencingStatsAccumulator liveStatsA = new SequencingStatsAccumulator();
+    private SequencingStatsAccumulator liveStatsB = new SequencingStatsAccumulator();
+
     public BenchtopSequencerBlockEntity(BlockEntityType<?> type, BlockPos pos, BlockState state) {
         super(type, pos, state, 7);
         this.tier = EquipmentTier.ADVANCED;
@@ -138,6 +143,7 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
             currentCycleA = 0;
             totalReadsA = 0;
             totalBasesA = 0;
+            liveStatsA = new SequencingStatsAccumulator();
             setActive(true);
         } else if (!flowCellA && canStartFlowCellB()) {
             phaseB = SequencingPhase.LOADING;
@@ -146,6 +152,7 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
             currentCycleB = 0;
             totalReadsB = 0;
             totalBasesB = 0;
+            liveStatsB = new SequencingStatsAccumulator();
             setActive(true);
         }
         markDirty();
@@ -261,6 +268,7 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
         if (isA) {
             totalReadsA += readsPerTick;
             totalBasesA += basesPerTick;
+            liveStatsA.addReads(readsPerTick, readLength);
             
             // Quality simulation (typical Q30 > 85% for DNBseq)
             int cycle = currentCycleA;
@@ -268,15 +276,18 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
                 // Quality drops slightly at end of reads
                 float cyclePosition = (float) cycle / (readLength * (pairedEnd ? 2 : 1));
                 qualityPerCycleA[cycle - 1] = 30 + random.nextFloat() * 8 - cyclePosition * 5;
+                liveStatsA.addQualities(Math.round(qualityPerCycleA[cycle - 1]), basesPerTick);
             }
         } else {
             totalReadsB += readsPerTick;
             totalBasesB += basesPerTick;
+            liveStatsB.addReads(readsPerTick, readLength);
             
             int cycle = currentCycleB;
             if (cycle > 0 && cycle <= qualityPerCycleB.length) {
                 float cyclePosition = (float) cycle / (readLength * (pairedEnd ? 2 : 1));
                 qualityPerCycleB[cycle - 1] = 30 + random.nextFloat() * 8 - cyclePosition * 5;
+                liveStatsB.addQualities(Math.round(qualityPerCycleB[cycle - 1]), basesPerTick);
             }
         }
     }
@@ -366,12 +377,14 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
             currentCycleA = 0;
             totalReadsA = 0;
             totalBasesA = 0;
+            liveStatsA = new SequencingStatsAccumulator();
         } else {
             phaseB = SequencingPhase.IDLE;
             progressB = 0;
             currentCycleB = 0;
             totalReadsB = 0;
             totalBasesB = 0;
+            liveStatsB = new SequencingStatsAccumulator();
         }
         markDirty();
     }
@@ -398,6 +411,8 @@ public class BenchtopSequencerBlockEntity extends LabEquipmentBlockEntity {
     public float getQ30PercentB() { return q30PercentB; }
     public float[] getQualityPerCycleA() { return qualityPerCycleA; }
     public float[] getQualityPerCycleB() { return qualityPerCycleB; }
+    public SequencingStatsAccumulator.Snapshot getLiveStatsA() { return liveStatsA.snapshot(); }
+    public SequencingStatsAccumulator.Snapshot getLiveStatsB() { return liveStatsB.snapshot(); }
 
     public void setReadLength(int length) {
         this.readLength = Math.max(50, Math.min(150, length));
@@ -247,11 +247,12 @@ public class ElectrophoresisBlockEntity extends LabEquipmentBlockEntity {
             if (!sample.isEmpty() && isValidSample(sample)) {
                 // Get sample info from NBT or estimate
                 int[] fragmentSizes = estimateFragmentSizes(sample, random);
+                float[] abundances = fragmentAbundances(sample, fragmentSizes.length);
                 bandCounts[lane + 1] = fragmentSizes.length;
                 
                 for (int i = 0; i < fragmentSizes.length; i++) {
                     bandPositions[lane + 1][i] = 0;
-                    float intensity = 0.5f + random.nextFloat() * 0.5f;
+                    float intensity = abundances != null ? abundances[i] : 0.5f + random.nextFloat() * 0.5f;
                     bandPatterns.add(new BandPattern(lane + 1, i, fragmentSizes[i], intensity));
                 }
             }
@@ -315,6 +316,30 @@ public class ElectrophoresisBlockEntity extends LabEquipmentBlockEntity {
         return new int[]{1000};
     }
 
+    /**
+     * Band intensities from a simulated reaction's fragment abundances, scaled so the
+     * strongest band is 1, or null if the sample has none.
+     */
+    @Nullable
+    private float[] fragmentAbundances(ItemStack sample, int fragmentCount) {
+        NbtCompound nbt = sample.getNbt();
+        if (nbt == null || !nbt.contains("FragmentAbundances")) return null;
+        int[] bits = nbt.getIntArray("FragmentAbundances");
+        if (bits.length != fragmentCount) return null;
+
+        float[] abundances = new float[bits.length];
+        float max = 0;
+        for (int i = 0; i < bits.length; i++) {
+            abundances[i] = Float.intBitsToFloat(bits[i]);
+            max = Math.max(max, abundances[i]);
+        }
+        for (int i = 0; i < abundances.length; i++) {
+            // Keep faint products visible
+            abundances[i] = max > 0 ? Math.max(0.1f, abundances[i] / max) : 0.1f;
+        }
+        return abundances;
+    }
+
     private boolean isValidLadder(ItemStack stack) {
         return stack.isOf(LabEquipmentItems.DNA_LADDER_100BP) ||
                stack.isOf(LabEquipmentItems.DNA_LADDER_1KB) ||
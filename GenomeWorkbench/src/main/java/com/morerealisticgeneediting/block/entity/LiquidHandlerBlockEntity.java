@@ -1,9 +1,19 @@
 package com.morerealisticgeneediting.block.entity;
 
+import com.morerealisticgeneediting.MoreRealisticGeneEditing;
 import com.morerealisticgeneediting.block.LabEquipmentBlockEntity;
 import com.morerealisticgeneediting.equipment.EquipmentTier;
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.index.MinimizerIndex;
+import com.morerealisticgeneediting.genome.pcr.MultiplexPanelDesigner;
+import com.morerealisticgeneediting.genome.pcr.PcrSimulator;
+import com.morerealisticgeneediting.genome.pcr.PlatePcr;
+import com.morerealisticgeneediting.genome.pcr.PrimerPairOptimizer;
+import com.morerealisticgeneediting.genome.sequencing.BarcodeDemultiplexer;
+import com.morerealisticgeneediting.item.GenomeSampleItem;
 import com.morerealisticgeneediting.item.LabEquipmentItems;
 import com.morerealisticgeneediting.item.ModItems;
+import com.morerealisticgeneediting.util.AsyncJobs;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.entity.BlockEntityType;
 import net.minecraft.entity.player.PlayerEntity;
@@ -20,6 +30,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.UUID;
 
 /**
  * Automated Liquid Handling Workstation
@@ -57,6 +68,13 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
     public static final int DECK_POSITION_7 = 6;   // Additional position (T3)
     public static final int DECK_POSITION_8 = 7;   // Additional position (T3)
 
+    // Tiling multiplex panel designed for PCR setup: amplicons spread evenly over the template
+    private static final int PANEL_TARGETS = 8;
+    private static final int PANEL_AMPLICON_LENGTH = 200;
+    private static final int PANEL_FLANK = 150;
+    private static final int PANEL_PRIMER_LENGTH = 20;
+    private static final int PANEL_ALTERNATIVES = 5;
+
     // Protocol types
     public enum Protocol {
         SERIAL_DILUTION("Serial Dilution", 600),
@@ -84,6 +102,20 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
     private int dilutionSteps = 6;
     private float targetConcentration = 0;  // For normalization
 
+    // Multiplex PCR primer pool (empty for singleplex setup)
+    private List<String> multiplexPrimers = new ArrayList<>();
+    private List<PrimerPairOptimizer.PrimerPair> panelPairs = List.of();   // Not persisted; redesigned each setup
+    private float annealingTemperature = 0;
+    private boolean designingPanel = false;
+    
+    // Last plate-level PCR run (not persisted; rerun after reload)
+    private PlatePcr.PlateResult plateResult = null;
+    private boolean runningPlate = false;
+
+    // Index barcodes ligated during library prep, one per source well (not persisted; redesigned from the position)
+    private BarcodeDemultiplexer libraryIndexes = null;
+    private boolean designingIndexes = false;
+
     // Statistics
     private int tipsUsed = 0;
     private int transfersCompleted = 0;
@@ -157,6 +189,8 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
         protocolLog.clear();
         
         logProtocol("Starting protocol: " + currentProtocol.name);
+        if (currentProtocol == Protocol.PCR_SETUP) prepareMultiplexPanel();
+        if (currentProtocol == Protocol.LIBRARY_PREP) designLibraryIndexes();
         setActive(true);
         markDirty();
     }
@@ -173,6 +207,8 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
         if (world == null || world.isClient) return;
         
         if (!isRunning) return;
+        // Hold the protocol until the primer pool or index barcodes it pipettes have been designed
+        if (designingPanel || designingIndexes) return;
 
         protocolProgress++;
         
@@ -239,11 +275,188 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
             default -> "Primers";
         };
         
+        if (component == 2 && !multiplexPrimers.isEmpty()) {
+            componentName = String.format("%d-plex primer pool", multiplexPrimers.size() / 2);
+        }
+        
         if (step % 24 == 0) {
             logProtocol(String.format("Setting up wells %d-%d: %s", well + 1, Math.min(well + 8, sourceWells), componentName));
         }
     }
 
+    // ========== Multiplex PCR ==========
+
+    /**
+     * Replace the primer pool with a panel tiled over the source sample's genome.
+     * Without a genome sample on the source position the setup stays singleplex.
+     */
+    private void prepareMultiplexPanel() {
+        multiplexPrimers.clear();
+        panelPairs = List.of();
+        annealingTemperature = 0;
+        
+        Genome template = sourceTemplate();
+        if (template != null) designMultiplexPanel(template, pos.asLong());
+    }
+
+    /**
+     * Design a multiplex primer pool for evenly spaced targets in the background and use it
+     * for PCR setup. Targets without acceptable primers are left out of the panel.
+     *
+     * @param template Genome to tile the amplicons over
+     * @param seed Seed for the panel search
+     */
+    private void designMultiplexPanel(Genome template, long seed) {
+        if (world == null || world.isClient || designingPanel) return;
+        
+        long length = template.getTotalLength();
+        int targets = (int) Math.min(PANEL_TARGETS, length / (PANEL_AMPLICON_LENGTH + 2L * PANEL_FLANK));
+        if (targets == 0) {
+            logProtocol("Template too short for a multiplex panel; using singleplex primers");
+            return;
+        }
+        long tileLength = length / targets;
+        PcrSimulator pcr = MoreRealisticGeneEditing.referenceIndexes.createPcrSimulator(template, seed);
+        
+        designingPanel = true;
+        logProtocol(String.format("Designing multiplex panel for %d targets", targets));
+        AsyncJobs.submit(
+            world.getServer(),
+            () -> {
+                try {
+                    List<List<PrimerPairOptimizer.PrimerPair>> alternatives = new ArrayList<>();
+                    for (int t = 0; t < targets; t++) {
+                        long start = t * tileLength + (tileLength - PANEL_AMPLICON_LENGTH) / 2;
+                        List<PrimerPairOptimizer.PrimerPair> pairs = pcr.designPrimerPairs(template, start,
+                            start + PANEL_AMPLICON_LENGTH, PANEL_PRIMER_LENGTH, PANEL_FLANK, PANEL_ALTERNATIVES);
+                        if (!pairs.isEmpty()) alternatives.add(pairs);
+                    }
+                    return alternatives.isEmpty() ? null : new MultiplexPanelDesigner().design(alternatives, seed);
+                } catch (RuntimeException e) {
+                    MoreRealisticGeneEditing.LOGGER.error("Multiplex panel design failed", e);
+                    return null;
+                }
+            },
+            panel -> {
+                designingPanel = false;
+                if (panel == null) {
+                    logProtocol("No multiplex panel could be designed; using singleplex primers");
+                    markDirty();
+                    return;
+                }
+                setMultiplexPanel(panel);
+            }
+        );
+    }
+
+    /**
+     * Use a designed panel's primers for PCR setup.
+     */
+    private void setMultiplexPanel(MultiplexPanelDesigner.Panel panel) {
+        multiplexPrimers = new ArrayList<>(panel.primerSequences());
+        panelPairs = panel.pairs();
+        annealingTemperature = (float) panel.annealingTemperature();
+        
+        logProtocol(String.format("Multiplex panel: %d amplicons, anneal at %.1f°C, Tm spread %.1f°C",
+            panel.pairs().size(), panel.annealingTemperature(), panel.tmSpread()));
+        if (!panel.isCompatible()) {
+            MultiplexPanelDesigner.Dimer worst = panel.conflicts().get(0);
+            logProtocol(String.format("Warning: %d primer dimers, strongest %s / %s (%.1f kcal/mol)",
+                panel.conflicts().size(), worst.first(), worst.second(), worst.deltaG()));
+        }
+        markDirty();
+    }
+
+    /**
+     * The genome on the source position, if it holds a sample of a genome the server knows.
+     */
+    @Nullable
+    private Genome sourceTemplate() {
+        String id = GenomeSampleItem.getGenomeIdentifier(getStack(DECK_POSITION_1));
+        if (id == null) return null;
+        try {
+            return MoreRealisticGeneEditing.genomeCache.get(UUID.fromString(id));
+        } catch (IllegalArgumentException e) {
+            return null;  // Sampled from an entity but not yet loaded as a genome
+        }
+    }
+
+    // ========== Plate PCR ==========
+
+    /**
+     * Run the set-up plate: each well gets the source template and the panel's whole primer
+     * pool, so every well is one multiplex reaction. Singleplex setups have no designed
+     * primers to run.
+     */
+    private void runSetupPlate() {
+        Genome template = sourceTemplate();
+        if (template == null || panelPairs.isEmpty()) return;
+        
+        PlatePcr.PlateFormat format = sourceWells > PlatePcr.PlateFormat.WELLS_96.wellCount()
+            ? PlatePcr.PlateFormat.WELLS_384 : PlatePcr.PlateFormat.WELLS_96;
+        PcrSimulator.ReactionParameters standard = PcrSimulator.ReactionParameters.standard();
+        PcrSimulator.ReactionParameters params = new PcrSimulator.ReactionParameters(standard.cycles(),
+            annealingTemperature, standard.extensionTime(), standard.useHighFidelityPolymerase(),
+            standard.mgConcentration(), standard.dntpConcentration());
+        
+        List<PcrSimulator.Assay> pool = new ArrayList<>(panelPairs.size());
+        for (PrimerPairOptimizer.PrimerPair pair : panelPairs) {
+            pool.add(new PcrSimulator.Assay(pair.forward(), pair.reverse()));
+        }
+        List<PlatePcr.Well> wells = new ArrayList<>();
+        for (int i = 0; i < Math.min(sourceWells, format.wellCount()); i++) {
+            wells.add(new PlatePcr.Well(i, template, pool, params));
+        }
+        runPlatePcr(new PlatePcr.PlateMap(format, wells),
+            MoreRealisticGeneEditing.referenceIndexes.getIfReady(template), pos.asLong());
+    }
+
+    /**
+     * Run the PCR for every well of a set-up plate as one background job.
+     *
+     * @param plate Plate map of templates, primers and reaction parameters
+     * @param referenceIndex Reference index for product prediction, or null
+     * @param seed Seed for the reactions
+     */
+    private void runPlatePcr(PlatePcr.PlateMap plate, @Nullable MinimizerIndex referenceIndex, long seed) {
+        if (world == null || world.isClient || runningPlate || plate.wells().isEmpty()) return;
+        
+        runningPlate = true;
+        logProtocol(String.format("Running plate PCR: %d wells", plate.wells().size()));
+        AsyncJobs.submit(
+            world.getServer(),
+            () -> {
+                try {
+                    return new PlatePcr(referenceIndex).run(plate, seed);
+                } catch (RuntimeException e) {
+                    MoreRealisticGeneEditing.LOGGER.error("Plate PCR failed", e);
+                    return null;
+                }
+            },
+            result -> {
+                runningPlate = false;
+                if (result == null) {
+                    logProtocol("Plate PCR failed");
+                    markDirty();
+                    return;
+                }
+                plateResult = result;
+                logProtocol(String.format("Plate PCR complete: %d/%d wells amplified, %d primer pair(s)",
+                    result.successCount(), result.wells().size(), result.distinctPrimerPairs()));
+                for (PlatePcr.WellResult well : result.wells()) {
+                    for (int assay = 0; assay < well.results().size(); assay++) {
+                        PcrSimulator.PcrResult reaction = well.results().get(assay);
+                        if (!reaction.success()) {
+                            logProtocol(String.format("Well %s amplicon %d failed: %s", well.name(), assay + 1,
+                                String.join("; ", reaction.warnings())));
+                        }
+                    }
+                }
+                markDirty();
+            }
+        );
+    }
+
     private void executeLibraryPrep(int step) {
         int well = step / 8;
         int substep = step % 8;
@@ -256,6 +469,46 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
         if (substep == 0) {
             logProtocol(String.format("Sample %d: Starting library prep", well + 1));
         }
+        if (substep == 2 && libraryIndexes != null && well < libraryIndexes.samples().size()) {
+            BarcodeDemultiplexer.Sample sample = libraryIndexes.samples().get(well);
+            logProtocol(String.format("Sample %d (%s): ligating index %s", well + 1, sample.name(), sample.barcode()));
+        }
+    }
+
+    /**
+     * Design one index barcode per source well in the background, so the pooled
+     * libraries can be sequenced in one run and demultiplexed afterwards. The protocol
+     * holds until they are ready, so every ligation step has its index.
+     */
+    private void designLibraryIndexes() {
+        if (world == null || world.isClient || designingIndexes) return;
+        int wells = sourceWells;
+        if (libraryIndexes != null && libraryIndexes.samples().size() == wells) return;
+        
+        designingIndexes = true;
+        long seed = pos.asLong();
+        AsyncJobs.submit(
+            world.getServer(),
+            () -> {
+                try {
+                    return BarcodeDemultiplexer.forPlate(wells, seed);
+                } catch (RuntimeException e) {
+                    MoreRealisticGeneEditing.LOGGER.error("Index barcode design failed", e);
+                    return null;
+                }
+            },
+            indexes -> {
+                designingIndexes = false;
+                libraryIndexes = indexes;
+                if (indexes == null) {
+                    logProtocol("Index barcode design failed; libraries are not indexed");
+                    markDirty();
+                    return;
+                }
+                logProtocol(String.format("Assigned %d index barcodes (%d bp, min distance %d)",
+                    wells, indexes.barcodeLength(), BarcodeDemultiplexer.MIN_SAFE_DISTANCE));
+            }
+        );
     }
 
     private void executeCherryPick(int step) {
@@ -337,7 +590,18 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
             nbt.putString("Protocol", currentProtocol.name);
             nbt.putInt("TransfersCompleted", transfersCompleted);
             nbt.putFloat("TotalVolume", totalVolumeTransferred);
+            
+            if (currentProtocol == Protocol.PCR_SETUP && !multiplexPrimers.isEmpty()) {
+                nbt.put("MultiplexPrimers", writeStrings(multiplexPrimers));
+                nbt.putFloat("AnnealingTemperature", annealingTemperature);
+            }
+            // The sequencer pools the libraries by these indexes and demultiplexes the run
+            if (currentProtocol == Protocol.LIBRARY_PREP && libraryIndexes != null) {
+                nbt.put("LibraryIndexes", writeIndexes(libraryIndexes.samples()));
+            }
         }
+        
+        if (currentProtocol == Protocol.PCR_SETUP) runSetupPlate();
     }
 
     private void logProtocol(String message) {
@@ -363,6 +627,13 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
     public int getArmPositionX() { return armPositionX; }
     public int getArmPositionY() { return armPositionY; }
     public int getArmPositionZ() { return armPositionZ; }
+    public List<String> getMultiplexPrimers() { return multiplexPrimers; }
+    public float getAnnealingTemperature() { return annealingTemperature; }
+    public boolean isDesigningPanel() { return designingPanel; }
+    public boolean isDesigningIndexes() { return designingIndexes; }
+    @Nullable public PlatePcr.PlateResult getPlateResult() { return plateResult; }
+    @Nullable public BarcodeDemultiplexer getLibraryIndexes() { return libraryIndexes; }
+    public boolean isRunningPlate() { return runningPlate; }
 
     public void setTransferVolume(float volume) {
         this.transferVolume = Math.max(0.5f, Math.min(1000, volume));
@@ -409,14 +680,10 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
         nbt.putInt("ArmY", armPositionY);
         nbt.putInt("ArmZ", armPositionZ);
         
-        // Save log
-        NbtList logList = new NbtList();
-        for (String entry : protocolLog) {
-            NbtCompound entryNbt = new NbtCompound();
-            entryNbt.putString("Entry", entry);
-            logList.add(entryNbt);
-        }
-        nbt.put("Log", logList);
+        // Save log and primer pool
+        nbt.put("Log", writeStrings(protocolLog));
+        nbt.put("MultiplexPrimers", writeStrings(multiplexPrimers));
+        nbt.putFloat("AnnealingTemperature", annealingTemperature);
     }
 
     @Override
@@ -447,12 +714,39 @@ public class LiquidHandlerBlockEntity extends LabEquipmentBlockEntity {
         armPositionY = nbt.getInt("ArmY");
         armPositionZ = nbt.getInt("ArmZ");
         
-        // Load log
-        protocolLog.clear();
-        NbtList logList = nbt.getList("Log", 10);
-        for (int i = 0; i < logList.size(); i++) {
-            protocolLog.add(logList.getCompound(i).getString("Entry"));
+        // Load log and primer pool
+        protocolLog = readStrings(nbt.getList("Log", 10));
+        multiplexPrimers = readStrings(nbt.getList("MultiplexPrimers", 10));
+        annealingTemperature = nbt.getFloat("AnnealingTemperature");
+    }
+
+    private static NbtList writeStrings(List<String> strings) {
+        NbtList list = new NbtList();
+        for (String entry : strings) {
+            NbtCompound entryNbt = new NbtCompound();
+            entryNbt.putString("Entry", entry);
+            list.add(entryNbt);
+        }
+        return list;
+    }
+
+    private static NbtList writeIndexes(List<BarcodeDemultiplexer.Sample> samples) {
+        NbtList list = new NbtList();
+        for (BarcodeDemultiplexer.Sample sample : samples) {
+            NbtCompound entryNbt = new NbtCompound();
+            entryNbt.putString("Name", sample.name());
+            entryNbt.putString("Barcode", sample.barcode());
+            list.add(entryNbt);
+        }
+        return list;
+    }
+
+    private static List<String> readStrings(NbtList list) {
+        List<String> strings = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            strings.add(list.getCompound(i).getString("Entry"));
         }
+        return strings;
     }
 
     @Override
@@ -1,7 +1,13 @@
 package com.morerealisticgeneediting.block.entity;
 
+import com.morerealisticgeneediting.MoreRealisticGeneEditing;
 import com.morerealisticgeneediting.data.ReadSet;
 import com.morerealisticgeneediting.data.Sample;
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.sequencing.BarcodeDemultiplexer;
+import com.morerealisticgeneediting.genome.sequencing.ReadGenerator;
+import com.morerealisticgeneediting.genome.sequencing.ReadStore;
+import com.morerealisticgeneediting.genome.sequencing.SequencingSimulator;
 import com.morerealisticgeneediting.inventory.ImplementedInventory;
 import com.morerealisticgeneediting.item.ModItems;
 import com.morerealisticgeneediting.screen.SequencerScreenHandler;
@@ -14,16 +20,25 @@ import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.inventory.Inventories;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
 import net.minecraft.screen.NamedScreenHandlerFactory;
 import net.minecraft.screen.PropertyDelegate;
 import net.minecraft.screen.ScreenHandler;
-import net.minecraft.server.world.ServerWorld;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.text.Text;
 import net.minecraft.util.collection.DefaultedList;
+import net.minecraft.util.WorldSavePath;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class SequencerBlockEntity extends BlockEntity implements ImplementedInventory, NamedScreenHandlerFactory {
@@ -39,6 +54,10 @@ public class SequencerBlockEntity extends BlockEntity implements ImplementedInve
     private State currentState = State.IDLE;
     private static final RateLimiters startSequencingLimiter = new RateLimiters(2000L); // 2-second cooldown
 
+    // Runs on a sample with a known genome are sequenced for real and kept in a ReadStore
+    private static final SequencingSimulator.Technology TECHNOLOGY = SequencingSimulator.Technology.ILLUMINA_PE150;
+    private static final int COVERAGE = 30;
+
     private final PropertyDelegate propertyDelegate = new PropertyDelegate() {
         @Override
         public int get(int index) {
@@ -109,18 +128,40 @@ public class SequencerBlockEntity extends BlockEntity implements ImplementedInve
         setState(State.PROCESSING);
         ItemStack inputStack = getStack(0);
         NbtCompound sampleNbt = inputStack.getNbt().getCompound("sample_data");
+        List<BarcodeDemultiplexer.Sample> indexes = readIndexes(inputStack.getNbt().getList("LibraryIndexes", 10));
         inputStack.decrement(1);
 
+        Sample sample;
+        try {
+            sample = Sample.fromNbt(sampleNbt);
+        } catch (IllegalArgumentException e) {
+            setState(State.ERROR);
+            return;
+        }
+        // The genome cache belongs to the server thread; the run only needs the genome itself
+        Genome genome = MoreRealisticGeneEditing.genomeCache.get(sample.getGenomeRefId());
+        MinecraftServer server = world.getServer();
+        String run = UUID.randomUUID().toString();
+        Path storeFile = runFile(server, run);
+        Path demuxDirectory = demuxDirectory(server, run);
+        long seed = ThreadLocalRandom.current().nextLong();
+
         AsyncJobs.submit(
-            (ServerWorld) world,
+            server,
             () -> {
                 try {
                     Thread.sleep(5000);
-                    Sample sample = Sample.fromNbt(sampleNbt);
-                    long readCount = ThreadLocalRandom.current().nextLong(1_000_000, 5_000_000);
-                    int avgLength = ThreadLocalRandom.current().nextInt(150, 300);
-                    return new ReadSet(sample.getSampleId(), readCount, avgLength);
-                } catch (InterruptedException | IllegalArgumentException e) {
+                    if (genome == null) {
+                        // No genome to read from: only the run summary can be produced
+                        long readCount = ThreadLocalRandom.current().nextLong(1_000_000, 5_000_000);
+                        int avgLength = ThreadLocalRandom.current().nextInt(150, 300);
+                        return new ReadSet(sample.getSampleId(), readCount, avgLength);
+                    }
+                    ReadSet readSet = sequence(sample, genome, indexes, storeFile, run, seed);
+                    if (!indexes.isEmpty()) demultiplex(indexes, storeFile, demuxDirectory, run);
+                    return readSet;
+                } catch (InterruptedException | IOException | RuntimeException e) {
+                    MoreRealisticGeneEditing.LOGGER.error("Sequencing run {} failed", run, e);
                     return null;
                 }
             },
@@ -137,6 +178,88 @@ public class SequencerBlockEntity extends BlockEntity implements ImplementedInve
         );
     }
 
+    /**
+     * Directory holding the stored runs: {@code <world>/morerealisticgeneediting/reads}.
+     */
+    public static Path runDirectory(MinecraftServer server) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve(MoreRealisticGeneEditing.MOD_ID).resolve("reads");
+    }
+
+    /**
+     * Where a run's reads are stored: {@code <run>.mrds} in the {@link #runDirectory}.
+     */
+    public static Path runFile(MinecraftServer server, String run) {
+        return runDirectory(server).resolve(run + ".mrds");
+    }
+
+    /**
+     * Where a pooled run's per-sample FASTQ files go: {@code <world>/morerealisticgeneediting/demux/<run>}.
+     */
+    public static Path demuxDirectory(MinecraftServer server, String run) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve(MoreRealisticGeneEditing.MOD_ID)
+            .resolve("demux").resolve(run);
+    }
+
+    /**
+     * Sequence the sample's genome and write the reads to the run's store, streaming. With
+     * library indexes the libraries are pooled: each fragment carries one sample's index,
+     * read through the same error model as the insert.
+     */
+    private static ReadSet sequence(Sample sample, Genome genome, List<BarcodeDemultiplexer.Sample> indexes,
+                                    Path storeFile, String run, long seed) throws IOException {
+        ReadGenerator generator = ReadGenerator.forGenome(genome, TECHNOLOGY, COVERAGE, 0, 0, seed);
+        SplittableRandom random = new SplittableRandom(seed);
+        String barcode = null;
+        long reads = 0;
+        long bases = 0;
+        try (ReadStore.Writer writer = new ReadStore.Writer(storeFile)) {
+            Iterator<SequencingSimulator.SequencingRead> iterator = generator.stream().iterator();
+            while (iterator.hasNext()) {
+                SequencingSimulator.SequencingRead read = iterator.next();
+                if (!indexes.isEmpty()) {
+                    // Both mates of a fragment come from the same library
+                    if (!TECHNOLOGY.pairedEnd || reads % 2 == 0) {
+                        barcode = indexes.get(random.nextInt(indexes.size())).barcode();
+                    }
+                    read = BarcodeDemultiplexer.addBarcode(read, barcode, TECHNOLOGY.errorRate, random);
+                }
+                writer.add(read);
+                reads++;
+                bases += read.sequence().length();
+            }
+        }
+        MoreRealisticGeneEditing.LOGGER.info("Stored sequencing run {} for sample {}: {} reads", run,
+            sample.getSampleId(), reads);
+        return new ReadSet(sample.getSampleId(), reads, reads == 0 ? 0 : (int) (bases / reads),
+            storeFile.getFileName().toString());
+    }
+
+    /**
+     * Split a pooled run into one FASTQ per library index, plus the undetermined reads.
+     */
+    private static void demultiplex(List<BarcodeDemultiplexer.Sample> indexes, Path storeFile, Path directory,
+                                    String run) throws IOException {
+        try (ReadStore store = ReadStore.open(storeFile)) {
+            if (store == null) throw new IOException("Run store unreadable: " + storeFile);
+            BarcodeDemultiplexer.Report report = new BarcodeDemultiplexer(indexes)
+                .demultiplexToFastq(store.stream(), directory, false);
+            MoreRealisticGeneEditing.LOGGER.info("Demultiplexed run {} into {} samples: {}/{} reads assigned",
+                run, indexes.size(), report.reads() - report.undetermined(), report.reads());
+        }
+    }
+
+    /**
+     * Index barcodes a liquid handler's library prep recorded on the input, or none.
+     */
+    private static List<BarcodeDemultiplexer.Sample> readIndexes(NbtList list) {
+        List<BarcodeDemultiplexer.Sample> indexes = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            NbtCompound entry = list.getCompound(i);
+            indexes.add(new BarcodeDemultiplexer.Sample(entry.getString("Name"), entry.getString("Barcode")));
+        }
+        return indexes;
+    }
+
     private boolean canStartSequencing() {
         ItemStack input = getStack(0);
         return !input.isEmpty() &&
@@ -1,9 +1,14 @@
 package com.morerealisticgeneediting.block.entity;
 
+import com.morerealisticgeneediting.MoreRealisticGeneEditing;
 import com.morerealisticgeneediting.block.LabEquipmentBlockEntity;
 import com.morerealisticgeneediting.equipment.EquipmentTier;
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.analysis.GelElectrophoresisSimulator;
 import com.morerealisticgeneediting.genome.pcr.PcrSimulator;
+import com.morerealisticgeneediting.item.GenomeSampleItem;
 import com.morerealisticgeneediting.item.ModItems;
+import com.morerealisticgeneediting.util.AsyncJobs;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.entity.BlockEntityType;
 import net.minecraft.entity.player.PlayerEntity;
@@ -16,6 +21,9 @@ import net.minecraft.text.Text;
 import net.minecraft.util.math.BlockPos;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.UUID;
+
 /**
  * PCR Machine (Thermal Cycler) Block Entity
  * 
@@ -32,6 +40,10 @@ import org.jetbrains.annotations.Nullable;
  * 4. Extension: 72°C, 1 min/kb
  * 5. Final Extension: 72°C, 5-10 min
  * 
+ * When the template carries a loaded genome, the reaction itself is simulated with
+ * {@link PcrSimulator} in the background while the block cycles, and the product records
+ * the predicted fragments so a gel shows the real bands.
+ * 
  * Tier differences:
  * - Basic (OpenPCR): Manual programming, slower ramp rate
  * - Advanced (T100): Fast ramp, gradient capability
@@ -57,6 +69,16 @@ public class ThermalCyclerBlockEntity extends LabEquipmentBlockEntity {
     // Temperature ramp rate (°C per tick)
     private float rampRate;
     
+    // Primer items carry no sequence, so a pair is designed around the template's centre
+    private static final int DEFAULT_TARGET_LENGTH = 500;
+    // DNA concentration recorded for a finished reaction (ng/µL)
+    private static final double PRODUCT_CONCENTRATION = 50.0;
+    
+    // Simulated reaction for the current run, filled in by the background job
+    @Nullable
+    private PcrSimulator.PcrResult pcrResult;
+    private boolean simulating = false;
+    
     // Step names for display
     private static final String[] STEP_NAMES = {
         "Idle", "Denaturation", "Annealing", "Extension", "Final Extension", "Complete"
@@ -133,6 +155,11 @@ public class ThermalCyclerBlockEntity extends LabEquipmentBlockEntity {
                 nbt.putInt("Cycles", totalCycles);
                 nbt.putFloat("AnnealingTemp", annealingTemp);
                 nbt.putString("Tier", tier.getId());
+                if (pcrResult != null) {
+                    writeGelSample(nbt, pcrResult.toGelSample("PCR product", PRODUCT_CONCENTRATION));
+                    nbt.putInt("AmpliconLength", pcrResult.ampliconLength());
+                    nbt.putDouble("RelativeYield", pcrResult.yield());
+                }
                 
                 // Copy template information if available
                 ItemStack template = getStack(TEMPLATE_SLOT);
@@ -155,9 +182,26 @@ public class ThermalCyclerBlockEntity extends LabEquipmentBlockEntity {
             currentCycle = 0;
             currentStep = 0;
             currentTemperature = 25.0f;
+            pcrResult = null;
         }
     }
     
+    /**
+     * Store a gel lane's fragments in the product: sizes as "FragmentSizes" and relative
+     * abundances as float bits in "FragmentAbundances", read back by the electrophoresis unit.
+     */
+    private static void writeGelSample(NbtCompound nbt, GelElectrophoresisSimulator.DnaSample sample) {
+        List<GelElectrophoresisSimulator.DnaFragment> fragments = sample.fragments();
+        int[] sizes = new int[fragments.size()];
+        int[] abundances = new int[fragments.size()];
+        for (int i = 0; i < fragments.size(); i++) {
+            sizes[i] = fragments.get(i).sizeInBp();
+            abundances[i] = Float.floatToIntBits((float) fragments.get(i).relativeAbundance());
+        }
+        nbt.putIntArray("FragmentSizes", sizes);
+        nbt.putIntArray("FragmentAbundances", abundances);
+    }
+    
     /**
      * Custom tick for thermal cycling simulation
      */
@@ -167,6 +211,10 @@ public class ThermalCyclerBlockEntity extends LabEquipmentBlockEntity {
             return;
         }
         
+        if (currentCycle == 0 && currentStep == 0) {
+            startSimulation();
+        }
+        
         // Update temperature towards target
         if (Math.abs(currentTemperature - targetTemperature) > 0.5f) {
             if (currentTemperature < targetTemperature) {
@@ -206,6 +254,58 @@ public class ThermalCyclerBlockEntity extends LabEquipmentBlockEntity {
         };
     }
     
+    /**
+     * Simulate the reaction for the loaded template in the background. Templates without a
+     * loaded genome (e.g. sampled from an entity) are not simulated; their product has no
+     * fragment data and the gel estimates it.
+     */
+    private void startSimulation() {
+        if (world == null || world.isClient || simulating) return;
+        pcrResult = null;
+        Genome template = templateGenome();
+        if (template == null) return;
+        
+        PcrSimulator pcr = MoreRealisticGeneEditing.referenceIndexes.createPcrSimulator(template, pos.asLong());
+        PcrSimulator.ReactionParameters standard = PcrSimulator.ReactionParameters.standard();
+        PcrSimulator.ReactionParameters params = new PcrSimulator.ReactionParameters(totalCycles,
+            annealingTemp, standard.extensionTime(), standard.useHighFidelityPolymerase(),
+            standard.mgConcentration(), standard.dntpConcentration());
+        long centre = template.getTotalLength() / 2;
+        
+        simulating = true;
+        AsyncJobs.submit(
+            world.getServer(),
+            () -> {
+                try {
+                    List<PcrSimulator.Primer> primers = pcr.designPrimers(template,
+                        centre - DEFAULT_TARGET_LENGTH / 2, centre + DEFAULT_TARGET_LENGTH / 2,
+                        PcrSimulator.OPTIMAL_PRIMER_LENGTH);
+                    if (primers.isEmpty()) return null;
+                    return pcr.runPcr(template, primers.get(0), primers.get(1), params);
+                } catch (RuntimeException e) {
+                    MoreRealisticGeneEditing.LOGGER.error("PCR simulation failed", e);
+                    return null;
+                }
+            },
+            result -> {
+                simulating = false;
+                pcrResult = result;
+                markDirty();
+            }
+        );
+    }
+    
+    @Nullable
+    private Genome templateGenome() {
+        String id = GenomeSampleItem.getGenomeIdentifier(getStack(TEMPLATE_SLOT));
+        if (id == null) return null;
+        try {
+            return MoreRealisticGeneEditing.genomeCache.get(UUID.fromString(id));
+        } catch (IllegalArgumentException e) {
+            return null;  // Sampled from an entity but not yet loaded as a genome
+        }
+    }
+    
     private int getStepDuration(int step) {
         // Duration in ticks (20 ticks = 1 second)
         int baseDuration = switch (step) {
@@ -0,0 +1,179 @@
+package com.morerealisticgeneediting.command;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.LongArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.morerealisticgeneediting.MoreRealisticGeneEditing;
+import com.morerealisticgeneediting.block.entity.SequencerBlockEntity;
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.crispr.AmpliconOutcomeQuantifier;
+import com.morerealisticgeneediting.genome.crispr.CrisprEngine;
+import com.morerealisticgeneediting.genome.sequencing.ReadStore;
+import com.morerealisticgeneediting.genome.sequencing.SequencingExporter;
+import com.morerealisticgeneediting.util.AsyncJobs;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import net.minecraft.util.WorldSavePath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * {@code /sequencing export <run> [gzip]} - dump a stored run as FASTQ for external tools.
+ * {@code /sequencing list} - the runs available to export.
+ * {@code /sequencing quantify <run> <genome> <pam>} - measure the editing outcomes at an
+ * SpCas9 site from a run of the edited sample, against the genome's unedited sequence.
+ *
+ * Runs are the ones the sequencer stored in {@code <world>/morerealisticgeneediting/reads/<run>.mrds}
+ * (see {@link SequencerBlockEntity#runFile}); exports are written to {@code <world>/morerealisticgeneediting/exports/} on the background job
+ * thread, streaming block by block, so even a very large run never sits on the heap.
+ */
+public class SequencingCommand {
+
+    // Run names become file names, so only allow plain identifiers
+    private static final Pattern RUN_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String RUN_SUFFIX = ".mrds";
+    // Alleles listed in a quantification report
+    private static final int REPORTED_ALLELES = 3;
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(literal("sequencing")
+                .requires(source -> source.hasPermissionLevel(2)) // Admin command
+                .then(literal("list")
+                        .executes(SequencingCommand::list))
+                .then(literal("export")
+                        .then(argument("run", StringArgumentType.word())
+                                .executes(context -> export(context, false))
+                                .then(argument("gzip", BoolArgumentType.bool())
+                                        .executes(context -> export(context, BoolArgumentType.getBool(context, "gzip"))))))
+                .then(literal("quantify")
+                        .then(argument("run", StringArgumentType.word())
+                                .then(argument("genome", StringArgumentType.word())
+                                        .then(argument("pam", LongArgumentType.longArg(0))
+                                                .executes(SequencingCommand::quantify)))))
+        );
+    }
+
+    private static int export(CommandContext<ServerCommandSource> context, boolean gzip) {
+        ServerCommandSource source = context.getSource();
+        String run = StringArgumentType.getString(context, "run");
+        if (!RUN_NAME.matcher(run).matches()) {
+            source.sendError(Text.of("Invalid run name: " + run));
+            return 0;
+        }
+        MinecraftServer server = source.getServer();
+        Path root = server.getSavePath(WorldSavePath.ROOT).resolve(MoreRealisticGeneEditing.MOD_ID);
+        Path input = SequencerBlockEntity.runFile(server, run);
+        Path output = root.resolve("exports").resolve(run + (gzip ? ".fastq.gz" : ".fastq"));
+
+        AsyncJobs.submit(server, () -> {
+            try (ReadStore store = ReadStore.open(input)) {
+                if (store == null) return "Run not found or unreadable: " + run;
+                long written = SequencingExporter.writeFastq(output, store.stream(), gzip);
+                return "Exported " + written + " reads to " + root.relativize(output);
+            } catch (IOException | RuntimeException e) {
+                MoreRealisticGeneEditing.LOGGER.error("Failed to export sequencing run {}", run, e);
+                return "Export failed: " + e.getMessage();
+            }
+        }, message -> source.sendFeedback(() -> Text.of(message), true));
+        source.sendFeedback(() -> Text.of("Exporting " + run + "..."), false);
+        return 1;
+    }
+
+    private static int quantify(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String run = StringArgumentType.getString(context, "run");
+        String genomeIdentifier = StringArgumentType.getString(context, "genome");
+        long pam = LongArgumentType.getLong(context, "pam");
+        if (!RUN_NAME.matcher(run).matches()) {
+            source.sendError(Text.of("Invalid run name: " + run));
+            return 0;
+        }
+        Genome genome;
+        try {
+            genome = MoreRealisticGeneEditing.genomeCache.get(UUID.fromString(genomeIdentifier));
+        } catch (IllegalArgumentException e) {
+            source.sendError(Text.of("Invalid genome id: " + genomeIdentifier));
+            return 0;
+        }
+        if (genome == null) {
+            source.sendError(Text.of("Unknown genome: " + genomeIdentifier));
+            return 0;
+        }
+        // Reads are compared with the sequence before editing; the genome cache belongs to the server thread
+        Genome reference = genome.original();
+        MinecraftServer server = source.getServer();
+        Path input = SequencerBlockEntity.runFile(server, run);
+
+        AsyncJobs.submit(server, () -> {
+            long start = pam - CrisprEngine.PROTOSPACER_LENGTH;
+            CrisprEngine.TargetSite site = start < 0 ? null : new CrisprEngine(0)
+                .findPamSites(reference, start, CrisprEngine.PROTOSPACER_LENGTH + CrisprEngine.SPCAS9_PAM.length(),
+                    CrisprEngine.SPCAS9_PAM)
+                .stream().filter(s -> s.position() == pam).findFirst().orElse(null);
+            if (site == null) return "No SpCas9 PAM at position " + pam;
+            try (ReadStore store = ReadStore.open(input)) {
+                if (store == null) return "Run not found or unreadable: " + run;
+                AmpliconOutcomeQuantifier quantifier = AmpliconOutcomeQuantifier.forTarget(reference, site,
+                    AmpliconOutcomeQuantifier.DEFAULT_FLANK, AmpliconOutcomeQuantifier.DEFAULT_WINDOW);
+                // Only the blocks around the amplicon are decoded
+                long cut = site.cutPosition();
+                AmpliconOutcomeQuantifier.QuantificationResult result = quantifier.quantify(store.query(
+                    cut - AmpliconOutcomeQuantifier.DEFAULT_FLANK, cut + AmpliconOutcomeQuantifier.DEFAULT_FLANK).toList());
+                return describe(run, pam, result);
+            } catch (IOException | RuntimeException e) {
+                MoreRealisticGeneEditing.LOGGER.error("Failed to quantify sequencing run {} at {}", run, pam, e);
+                return "Quantification failed: " + e.getMessage();
+            }
+        }, message -> source.sendFeedback(() -> Text.of(message), false));
+        source.sendFeedback(() -> Text.of("Quantifying " + run + " at " + pam + "..."), false);
+        return 1;
+    }
+
+    private static String describe(String run, long pam, AmpliconOutcomeQuantifier.QuantificationResult result) {
+        if (result.quantifiedReads() == 0) {
+            return "No reads of " + run + " span the cut at PAM " + pam + " (" + result.reads() + " nearby)";
+        }
+        String alleles = result.alleles().stream()
+            .limit(REPORTED_ALLELES)
+            .map(allele -> String.format("%s %.1f%%", allele.description(), allele.fraction() * 100))
+            .collect(Collectors.joining(", "));
+        return String.format("%s at PAM %d: %,d reads, %.1f%% modified, %.1f%% frameshift; top alleles: %s",
+            run, pam, result.quantifiedReads(), result.modifiedFraction() * 100,
+            result.frameshiftFraction() * 100, alleles);
+    }
+
+    private static int list(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        Path reads = SequencerBlockEntity.runDirectory(source.getServer());
+
+        AsyncJobs.submit(source.getServer(), () -> {
+            if (!Files.isDirectory(reads)) return "No sequencing runs stored";
+            try (Stream<Path> files = Files.list(reads)) {
+                List<String> runs = files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.endsWith(RUN_SUFFIX))
+                        .map(name -> name.substring(0, name.length() - RUN_SUFFIX.length()))
+                        .sorted()
+                        .toList();
+                return runs.isEmpty() ? "No sequencing runs stored"
+                        : "Stored runs (" + runs.size() + "): " + String.join(", ", runs);
+            } catch (IOException e) {
+                MoreRealisticGeneEditing.LOGGER.error("Failed to list sequencing runs", e);
+                return "Listing failed: " + e.getMessage();
+            }
+        }, message -> source.sendFeedback(() -> Text.of(message), false));
+        return 1;
+    }
+}
@@ -1,11 +1,14 @@
 package com.morerealisticgeneediting.data;
 
 import net.minecraft.nbt.NbtCompound;
+import org.jetbrains.annotations.Nullable;
+
 import java.util.UUID;
 
 /**
  * Represents a set of sequencing reads.
- * This is a summary and does not contain the actual read data.
+ * This is a summary and does not contain the actual read data; when the reads were
+ * kept, {@link #getStoreFile()} names the ReadStore file holding them.
  */
 public class ReadSet {
 
@@ -13,29 +16,40 @@ public class ReadSet {
     private final UUID sourceSampleId;
     private final long readCount;
     private final int averageReadLength;
+    @Nullable
+    private final String storeFile;
 
     public ReadSet(UUID sourceSampleId, long readCount, int averageReadLength) {
-        this.readSetId = UUID.randomUUID();
-        this.sourceSampleId = sourceSampleId;
-        this.readCount = readCount;
-        this.averageReadLength = averageReadLength;
+        this(UUID.randomUUID(), sourceSampleId, readCount, averageReadLength, null);
     }
 
-    private ReadSet(UUID readSetId, UUID sourceSampleId, long readCount, int averageReadLength) {
+    public ReadSet(UUID sourceSampleId, long readCount, int averageReadLength, @Nullable String storeFile) {
+        this(UUID.randomUUID(), sourceSampleId, readCount, averageReadLength, storeFile);
+    }
+
+    private ReadSet(UUID readSetId, UUID sourceSampleId, long readCount, int averageReadLength,
+                    @Nullable String storeFile) {
         this.readSetId = readSetId;
         this.sourceSampleId = sourceSampleId;
         this.readCount = readCount;
         this.averageReadLength = averageReadLength;
+        this.storeFile = storeFile;
     }
 
     // Getters...
 
+    @Nullable
+    public String getStoreFile() {
+        return storeFile;
+    }
+
     public NbtCompound writeNbt() {
         NbtCompound nbt = new NbtCompound();
         nbt.putUuid("readSetId", readSetId);
         nbt.putUuid("sourceSampleId", sourceSampleId);
         nbt.putLong("readCount", readCount);
         nbt.putInt("averageReadLength", averageReadLength);
+        if (storeFile != null) nbt.putString("storeFile", storeFile);
         return nbt;
     }
 
@@ -44,7 +58,8 @@ public class ReadSet {
             nbt.getUuid("readSetId"),
             nbt.getUuid("sourceSampleId"),
             nbt.getLong("readCount"),
-            nbt.getInt("averageReadLength")
+            nbt.getInt("averageReadLength"),
+            nbt.contains("storeFile") ? nbt.getString("storeFile") : null
         );
     }
 }
@@ -32,6 +32,14 @@ public class Sample {
 
     // Getters...
 
+    public UUID getSampleId() {
+        return sampleId;
+    }
+
+    public UUID getGenomeRefId() {
+        return genomeRefId;
+    }
+
     public NbtCompound writeNbt() {
         NbtCompound nbt = new NbtCompound();
         nbt.putUuid("sampleId", sampleId);
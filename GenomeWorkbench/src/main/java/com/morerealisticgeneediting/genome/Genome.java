@@ -84,6 +84,24 @@ public class Genome {
         return new Genome(this.uuid, this.owner, this.packedBases, this.baseTotalLength, this.sequenceStartOffset, newPatches);
     }
 
+    public Genome performDeletion(long position, int length) {
+        if (length <= 0) return this;
+        GenomePatch newPatch = new GenomePatch(this.uuid);
+        newPatch.addDeletion(position, length);
+        List<GenomePatch> newPatches = new ArrayList<>(this.patches);
+        newPatches.add(newPatch);
+        return new Genome(this.uuid, this.owner, this.packedBases, this.baseTotalLength, this.sequenceStartOffset, newPatches);
+    }
+
+    /**
+     * The genome as it was before any edits: same identity, no patches. This is the
+     * expected sequence edited samples are compared against.
+     */
+    public Genome original() {
+        if (patches.isEmpty()) return this;
+        return new Genome(this.uuid, this.owner, this.packedBases, this.baseTotalLength, this.sequenceStartOffset, new ArrayList<>());
+    }
+
     public String getSequence(long finalStart, int finalLength) {
         preparePatchesAndIndex();
         long totalLength = getTotalLength();
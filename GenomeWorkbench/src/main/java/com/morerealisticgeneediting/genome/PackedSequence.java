@@ -0,0 +1,264 @@
+package com.morerealisticgeneediting.genome;
+
+/**
+ * An immutable, flat 2-bit view of a (possibly patched) genome sequence.
+ *
+ * Bases are stored 32 per {@code long}, most significant bits first, so that any
+ * k-mer of up to 32 bases can be extracted as a single packed {@code long} with
+ * two shifts. Non-ACGT characters are stored as A and flagged in a separate N-mask.
+ *
+ * This is the shared substrate for the index, scanning and alignment code, which
+ * should never call {@link Genome#getSequence(long, int)} base-by-base.
+ */
+public final class PackedSequence {
+
+    public static final int BASES_PER_WORD = 32;
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final int FETCH_CHUNK = 1 << 16;
+
+    private final long[] words;
+    private final long[] nMask;   // null when the sequence has no N bases
+    private final long length;
+    private final long fingerprint;
+
+    private PackedSequence(long[] words, long[] nMask, long length) {
+        this.words = words;
+        this.nMask = nMask;
+        this.length = length;
+        this.fingerprint = computeFingerprint(words, nMask, length);
+    }
+
+    /**
+     * Packs the final (patched) sequence of a genome, fetching it in large chunks.
+     */
+    public static PackedSequence fromGenome(Genome genome) {
+        return fromGenome(genome, 0, genome.getTotalLength());
+    }
+
+    /**
+     * Packs one region of a genome, fetching it in large chunks.
+     */
+    public static PackedSequence fromGenome(Genome genome, long start, long length) {
+        Builder builder = new Builder(length);
+        for (long pos = 0; pos < length; pos += FETCH_CHUNK) {
+            builder.append(genome.getSequence(start + pos, (int) Math.min(FETCH_CHUNK, length - pos)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Packs a plain character sequence.
+     */
+    public static PackedSequence fromString(CharSequence sequence) {
+        Builder builder = new Builder(sequence.length());
+        builder.append(sequence);
+        return builder.build();
+    }
+
+    // ========== Accessors ==========
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * A content hash, stable across JVM runs, used to validate persisted indexes.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get the 2-bit code of the base at a position (N reads as A, see {@link #isN(long)}).
+     */
+    public int baseAt(long pos) {
+        return (int) (words[(int) (pos >>> 5)] >>> (62 - 2 * (int) (pos & 31))) & 0b11;
+    }
+
+    public boolean isN(long pos) {
+        return nMask != null && (nMask[(int) (pos >>> 6)] & (1L << (pos & 63))) != 0;
+    }
+
+    public boolean hasN() {
+        return nMask != null;
+    }
+
+    /**
+     * Check whether any base in [pos, pos + len) is N.
+     */
+    public boolean hasN(long pos, int len) {
+        if (nMask == null) return false;
+        long end = pos + len;
+        while (pos < end) {
+            int word = (int) (pos >>> 6);
+            int from = (int) (pos & 63);
+            int to = (int) Math.min(64, from + (end - pos));
+            long bits = nMask[word] >>> from;
+            if (to - from < 64) bits &= (1L << (to - from)) - 1;
+            if (bits != 0) return true;
+            pos += to - from;
+        }
+        return false;
+    }
+
+    /**
+     * Extract the k-mer starting at {@code pos} as a packed value, first base in the
+     * most significant position. The caller must ensure {@code pos + k <= length()}.
+     *
+     * @param k k-mer length, 1-32
+     */
+    public long kmer(long pos, int k) {
+        int word = (int) (pos >>> 5);
+        int offset = (int) (pos & 31);
+        long value = words[word] << (2 * offset);
+        if (offset + k > BASES_PER_WORD) {
+            value |= words[word + 1] >>> (64 - 2 * offset);
+        }
+        return value >>> (64 - 2 * k);
+    }
+
+    /**
+     * The 32 bases starting at {@code pos} as one packed word, for word-at-a-time
+     * scanning. Bases past the end of the sequence read as A.
+     */
+    public long window(long pos) {
+        int word = (int) (pos >>> 5);
+        int offset = (int) (pos & 31);
+        long value = word < words.length ? words[word] << (2 * offset) : 0;
+        if (offset != 0 && word + 1 < words.length) {
+            value |= words[word + 1] >>> (64 - 2 * offset);
+        }
+        return value;
+    }
+
+    /**
+     * Decode a region back to a String. Intended for reporting, not for scanning.
+     */
+    public String substring(long pos, int len) {
+        len = (int) Math.max(0, Math.min(len, length - pos));
+        char[] out = new char[len];
+        decode(pos, len, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * Decode {@code len} bases starting at {@code pos} into a buffer, a word at a time.
+     * The caller must ensure {@code pos + len <= length()}.
+     */
+    public void decode(long pos, int len, char[] out, int offset) {
+        for (int i = 0; i < len; i += BASES_PER_WORD) {
+            long value = window(pos + i);
+            int count = Math.min(BASES_PER_WORD, len - i);
+            for (int j = 0; j < count; j++, value <<= 2) {
+                out[offset + i + j] = TwoBitEncoding.decodeBase((byte) (value >>> 62));
+            }
+        }
+        if (hasN(pos, len)) {
+            for (int i = 0; i < len; i++) {
+                if (isN(pos + i)) out[offset + i] = 'N';
+            }
+        }
+    }
+
+    // ========== Packed k-mer helpers ==========
+
+    /**
+     * Pack up to 32 bases into a long, first base most significant.
+     *
+     * @throws IllegalArgumentException if the sequence is longer than 32 or contains non-ACGT bases
+     */
+    public static long pack(CharSequence sequence) {
+        if (sequence.length() > BASES_PER_WORD) {
+            throw new IllegalArgumentException("Cannot pack more than 32 bases: " + sequence.length());
+        }
+        long value = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            int code = TwoBitEncoding.encodeBase(sequence.charAt(i));
+            if (code < 0) throw new IllegalArgumentException("Invalid base: " + sequence.charAt(i));
+            value = (value << 2) | code;
+        }
+        return value;
+    }
+
+    /**
+     * Decode a packed k-mer into a String.
+     */
+    public static String unpack(long kmer, int k) {
+        char[] out = new char[k];
+        for (int i = k - 1; i >= 0; i--) {
+            out[i] = TwoBitEncoding.decodeBase((byte) kmer);
+            kmer >>>= 2;
+        }
+        return new String(out);
+    }
+
+    /**
+     * Reverse complement of a packed k-mer. With A=00, C=01, G=10, T=11 the
+     * complement is a bitwise NOT; the reversal swaps 2-bit groups.
+     */
+    public static long reverseComplement(long kmer, int k) {
+        long x = ~kmer;
+        x = ((x >>> 2) & 0x3333333333333333L) | ((x & 0x3333333333333333L) << 2);
+        x = ((x >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((x & 0x0F0F0F0F0F0F0F0FL) << 4);
+        x = Long.reverseBytes(x);
+        return x >>> (64 - 2 * k);
+    }
+
+    /**
+     * Number of differing bases between two packed k-mers of equal length.
+     */
+    public static int mismatches(long a, long b) {
+        long x = a ^ b;
+        return Long.bitCount((x | (x >>> 1)) & LOW_BITS);
+    }
+
+    // ========== Internals ==========
+
+    private static long computeFingerprint(long[] words, long[] nMask, long length) {
+        long h = length * 0x9E3779B97F4A7C15L;
+        for (long w : words) {
+            h = Long.rotateLeft(h ^ w, 27) * 0x9E3779B97F4A7C15L;
+        }
+        if (nMask != null) {
+            for (long w : nMask) {
+                h = Long.rotateLeft(h ^ w, 31) * 0xC2B2AE3D27D4EB4FL;
+            }
+        }
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Incremental builder so large genomes can be packed chunk by chunk.
+     */
+    public static final class Builder {
+        private final long[] words;
+        private long[] nMask;
+        private final long capacity;
+        private long size;
+
+        public Builder(long capacity) {
+            if (capacity > (long) Integer.MAX_VALUE * BASES_PER_WORD) {
+                throw new IllegalArgumentException("Sequence too long to pack: " + capacity);
+            }
+            this.capacity = capacity;
+            this.words = new long[(int) ((capacity + BASES_PER_WORD - 1) / BASES_PER_WORD)];
+        }
+
+        public Builder append(CharSequence chunk) {
+            for (int i = 0; i < chunk.length() && size < capacity; i++, size++) {
+                int code = TwoBitEncoding.encodeBase(chunk.charAt(i));
+                if (code < 0) {
+                    if (nMask == null) nMask = new long[(int) ((capacity + 63) >>> 6)];
+                    nMask[(int) (size >>> 6)] |= 1L << (size & 63);
+                    code = 0;
+                }
+                words[(int) (size >>> 5)] |= (long) code << (62 - 2 * (int) (size & 31));
+            }
+            return this;
+        }
+
+        public PackedSequence build() {
+            return new PackedSequence(words, nMask, size);
+        }
+    }
+}
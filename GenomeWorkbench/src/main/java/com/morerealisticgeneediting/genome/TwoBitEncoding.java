@@ -7,6 +7,8 @@ package com.morerealisticgeneediting.genome;
  */
 public final class TwoBitEncoding {
 
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
     private TwoBitEncoding() {}
 
     /**
@@ -58,4 +60,30 @@ public final class TwoBitEncoding {
         int shift = (index % 4) * 2;
         return (byte) ((packed[packedIndex] >> shift) & 0b11);
     }
+
+    /**
+     * Encodes a single nucleotide character as its 2-bit code.
+     *
+     * @param base The base character (case-insensitive).
+     * @return The 2-bit code (0-3), or -1 if the character is not A, C, G or T.
+     */
+    public static int encodeBase(char base) {
+        return switch (base) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Decodes a 2-bit base code into its nucleotide character.
+     *
+     * @param code The 2-bit code (only the lowest two bits are used).
+     * @return The base character.
+     */
+    public static char decodeBase(byte code) {
+        return BASES[code & 0b11];
+    }
 }
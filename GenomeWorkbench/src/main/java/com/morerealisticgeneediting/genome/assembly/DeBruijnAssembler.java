@@ -0,0 +1,500 @@
+package com.morerealisticgeneediting.genome.assembly;
+
+import com.morerealisticgeneediting.util.LongDoubleCache;
+import com.morerealisticgeneediting.util.TickJobs;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * De novo assembly of reads into unitigs through a compacted de Bruijn graph.
+ *
+ * The pipeline:
+ * - Counting: every canonical k-mer (the smaller of a k-mer and its reverse
+ *   complement, packed 2 bits per base into a long) is counted in a primitive
+ *   open-addressing {@link KmerTable}. In parallel, k-mers are split into partitions
+ *   by hash and each thread counts one partition over all reads, so no table is
+ *   shared or locked.
+ * - Pruning: k-mers seen fewer times than the valley of the count histogram (the dip
+ *   between the error peak at 1 and the true-coverage peak) are sequencing errors and
+ *   are dropped.
+ * - Compaction: maximal non-branching paths are walked out base by base - the graph
+ *   is implicit, a node's neighbours are found by looking up its four possible
+ *   extensions - and each becomes a unitig.
+ * - Tip clipping: short dead-end unitigs with less than half the median coverage are
+ *   left over from errors that survived pruning; their k-mers are removed and the
+ *   graph is compacted again.
+ *
+ * {@link #assemble} runs the whole pipeline at once (use a background thread); a
+ * {@link Job} does the same work in resumable slices for {@link TickJobs}, pulling
+ * reads from an iterator so they can even be generated lazily.
+ *
+ * Educational note: a de Bruijn graph never compares reads with each other, which is
+ * why assemblers like Velvet and SPAdes scale to billions of short reads. Repeats
+ * longer than k are what break unitigs apart, so plasmids and small loci, with few
+ * repeats, usually assemble into one piece.
+ */
+public final class DeBruijnAssembler {
+
+    public static final int DEFAULT_K = 31;
+    public static final int MIN_K = 11;
+    public static final int MAX_K = 31;
+
+    private static final int MAX_HISTOGRAM = 256;
+    private static final int MIN_PARALLEL_READS = 256;
+    // Long reads are counted in windows of this many k-mers so a job slice stays short
+    private static final int COUNT_WINDOW = 4096;
+    private static final double TIP_COVERAGE_RATIO = 0.5;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final int k;
+    private final long kmerMask;
+    private final int shift;          // Bit offset of a k-mer's first base
+    private final int minCount;       // 0 = choose from the count histogram
+
+    /**
+     * A maximal non-branching path.
+     *
+     * @param sequence Unitig bases
+     * @param coverage Mean count of its k-mers
+     */
+    public record Unitig(String sequence, double coverage) {
+        public int length() {
+            return sequence.length();
+        }
+    }
+
+    /**
+     * Assembly result.
+     *
+     * @param k             K-mer length
+     * @param kmers         K-mers counted in the reads
+     * @param distinctKmers Distinct canonical k-mers counted
+     * @param solidKmers    K-mers kept after pruning and tip clipping
+     * @param minCount      Count threshold used for pruning
+     * @param tipsClipped   Dead-end unitigs removed
+     * @param unitigs       Unitigs, longest first
+     */
+    public record Assembly(int k, long kmers, int distinctKmers, int solidKmers, int minCount, int tipsClipped,
+                           List<Unitig> unitigs) {
+
+        public long totalLength() {
+            long total = 0;
+            for (Unitig unitig : unitigs) total += unitig.length();
+            return total;
+        }
+
+        public int longest() {
+            return unitigs.isEmpty() ? 0 : unitigs.get(0).length();
+        }
+
+        /**
+         * Length such that unitigs at least this long hold half of the assembled bases.
+         */
+        public int n50() {
+            long half = totalLength() / 2;
+            long cumulative = 0;
+            for (Unitig unitig : unitigs) {
+                cumulative += unitig.length();
+                if (cumulative >= half) return unitig.length();
+            }
+            return 0;
+        }
+
+        /**
+         * Fraction of a reference's distinct k-mers present in the unitigs (1.0 = every
+         * base reconstructed, sequencing errors corrected).
+         */
+        public double kmerCompleteness(String reference) {
+            DeBruijnAssembler assembler = new DeBruijnAssembler(k, 1);
+            KmerTable assembled = new KmerTable(solidKmers);
+            for (Unitig unitig : unitigs) assembler.forEachKmer(unitig.sequence(), kmer -> assembled.add(kmer, 1));
+            KmerTable expected = new KmerTable(reference.length());
+            assembler.forEachKmer(reference, kmer -> expected.add(kmer, 1));
+            if (expected.size() == 0) return 0;
+            int found = 0;
+            for (int slot = 0; slot < expected.capacity(); slot++) {
+                if (expected.occupied(slot) && assembled.find(expected.kmerAt(slot)) >= 0) found++;
+            }
+            return (double) found / expected.size();
+        }
+    }
+
+    /**
+     * Assembler with the count threshold chosen from each dataset's k-mer histogram.
+     *
+     * @param k K-mer length, odd, {@link #MIN_K} to {@link #MAX_K}
+     */
+    public DeBruijnAssembler(int k) {
+        this(k, 0);
+    }
+
+    /**
+     * @param minCount Minimum count for a k-mer to be kept, or 0 to choose it automatically
+     */
+    public DeBruijnAssembler(int k, int minCount) {
+        // Odd k means no k-mer is its own reverse complement
+        if (k < MIN_K || k > MAX_K || k % 2 == 0) {
+            throw new IllegalArgumentException("k must be odd and " + MIN_K + "-" + MAX_K + ": " + k);
+        }
+        if (minCount < 0) {
+            throw new IllegalArgumentException("Minimum count must not be negative: " + minCount);
+        }
+        this.k = k;
+        this.kmerMask = (1L << (2 * k)) - 1;
+        this.shift = 2 * (k - 1);
+        this.minCount = minCount;
+    }
+
+    // ========== One-shot assembly ==========
+
+    /**
+     * Assemble reads, counting k-mers on all cores. Call it off the main thread.
+     */
+    public Assembly assemble(List<String> reads) {
+        int partitions = reads.size() < MIN_PARALLEL_READS ? 1 : Runtime.getRuntime().availableProcessors();
+        long[] kmers = new long[1];
+        KmerTable[] tables = IntStream.range(0, partitions).parallel()
+            .mapToObj(p -> {
+                KmerTable table = new KmerTable(1 << 16);
+                long counted = 0;
+                for (String read : reads) counted += count(read, table, p, partitions);
+                if (p == 0) kmers[0] = counted;
+                return table;
+            })
+            .toArray(KmerTable[]::new);
+
+        // Partitions hold disjoint k-mers, so merging is just re-inserting
+        KmerTable counts = tables[0];
+        for (int p = 1; p < partitions; p++) counts.addAll(tables[p]);
+
+        Pruned pruned = prune(counts);
+        Compactor compactor = new Compactor(pruned.table);
+        compactor.run(Long.MAX_VALUE);
+        Tips tips = tips(compactor);
+        if (tips.unitigs() > 0) {
+            compactor = new Compactor(pruned.table.without(tips.kmers()));
+            compactor.run(Long.MAX_VALUE);
+        }
+        return compactor.assembly(kmers[0], counts.size(), pruned.minCount, tips.unitigs());
+    }
+
+    /**
+     * A resumable assembly of reads pulled from an iterator.
+     */
+    public Job job(Iterator<String> reads) {
+        return new Job(reads);
+    }
+
+    /**
+     * Assembly in slices: counting, pruning, compaction, tip clipping, compaction.
+     */
+    public final class Job implements TickJobs.Job<Assembly> {
+        private final Iterator<String> reads;
+        private final KmerTable counts = new KmerTable(1 << 16);
+        private long kmers;
+        private String read;
+        private int readOffset;
+        private boolean counted;
+        private int threshold;
+        private Pruned pruned;
+        private Compactor compactor;
+        private boolean compacted;
+        private Tips tips;
+        private int tipsClipped = -1;
+        private Assembly result;
+
+        private Job(Iterator<String> reads) {
+            this.reads = reads;
+        }
+
+        @Override
+        public boolean step(long deadlineNanos) {
+            if (result != null) return true;
+            // Thresholding, pruning, tip finding and tip removal pass over whole tables, so each gets its own slice
+            if (!counted) {
+                while (read != null || reads.hasNext()) {
+                    if (read == null) {
+                        read = reads.next();
+                        readOffset = 0;
+                    }
+                    // Windows overlap by k - 1 bases so every k-mer is counted once
+                    int end = Math.min(read.length(), readOffset + COUNT_WINDOW + k - 1);
+                    kmers += count(read.subSequence(readOffset, end), counts, 0, 1);
+                    readOffset += COUNT_WINDOW;
+                    if (end == read.length()) read = null;
+                    if (System.nanoTime() >= deadlineNanos) return false;
+                }
+                counted = true;
+                return false;
+            }
+            if (threshold == 0) {
+                threshold = threshold(counts);
+                return false;
+            }
+            if (pruned == null) {
+                pruned = new Pruned(counts.retainAtLeast(threshold), threshold);
+                compactor = new Compactor(pruned.table);
+                return false;
+            }
+            if (!compacted) {
+                if (!compactor.run(deadlineNanos)) return false;
+                compacted = true;
+                return false;
+            }
+            if (tipsClipped < 0) {
+                tips = tips(compactor);
+                tipsClipped = tips.unitigs();
+                return false;
+            }
+            if (tips != null) {
+                // Compact again without the clipped tips
+                if (tipsClipped > 0) {
+                    compactor = new Compactor(pruned.table.without(tips.kmers()));
+                    compacted = false;
+                }
+                tips = null;
+                return false;
+            }
+            result = compactor.assembly(kmers, counts.size(), pruned.minCount, tipsClipped);
+            return true;
+        }
+
+        @Override
+        public Assembly result() {
+            return result;
+        }
+    }
+
+    // ========== Counting and pruning ==========
+
+    /**
+     * Count the read's canonical k-mers that fall in one partition.
+     *
+     * @return Number of k-mers in the read (all partitions)
+     */
+    private long count(CharSequence read, KmerTable table, int partition, int partitions) {
+        long[] total = new long[1];
+        forEachKmer(read, kmer -> {
+            total[0]++;
+            if (partitions == 1 || Math.floorMod(LongDoubleCache.mix(kmer) >>> 32, partitions) == partition) {
+                table.add(kmer, 1);
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * Call {@code action} with every canonical k-mer of a sequence; k-mers containing
+     * anything but A, C, G or T are skipped.
+     */
+    void forEachKmer(CharSequence sequence, LongConsumer action) {
+        long forward = 0, reverse = 0;
+        int valid = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            int code = switch (sequence.charAt(i)) {
+                case 'A', 'a' -> 0;
+                case 'C', 'c' -> 1;
+                case 'G', 'g' -> 2;
+                case 'T', 't' -> 3;
+                default -> -1;
+            };
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            forward = (forward << 2 | code) & kmerMask;
+            reverse = reverse >>> 2 | (long) (3 - code) << shift;
+            if (++valid >= k) action.accept(Math.min(forward, reverse));
+        }
+    }
+
+    private record Pruned(KmerTable table, int minCount) {}
+
+    private Pruned prune(KmerTable counts) {
+        int threshold = threshold(counts);
+        return new Pruned(counts.retainAtLeast(threshold), threshold);
+    }
+
+    private int threshold(KmerTable counts) {
+        return minCount > 0 ? minCount : valley(counts.histogram(MAX_HISTOGRAM));
+    }
+
+    /**
+     * First count after which the histogram rises again, or 2 if it never does.
+     */
+    private static int valley(long[] histogram) {
+        for (int c = 2; c < histogram.length - 1; c++) {
+            if (histogram[c] <= histogram[c + 1]) return c;
+        }
+        return 2;
+    }
+
+    // ========== Graph ==========
+
+    private long reverseComplement(long kmer) {
+        long reverse = 0;
+        for (int i = 0; i < k; i++) {
+            reverse = reverse << 2 | (3 - (kmer & 3));
+            kmer >>>= 2;
+        }
+        return reverse;
+    }
+
+    private String decode(long kmer) {
+        char[] bases = new char[k];
+        for (int i = k - 1; i >= 0; i--) {
+            bases[i] = BASES[(int) (kmer & 3)];
+            kmer >>>= 2;
+        }
+        return new String(bases);
+    }
+
+    private record Tips(KmerTable kmers, int unitigs) {}
+
+    /**
+     * Short, weakly covered dead ends: k-mers of unitigs under 2k bases with no
+     * neighbour on one side and less than half the median unitig coverage.
+     */
+    private Tips tips(Compactor compactor) {
+        KmerTable tips = new KmerTable(1024);
+        List<Unitig> unitigs = compactor.unitigs;
+        if (unitigs.size() < 2) return new Tips(tips, 0);
+        int clipped = 0;
+        double[] coverage = unitigs.stream().mapToDouble(Unitig::coverage).sorted().toArray();
+        double median = coverage[coverage.length / 2];
+        for (int u = 0; u < unitigs.size(); u++) {
+            Unitig unitig = unitigs.get(u);
+            if (unitig.length() >= 2 * k || unitig.coverage() >= TIP_COVERAGE_RATIO * median) continue;
+            long first = compactor.firstKmers.get(u);
+            long last = compactor.lastKmers.get(u);
+            boolean deadStart = compactor.degree(reverseComplement(first)) == 0;
+            boolean deadEnd = compactor.degree(last) == 0;
+            if (deadStart != deadEnd) {
+                forEachKmer(unitig.sequence(), kmer -> tips.add(kmer, 1));
+                clipped++;
+            }
+        }
+        return new Tips(tips, clipped);
+    }
+
+    /**
+     * Walks unitigs out of a table of solid k-mers, resumable between slots.
+     */
+    private final class Compactor {
+        final KmerTable table;
+        final boolean[] visited;
+        final List<Unitig> unitigs = new ArrayList<>();
+        final List<Long> firstKmers = new ArrayList<>();
+        final List<Long> lastKmers = new ArrayList<>();
+        int cursor;
+
+        // Coverage summed by the last walk
+        long walkCoverage;
+
+        Compactor(KmerTable table) {
+            this.table = table;
+            this.visited = new boolean[table.capacity()];
+        }
+
+        boolean run(long deadlineNanos) {
+            while (cursor < visited.length) {
+                int slot = cursor++;
+                if (table.occupied(slot) && !visited[slot]) build(slot);
+                if ((cursor & 255) == 0 && System.nanoTime() >= deadlineNanos) return cursor >= visited.length;
+            }
+            return true;
+        }
+
+        private void build(int slot) {
+            long seed = table.kmerAt(slot);
+            visited[slot] = true;
+            long coverage = table.countAt(slot);
+
+            StringBuilder right = new StringBuilder();
+            long last = walk(seed, right);
+            coverage += walkCoverage;
+            StringBuilder left = new StringBuilder();
+            long first = reverseComplement(walk(reverseComplement(seed), left));
+            coverage += walkCoverage;
+
+            StringBuilder sequence = new StringBuilder(left.length() + k + right.length());
+            for (int i = left.length() - 1; i >= 0; i--) sequence.append(complement(left.charAt(i)));
+            sequence.append(decode(seed)).append(right);
+            int kmerCount = sequence.length() - k + 1;
+            unitigs.add(new Unitig(sequence.toString(), (double) coverage / kmerCount));
+            firstKmers.add(first);
+            lastKmers.add(last);
+        }
+
+        /**
+         * Extend from an oriented k-mer while the path does not branch, appending bases.
+         * The reverse complement is rolled along so no k-mer is ever reversed from scratch.
+         *
+         * @return The last k-mer reached
+         */
+        private long walk(long start, StringBuilder out) {
+            walkCoverage = 0;
+            long current = start;
+            long currentReverse = reverseComplement(start);
+            while (true) {
+                long next = -1, nextReverse = -1;
+                int successors = 0;
+                for (int b = 0; b < 4; b++) {
+                    long candidate = (current << 2 | b) & kmerMask;
+                    long candidateReverse = currentReverse >>> 2 | (long) (3 - b) << shift;
+                    if (table.find(Math.min(candidate, candidateReverse)) >= 0) {
+                        successors++;
+                        next = candidate;
+                        nextReverse = candidateReverse;
+                    }
+                }
+                if (successors != 1 || degree(nextReverse, next) != 1) break;
+                int slot = table.find(Math.min(next, nextReverse));
+                if (visited[slot]) break;   // Back at the start of a cycle
+                visited[slot] = true;
+                walkCoverage += table.countAt(slot);
+                out.append(BASES[(int) (next & 3)]);
+                current = next;
+                currentReverse = nextReverse;
+            }
+            return current;
+        }
+
+        /**
+         * Number of k-mers that can follow an oriented k-mer.
+         */
+        int degree(long kmer) {
+            return degree(kmer, reverseComplement(kmer));
+        }
+
+        private int degree(long kmer, long kmerReverse) {
+            int degree = 0;
+            for (int b = 0; b < 4; b++) {
+                long candidate = (kmer << 2 | b) & kmerMask;
+                long candidateReverse = kmerReverse >>> 2 | (long) (3 - b) << shift;
+                if (table.find(Math.min(candidate, candidateReverse)) >= 0) degree++;
+            }
+            return degree;
+        }
+
+        Assembly assembly(long kmers, int distinctKmers, int threshold, int tipsClipped) {
+            List<Unitig> sorted = new ArrayList<>(unitigs);
+            sorted.sort(Comparator.comparingInt(Unitig::length).reversed());
+            return new Assembly(k, kmers, distinctKmers, table.size(), threshold, tipsClipped, List.copyOf(sorted));
+        }
+    }
+
+    private static char complement(char base) {
+        return switch (base) {
+            case 'A' -> 'T';
+            case 'C' -> 'G';
+            case 'G' -> 'C';
+            default -> 'A';
+        };
+    }
+}
@@ -0,0 +1,147 @@
+package com.morerealisticgeneediting.genome.assembly;
+
+import com.morerealisticgeneediting.util.LongDoubleCache;
+
+/**
+ * Open-addressing hash table from packed k-mers to counts, on primitive arrays.
+ *
+ * Keys are stored as {@code kmer + 1} so that 0 can mark an empty slot (a k-mer of up
+ * to 31 bases fits in 62 bits). Linear probing keeps a lookup to one or two cache
+ * lines; the table doubles at 50% load. Not thread-safe.
+ */
+final class KmerTable {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    KmerTable(int expected) {
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expected) * 2 - 1) << 1);
+        keys = new long[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Add {@code count} occurrences of a k-mer.
+     */
+    void add(long kmer, int count) {
+        if (size * 2 >= keys.length) grow();
+        long key = kmer + 1;
+        int slot = slot(key);
+        while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & mask;
+        if (keys[slot] == 0) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] += count;
+    }
+
+    /**
+     * Count of a k-mer, 0 if absent.
+     */
+    int get(long kmer) {
+        int slot = find(kmer);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    /**
+     * Slot holding a k-mer, or -1. Slots stay valid until the table is modified.
+     */
+    int find(long kmer) {
+        long key = kmer + 1;
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    boolean occupied(int slot) {
+        return keys[slot] != 0;
+    }
+
+    long kmerAt(int slot) {
+        return keys[slot] - 1;
+    }
+
+    int countAt(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Add every count of another table into this one.
+     */
+    void addAll(KmerTable other) {
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.keys[slot] != 0) add(other.keys[slot] - 1, other.counts[slot]);
+        }
+    }
+
+    /**
+     * Number of k-mers seen exactly {@code c} times, for c up to {@code maxCount} (the last bin collects the rest).
+     */
+    long[] histogram(int maxCount) {
+        long[] histogram = new long[maxCount + 1];
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) histogram[Math.min(maxCount, counts[slot])]++;
+        }
+        return histogram;
+    }
+
+    /**
+     * Copy of the table without k-mers counted fewer than {@code minCount} times.
+     */
+    KmerTable retainAtLeast(int minCount) {
+        int kept = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0 && counts[slot] >= minCount) kept++;
+        }
+        KmerTable retained = new KmerTable(kept);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0 && counts[slot] >= minCount) retained.add(keys[slot] - 1, counts[slot]);
+        }
+        return retained;
+    }
+
+    /**
+     * Copy of the table without the given k-mers.
+     */
+    KmerTable without(KmerTable removed) {
+        KmerTable kept = new KmerTable(size);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0 && removed.find(keys[slot] - 1) < 0) kept.add(keys[slot] - 1, counts[slot]);
+        }
+        return kept;
+    }
+
+    private int slot(long key) {
+        return (int) LongDoubleCache.mix(key) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == 0) continue;
+            int slot = slot(key);
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            counts[slot] = oldCounts[i];
+        }
+    }
+}
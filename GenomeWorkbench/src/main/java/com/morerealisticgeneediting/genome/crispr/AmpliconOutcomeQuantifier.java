@@ -0,0 +1,813 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.sequencing.SequencingSimulator;
+import com.morerealisticgeneediting.util.LongDoubleCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Measures editing outcomes at a cut site from amplicon reads, in the spirit of
+ * CRISPResso2 (Clement et al. 2019).
+ *
+ * Each read is placed on the expected amplicon and reduced to the edits that touch a
+ * small quantification window around the cut:
+ * - The strand sharing more 12-mers with the amplicon is used, and the diagonal comes
+ *   from the first and last read 12-mers that occur once in the amplicon. When both
+ *   anchors agree the read has no indel and is compared base by base; otherwise it is
+ *   aligned with an affine-gap overlap alignment banded between the two diagonals,
+ *   with a small bonus for gaps that open at the cut, so an indel in a repeat is
+ *   placed where Cas9 actually cut.
+ * - The edits inside the window are packed into 64-bit words and hashed once into an
+ *   allele key, so reads are binned into exact allele classes with one hash lookup.
+ *   Sequencing errors outside the window do not split classes.
+ * - Identical reads are common (every read starts at the same primer), so each worker
+ *   caches read sequence to allele key and aligns each distinct read only once.
+ *
+ * Reads are split into chunks that run in parallel; chunk tallies are merged by allele
+ * key, and all statistics - indel size spectra, frameshift rate, a per-position
+ * modification profile and {@link CrisprEngine.QualityMetrics} - are derived from the
+ * merged allele table at the end.
+ *
+ * Educational note: this is how an edit is actually verified - PCR the target site,
+ * deep-sequence the amplicon and count alleles. Comparing the measured metrics with
+ * {@link CrisprEngine.EditingResult#qualityMetrics()} or a
+ * {@link PopulationEditingSimulator} run closes the loop between prediction and data.
+ * {@code /sequencing quantify} runs it on a stored sequencing run of an edited sample.
+ */
+public final class AmpliconOutcomeQuantifier {
+
+    public static final int DEFAULT_WINDOW = 1;
+    public static final int DEFAULT_FLANK = 150;
+
+    // CRISPResso2's default alignment parameters
+    private static final int MATCH = 5;
+    private static final int MISMATCH = -4;
+    private static final int GAP_OPEN = 20;
+    private static final int GAP_EXTEND = 2;
+    private static final int GAP_INCENTIVE = 1;
+    private static final double MIN_IDENTITY = 0.6;
+
+    private static final int K = 12;
+    private static final long KMER_MASK = (1L << (2 * K)) - 1;
+    private static final int BAND_PADDING = 8;
+    private static final int MAX_INDEL = 256;
+    // Anchored reads with more mismatches than this are realigned in case of an indel pair
+    private static final double MAX_MISMATCH_FRACTION = 0.1;
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int CACHE_LIMIT = 1 << 15;
+    private static final int NEG = Integer.MIN_VALUE / 4;
+
+    // Edit types in packed allele words
+    private static final int SUBSTITUTION = 1, DELETION = 2, INSERTION = 3;
+    private static final char[] CODES = {'A', 'C', 'G', 'T', 'N'};
+
+    // Cached outcomes for reads that are not quantified
+    private static final AlleleKey UNALIGNED = new AlleleKey(new long[]{-1}, -1);
+    private static final AlleleKey NOT_COVERING = new AlleleKey(new long[]{-2}, -2);
+
+    private final char[] amplicon;
+    private final int cut;
+    private final int windowStart;
+    private final int windowEnd;
+    private final long ampliconStart;   // Genome coordinate of the amplicon, or -1 if unknown
+    private final long[] kmerKeys;
+    private final int[] kmerPositions;  // -1 for k-mers that occur more than once
+    private final int kmerMask;
+
+    /**
+     * Outcome of one allele class.
+     *
+     * @param description Edits relative to the cut, e.g. {@code 3D@-2;1I@0:T;S@+1:G}, or {@code WT}
+     * @param reads       Reads carrying it
+     * @param fraction    Fraction of quantified reads
+     * @param netIndel    Inserted minus deleted bases
+     * @param frameshift  Whether the net indel is not a multiple of 3
+     */
+    public record Allele(String description, long reads, double fraction, int netIndel, boolean frameshift) {}
+
+    /**
+     * Measured editing outcomes.
+     *
+     * @param reads                 Reads offered
+     * @param alignedReads          Reads placed on the amplicon
+     * @param quantifiedReads       Aligned reads spanning the quantification window
+     * @param unmodifiedReads       Quantified reads without edits in the window
+     * @param frameshiftReads       Reads whose net indel is not a multiple of 3
+     * @param inFrameReads          Reads with indels adding up to a multiple of 3
+     * @param substitutionOnlyReads Reads with substitutions but no indels in the window
+     * @param deletionSizes         Deletion-only reads per deleted bases (last bin: that many or more)
+     * @param insertionSizes        Insertion-only reads per inserted bases (last bin: that many or more)
+     * @param modificationProfile   Reads with an edit at each amplicon position
+     * @param alleles               Allele classes, most frequent first
+     * @param qualityMetrics        The same metrics {@link CrisprEngine} predicts, from measured data
+     */
+    public record QuantificationResult(
+        long reads,
+        long alignedReads,
+        long quantifiedReads,
+        long unmodifiedReads,
+        long frameshiftReads,
+        long inFrameReads,
+        long substitutionOnlyReads,
+        long[] deletionSizes,
+        long[] insertionSizes,
+        long[] modificationProfile,
+        List<Allele> alleles,
+        CrisprEngine.QualityMetrics qualityMetrics
+    ) {
+        public long modifiedReads() {
+            return quantifiedReads - unmodifiedReads;
+        }
+
+        public double modifiedFraction() {
+            return quantifiedReads == 0 ? 0 : (double) modifiedReads() / quantifiedReads;
+        }
+
+        public double frameshiftFraction() {
+            return quantifiedReads == 0 ? 0 : (double) frameshiftReads / quantifiedReads;
+        }
+    }
+
+    /**
+     * Quantify against an amplicon with the default 1 bp window on each side of the cut.
+     *
+     * @param amplicon    Expected (unedited) amplicon sequence
+     * @param cutPosition Amplicon index of the first base right of the cut
+     */
+    public AmpliconOutcomeQuantifier(String amplicon, int cutPosition) {
+        this(amplicon, cutPosition, DEFAULT_WINDOW, -1);
+    }
+
+    /**
+     * @param windowSize Bases on each side of the cut in which edits are counted
+     */
+    public AmpliconOutcomeQuantifier(String amplicon, int cutPosition, int windowSize) {
+        this(amplicon, cutPosition, windowSize, -1);
+    }
+
+    private AmpliconOutcomeQuantifier(String amplicon, int cutPosition, int windowSize, long ampliconStart) {
+        if (amplicon.length() < 2 * K) {
+            throw new IllegalArgumentException("Amplicon must be at least " + 2 * K + " bp: " + amplicon.length());
+        }
+        if (cutPosition < 1 || cutPosition >= amplicon.length()) {
+            throw new IllegalArgumentException("Cut position outside amplicon: " + cutPosition);
+        }
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("Window size must not be negative: " + windowSize);
+        }
+        this.amplicon = amplicon.toUpperCase().toCharArray();
+        this.cut = cutPosition;
+        this.windowStart = Math.max(0, cutPosition - windowSize);
+        this.windowEnd = Math.min(amplicon.length(), cutPosition + windowSize);
+        this.ampliconStart = ampliconStart;
+
+        // Open-addressing table of amplicon k-mers, with repeated k-mers marked unusable
+        int capacity = Integer.highestOneBit(Math.max(16, amplicon.length() * 2 - 1)) << 1;
+        this.kmerMask = capacity - 1;
+        this.kmerKeys = new long[capacity];
+        this.kmerPositions = new int[capacity];
+        Arrays.fill(kmerKeys, -1);
+        long kmer = 0;
+        int valid = 0;
+        for (int i = 0; i < this.amplicon.length; i++) {
+            int code = code(this.amplicon[i]);
+            if (code > 3) {
+                valid = 0;
+                continue;
+            }
+            kmer = (kmer << 2 | code) & KMER_MASK;
+            if (++valid >= K) {
+                int slot = slot(kmer);
+                while (kmerKeys[slot] != -1 && kmerKeys[slot] != kmer) slot = (slot + 1) & kmerMask;
+                if (kmerKeys[slot] == kmer) {
+                    kmerPositions[slot] = -1;
+                } else {
+                    kmerKeys[slot] = kmer;
+                    kmerPositions[slot] = i - K + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Quantify a target site in a genome: the amplicon is {@code flank} bases on each side
+     * of the site's cut ({@link CrisprEngine.TargetSite#cutPosition()}). Reads from {@link #quantify} are then
+     * prefiltered by reference position, so a whole-genome run can be passed in.
+     */
+    public static AmpliconOutcomeQuantifier forTarget(Genome genome, CrisprEngine.TargetSite site, int flank,
+                                                      int windowSize) {
+        long cutSite = site.cutPosition();
+        long start = Math.max(0, cutSite - flank);
+        long end = Math.min(genome.getTotalLength(), cutSite + flank);
+        return new AmpliconOutcomeQuantifier(genome.getSequence(start, (int) (end - start)),
+            (int) (cutSite - start), windowSize, start);
+    }
+
+    public int cutPosition() {
+        return cut;
+    }
+
+    public int ampliconLength() {
+        return amplicon.length;
+    }
+
+    // ========== Quantification ==========
+
+    /**
+     * Quantify simulated or stored reads. Orientation is detected from the sequence, so
+     * the reads' strand flags are not needed.
+     */
+    public QuantificationResult quantify(List<SequencingSimulator.SequencingRead> reads) {
+        long slack = MAX_INDEL;
+        long from = ampliconStart + windowStart - slack;
+        long to = ampliconStart + windowEnd + slack;
+        IntPredicate overlaps = ampliconStart < 0 ? i -> true : i -> {
+            SequencingSimulator.SequencingRead read = reads.get(i);
+            return read.referencePosition() < to && read.referencePosition() + read.sequence().length() > from;
+        };
+        return quantify(reads.size(), i -> reads.get(i).sequence(), overlaps);
+    }
+
+    /**
+     * Quantify plain read sequences, e.g. from a FASTQ file.
+     */
+    public QuantificationResult quantifySequences(List<String> sequences) {
+        return quantify(sequences.size(), sequences::get, i -> true);
+    }
+
+    private QuantificationResult quantify(int count, IntFunction<String> sequences, IntPredicate overlaps) {
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Tally total = IntStream.range(0, chunks).parallel()
+            .mapToObj(c -> {
+                Tally tally = new Tally();
+                Workspace workspace = new Workspace();
+                Map<String, AlleleKey> cache = new HashMap<>();
+                for (int i = c * CHUNK_SIZE, end = Math.min(count, i + CHUNK_SIZE); i < end; i++) {
+                    if (!overlaps.test(i)) {
+                        tally.add(UNALIGNED);
+                        continue;
+                    }
+                    String sequence = sequences.apply(i);
+                    AlleleKey key = cache.get(sequence);
+                    if (key == null) {
+                        key = classify(sequence, workspace);
+                        if (cache.size() < CACHE_LIMIT) cache.put(sequence, key);
+                    }
+                    tally.add(key);
+                }
+                return tally;
+            })
+            .reduce(new Tally(), Tally::merge);
+        return summarize(count, total);
+    }
+
+    /**
+     * Reduce one read to its allele key (or UNALIGNED / NOT_COVERING).
+     */
+    private AlleleKey classify(String sequence, Workspace workspace) {
+        int n = sequence.length();
+        char[] read = workspace.read(n);
+        sequence.getChars(0, n, read, 0);
+        for (int i = 0; i < n; i++) read[i] = Character.toUpperCase(read[i]);
+
+        // Orientation: the strand sharing more k-mers with the amplicon
+        int forward = votes(read, n);
+        reverseComplement(read, n);
+        if (votes(read, n) <= forward) reverseComplement(read, n);
+
+        int firstDiagonal = anchor(read, n, true);
+        if (firstDiagonal == Integer.MIN_VALUE) return UNALIGNED;
+        int lastDiagonal = anchor(read, n, false);
+        if (Math.abs(lastDiagonal - firstDiagonal) > MAX_INDEL) return UNALIGNED;
+
+        EditList edits = workspace.edits;
+        edits.clear();
+        if (firstDiagonal != lastDiagonal || !compareOnDiagonal(read, n, firstDiagonal, edits)) {
+            edits.clear();
+            if (!align(read, n, Math.min(firstDiagonal, lastDiagonal) - BAND_PADDING,
+                    Math.max(firstDiagonal, lastDiagonal) + BAND_PADDING, workspace)) {
+                return UNALIGNED;
+            }
+        }
+        if (edits.alignedStart > Math.max(0, windowStart - 1)
+                || edits.alignedEnd < Math.min(amplicon.length, windowEnd + 1)) {
+            return NOT_COVERING;
+        }
+        return alleleKey(edits);
+    }
+
+    /**
+     * Number of non-overlapping read k-mers found in the amplicon.
+     */
+    private int votes(char[] read, int n) {
+        int votes = 0;
+        for (int i = 0; i + K <= n; i += K) {
+            long kmer = 0;
+            int b = 0;
+            while (b < K && code(read[i + b]) <= 3) kmer = kmer << 2 | code(read[i + b++]);
+            if (b == K && lookup(kmer) >= 0) votes++;
+        }
+        return votes;
+    }
+
+    /**
+     * Diagonal (amplicon index minus read index) of the first (or last) read k-mer that
+     * occurs exactly once in the amplicon and is confirmed by its neighbour on the same
+     * diagonal, or MIN_VALUE if there is none. The confirmation keeps chance 12-mer hits
+     * from anchoring a read.
+     */
+    private int anchor(char[] read, int n, boolean fromStart) {
+        long kmer = 0;
+        int valid = 0;
+        int previous = Integer.MIN_VALUE;
+        for (int step = 0; step < n; step++) {
+            int i = fromStart ? step : n - 1 - step;
+            int code = code(read[i]);
+            if (code > 3) {
+                valid = 0;
+                previous = Integer.MIN_VALUE;
+                continue;
+            }
+            kmer = fromStart ? (kmer << 2 | code) & KMER_MASK : (kmer >>> 2) | ((long) code << (2 * K - 2));
+            if (++valid < K) continue;
+            int position = lookup(kmer);
+            int diagonal = position < 0 ? Integer.MIN_VALUE : position - (fromStart ? i - K + 1 : i);
+            if (diagonal != Integer.MIN_VALUE && diagonal == previous) return diagonal;
+            previous = diagonal;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Amplicon position of a k-mer that occurs once, or -1.
+     */
+    private int lookup(long kmer) {
+        for (int slot = slot(kmer); kmerKeys[slot] != -1; slot = (slot + 1) & kmerMask) {
+            if (kmerKeys[slot] == kmer) return kmerPositions[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Gapless comparison on one diagonal. Returns false when there are too many mismatches
+     * to trust it (likely a nearby insertion and deletion).
+     */
+    private boolean compareOnDiagonal(char[] read, int n, int diagonal, EditList edits) {
+        int from = Math.max(0, -diagonal);
+        int to = Math.min(n, amplicon.length - diagonal);
+        int limit = (int) Math.ceil((to - from) * MAX_MISMATCH_FRACTION);
+        int mismatches = 0;
+        for (int i = from; i < to; i++) {
+            char base = read[i];
+            if (base != amplicon[i + diagonal] && base != 'N') {
+                if (++mismatches > limit) return false;
+                edits.add(SUBSTITUTION, i + diagonal, 1, read, i);
+            }
+        }
+        edits.alignedStart = from + diagonal;
+        edits.alignedEnd = to + diagonal;
+        return true;
+    }
+
+    /**
+     * Affine-gap overlap alignment in the diagonal band {@code [lowDiagonal, highDiagonal]}:
+     * leading and trailing overhangs of either sequence are free. Edits are collected
+     * into the workspace's edit list.
+     */
+    private boolean align(char[] read, int n, int lowDiagonal, int highDiagonal, Workspace workspace) {
+        int m = amplicon.length;
+        int width = highDiagonal - lowDiagonal + 1;
+        workspace.ensure((n + 1) * width);
+        int[] h = workspace.h, e = workspace.e, f = workspace.f;
+        byte[] trace = workspace.trace;
+
+        int best = NEG, bestI = 0, bestK = 0;
+        for (int i = 0; i <= n; i++) {
+            int row = i * width;
+            for (int k = 0; k < width; k++) {
+                int j = i + lowDiagonal + k;
+                int cell = row + k;
+                if (j < 0 || j > m) {
+                    h[cell] = e[cell] = f[cell] = NEG;
+                    continue;
+                }
+                e[cell] = f[cell] = NEG;
+                trace[cell] = 0;
+                if (i == 0 || j == 0) {
+                    h[cell] = 0;
+                } else {
+                    // Deletion of amplicon base j - 1: from (i, j - 1), same row
+                    int score = NEG;
+                    byte bits = 0;
+                    if (k > 0) {
+                        int open = h[cell - 1] - GAP_OPEN + (j - 1 == cut ? GAP_INCENTIVE : 0);
+                        int extend = e[cell - 1] - GAP_EXTEND;
+                        e[cell] = Math.max(open, extend);
+                        if (extend > open) bits |= 4;
+                    }
+                    // Insertion of read base i - 1 before amplicon base j: from (i - 1, j), next column up
+                    if (k + 1 < width) {
+                        int above = cell - width + 1;
+                        int open = h[above] - GAP_OPEN + (j == cut ? GAP_INCENTIVE : 0);
+                        int extend = f[above] - GAP_EXTEND;
+                        f[cell] = Math.max(open, extend);
+                        if (extend > open) bits |= 8;
+                    }
+                    char base = read[i - 1];
+                    int diagonal = h[cell - width] == NEG ? NEG : h[cell - width]
+                        + (base == 'N' ? 0 : base == amplicon[j - 1] ? MATCH : MISMATCH);
+                    score = diagonal;
+                    bits |= 1;
+                    if (e[cell] > score) {
+                        score = e[cell];
+                        bits = (byte) (bits & ~3 | 2);
+                    }
+                    if (f[cell] > score) {
+                        score = f[cell];
+                        bits = (byte) (bits & ~3 | 3);
+                    }
+                    h[cell] = score;
+                    trace[cell] = bits;
+                }
+                if ((i == n || j == m) && h[cell] > best) {
+                    best = h[cell];
+                    bestI = i;
+                    bestK = k;
+                }
+            }
+        }
+        if (best <= 0) return false;
+
+        // Trace back from the best end cell; edits come out right to left
+        EditList edits = workspace.edits;
+        int i = bestI, k = bestK, j = bestI + lowDiagonal + bestK;
+        edits.alignedEnd = j;
+        int state = 0; // 0 = H, 2 = deletion, 3 = insertion
+        int gapLength = 0;
+        int matches = 0, columns = 0;
+        while (i > 0 && j > 0) {
+            byte bits = trace[i * width + k];
+            if (state == 0) {
+                int source = bits & 3;
+                if (source == 0) break;
+                if (source == 1) {
+                    char base = read[i - 1];
+                    if (base == amplicon[j - 1]) {
+                        matches++;
+                    } else if (base != 'N') {
+                        edits.add(SUBSTITUTION, j - 1, 1, read, i - 1);
+                    }
+                    columns++;
+                    i--;
+                    j--;
+                } else {
+                    state = source;
+                }
+            } else if (state == 2) {
+                gapLength++;
+                columns++;
+                j--;
+                k--;
+                if ((bits & 4) == 0) {
+                    edits.add(DELETION, j, gapLength, null, 0);
+                    gapLength = 0;
+                    state = 0;
+                }
+            } else {
+                gapLength++;
+                columns++;
+                i--;
+                k++;
+                if ((bits & 8) == 0) {
+                    edits.add(INSERTION, j, gapLength, read, i);
+                    gapLength = 0;
+                    state = 0;
+                }
+            }
+        }
+        edits.alignedStart = j;
+        edits.reverse();
+        return columns > 0 && matches >= MIN_IDENTITY * columns;
+    }
+
+    // ========== Allele keys ==========
+
+    /**
+     * Pack the edits that touch the window into words: a header per edit
+     * (type, amplicon position, length) followed by 3-bit base codes for substitutions and insertions.
+     */
+    private AlleleKey alleleKey(EditList edits) {
+        long[] words = new long[edits.words()];
+        int w = 0;
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int x = 0; x < edits.size; x++) {
+            int type = edits.types[x];
+            int position = edits.positions[x];
+            int length = edits.lengths[x];
+            boolean inWindow = switch (type) {
+                case DELETION -> position < windowEnd && position + length > windowStart;
+                case INSERTION -> position >= windowStart && position <= windowEnd;
+                default -> position >= windowStart && position < windowEnd;
+            };
+            if (!inWindow) continue;
+            words[w++] = (long) type << 60 | (long) position << 30 | length;
+            if (type != DELETION) {
+                int offset = edits.baseOffsets[x];
+                for (int b = 0; b < length; b += 21) {
+                    long packed = 0;
+                    for (int c = b; c < Math.min(length, b + 21); c++) {
+                        packed = packed << 3 | code(edits.bases[offset + c]);
+                    }
+                    words[w++] = packed;
+                }
+            }
+        }
+        words = Arrays.copyOf(words, w);
+        for (long word : words) hash = LongDoubleCache.mix(hash ^ word);
+        return new AlleleKey(words, hash);
+    }
+
+    /**
+     * Edits packed into words, with the 64-bit hash computed once.
+     */
+    private record AlleleKey(long[] words, long hash) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof AlleleKey other && hash == other.hash && Arrays.equals(words, other.words);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    // ========== Summary ==========
+
+    private QuantificationResult summarize(int reads, Tally tally) {
+        long aligned = reads - tally.count(UNALIGNED);
+        long quantified = aligned - tally.count(NOT_COVERING);
+        long unmodified = 0, frameshift = 0, inFrame = 0, substitutionOnly = 0, indelReads = 0, indelBases = 0;
+        long[] deletionSizes = new long[CrisprEngine.MAX_DELETION_SIZE + 1];
+        long[] insertionSizes = new long[CrisprEngine.MAX_INSERTION_SIZE + 1];
+        long[] profile = new long[amplicon.length];
+        double sumSquares = 0;
+        List<Allele> alleles = new ArrayList<>();
+
+        for (Map.Entry<AlleleKey, long[]> entry : tally.counts.entrySet()) {
+            AlleleKey key = entry.getKey();
+            if (key.equals(UNALIGNED) || key.equals(NOT_COVERING)) continue;
+            long count = entry.getValue()[0];
+            long[] words = key.words();
+            int deleted = 0, inserted = 0;
+            boolean substituted = false;
+            StringBuilder description = new StringBuilder();
+            for (int w = 0; w < words.length; w++) {
+                int type = (int) (words[w] >>> 60);
+                int position = (int) (words[w] >>> 30 & 0x3FFFFFFF);
+                int length = (int) (words[w] & 0x3FFFFFFF);
+                if (description.length() > 0) description.append(';');
+                int relative = position - cut;
+                String at = relative > 0 ? "@+" + relative : "@" + relative;
+                switch (type) {
+                    case DELETION -> {
+                        deleted += length;
+                        description.append(length).append('D').append(at);
+                        for (int p = position; p < position + length; p++) profile[p] += count;
+                    }
+                    case INSERTION -> {
+                        inserted += length;
+                        description.append(length).append('I').append(at).append(':');
+                        w = appendBases(words, w, length, description);
+                        profile[Math.min(position, amplicon.length - 1)] += count;
+                    }
+                    default -> {
+                        substituted = true;
+                        description.append('S').append(at).append(':');
+                        w = appendBases(words, w, 1, description);
+                        profile[position] += count;
+                    }
+                }
+            }
+            int net = inserted - deleted;
+            if (words.length == 0) {
+                unmodified += count;
+            } else if (deleted + inserted == 0) {
+                substitutionOnly += count;
+            } else {
+                indelReads += count;
+                indelBases += count * (deleted + inserted);
+                if (net % 3 != 0) frameshift += count; else inFrame += count;
+                if (inserted == 0) deletionSizes[Math.min(deleted, deletionSizes.length - 1)] += count;
+                if (deleted == 0) insertionSizes[Math.min(inserted, insertionSizes.length - 1)] += count;
+            }
+            double fraction = quantified == 0 ? 0 : (double) count / quantified;
+            sumSquares += fraction * fraction;
+            alleles.add(new Allele(words.length == 0 ? "WT" : description.toString(), count, fraction,
+                net, net % 3 != 0));
+        }
+        alleles.sort((a, b) -> Long.compare(b.reads(), a.reads()));
+
+        Map<String, Double> distribution = new LinkedHashMap<>();
+        distribution.put("no_edit", fraction(unmodified, quantified));
+        distribution.put("substitution_only", fraction(substitutionOnly, quantified));
+        distribution.put("deletion_1bp", fraction(sum(deletionSizes, 1, 1), quantified));
+        distribution.put("deletion_2-5bp", fraction(sum(deletionSizes, 2, 5), quantified));
+        distribution.put("deletion_6-20bp", fraction(sum(deletionSizes, 6, 20), quantified));
+        distribution.put("deletion_21+bp", fraction(sum(deletionSizes, 21, deletionSizes.length - 1), quantified));
+        distribution.put("insertion_1bp", fraction(sum(insertionSizes, 1, 1), quantified));
+        distribution.put("insertion_2-5bp", fraction(sum(insertionSizes, 2, 5), quantified));
+        distribution.put("insertion_6+bp", fraction(sum(insertionSizes, 6, insertionSizes.length - 1), quantified));
+        distribution.put("complex", fraction(indelReads - sum(deletionSizes, 1, deletionSizes.length - 1)
+            - sum(insertionSizes, 1, insertionSizes.length - 1), quantified));
+
+        CrisprEngine.QualityMetrics metrics = new CrisprEngine.QualityMetrics(
+            fraction(indelReads, quantified),
+            fraction(frameshift, indelReads),
+            indelReads == 0 ? 0 : (int) Math.round((double) indelBases / indelReads),
+            quantified == 0 ? 0 : 1.0 - sumSquares,
+            distribution
+        );
+        return new QuantificationResult(reads, aligned, quantified, unmodified, frameshift, inFrame, substitutionOnly,
+            deletionSizes, insertionSizes, profile, alleles, metrics);
+    }
+
+    private static int appendBases(long[] words, int header, int length, StringBuilder out) {
+        int w = header;
+        for (int b = 0; b < length; b += 21) {
+            long packed = words[++w];
+            int chunk = Math.min(21, length - b);
+            for (int c = chunk - 1; c >= 0; c--) out.append(CODES[(int) (packed >>> (3 * c) & 7)]);
+        }
+        return w;
+    }
+
+    private static double fraction(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    private static long sum(long[] histogram, int from, int to) {
+        long total = 0;
+        for (int i = from; i <= to; i++) total += histogram[i];
+        return total;
+    }
+
+    // ========== Helpers ==========
+
+    private int slot(long kmer) {
+        return (int) LongDoubleCache.mix(kmer) & kmerMask;
+    }
+
+    private static int code(char base) {
+        return switch (base) {
+            case 'A' -> 0;
+            case 'C' -> 1;
+            case 'G' -> 2;
+            case 'T' -> 3;
+            default -> 4;
+        };
+    }
+
+    private static void reverseComplement(char[] bases, int n) {
+        for (int i = 0, j = n - 1; i <= j; i++, j--) {
+            char left = complement(bases[i]);
+            bases[i] = complement(bases[j]);
+            bases[j] = left;
+        }
+    }
+
+    private static char complement(char base) {
+        return switch (base) {
+            case 'A' -> 'T';
+            case 'T' -> 'A';
+            case 'G' -> 'C';
+            case 'C' -> 'G';
+            default -> 'N';
+        };
+    }
+
+    /**
+     * Allele counts of one chunk.
+     */
+    private static final class Tally {
+        final Map<AlleleKey, long[]> counts = new HashMap<>();
+
+        void add(AlleleKey key) {
+            counts.computeIfAbsent(key, k -> new long[1])[0]++;
+        }
+
+        long count(AlleleKey key) {
+            long[] count = counts.get(key);
+            return count == null ? 0 : count[0];
+        }
+
+        Tally merge(Tally other) {
+            Tally merged = new Tally();
+            for (Tally source : new Tally[]{this, other}) {
+                source.counts.forEach((key, count) -> merged.counts.computeIfAbsent(key, k -> new long[1])[0] += count[0]);
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Edits of one read in amplicon order, as parallel arrays.
+     */
+    private static final class EditList {
+        int size;
+        int[] types = new int[16];
+        int[] positions = new int[16];
+        int[] lengths = new int[16];
+        int[] baseOffsets = new int[16];
+        char[] bases = new char[64];
+        int baseCount;
+        int alignedStart;
+        int alignedEnd;
+
+        void clear() {
+            size = 0;
+            baseCount = 0;
+        }
+
+        void add(int type, int position, int length, char[] read, int readOffset) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                baseOffsets = Arrays.copyOf(baseOffsets, size * 2);
+            }
+            types[size] = type;
+            positions[size] = position;
+            lengths[size] = length;
+            baseOffsets[size] = baseCount;
+            if (read != null) {
+                if (baseCount + length > bases.length) bases = Arrays.copyOf(bases, Math.max(bases.length * 2, baseCount + length));
+                System.arraycopy(read, readOffset, bases, baseCount, length);
+                baseCount += length;
+            }
+            size++;
+        }
+
+        /**
+         * Edits are collected right to left; put them in amplicon order.
+         */
+        void reverse() {
+            for (int a = 0, b = size - 1; a < b; a++, b--) {
+                swap(types, a, b);
+                swap(positions, a, b);
+                swap(lengths, a, b);
+                swap(baseOffsets, a, b);
+            }
+        }
+
+        /**
+         * Words needed to pack every edit (an upper bound for the window's edits).
+         */
+        int words() {
+            int words = 0;
+            for (int x = 0; x < size; x++) {
+                words += 1 + (types[x] == DELETION ? 0 : (lengths[x] + 20) / 21);
+            }
+            return words;
+        }
+
+        private static void swap(int[] array, int a, int b) {
+            int t = array[a];
+            array[a] = array[b];
+            array[b] = t;
+        }
+    }
+
+    /**
+     * Per-worker buffers, grown as needed.
+     */
+    private static final class Workspace {
+        char[] read = new char[512];
+        int[] h = new int[0], e = new int[0], f = new int[0];
+        byte[] trace = new byte[0];
+        final EditList edits = new EditList();
+
+        char[] read(int n) {
+            if (read.length < n) read = new char[n];
+            return read;
+        }
+
+        void ensure(int cells) {
+            if (h.length >= cells) return;
+            h = new int[cells];
+            e = new int[cells];
+            f = new int[cells];
+            trace = new byte[cells];
+        }
+    }
+}
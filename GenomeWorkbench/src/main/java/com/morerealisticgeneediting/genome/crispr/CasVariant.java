@@ -0,0 +1,57 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+/**
+ * Cas nuclease presets: PAM motif, spacer length and where the PAM sits.
+ *
+ * Type II nucleases (Cas9) read the PAM immediately 3' of the protospacer and make a
+ * blunt cut 3bp upstream of it. Type V nucleases (Cas12a) read a T-rich PAM 5' of the
+ * protospacer and make a staggered cut towards its distal end.
+ *
+ * Educational note: the PAM is what lets the nuclease tell foreign DNA from the
+ * bacterium's own CRISPR array, which contains the spacer but not the PAM.
+ */
+public enum CasVariant {
+    SPCAS9(CrisprEngine.SPCAS9_PAM, 20, true, 17, "SpCas9 (S. pyogenes)"),
+    SACAS9(CrisprEngine.SACAS9_PAM, 21, true, 18, "SaCas9 (S. aureus)"),
+    CAS12A(CrisprEngine.CPF1_PAM, 20, false, 18, "Cas12a / Cpf1");
+
+    public final String pam;
+    public final int spacerLength;
+    public final boolean pamAtThreePrime;
+    public final int cutOffset;         // Cut position measured from the protospacer's 5' end
+    public final String description;
+
+    CasVariant(String pam, int spacerLength, boolean pamAtThreePrime, int cutOffset, String description) {
+        this.pam = pam;
+        this.spacerLength = spacerLength;
+        this.pamAtThreePrime = pamAtThreePrime;
+        this.cutOffset = cutOffset;
+        this.description = description;
+    }
+
+    /**
+     * Length of the protospacer plus PAM on the genome.
+     */
+    public int footprint() {
+        return spacerLength + pam.length();
+    }
+
+    /**
+     * Distance from the PAM-adjacent end of the protospacer to the cut, in bases.
+     */
+    public int cutFromPam() {
+        return pamAtThreePrime ? spacerLength - cutOffset : cutOffset;
+    }
+
+    /**
+     * Find the preset using a PAM motif.
+     *
+     * @return The variant, or null if no preset uses this PAM
+     */
+    public static CasVariant fromPam(String pam) {
+        for (CasVariant variant : values()) {
+            if (variant.pam.equalsIgnoreCase(pam)) return variant;
+        }
+        return null;
+    }
+}
@@ -2,8 +2,13 @@ package com.morerealisticgeneediting.genome.crispr;
 
 import com.morerealisticgeneediting.data.EditOutcome;
 import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.index.MinimizerIndex;
+import com.morerealisticgeneediting.genome.index.RepeatMask;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
+import java.util.stream.LongStream;
 
 /**
  * CrisprEngine - Simulates CRISPR-Cas9 gene editing with realistic outcomes.
@@ -30,32 +35,113 @@ public class CrisprEngine {
     public static final int PROTOSPACER_LENGTH = 20;
     
     // Editing outcome probabilities (based on literature)
-    private static final double NHEJ_PROBABILITY = 0.85;  // Non-homologous end joining
-    private static final double HDR_PROBABILITY = 0.10;   // Homology-directed repair (with template)
-    private static final double NO_EDIT_PROBABILITY = 0.05;
+    static final double NHEJ_PROBABILITY = 0.85;  // Non-homologous end joining
+    static final double HDR_PROBABILITY = 0.10;   // Homology-directed repair (with template)
+    static final double NO_EDIT_PROBABILITY = 0.05;
     
     // Indel size distribution parameters
-    private static final int MAX_DELETION_SIZE = 30;
-    private static final int MAX_INSERTION_SIZE = 10;
+    static final int MAX_DELETION_SIZE = 30;
+    static final int MAX_INSERTION_SIZE = 10;
+    
+    // Genome-wide off-target search (used when a reference index is available)
+    public static final int OFF_TARGET_MAX_MISMATCHES = 3;
+    private static final double[] OFF_TARGET_MISMATCH_WEIGHT = {1.0, 0.5, 0.15, 0.04};
+    private static final double NAG_PAM_WEIGHT = 0.25;
+    
+    // A protospacer is low complexity when at least this fraction of it is repeat-masked
+    private static final double LOW_COMPLEXITY_MASKED_FRACTION = 0.5;
     
     private final Random random;
     private final long seed;
+    private final GuideScorer guideScorer;
+    private final RepairOutcomePredictor repairPredictor = new RepairOutcomePredictor();
+    private MinimizerIndex referenceIndex;
+    private RepeatMask repeatMask;
+    private OffTargetSearch offTargetSearch;
     
     public CrisprEngine(long seed) {
         this.seed = seed;
         this.random = new Random(seed);
+        this.guideScorer = new GuideScorer(seed);
+    }
+    
+    /**
+     * Use a genome-wide index for off-target risk instead of sequence heuristics.
+     * The index must cover the same coordinates as the genomes passed to {@link #findPamSites}.
+     *
+     * @param referenceIndex The reference index, or null to fall back to heuristics
+     */
+    public void setReferenceIndex(MinimizerIndex referenceIndex) {
+        this.referenceIndex = referenceIndex;
+    }
+    
+    /**
+     * Use a precomputed repeat mask for low-complexity checks instead of rescanning each protospacer.
+     * The mask must cover the same coordinates as the genomes passed to {@link #findPamSites}.
+     *
+     * @param repeatMask The mask, or null to fall back to the dimer heuristic
+     */
+    public void setRepeatMask(RepeatMask repeatMask) {
+        this.repeatMask = repeatMask;
+    }
+    
+    /**
+     * Use exhaustive off-target enumeration (mismatches, bulges and CFD scoring) for
+     * off-target risk. All candidate guides from one call are searched in a single shared
+     * scan. Takes precedence over the reference index for guides of the search's variant.
+     * 
+     * @param offTargetSearch The search engine, or null to disable
+     */
+    public void setOffTargetSearch(OffTargetSearch offTargetSearch) {
+        this.offTargetSearch = offTargetSearch;
     }
     
     /**
      * Represents a potential CRISPR target site.
      */
     public record TargetSite(
-        long position,          // Position of PAM site
-        String protospacer,     // 20bp target sequence
+        long position,          // Forward-strand start of the PAM
+        String protospacer,     // 20bp target sequence, in guide orientation
         String pamSequence,     // PAM sequence (e.g., "NGG")
         double onTargetScore,   // Predicted on-target efficiency (0-1)
-        double offTargetRisk    // Risk of off-target effects (0-1)
-    ) {}
+        double offTargetRisk,   // Risk of off-target effects (0-1)
+        boolean reverse,        // True if the guide targets the reverse strand
+        CasVariant variant      // Nuclease, or null for an unknown PAM (cut like SpCas9)
+    ) {
+        /**
+         * A forward-strand SpCas9 site.
+         */
+        public TargetSite(long position, String protospacer, String pamSequence,
+                          double onTargetScore, double offTargetRisk) {
+            this(position, protospacer, pamSequence, onTargetScore, offTargetRisk, false, CasVariant.SPCAS9);
+        }
+        
+        /**
+         * Forward-strand start of the protospacer.
+         */
+        public long protospacerStart() {
+            return pamDownstream() ? position - protospacer.length() : position + pamSequence.length();
+        }
+        
+        /**
+         * Forward-strand cut site: the break lies between {@code cutPosition() - 1} and {@code cutPosition()}.
+         * SpCas9 cuts 3bp from the PAM on either strand; Cas12a cuts 18bp from it.
+         */
+        public long cutPosition() {
+            int fromPam = (variant == null ? CasVariant.SPCAS9 : variant).cutFromPam();
+            return pamDownstream() ? position - fromPam : position + pamSequence.length() + fromPam;
+        }
+        
+        // True when the PAM lies after the protospacer on the forward strand: a 3' PAM read
+        // on the forward strand, or a 5' PAM read on the reverse strand
+        private boolean pamDownstream() {
+            return variant == null || variant.pamAtThreePrime != reverse;
+        }
+        
+        TargetSite withOffTargetRisk(double risk) {
+            return new TargetSite(position, protospacer, pamSequence, onTargetScore, risk, reverse, variant);
+        }
+    }
     
     /**
      * Represents the result of a CRISPR editing attempt.
@@ -81,7 +167,8 @@ public class CrisprEngine {
     ) {}
     
     /**
-     * Find all valid PAM sites in a genome region.
+     * Find all valid PAM sites in a genome region, on the forward strand.
+     * The protospacer is read 3' of the PAM for Cas12a-style motifs and 5' of it otherwise.
      * 
      * @param genome The target genome
      * @param start Start position for search
@@ -92,30 +179,126 @@ public class CrisprEngine {
     public List<TargetSite> findPamSites(Genome genome, long start, int length, String pamSequence) {
         List<TargetSite> sites = new ArrayList<>();
         String sequence = genome.getSequence(start, length);
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        PamScanner scanner = PamScanner.compile(pamSequence);
+        CasVariant variant = CasVariant.fromPam(pamSequence);
+        boolean batchOffTargets = usesOffTargetSearch(variant, PROTOSPACER_LENGTH);
+        // Cas12a-style PAMs sit 5' of the protospacer, Cas9 PAMs (and unknown motifs) 3' of it
+        boolean pamFirst = variant != null && !variant.pamAtThreePrime;
+        int pamLength = scanner.length();
         
-        // Search for PAM sites
-        for (int i = PROTOSPACER_LENGTH; i < sequence.length() - pamSequence.length(); i++) {
-            String potentialPam = sequence.substring(i, i + pamSequence.length());
+        // Collect PAM sites first, then score all of their protospacers in one batch
+        LongStream.Builder matches = LongStream.builder();
+        if (pamFirst) {
+            scanner.scan(packed, 0, sequence.length() - pamLength - PROTOSPACER_LENGTH + 1, matches);
+        } else {
+            scanner.scan(packed, PROTOSPACER_LENGTH, sequence.length() - pamLength + 1, matches);
+        }
+        long[] pamStarts = matches.build().toArray();
+        
+        long[] protospacers = new long[pamStarts.length];
+        for (int k = 0; k < pamStarts.length; k++) {
+            protospacers[k] = packed.kmer(protospacerOffset(pamStarts[k], pamLength, pamFirst), PROTOSPACER_LENGTH);
+        }
+        double[] onTargetScores = new double[pamStarts.length];
+        guideScorer.scoreBatch(protospacers, PROTOSPACER_LENGTH, pamStarts.length, onTargetScores);
+        
+        // Strings are only built for positions that match
+        for (int k = 0; k < pamStarts.length; k++) {
+            int i = (int) pamStarts[k];
+            String potentialPam = sequence.substring(i, i + pamLength);
             
-            if (matchesPam(potentialPam, pamSequence)) {
-                // Get protospacer (20bp upstream of PAM)
-                String protospacer = sequence.substring(i - PROTOSPACER_LENGTH, i);
-                
-                // Calculate scores
-                double onTargetScore = calculateOnTargetScore(protospacer, potentialPam);
-                double offTargetRisk = calculateOffTargetRisk(protospacer);
-                
-                sites.add(new TargetSite(
-                    start + i,
-                    protospacer,
-                    potentialPam,
-                    onTargetScore,
-                    offTargetRisk
-                ));
-            }
+            // Get protospacer (20bp next to the PAM)
+            int spacerStart = (int) protospacerOffset(i, pamLength, pamFirst);
+            String protospacer = sequence.substring(spacerStart, spacerStart + PROTOSPACER_LENGTH);
+            
+            // Calculate scores
+            double onTargetScore = GuideScorer.withPamBonus(onTargetScores[k], potentialPam);
+            double offTargetRisk = batchOffTargets ? 0 : calculateOffTargetRisk(
+                protospacer, start + spacerStart, false, variant);
+            
+            sites.add(new TargetSite(
+                start + i,
+                protospacer,
+                potentialPam,
+                onTargetScore,
+                offTargetRisk,
+                false,
+                variant
+            ));
+        }
+        
+        return batchOffTargets ? withSearchedOffTargetRisk(sites) : sites;
+    }
+    
+    private static long protospacerOffset(long pamStart, int pamLength, boolean pamFirst) {
+        return pamFirst ? pamStart + pamLength : pamStart - PROTOSPACER_LENGTH;
+    }
+    
+    /**
+     * Look up the best guides near a position in a prebuilt genome-wide library,
+     * without rescanning the genome. Guides are scored exactly as {@link #findPamSites}
+     * scores them, so both rank the same guide the same way.
+     * 
+     * @param library Guide library for the target genome
+     * @param position Position of interest
+     * @param radius Maximum distance between the position and a guide's protospacer start
+     * @param limit Maximum number of guides to return
+     * @return Target sites ordered by descending on-target score
+     */
+    public List<TargetSite> findBestGuides(GuideLibrary library, long position, int radius, int limit) {
+        // The library's stored score lacks this engine's noise, so rescore the whole window
+        List<GuideLibrary.Guide> guides = library.near(position, radius);
+        int spacerLength = library.getVariant().spacerLength;
+        double[] scores = new double[guides.size()];
+        for (int i = 0; i < guides.size(); i++) {
+            GuideLibrary.Guide guide = guides.get(i);
+            scores[i] = GuideScorer.withPamBonus(
+                guideScorer.score(PackedSequence.pack(guide.spacer()), spacerLength), guide.pam());
+        }
+        Integer[] order = new Integer[guides.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        
+        List<TargetSite> sites = new ArrayList<>();
+        boolean batchOffTargets = usesOffTargetSearch(library.getVariant(), spacerLength);
+        for (int k = 0; k < Math.min(limit, order.length); k++) {
+            GuideLibrary.Guide guide = guides.get(order[k]);
+            sites.add(new TargetSite(
+                guide.pamPosition(),
+                guide.spacer(),
+                guide.pam(),
+                scores[order[k]],
+                batchOffTargets ? 0 : calculateOffTargetRisk(guide.spacer(), guide.position(), guide.reverse(), library.getVariant()),
+                guide.reverse(),
+                library.getVariant()
+            ));
         }
         
-        return sites;
+        return batchOffTargets ? withSearchedOffTargetRisk(sites) : sites;
+    }
+    
+    private boolean usesOffTargetSearch(CasVariant variant, int protospacerLength) {
+        return offTargetSearch != null && variant == offTargetSearch.getVariant()
+            && protospacerLength == variant.spacerLength;
+    }
+    
+    /**
+     * Replace the off-target risk of each site with one derived from a single batched
+     * genome-wide search: risk = 1 - exp(-aggregate CFD of all sites except the target).
+     */
+    private List<TargetSite> withSearchedOffTargetRisk(List<TargetSite> sites) {
+        if (sites.isEmpty()) return sites;
+        List<List<OffTargetSearch.Site>> offTargets = offTargetSearch.search(
+            sites.stream().map(TargetSite::protospacer).toList());
+        
+        List<TargetSite> scored = new ArrayList<>(sites.size());
+        for (int i = 0; i < sites.size(); i++) {
+            TargetSite site = sites.get(i);
+            double cfd = OffTargetSearch.aggregateCfd(offTargets.get(i), site.protospacerStart(), site.reverse());
+            scored.add(site.withOffTargetRisk(Math.min(1.0, 1.0 - Math.exp(-cfd))));
+        }
+        return scored;
     }
     
     /**
@@ -130,6 +313,9 @@ public class CrisprEngine {
         List<EditOutcome> allOutcomes = new ArrayList<>();
         Map<String, Double> outcomeDistribution = new HashMap<>();
         
+        // End-joining outcomes depend on the sequence around the cut
+        RepairOutcomePredictor.RepairDistribution repair = predictRepair(genome, targetSite);
+        
         // Determine repair pathway and outcome
         double roll = random.nextDouble();
         String repairPathway;
@@ -158,21 +344,16 @@ public class CrisprEngine {
         } else {
             // NHEJ - error-prone repair leading to indels
             repairPathway = "NHEJ";
-            primaryOutcome = performNhejRepair(targetSite);
+            primaryOutcome = performNhejRepair(targetSite, repair);
             
-            // Generate outcome distribution (typical for NHEJ)
-            outcomeDistribution.put("deletion_1bp", 0.25);
-            outcomeDistribution.put("deletion_2-5bp", 0.30);
-            outcomeDistribution.put("deletion_6-20bp", 0.20);
-            outcomeDistribution.put("insertion_1bp", 0.15);
-            outcomeDistribution.put("insertion_2-5bp", 0.05);
-            outcomeDistribution.put("complex_indel", 0.05);
+            // Predicted outcome distribution for this cut site
+            outcomeDistribution.putAll(repair.toOutcomeDistribution());
         }
         
         allOutcomes.add(primaryOutcome);
         
         // Generate byproducts (mosaic outcomes in a cell population)
-        List<EditOutcome> byproducts = generateByproducts(targetSite, 5);
+        List<EditOutcome> byproducts = generateByproducts(targetSite, repair, 5);
         
         // Check for off-target effects
         boolean hasOffTargetEffects = random.nextDouble() < targetSite.offTargetRisk();
@@ -193,18 +374,40 @@ public class CrisprEngine {
     }
     
     /**
-     * Simulate NHEJ repair - produces insertions or deletions.
+     * Perform CRISPR editing across a population of cells instead of a single outcome,
+     * with indels drawn from the microhomology-aware outcome prediction for the cut site
+     * in {@code genome}. Deterministic for this engine's seed and the target site.
+     * 
+     * @param targetSite The target site for editing
+     * @param hdrTemplate Optional HDR template for precise editing (null for knockout)
+     * @param cells Number of cells to simulate (up to {@link PopulationEditingSimulator#MAX_CELLS})
+     * @return Outcome histograms and population-level quality metrics
+     */
+    public PopulationEditingSimulator.PopulationResult performPopulationEditing(
+            Genome genome, TargetSite targetSite, String hdrTemplate, int cells) {
+        long siteSeed = seed ^ (targetSite.position() * 0x9E3779B97F4A7C15L);
+        return new PopulationEditingSimulator(siteSeed)
+            .simulate(targetSite, hdrTemplate, cells, predictRepair(genome, targetSite));
+    }
+    
+    /**
+     * Predict end-joining outcomes at a target site's cut ({@link TargetSite#cutPosition()}).
+     */
+    public RepairOutcomePredictor.RepairDistribution predictRepair(Genome genome, TargetSite targetSite) {
+        return repairPredictor.predict(genome, targetSite.cutPosition());
+    }
+    
+    /**
+     * Simulate NHEJ repair - produces insertions or deletions drawn from the predicted distribution.
      */
-    private EditOutcome performNhejRepair(TargetSite targetSite) {
-        // NHEJ typically cuts 3bp upstream of PAM
-        long cutSite = targetSite.position() - 3;
+    private EditOutcome performNhejRepair(TargetSite targetSite, RepairOutcomePredictor.RepairDistribution repair) {
+        long cutSite = targetSite.cutPosition();
         
-        // Determine if deletion or insertion
-        boolean isDeletion = random.nextDouble() < 0.75; // Deletions are more common
+        // Positive for deletions, negative for insertions
+        int outcome = repair.sample(random);
         
-        if (isDeletion) {
-            // Generate deletion with realistic size distribution
-            int deletionSize = generateIndelSize(true);
+        if (outcome > 0) {
+            int deletionSize = outcome;
             return new EditOutcome(
                 EditOutcome.Type.DELETION,
                 cutSite,
@@ -213,9 +416,11 @@ public class CrisprEngine {
                 "NHEJ-mediated deletion of " + deletionSize + "bp"
             );
         } else {
-            // Generate insertion
-            int insertionSize = generateIndelSize(false);
-            String insertedSequence = generateRandomSequence(insertionSize);
+            // Single-base insertions usually duplicate the base left of the cut
+            int insertionSize = -outcome;
+            String insertedSequence = insertionSize == 1 && repair.templatedBase() != 'N'
+                ? String.valueOf(repair.templatedBase())
+                : generateRandomSequence(insertionSize);
             return new EditOutcome(
                 EditOutcome.Type.INSERTION,
                 cutSite,
@@ -230,7 +435,7 @@ public class CrisprEngine {
      * Simulate HDR repair - produces precise edits using template.
      */
     private EditOutcome performHdrRepair(TargetSite targetSite, String hdrTemplate) {
-        long cutSite = targetSite.position() - 3;
+        long cutSite = targetSite.cutPosition();
         
         return new EditOutcome(
             EditOutcome.Type.REPLACEMENT,
@@ -244,11 +449,12 @@ public class CrisprEngine {
     /**
      * Generate byproduct outcomes representing population heterogeneity.
      */
-    private List<EditOutcome> generateByproducts(TargetSite targetSite, int count) {
+    private List<EditOutcome> generateByproducts(TargetSite targetSite,
+                                                 RepairOutcomePredictor.RepairDistribution repair, int count) {
         List<EditOutcome> byproducts = new ArrayList<>();
         
         for (int i = 0; i < count; i++) {
-            EditOutcome byproduct = performNhejRepair(targetSite);
+            EditOutcome byproduct = performNhejRepair(targetSite, repair);
             byproducts.add(byproduct);
         }
         
@@ -256,10 +462,10 @@ public class CrisprEngine {
     }
     
     /**
-     * Generate indel size following realistic distribution.
-     * Based on empirical CRISPR data - most indels are small (1-5bp).
+     * Generate indel size following realistic distribution, for when the sequence around
+     * the cut is unknown. Based on empirical CRISPR data - most indels are small (1-5bp).
      */
-    private int generateIndelSize(boolean isDeletion) {
+    static int generateIndelSize(boolean isDeletion, RandomGenerator random) {
         double roll = random.nextDouble();
         int maxSize = isDeletion ? MAX_DELETION_SIZE : MAX_INSERTION_SIZE;
         
@@ -267,90 +473,35 @@ public class CrisprEngine {
             return 1; // 40% are 1bp
         } else if (roll < 0.7) {
             return random.nextInt(4) + 2; // 30% are 2-5bp
-        } else if (roll < 0.9) {
-            return random.nextInt(10) + 6; // 20% are 6-15bp
+        } else if (roll < 0.9 || maxSize <= 15) {
+            return Math.min(maxSize, random.nextInt(10) + 6); // 20% are 6-15bp
         } else {
             return random.nextInt(maxSize - 15) + 16; // 10% are larger
         }
     }
     
     /**
-     * Check if a sequence matches a PAM pattern.
-     * Supports IUPAC ambiguity codes: N=any, R=A/G, Y=C/T, etc.
-     */
-    private boolean matchesPam(String sequence, String pattern) {
-        if (sequence.length() != pattern.length()) return false;
-        
-        for (int i = 0; i < pattern.length(); i++) {
-            char patternChar = pattern.charAt(i);
-            char seqChar = Character.toUpperCase(sequence.charAt(i));
-            
-            if (!matchesIupac(seqChar, patternChar)) {
-                return false;
-            }
-        }
-        return true;
-    }
-    
-    /**
-     * Match a base against an IUPAC ambiguity code.
-     */
-    private boolean matchesIupac(char base, char code) {
-        return switch (code) {
-            case 'N' -> true;
-            case 'R' -> base == 'A' || base == 'G';
-            case 'Y' -> base == 'C' || base == 'T';
-            case 'S' -> base == 'G' || base == 'C';
-            case 'W' -> base == 'A' || base == 'T';
-            case 'K' -> base == 'G' || base == 'T';
-            case 'M' -> base == 'A' || base == 'C';
-            default -> base == code;
-        };
-    }
-    
-    /**
-     * Calculate on-target efficiency score based on sequence features.
-     * Simplified model based on Doench et al. scoring.
+     * Calculate off-target risk, from real genomic loci when a reference index is set
+     * and the nuclease is SpCas9 (the only PAM the locus model weighs).
+     * 
+     * @param protospacer Spacer sequence in guide orientation
+     * @param protospacerStart Forward-strand start of the protospacer
+     * @param reverse True if the guide targets the reverse strand
+     * @param variant The nuclease, or null if the PAM is not a known preset
      */
-    private double calculateOnTargetScore(String protospacer, String pam) {
-        double score = 0.5; // Base score
-        
-        // G at position -1 (adjacent to PAM) increases efficiency
-        if (protospacer.charAt(protospacer.length() - 1) == 'G') {
-            score += 0.1;
-        }
-        
-        // High GC content in seed region (positions 1-12) improves binding
-        String seedRegion = protospacer.substring(0, 12);
-        double gcContent = calculateGcContent(seedRegion);
-        if (gcContent >= 0.4 && gcContent <= 0.7) {
-            score += 0.15;
+    private double calculateOffTargetRisk(String protospacer, long protospacerStart, boolean reverse, CasVariant variant) {
+        if (referenceIndex != null && variant == CasVariant.SPCAS9 && protospacer.length() == PROTOSPACER_LENGTH
+                && protospacer.chars().allMatch(c -> "ACGTacgt".indexOf(c) >= 0)) {
+            return calculateOffTargetRiskFromLoci(protospacer, protospacerStart, reverse);
         }
         
-        // Avoid poly-T runs (can terminate transcription)
-        if (!protospacer.contains("TTTT")) {
-            score += 0.1;
-        }
-        
-        // Perfect PAM match bonus
-        if (pam.equals("AGG") || pam.equals("TGG")) {
-            score += 0.05;
-        }
-        
-        return Math.min(1.0, Math.max(0.0, score + (random.nextDouble() * 0.1)));
-    }
-    
-    /**
-     * Calculate off-target risk based on sequence features.
-     */
-    private double calculateOffTargetRisk(String protospacer) {
         double risk = 0.1; // Base risk
         
         // High similarity sequences increase off-target risk
         // (In real implementations, this would search against a reference genome)
         
         // Low complexity sequences have higher off-target risk
-        if (hasLowComplexity(protospacer)) {
+        if (hasLowComplexity(protospacer, protospacerStart)) {
             risk += 0.2;
         }
         
@@ -366,19 +517,58 @@ public class CrisprEngine {
     }
     
     /**
-     * Calculate GC content of a sequence.
+     * Off-target risk from every locus within {@link #OFF_TARGET_MAX_MISMATCHES} of the guide
+     * that is followed by an NGG (or weaker NAG) PAM. Each locus contributes a weight that
+     * decays with mismatch count; risk = 1 - exp(-sum of weights).
      */
-    private double calculateGcContent(String sequence) {
-        long gcCount = sequence.chars()
-            .filter(c -> c == 'G' || c == 'C' || c == 'g' || c == 'c')
-            .count();
-        return (double) gcCount / sequence.length();
+    private double calculateOffTargetRiskFromLoci(String protospacer, long protospacerStart, boolean reverse) {
+        PackedSequence reference = referenceIndex.getReference();
+        double weight = 0;
+        
+        for (MinimizerIndex.Hit hit : referenceIndex.findMatches(protospacer, OFF_TARGET_MAX_MISMATCHES)) {
+            if (hit.reverse() == reverse && hit.position() == protospacerStart && hit.mismatches() == 0) {
+                continue; // The intended target itself
+            }
+            double pamWeight = pamWeight(reference, hit);
+            if (pamWeight > 0) {
+                weight += OFF_TARGET_MISMATCH_WEIGHT[hit.mismatches()] * pamWeight;
+            }
+        }
+        
+        return Math.min(1.0, 1.0 - Math.exp(-weight));
+    }
+    
+    /**
+     * PAM strength next to a locus: 1.0 for NGG, {@link #NAG_PAM_WEIGHT} for NAG, 0 otherwise.
+     * On the reverse strand the PAM appears upstream as CCN / CTN.
+     */
+    private double pamWeight(PackedSequence reference, MinimizerIndex.Hit hit) {
+        final int a = 0, c = 1, g = 2, t = 3;
+        long p = hit.position();
+        if (!hit.reverse()) {
+            if (p + PROTOSPACER_LENGTH + 3 > reference.length()) return 0;
+            int second = reference.baseAt(p + PROTOSPACER_LENGTH + 1);
+            int third = reference.baseAt(p + PROTOSPACER_LENGTH + 2);
+            if (third != g) return 0;
+            return second == g ? 1.0 : second == a ? NAG_PAM_WEIGHT : 0;
+        }
+        if (p < 3) return 0;
+        int first = reference.baseAt(p - 3);
+        int second = reference.baseAt(p - 2);
+        if (first != c) return 0;
+        return second == c ? 1.0 : second == t ? NAG_PAM_WEIGHT : 0;
     }
     
     /**
-     * Check if sequence has low complexity (repetitive).
+     * Check if sequence has low complexity (repetitive). With a repeat mask this is an
+     * O(1) lookup of the precomputed DUST/tandem-repeat track at the protospacer's locus.
      */
-    private boolean hasLowComplexity(String sequence) {
+    private boolean hasLowComplexity(String sequence, long start) {
+        if (repeatMask != null && start >= 0) {
+            return repeatMask.maskedCount(start, sequence.length())
+                >= sequence.length() * LOW_COMPLEXITY_MASKED_FRACTION;
+        }
+        
         Set<String> dimers = new HashSet<>();
         for (int i = 0; i < sequence.length() - 1; i++) {
             dimers.add(sequence.substring(i, i + 2));
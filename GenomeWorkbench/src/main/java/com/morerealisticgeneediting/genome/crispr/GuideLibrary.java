@@ -0,0 +1,314 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.util.DnaUtils;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Every guide for one Cas variant across a whole reference, on both strands.
+ *
+ * The table is columnar: packed site (position and strand), packed spacer and score
+ * are parallel primitive arrays sorted by position, plus a permutation sorted by
+ * score. "Best guides near X" is a binary search followed by a short scan, and
+ * "best guides overall" is a prefix of the score order, so neither rescans the genome.
+ *
+ * Building splits the reference into chunks that are scanned and scored in parallel;
+ * chunk results are concatenated in order, so the table is sorted without a sort.
+ *
+ * Educational note: genome-scale screening libraries (e.g. Brunello, GeCKO) are
+ * picked from exactly this kind of exhaustive, pre-scored guide table.
+ */
+public final class GuideLibrary {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int FILE_MAGIC = 0x4D52474C; // "MRGL"
+    private static final int FILE_VERSION = 3;
+
+    private final PackedSequence reference;
+    private final CasVariant variant;
+    private final long[] sites;      // protospacer start << 1 | reverse
+    private final long[] spacers;    // packed in guide orientation
+    private final float[] scores;
+    private final int[] scoreOrder;  // indexes sorted by descending score
+
+    /**
+     * A guide from the library.
+     *
+     * @param position    Forward-strand start of the protospacer
+     * @param reverse     True if the guide targets the reverse strand
+     * @param pamPosition Forward-strand start of the PAM
+     * @param spacer      Spacer sequence, 5' to 3' in guide orientation
+     * @param pam         PAM sequence, 5' to 3' on the targeted strand
+     * @param score       Predicted on-target efficiency (0-1)
+     */
+    public record Guide(long position, boolean reverse, long pamPosition, String spacer, String pam, double score) {}
+
+    private GuideLibrary(PackedSequence reference, CasVariant variant,
+                         long[] sites, long[] spacers, float[] scores, int[] scoreOrder) {
+        this.reference = reference;
+        this.variant = variant;
+        this.sites = sites;
+        this.spacers = spacers;
+        this.scores = scores;
+        this.scoreOrder = scoreOrder;
+    }
+
+    // ========== Building ==========
+
+    /**
+     * Enumerate and score every guide in a reference. Parallel and CPU heavy; call it off the main thread.
+     */
+    public static GuideLibrary build(PackedSequence reference, CasVariant variant) {
+        PamScanner forwardPam = PamScanner.compile(variant.pam);
+        PamScanner reversePam = forwardPam.reverseComplement();
+        int chunkCount = (int) ((reference.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        List<ChunkResult> chunks = IntStream.range(0, chunkCount).parallel()
+            .mapToObj(c -> scanChunk(reference, variant, forwardPam, reversePam, (long) c * CHUNK_SIZE))
+            .toList();
+
+        int total = 0;
+        for (ChunkResult chunk : chunks) total += chunk.count;
+        long[] sites = new long[total];
+        long[] spacers = new long[total];
+        float[] scores = new float[total];
+        int offset = 0;
+        for (ChunkResult chunk : chunks) {
+            System.arraycopy(chunk.sites, 0, sites, offset, chunk.count);
+            System.arraycopy(chunk.spacers, 0, spacers, offset, chunk.count);
+            System.arraycopy(chunk.scores, 0, scores, offset, chunk.count);
+            offset += chunk.count;
+        }
+        return new GuideLibrary(reference, variant, sites, spacers, scores, sortByScore(scores));
+    }
+
+    private static final class ChunkResult {
+        long[] sites = new long[1024];
+        long[] spacers = new long[1024];
+        float[] scores;
+        int count;
+
+        void add(long site, long spacer) {
+            if (count == sites.length) {
+                sites = Arrays.copyOf(sites, count * 2);
+                spacers = Arrays.copyOf(spacers, count * 2);
+            }
+            sites[count] = site;
+            spacers[count] = spacer;
+            count++;
+        }
+    }
+
+    private static ChunkResult scanChunk(PackedSequence reference, CasVariant variant,
+                                         PamScanner forwardPam, PamScanner reversePam, long chunkStart) {
+        int spacerLength = variant.spacerLength;
+        int pamLength = forwardPam.length();
+        // Forward-strand PAM offset from the protospacer start, for each strand
+        int forwardOffset = variant.pamAtThreePrime ? spacerLength : -pamLength;
+        int reverseOffset = variant.pamAtThreePrime ? -pamLength : spacerLength;
+
+        ChunkResult result = new ChunkResult();
+        long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, reference.length() - spacerLength + 1);
+        // 32 protospacer starts per step: one PAM word test per strand
+        for (long block = chunkStart; block < chunkEnd; block += PackedSequence.BASES_PER_WORD) {
+            int count = (int) Math.min(PackedSequence.BASES_PER_WORD, chunkEnd - block);
+            long forward = forwardPam.matchWord(reference, block + forwardOffset, count);
+            long reverse = reversePam.matchWord(reference, block + reverseOffset, count);
+            for (long hits = forward | reverse; hits != 0; ) {
+                int slot = Long.numberOfLeadingZeros(hits) >>> 1;
+                long bit = 1L << (62 - 2 * slot);
+                hits &= ~bit;
+                long s = block + slot;
+                if (reference.hasN(s, spacerLength)) continue;
+
+                long spacer = reference.kmer(s, spacerLength);
+                if ((forward & bit) != 0) result.add(s << 1, spacer);
+                if ((reverse & bit) != 0) result.add(s << 1 | 1, PackedSequence.reverseComplement(spacer, spacerLength));
+            }
+        }
+
+        // Same score as CrisprEngine.findPamSites gives a guide, without the per-engine noise
+        result.scores = new float[result.count];
+        GuideScorer.sequenceScoreBatch(result.spacers, spacerLength, result.count, result.scores);
+        for (int i = 0; i < result.count; i++) {
+            long s = result.sites[i] >>> 1;
+            boolean reverse = (result.sites[i] & 1) != 0;
+            long pam = reference.kmer(variant.pamAtThreePrime != reverse ? s + spacerLength : s - pamLength, pamLength);
+            if (reverse) pam = PackedSequence.reverseComplement(pam, pamLength);
+            result.scores[i] = (float) GuideScorer.withPamBonus(result.scores[i], pam, pamLength);
+        }
+        return result;
+    }
+
+    /**
+     * Indexes sorted by descending score (ties by position), via a single primitive sort of packed keys.
+     */
+    private static int[] sortByScore(float[] scores) {
+        long[] keys = new long[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            // Scores are non-negative, so their IEEE bits sort like the values
+            keys[i] = ((long) (Integer.MAX_VALUE - Float.floatToIntBits(scores[i])) << 32) | i;
+        }
+        Arrays.parallelSort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) order[i] = (int) keys[i];
+        return order;
+    }
+
+    // ========== Queries ==========
+
+    public CasVariant getVariant() {
+        return variant;
+    }
+
+    public PackedSequence getReference() {
+        return reference;
+    }
+
+    public int size() {
+        return sites.length;
+    }
+
+    /**
+     * The highest-scoring guides whose protospacer starts within {@code radius} of a position.
+     */
+    public List<Guide> bestNear(long position, int radius, int limit) {
+        int from = firstAtOrAfter(position - radius);
+        int to = firstAtOrAfter(position + radius + 1);
+
+        // Small bounded insertion list; limit is expected to be a handful of guides
+        int[] best = new int[Math.max(0, Math.min(limit, to - from))];
+        int found = 0;
+        for (int i = from; i < to && best.length > 0; i++) {
+            if (found == best.length && scores[i] <= scores[best[found - 1]]) continue;
+            int slot = Math.min(found, best.length - 1);
+            while (slot > 0 && scores[best[slot - 1]] < scores[i]) {
+                best[slot] = best[slot - 1];
+                slot--;
+            }
+            best[slot] = i;
+            if (found < best.length) found++;
+        }
+
+        List<Guide> guides = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) guides.add(guide(best[i]));
+        return guides;
+    }
+
+    /**
+     * Every guide whose protospacer starts within {@code radius} of a position, by position.
+     */
+    public List<Guide> near(long position, int radius) {
+        int from = firstAtOrAfter(position - radius);
+        int to = firstAtOrAfter(position + radius + 1);
+        List<Guide> guides = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) guides.add(guide(i));
+        return guides;
+    }
+
+    /**
+     * The highest-scoring guides in the whole reference.
+     */
+    public List<Guide> best(int limit) {
+        int count = Math.min(limit, scoreOrder.length);
+        List<Guide> guides = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) guides.add(guide(scoreOrder[i]));
+        return guides;
+    }
+
+    /**
+     * Index of the first guide whose protospacer starts at or after a position.
+     */
+    public int firstAtOrAfter(long position) {
+        long key = Math.max(0, position) << 1;
+        int lo = 0, hi = sites.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sites[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Materialise the guide at a table index.
+     */
+    public Guide guide(int index) {
+        long position = sites[index] >>> 1;
+        boolean reverse = (sites[index] & 1) != 0;
+        int spacerLength = variant.spacerLength;
+        int pamLength = variant.pam.length();
+        long pamPosition = variant.pamAtThreePrime != reverse ? position + spacerLength : position - pamLength;
+        String pam = reference.substring(pamPosition, pamLength);
+        return new Guide(position, reverse, pamPosition,
+            PackedSequence.unpack(spacers[index], spacerLength),
+            reverse ? DnaUtils.reverseComplement(pam) : pam,
+            scores[index]);
+    }
+
+    // ========== Persistence ==========
+
+    /**
+     * Write the table to disk. The reference itself is not stored; its fingerprint is.
+     */
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(reference.fingerprint());
+            out.writeLong(reference.length());
+            out.writeInt(variant.ordinal());
+            out.writeInt(sites.length);
+            for (long site : sites) out.writeLong(site);
+            for (long spacer : spacers) out.writeLong(spacer);
+            for (float score : scores) out.writeFloat(score);
+            for (int index : scoreOrder) out.writeInt(index);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Load a table previously written by {@link #save(Path)}.
+     *
+     * @return The library, or null if the file is missing, corrupt or was built for a different sequence or variant
+     */
+    public static GuideLibrary load(Path file, PackedSequence reference, CasVariant variant) {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) return null;
+            if (buffer.getLong() != reference.fingerprint() || buffer.getLong() != reference.length()) return null;
+            if (buffer.getInt() != variant.ordinal()) return null;
+            int count = buffer.getInt();
+            long[] sites = new long[count];
+            long[] spacers = new long[count];
+            float[] scores = new float[count];
+            int[] scoreOrder = new int[count];
+            buffer.asLongBuffer().get(sites);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            buffer.asLongBuffer().get(spacers);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            buffer.asFloatBuffer().get(scores);
+            buffer.position(buffer.position() + count * Float.BYTES);
+            buffer.asIntBuffer().get(scoreOrder);
+            return new GuideLibrary(reference, variant, sites, spacers, scores, scoreOrder);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
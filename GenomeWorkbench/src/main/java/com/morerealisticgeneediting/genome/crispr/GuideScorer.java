@@ -0,0 +1,256 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.util.LongDoubleCache;
+
+/**
+ * On-target efficiency scoring for spacers packed 2 bits per base
+ * (A=00, C=01, G=10, T=11, first base most significant, see
+ * {@link com.morerealisticgeneediting.genome.PackedSequence#pack}).
+ *
+ * Every feature is computed on the packed word without building Strings:
+ * - G at position -1, seed GC and poly-T with XOR/AND/popcount tricks
+ * - Position-specific nucleotides with one table lookup per 4 bases (5 for a 20-mer)
+ *
+ * The static methods are the pure sequence score used for whole-genome libraries.
+ * An instance adds per-guide "biological noise" and memoizes results; the noise comes
+ * from a hash of the guide and the seed, so a guide always gets the same score for a
+ * given seed no matter how often or in which order it is scored.
+ *
+ * Educational note: the position weights are a simplified take on the single-nucleotide
+ * features of Doench et al. (2014) Rule Set 1, where bases next to the PAM matter most.
+ */
+public final class GuideScorer {
+
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final int SEED_LENGTH = 12;
+
+    // Position-specific weights cover the bases closest to the PAM
+    private static final int POSITION_WINDOW = 20;
+    private static final double[][] CHUNK_WEIGHTS = buildChunkWeights();
+
+    private static final double NOISE_AMPLITUDE = 0.1;
+    // AGG and TGG PAMs, packed (A=00, G=10, T=11)
+    private static final long PAM_AGG = 0b00_10_10;
+    private static final long PAM_TGG = 0b11_10_10;
+    private static final double PAM_BONUS = 0.05;
+    private static final int DEFAULT_CACHE_SIZE = 1 << 16;
+    // Cache keys hold the spacer and its length above it, which must stay clear of the sign bit
+    private static final int MAX_CACHED_LENGTH = 29;
+
+    private final long seedHash;
+    private final LongDoubleCache cache;
+
+    /**
+     * @param seed Seed for the per-guide noise term
+     */
+    public GuideScorer(long seed) {
+        this(seed, DEFAULT_CACHE_SIZE);
+    }
+
+    public GuideScorer(long seed, int cacheSize) {
+        this.seedHash = LongDoubleCache.mix(seed ^ 0x9E3779B97F4A7C15L);
+        this.cache = new LongDoubleCache(cacheSize);
+    }
+
+    // ========== Scoring with noise ==========
+
+    /**
+     * Score one packed spacer, including its deterministic noise term. Memoized.
+     *
+     * @return Predicted efficiency (0-1)
+     */
+    public double score(long spacer, int length) {
+        if (length > MAX_CACHED_LENGTH) return scoreUncached(spacer, length);
+        long key = spacer | (long) length << 58;
+        double score = cache.get(key, Double.NaN);
+        if (Double.isNaN(score)) {
+            score = scoreUncached(spacer, length);
+            cache.put(key, score);
+        }
+        return score;
+    }
+
+    /**
+     * Score a batch of spacers of equal length, including noise. Memoized.
+     *
+     * @param spacers Packed spacers
+     * @param length  Spacer length in bases (12-32)
+     * @param count   Number of spacers to score
+     * @param out     Receives the scores (0-1)
+     */
+    public void scoreBatch(long[] spacers, int length, int count, double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = score(spacers[i], length);
+        }
+    }
+
+    /**
+     * Number of memoized guides.
+     */
+    public int cachedCount() {
+        return cache.size();
+    }
+
+    private double scoreUncached(long spacer, int length) {
+        return clamp(sequenceScore(spacer, length) + noise(spacer, length));
+    }
+
+    /**
+     * Noise in [0, {@value #NOISE_AMPLITUDE}), from a hash of the guide and the seed.
+     */
+    private double noise(long spacer, int length) {
+        long hash = LongDoubleCache.mix(spacer * 0xC2B2AE3D27D4EB4FL ^ seedHash ^ length);
+        return (hash >>> 11) * 0x1.0p-53 * NOISE_AMPLITUDE;
+    }
+
+    // ========== Sequence score ==========
+
+    /**
+     * Score a batch of spacers of equal length, without noise.
+     *
+     * @param spacers Packed spacers
+     * @param length  Spacer length in bases (12-32)
+     * @param count   Number of spacers to score
+     * @param out     Receives the scores (0-1)
+     */
+    public static void sequenceScoreBatch(long[] spacers, int length, int count, float[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = (float) sequenceScore(spacers[i], length);
+        }
+    }
+
+    /**
+     * Score one packed spacer from its sequence alone.
+     */
+    public static double sequenceScore(long spacer, int length) {
+        double score = 0.5;
+
+        // G at position -1 (adjacent to PAM) increases efficiency
+        if ((spacer & 0b11) == 0b10) {
+            score += 0.1;
+        }
+
+        // GC content of the seed (first 12 bases) between 40% and 70%
+        int seedGc = gcCount(spacer >>> (2 * (length - SEED_LENGTH)), SEED_LENGTH);
+        if (seedGc >= 0.4 * SEED_LENGTH && seedGc <= 0.7 * SEED_LENGTH) {
+            score += 0.15;
+        }
+
+        // Avoid poly-T runs (can terminate Pol III transcription)
+        if (!hasRun(spacer, length, 0b11, 4)) {
+            score += 0.1;
+        }
+
+        // Position-specific nucleotides near the PAM
+        if (length >= POSITION_WINDOW) {
+            score += positionScore(spacer);
+        }
+
+        return clamp(score);
+    }
+
+    /**
+     * Add the PAM contribution to an on-target score: AGG and TGG cut slightly better.
+     * Simplified model based on Doench et al. scoring.
+     *
+     * @param pam PAM sequence, 5' to 3' on the targeted strand
+     */
+    public static double withPamBonus(double score, String pam) {
+        if (pam.equals("AGG") || pam.equals("TGG")) {
+            score += PAM_BONUS;
+        }
+        return clamp(score);
+    }
+
+    /**
+     * {@link #withPamBonus(double, String)} for a PAM packed 2 bits per base.
+     */
+    public static double withPamBonus(double score, long pam, int pamLength) {
+        if (pamLength == 3 && (pam == PAM_AGG || pam == PAM_TGG)) {
+            score += PAM_BONUS;
+        }
+        return clamp(score);
+    }
+
+    private static double clamp(double score) {
+        return Math.min(1.0, Math.max(0.0, score));
+    }
+
+    // ========== Position weights ==========
+
+    /**
+     * Sum of position-specific weights over the {@value #POSITION_WINDOW} PAM-proximal
+     * bases. Those are the low bits of the packed spacer, so each byte (4 bases) indexes
+     * a precomputed table of its combined weight.
+     */
+    static double positionScore(long spacer) {
+        double score = 0;
+        for (int chunk = 0; chunk < CHUNK_WEIGHTS.length; chunk++) {
+            score += CHUNK_WEIGHTS[chunk][(int) (spacer >>> (8 * chunk)) & 0xFF];
+        }
+        return score;
+    }
+
+    /**
+     * Weight of each base (A, C, G, T) by distance from the PAM (0 = position -1).
+     * G at -1 is already rewarded by its own rule.
+     */
+    private static double[][] positionWeights() {
+        double[][] weights = new double[POSITION_WINDOW][4];
+        weights[0] = new double[] {0, -0.05, 0, -0.03};     // C/T right next to the PAM
+        weights[1] = new double[] {0, 0, 0.02, -0.02};
+        weights[2] = new double[] {0, 0.02, 0, -0.02};
+        weights[3] = new double[] {0.01, 0.02, 0, -0.01};
+        weights[4] = new double[] {0, -0.03, 0.02, 0};      // Position 16
+        weights[6] = new double[] {0.01, 0, 0, -0.01};
+        weights[9] = new double[] {0.02, 0, 0, 0};          // A at position 11
+        weights[12] = new double[] {0, 0, -0.01, 0.01};
+        weights[17] = new double[] {0, 0.02, 0, 0};         // C at position 3
+        weights[18] = new double[] {0, 0, 0.01, -0.01};
+        return weights;
+    }
+
+    private static double[][] buildChunkWeights() {
+        double[][] weights = positionWeights();
+        double[][] chunks = new double[(POSITION_WINDOW + 3) / 4][256];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            for (int value = 0; value < 256; value++) {
+                double sum = 0;
+                for (int j = 0; j < 4; j++) {
+                    int distance = 4 * chunk + j;
+                    if (distance < POSITION_WINDOW) sum += weights[distance][(value >>> (2 * j)) & 0b11];
+                }
+                chunks[chunk][value] = sum;
+            }
+        }
+        return chunks;
+    }
+
+    // ========== Bit tricks ==========
+
+    /**
+     * Number of G/C bases among the low {@code length} bases. G (10) and C (01) are
+     * exactly the codes whose two bits differ.
+     */
+    static int gcCount(long packed, int length) {
+        long gc = (packed ^ (packed >>> 1)) & LOW_BITS;
+        return Long.bitCount(gc & lowBaseMask(length));
+    }
+
+    /**
+     * Check for {@code run} consecutive copies of {@code base} among the low {@code length} bases.
+     */
+    static boolean hasRun(long packed, int length, int base, int run) {
+        long matchesBase = ~(packed ^ (base * LOW_BITS));   // both bits set where the base matches
+        long hits = matchesBase & (matchesBase >>> 1) & LOW_BITS & lowBaseMask(length);
+        long runs = hits;
+        for (int i = 1; i < run; i++) {
+            runs &= hits >>> (2 * i);
+        }
+        return runs != 0;
+    }
+
+    private static long lowBaseMask(int length) {
+        return length >= 32 ? -1L : (1L << (2 * length)) - 1;
+    }
+}
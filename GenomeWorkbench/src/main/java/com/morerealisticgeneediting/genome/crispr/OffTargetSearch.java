@@ -0,0 +1,435 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Genome-wide off-target enumeration for a batch of guides, in the style of Cas-OFFinder.
+ *
+ * The reference is scanned once per batch, PAM first: every position carrying a
+ * (relaxed) PAM on either strand is a candidate, and the protospacer windows next to
+ * it are extracted once and compared against every guide in the batch with packed
+ * XOR/popcount. Sites within {@code maxMismatches} are reported directly; when bulges
+ * are allowed, candidates that pass a pigeonhole filter are aligned with a small
+ * dynamic program over (guide position, shift, bulges used).
+ *
+ * Each site is scored with a CFD-style (Cutting Frequency Determination) model:
+ * the product of per-position, per-mismatch-type activities, a PAM activity and a
+ * per-bulge penalty. The tables approximate the shape of the published SpCas9 CFD
+ * matrix (Doench et al. 2016): PAM-distal mismatches are tolerated, seed mismatches
+ * are not, and rG:dT wobbles are the mildest.
+ *
+ * Educational note: the aggregate of these scores over all sites (the "specificity
+ * score" in guide design tools) is what makes one guide safer than another with the
+ * same on-target efficiency.
+ */
+public final class OffTargetSearch {
+
+    public static final int DEFAULT_MAX_MISMATCHES = 4;
+    public static final int DEFAULT_MAX_BULGES = 1;
+    public static final int MAX_BULGES = 2;   // Two bulges filter far less well and cost several times more
+
+    // SpCas9 tolerates NAG (and weakly NGA) PAMs; searching NRG catches the important ones
+    private static final String SPCAS9_SEARCH_PAM = "NRG";
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final int INF = Integer.MAX_VALUE / 2;
+    private static final byte FROM_MATCH = 0, FROM_DNA_BULGE = 1, FROM_RNA_BULGE = 2;
+
+    // ========== CFD tables ==========
+
+    // Activity retained by a mismatch, by distance from the PAM (index 0 = PAM-adjacent, CFD position 20)
+    private static final double[] POSITION_ACTIVITY = {
+        0.30, 0.25, 0.25, 0.20, 0.20, 0.20, 0.30, 0.35, 0.45, 0.45,
+        0.50, 0.55, 0.60, 0.60, 0.65, 0.65, 0.65, 0.70, 0.75, 0.80
+    };
+
+    // Relative tolerance of each mismatch type, [guide base][protospacer base] (A, C, G, T).
+    // rG:dT (guide G opposite protospacer A) and rU:dG (guide T opposite protospacer C) are wobbles.
+    private static final double[][] TYPE_FACTOR = {
+        {1.0, 0.9, 0.6, 0.8},
+        {0.8, 1.0, 0.7, 0.9},
+        {1.4, 0.7, 1.0, 0.8},
+        {0.9, 1.2, 0.8, 1.0}
+    };
+
+    // SpCas9 PAM activity by [second base][third base] of NXX
+    private static final double[][] SPCAS9_PAM_ACTIVITY = {
+        {0.0, 0.0, 0.259, 0.0},
+        {0.0, 0.0, 0.107, 0.0},
+        {0.069, 0.022, 1.0, 0.016},
+        {0.0, 0.0, 0.039, 0.0}
+    };
+
+    private static final double BULGE_ACTIVITY = 0.25;
+
+    // [distance from PAM][guide base][protospacer base], precomputed once
+    private static final double[][][] MISMATCH_ACTIVITY = new double[PackedSequence.BASES_PER_WORD][4][4];
+
+    static {
+        for (int p = 0; p < PackedSequence.BASES_PER_WORD; p++) {
+            double position = POSITION_ACTIVITY[Math.min(p, POSITION_ACTIVITY.length - 1)];
+            for (int g = 0; g < 4; g++) {
+                for (int x = 0; x < 4; x++) {
+                    MISMATCH_ACTIVITY[p][g][x] = g == x ? 1.0 : Math.min(1.0, position * TYPE_FACTOR[g][x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * An off-target site for one guide.
+     *
+     * @param guide      Index of the guide in the searched batch
+     * @param position   Forward-strand start of the genomic protospacer (PAM excluded)
+     * @param length     Genomic protospacer length (spacer length plus DNA bulges minus RNA bulges)
+     * @param reverse    True if the site is on the reverse strand
+     * @param mismatches Number of mismatched positions
+     * @param dnaBulges  Extra genomic bases not paired with the guide
+     * @param rnaBulges  Guide bases not paired with the genome
+     * @param cfd        CFD-style cleavage activity relative to a perfect NGG site (0-1)
+     */
+    public record Site(int guide, long position, int length, boolean reverse,
+                       int mismatches, int dnaBulges, int rnaBulges, double cfd) {
+        public boolean isPerfectMatch() {
+            return mismatches == 0 && dnaBulges == 0 && rnaBulges == 0;
+        }
+    }
+
+    private final PackedSequence reference;
+    private final CasVariant variant;
+    private final int maxMismatches;
+    private final int maxBulges;
+    private final PamScanner forwardPam;
+    private final PamScanner reversePam;
+
+    public OffTargetSearch(PackedSequence reference, CasVariant variant) {
+        this(reference, variant, DEFAULT_MAX_MISMATCHES, DEFAULT_MAX_BULGES);
+    }
+
+    /**
+     * @param reference     Packed reference to scan
+     * @param variant       Nuclease whose PAM anchors candidate sites
+     * @param maxMismatches Maximum mismatches per site
+     * @param maxBulges     Maximum DNA plus RNA bulges per site (0-2)
+     */
+    public OffTargetSearch(PackedSequence reference, CasVariant variant, int maxMismatches, int maxBulges) {
+        if (maxMismatches < 0 || maxBulges < 0 || maxBulges > MAX_BULGES) {
+            throw new IllegalArgumentException("Unsupported search limits: " + maxMismatches + " mismatches, " + maxBulges + " bulges");
+        }
+        this.reference = reference;
+        this.variant = variant;
+        this.maxMismatches = maxMismatches;
+        this.maxBulges = maxBulges;
+        this.forwardPam = PamScanner.compile(variant == CasVariant.SPCAS9 ? SPCAS9_SEARCH_PAM : variant.pam);
+        this.reversePam = forwardPam.reverseComplement();
+    }
+
+    public CasVariant getVariant() {
+        return variant;
+    }
+
+    public PackedSequence getReference() {
+        return reference;
+    }
+
+    // ========== Searching ==========
+
+    /**
+     * Enumerate off-target sites for a batch of guides in one shared, parallel scan.
+     * CPU heavy for large references; call it off the main thread.
+     *
+     * @param spacers Spacers in guide orientation, each {@link CasVariant#spacerLength} long.
+     *                Spacers with other lengths or non-ACGT bases get no sites.
+     * @return For each guide, its sites ordered by position (including the on-target site itself)
+     */
+    public List<List<Site>> search(List<String> spacers) {
+        int spacerLength = variant.spacerLength;
+        long[] guides = new long[spacers.size()];
+        boolean[] valid = new boolean[spacers.size()];
+        for (int g = 0; g < guides.length; g++) {
+            String spacer = spacers.get(g).toUpperCase();
+            if (spacer.length() != spacerLength || !spacer.chars().allMatch(c -> "ACGT".indexOf(c) >= 0)) continue;
+            guides[g] = toProximalLast(PackedSequence.pack(spacer), spacerLength);
+            valid[g] = true;
+        }
+
+        int chunkCount = (int) ((reference.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        List<List<Site>> chunks = IntStream.range(0, chunkCount).parallel()
+            .mapToObj(c -> new Scanner(guides, valid).scan((long) c * CHUNK_SIZE))
+            .toList();
+
+        List<List<Site>> results = new ArrayList<>(guides.length);
+        for (int g = 0; g < guides.length; g++) results.add(new ArrayList<>());
+        for (List<Site> chunk : chunks) {
+            for (Site site : chunk) results.get(site.guide()).add(site);
+        }
+        return results;
+    }
+
+    /**
+     * Sum of CFD activities over a guide's sites, leaving out its intended target.
+     */
+    public static double aggregateCfd(List<Site> sites, long onTargetPosition, boolean onTargetReverse) {
+        double sum = 0;
+        for (Site site : sites) {
+            if (site.isPerfectMatch() && site.position() == onTargetPosition && site.reverse() == onTargetReverse) continue;
+            sum += site.cfd();
+        }
+        return sum;
+    }
+
+    /**
+     * Reorder a packed spacer so that its PAM-proximal base is the least significant,
+     * which lets one alignment routine serve both 3' (Cas9) and 5' (Cas12a) PAMs.
+     */
+    private long toProximalLast(long packed, int length) {
+        return variant.pamAtThreePrime ? packed : reverse(packed, length);
+    }
+
+    private static long reverse(long packed, int length) {
+        return PackedSequence.reverseComplement(~packed, length);
+    }
+
+    private static long mismatchBits(long x, long baseMask) {
+        return (x | (x >>> 1)) & baseMask;
+    }
+
+    /**
+     * Per-chunk scan state. Window and DP buffers are reused for every site in the chunk.
+     */
+    private final class Scanner {
+        private final long[] guides;
+        private final boolean[] valid;
+        private final int length = variant.spacerLength;
+        private final int pamLength = forwardPam.length();
+        private final int shifts = 2 * maxBulges + 1;
+        private final int bulgeStates = maxBulges + 1;
+        private final long baseMask;
+        private final long[] segmentMasks;
+        private final long[] windows = new long[shifts];
+        private final boolean[] windowValid = new boolean[shifts];
+        private final long[] shiftMismatches = new long[shifts];
+        private final int[] cost;
+        private final byte[] from;
+        private final List<Site> sites = new ArrayList<>();
+
+        Scanner(long[] guides, boolean[] valid) {
+            this.guides = guides;
+            this.valid = valid;
+            this.baseMask = LOW_BITS & (length >= 32 ? -1L : (1L << (2 * length)) - 1);
+            this.cost = new int[(length + 1) * shifts * bulgeStates];
+            this.from = new byte[cost.length];
+
+            // Split guide positions into maxBulges + 1 segments for the pigeonhole filter
+            this.segmentMasks = new long[maxBulges + 1];
+            for (int p = 0; p < length; p++) {
+                segmentMasks[p * segmentMasks.length / length] |= 1L << (2 * p);
+            }
+        }
+
+        List<Site> scan(long chunkStart) {
+            long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, reference.length());
+            for (long block = chunkStart; block < chunkEnd; block += PackedSequence.BASES_PER_WORD) {
+                int count = (int) Math.min(PackedSequence.BASES_PER_WORD, chunkEnd - block);
+                long forward = forwardPam.matchWord(reference, block, count);
+                long reverse = reversePam.matchWord(reference, block, count);
+                for (long hits = forward | reverse; hits != 0; ) {
+                    int slot = Long.numberOfLeadingZeros(hits) >>> 1;
+                    long bit = 1L << (62 - 2 * slot);
+                    hits &= ~bit;
+                    if ((forward & bit) != 0) scanSite(block + slot, false);
+                    if ((reverse & bit) != 0) scanSite(block + slot, true);
+                }
+            }
+            return sites;
+        }
+
+        /**
+         * Compare every guide against the windows next to the PAM at {@code pamStart}.
+         */
+        private void scanSite(long pamStart, boolean reverse) {
+            // Protospacer lies left of the PAM for 3' PAMs on the forward strand and 5' PAMs on the reverse
+            boolean leftOfPam = variant.pamAtThreePrime != reverse;
+            boolean anyValid = false;
+            for (int si = 0; si < shifts; si++) {
+                int shift = si - maxBulges;
+                long start = leftOfPam ? pamStart - length - shift : pamStart + pamLength + shift;
+                windowValid[si] = start >= 0 && start + length <= reference.length() && !reference.hasN(start, length);
+                if (!windowValid[si]) continue;
+                anyValid = true;
+                long kmer = reference.kmer(start, length);
+                // Orient so the guide-strand, PAM-proximal-last base order matches the guides
+                if (variant.pamAtThreePrime) {
+                    windows[si] = reverse ? PackedSequence.reverseComplement(kmer, length) : kmer;
+                } else {
+                    windows[si] = reverse ? ~kmer & ((1L << (2 * length)) - 1) : reverse(kmer, length);
+                }
+            }
+            if (!anyValid) return;
+
+            double pamActivity = pamActivity(pamStart, reverse);
+            int center = maxBulges;
+            for (int g = 0; g < guides.length; g++) {
+                if (!valid[g]) continue;
+                long guide = guides[g];
+                long direct = windowValid[center] ? mismatchBits(guide ^ windows[center], baseMask) : baseMask;
+                int mismatches = Long.bitCount(direct);
+                if (mismatches <= maxMismatches) {
+                    double cfd = pamActivity * mismatchActivity(guide, windows[center], direct);
+                    long position = leftOfPam ? pamStart - length : pamStart + pamLength;
+                    sites.add(new Site(g, position, length, reverse, mismatches, 0, 0, cfd));
+                } else if (maxBulges > 0 && passesBulgeFilter(guide)) {
+                    alignWithBulges(g, guide, pamStart, reverse, leftOfPam, pamActivity);
+                }
+            }
+        }
+
+        private double pamActivity(long pamStart, boolean reverse) {
+            if (variant != CasVariant.SPCAS9) return 1.0;
+            long pam = reference.kmer(pamStart, pamLength);
+            if (reverse) pam = PackedSequence.reverseComplement(pam, pamLength);
+            return SPCAS9_PAM_ACTIVITY[(int) (pam >>> 2) & 3][(int) pam & 3];
+        }
+
+        private double mismatchActivity(long guide, long window, long mismatches) {
+            double activity = 1.0;
+            while (mismatches != 0) {
+                int p = Long.numberOfTrailingZeros(mismatches) >>> 1;
+                activity *= MISMATCH_ACTIVITY[p][(int) (guide >>> (2 * p)) & 3][(int) (window >>> (2 * p)) & 3];
+                mismatches &= mismatches - 1;
+            }
+            return activity;
+        }
+
+        /**
+         * Two necessary conditions for a bulged alignment within the mismatch limit.
+         *
+         * With at most two bulges the shift never changes sign, so every paired guide base
+         * aligns at one of the shifts 0..b or one of -b..0; bases mismatched at all shifts
+         * on a side are mismatched in any alignment on that side, less the guide bases an
+         * RNA bulge leaves unpaired. And at least one of b + 1 guide segments contains no
+         * bulge, so it aligns at a single shift and alone must be within the limit.
+         */
+        private boolean passesBulgeFilter(long guide) {
+            long raised = baseMask, lowered = baseMask;
+            for (int si = 0; si < shifts; si++) {
+                shiftMismatches[si] = windowValid[si] ? mismatchBits(guide ^ windows[si], baseMask) : baseMask;
+                if (si >= maxBulges) raised &= shiftMismatches[si];
+                if (si <= maxBulges) lowered &= shiftMismatches[si];
+            }
+            // Raising the shift then lowering it back costs one RNA bulge per two bulges
+            if (Long.bitCount(raised) - maxBulges / 2 > maxMismatches
+                    && Long.bitCount(lowered) - maxBulges > maxMismatches) {
+                return false;
+            }
+            for (long segment : segmentMasks) {
+                for (int si = 0; si < shifts; si++) {
+                    if (windowValid[si] && Long.bitCount(shiftMismatches[si] & segment) <= maxMismatches) return true;
+                }
+            }
+            return false;
+        }
+
+        private int index(int p, int si, int u) {
+            return (p * shifts + si) * bulgeStates + u;
+        }
+
+        /**
+         * Banded alignment from the PAM outwards. Guide position p pairs with genome offset
+         * p + shift; a DNA bulge raises the shift (genome base skipped), an RNA bulge lowers
+         * it (guide base skipped). Bulges are not placed at the PAM-adjacent base or past the ends.
+         */
+        private void alignWithBulges(int g, long guide, long pamStart, boolean reverse, boolean leftOfPam, double pamActivity) {
+            Arrays.fill(cost, INF);
+            cost[index(0, maxBulges, 0)] = 0;
+
+            for (int p = 0; p <= length; p++) {
+                boolean alive = false;
+                if (p >= 1 && p < length) {
+                    for (int si = 0; si + 1 < shifts; si++) {
+                        for (int u = 0; u + 1 < bulgeStates; u++) {
+                            int c = cost[index(p, si, u)];
+                            int next = index(p, si + 1, u + 1);
+                            if (c < cost[next]) {
+                                cost[next] = c;
+                                from[next] = FROM_DNA_BULGE;
+                            }
+                        }
+                    }
+                }
+                if (p == length) break;
+
+                for (int si = 0; si < shifts; si++) {
+                    for (int u = 0; u < bulgeStates; u++) {
+                        int c = cost[index(p, si, u)];
+                        if (c > maxMismatches) continue;
+                        alive = true;
+                        if (windowValid[si]) {
+                            int nc = c + (int) (shiftMismatches[si] >>> (2 * p) & 1);
+                            int next = index(p + 1, si, u);
+                            if (nc <= maxMismatches && nc < cost[next]) {
+                                cost[next] = nc;
+                                from[next] = FROM_MATCH;
+                            }
+                        }
+                        if (p >= 1 && p <= length - 2 && si > 0 && u + 1 < bulgeStates) {
+                            int next = index(p + 1, si - 1, u + 1);
+                            if (c < cost[next]) {
+                                cost[next] = c;
+                                from[next] = FROM_RNA_BULGE;
+                            }
+                        }
+                    }
+                }
+                if (!alive) return;
+            }
+
+            // Prefer the fewest bulges, then the fewest mismatches
+            int bestShift = -1, bestBulges = -1, bestCost = INF;
+            for (int u = 1; u < bulgeStates && bestShift < 0; u++) {
+                for (int si = 0; si < shifts; si++) {
+                    int c = cost[index(length, si, u)];
+                    if (c <= maxMismatches && c < bestCost) {
+                        bestCost = c;
+                        bestShift = si;
+                        bestBulges = u;
+                    }
+                }
+            }
+            if (bestShift < 0) return;
+
+            // Trace back to score the alignment
+            double activity = pamActivity;
+            int dnaBulges = 0, rnaBulges = 0;
+            int p = length, si = bestShift, u = bestBulges;
+            while (p > 0 || u > 0) {
+                byte step = from[index(p, si, u)];
+                if (step == FROM_MATCH) {
+                    p--;
+                    int guideBase = (int) (guide >>> (2 * p)) & 3;
+                    int genomeBase = (int) (windows[si] >>> (2 * p)) & 3;
+                    activity *= MISMATCH_ACTIVITY[p][guideBase][genomeBase];
+                } else if (step == FROM_DNA_BULGE) {
+                    si--;
+                    u--;
+                    dnaBulges++;
+                } else {
+                    p--;
+                    si++;
+                    u--;
+                    rnaBulges++;
+                }
+            }
+            activity *= Math.pow(BULGE_ACTIVITY, dnaBulges + rnaBulges);
+
+            int siteLength = length + dnaBulges - rnaBulges;
+            long position = leftOfPam ? pamStart - siteLength : pamStart + pamLength;
+            sites.add(new Site(g, position, siteLength, reverse, bestCost, dnaBulges, rnaBulges, activity));
+        }
+    }
+}
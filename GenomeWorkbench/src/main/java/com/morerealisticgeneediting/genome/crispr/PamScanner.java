@@ -0,0 +1,150 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Word-at-a-time PAM matcher over a {@link PackedSequence}.
+ *
+ * The IUPAC pattern is compiled once into one 4-bit mask per position (bit n set when
+ * 2-bit base code n is allowed). Scanning then tests 32 candidate positions at a time:
+ * for each non-N pattern position, the packed window starting that many bases later is
+ * compared slot-by-slot against the allowed codes with XOR/AND, and the per-position
+ * results are ANDed together. Only matching positions reach the consumer, so nothing
+ * is allocated for the (vast majority of) positions that do not match.
+ */
+public final class PamScanner {
+
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final int ANY_BASE = 0b1111;
+
+    private final String pattern;
+    private final byte[] masks;
+
+    private PamScanner(String pattern, byte[] masks) {
+        this.pattern = pattern;
+        this.masks = masks;
+    }
+
+    /**
+     * Compile an IUPAC PAM pattern (e.g. "NGG", "NNGRRT", "TTTV").
+     */
+    public static PamScanner compile(String pattern) {
+        byte[] masks = new byte[pattern.length()];
+        for (int i = 0; i < pattern.length(); i++) {
+            masks[i] = switch (Character.toUpperCase(pattern.charAt(i))) {
+                case 'A' -> 0b0001;
+                case 'C' -> 0b0010;
+                case 'G' -> 0b0100;
+                case 'T' -> 0b1000;
+                case 'R' -> 0b0101;
+                case 'Y' -> 0b1010;
+                case 'S' -> 0b0110;
+                case 'W' -> 0b1001;
+                case 'K' -> 0b1100;
+                case 'M' -> 0b0011;
+                case 'B' -> 0b1110;
+                case 'D' -> 0b1101;
+                case 'H' -> 0b1011;
+                case 'V' -> 0b0111;
+                default -> ANY_BASE;
+            };
+        }
+        return new PamScanner(pattern.toUpperCase(), masks);
+    }
+
+    /**
+     * The same PAM as it appears on the forward strand when it lies on the reverse strand.
+     * Complementing swaps A/T and C/G, which reverses the order of the four mask bits.
+     */
+    public PamScanner reverseComplement() {
+        byte[] result = new byte[masks.length];
+        for (int i = 0; i < masks.length; i++) {
+            result[masks.length - 1 - i] = (byte) (Integer.reverse(masks[i]) >>> 28);
+        }
+        return new PamScanner(pattern + " (reverse complement)", result);
+    }
+
+    public int length() {
+        return masks.length;
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    // ========== Scanning ==========
+
+    /**
+     * Report every PAM start in [from, to) where the whole PAM fits in the sequence and contains no N.
+     */
+    public void scan(PackedSequence sequence, long from, long to, LongConsumer consumer) {
+        long end = Math.min(to, sequence.length() - masks.length + 1);
+        for (long block = Math.max(0, from); block < end; block += PackedSequence.BASES_PER_WORD) {
+            long hits = matchWord(sequence, block, (int) Math.min(PackedSequence.BASES_PER_WORD, end - block));
+            while (hits != 0) {
+                int slot = Long.numberOfLeadingZeros(hits) >>> 1;
+                consumer.accept(block + slot);
+                hits &= ~(1L << (62 - 2 * slot));
+            }
+        }
+    }
+
+    /**
+     * Test up to 32 consecutive candidate PAM starts at once.
+     *
+     * @param start First candidate position (may be negative; such candidates never match)
+     * @param count Number of candidates, 1-32
+     * @return A packed word with the low bit of 2-bit slot i set when the PAM matches at
+     *         {@code start + i}, lies entirely inside the sequence and contains no N
+     */
+    public long matchWord(PackedSequence sequence, long start, int count) {
+        if (start < 0) {
+            // Candidates before the sequence start: test from 0 and move results right
+            int skipped = (int) -start;
+            if (skipped >= count) return 0;
+            return matchWord(sequence, 0, count - skipped) >>> (2 * skipped);
+        }
+
+        long hits = LOW_BITS;
+        for (int j = 0; j < masks.length && hits != 0; j++) {
+            if (masks[j] != ANY_BASE) hits &= slotsMatching(sequence.window(start + j), masks[j]);
+        }
+
+        // Drop slots past the requested count or whose PAM would run off the end
+        long available = sequence.length() - masks.length + 1 - start;
+        int valid = (int) Math.max(0, Math.min(count, available));
+        hits &= valid >= PackedSequence.BASES_PER_WORD ? -1L : ~(-1L >>> (2 * valid));
+
+        if (hits != 0 && sequence.hasN()) {
+            for (long remaining = hits; remaining != 0; ) {
+                int slot = Long.numberOfLeadingZeros(remaining) >>> 1;
+                long bit = 1L << (62 - 2 * slot);
+                if (sequence.hasN(start + slot, masks.length)) hits &= ~bit;
+                remaining &= ~bit;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Check a single candidate position.
+     */
+    public boolean matchesAt(PackedSequence sequence, long start) {
+        return matchWord(sequence, start, 1) != 0;
+    }
+
+    /**
+     * Low bit of each 2-bit slot set where the base's code is allowed by the mask.
+     */
+    private static long slotsMatching(long window, int mask) {
+        long result = 0;
+        for (int code = 0; code < 4; code++) {
+            if ((mask >> code & 1) == 0) continue;
+            long same = ~(window ^ (code * LOW_BITS));
+            result |= same & (same >>> 1);
+        }
+        return result & LOW_BITS;
+    }
+}
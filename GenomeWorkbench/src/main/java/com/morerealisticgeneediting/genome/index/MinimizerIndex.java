@@ -0,0 +1,328 @@
+package com.morerealisticgeneediting.genome.index;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimizer-based k-mer index over a packed reference sequence.
+ *
+ * For every window of {@code w} consecutive k-mers, the k-mer with the smallest
+ * hash is recorded. Positions are stored in a CSR layout (one offset array keyed by
+ * k-mer value, one flat position array), so lookups are two array reads.
+ *
+ * Mismatch-tolerant queries use the pigeonhole principle: a site with at most
+ * {@code n} mismatches to a pattern shares an exact segment with it when the pattern
+ * is split into {@code n + 1} parts. As long as each part spans at least one full
+ * minimizer window ({@code k + w - 1} bases) the part's minimizer is guaranteed to be
+ * indexed at the matching reference position. Candidates are then verified with a
+ * packed XOR/popcount comparison.
+ *
+ * Educational note: this is the same seeding idea used by read mappers such as
+ * minimap2, scaled down to in-game genome sizes.
+ */
+public final class MinimizerIndex {
+
+    // A 20-mer with 3 mismatches only guarantees an exact 5-base seed, so the default
+    // window of one keeps every 5-mer. Larger w trades query time for a smaller index.
+    public static final int DEFAULT_K = 5;
+    public static final int DEFAULT_W = 1;
+    public static final int MAX_PATTERN_LENGTH = PackedSequence.BASES_PER_WORD;
+
+    private static final int FILE_MAGIC = 0x4D524D49; // "MRMI"
+    private static final int FILE_VERSION = 1;
+
+    private final PackedSequence reference;
+    private final int k;
+    private final int w;
+    private final int[] offsets;    // size 4^k + 1
+    private final int[] positions;
+
+    /**
+     * A locus matching a query pattern.
+     *
+     * @param position    Forward-strand start of the matched bases
+     * @param reverse     True if the pattern matched the reverse strand
+     * @param mismatches  Number of mismatching bases
+     */
+    public record Hit(long position, boolean reverse, int mismatches) {}
+
+    private MinimizerIndex(PackedSequence reference, int k, int w, int[] offsets, int[] positions) {
+        this.reference = reference;
+        this.k = k;
+        this.w = w;
+        this.offsets = offsets;
+        this.positions = positions;
+    }
+
+    // ========== Building ==========
+
+    public static MinimizerIndex build(PackedSequence reference) {
+        return build(reference, DEFAULT_K, DEFAULT_W);
+    }
+
+    /**
+     * Build an index. Runs in O(length * w) time; call it off the main thread.
+     */
+    public static MinimizerIndex build(PackedSequence reference, int k, int w) {
+        if (k < 1 || k > 12 || w < 1 || w > 32) {
+            throw new IllegalArgumentException("Unsupported minimizer parameters k=" + k + ", w=" + w);
+        }
+        if (reference.length() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Reference too long to index: " + reference.length());
+        }
+
+        int length = (int) reference.length();
+        int kmerCount = Math.max(0, length - k + 1);
+        int[] minimizerPositions = new int[Math.max(16, kmerCount / Math.max(1, w / 2))];
+        int found = 0;
+        int lastRecorded = -1;
+
+        // Ring buffer of the hashes of the last w k-mers (Long.MAX_VALUE marks an N-containing k-mer)
+        long[] hashes = new long[w];
+        long mask = (1L << (2 * k)) - 1;
+        long kmer = 0;
+        int validRun = 0;
+
+        for (int i = 0; i < length; i++) {
+            if (reference.isN(i)) {
+                validRun = 0;
+                kmer = 0;
+            } else {
+                kmer = ((kmer << 2) | reference.baseAt(i)) & mask;
+                validRun++;
+            }
+            int kmerStart = i - k + 1;
+            if (kmerStart < 0) continue;
+            hashes[kmerStart % w] = validRun >= k ? hash(kmer) : Long.MAX_VALUE;
+
+            int windowStart = kmerStart - w + 1;
+            if (windowStart < 0) continue;
+            int best = pickMinimizer(hashes, windowStart, w);
+            if (best >= 0 && best != lastRecorded) {
+                if (found == minimizerPositions.length) {
+                    minimizerPositions = Arrays.copyOf(minimizerPositions, found * 2);
+                }
+                minimizerPositions[found++] = best;
+                lastRecorded = best;
+            }
+        }
+
+        // Counting sort into CSR buckets keyed by k-mer value
+        int[] offsets = new int[(1 << (2 * k)) + 1];
+        for (int n = 0; n < found; n++) {
+            offsets[(int) reference.kmer(minimizerPositions[n], k) + 1]++;
+        }
+        for (int b = 1; b < offsets.length; b++) {
+            offsets[b] += offsets[b - 1];
+        }
+        int[] cursor = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] positions = new int[found];
+        for (int n = 0; n < found; n++) {
+            int key = (int) reference.kmer(minimizerPositions[n], k);
+            positions[cursor[key]++] = minimizerPositions[n];
+        }
+        return new MinimizerIndex(reference, k, w, offsets, positions);
+    }
+
+    /**
+     * Leftmost minimum within the window [windowStart, windowStart + w), or -1 if all k-mers contain N.
+     */
+    private static int pickMinimizer(long[] hashes, int windowStart, int w) {
+        long bestHash = Long.MAX_VALUE;
+        int best = -1;
+        for (int j = 0; j < w; j++) {
+            long h = hashes[(windowStart + j) % w];
+            if (h < bestHash) {
+                bestHash = h;
+                best = windowStart + j;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Invertible integer mix so minimizers are not biased towards poly-A k-mers.
+     * Never returns Long.MAX_VALUE for a valid k-mer.
+     */
+    private static long hash(long kmer) {
+        long h = kmer * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return (h & 0x7FFFFFFFFFFFFFFFL) % Long.MAX_VALUE;
+    }
+
+    // ========== Queries ==========
+
+    public PackedSequence getReference() { return reference; }
+    public int getK() { return k; }
+    public int getW() { return w; }
+    public int size() { return positions.length; }
+
+    /**
+     * The largest mismatch count for which seeding is lossless with a pattern of this length.
+     */
+    public int maxSeedableMismatches(int patternLength) {
+        return patternLength / (k + w - 1) - 1;
+    }
+
+    /**
+     * Find every locus within {@code maxMismatches} of a pattern, on both strands.
+     *
+     * @param pattern       Packed pattern, first base most significant
+     * @param patternLength Pattern length in bases (at most 32)
+     * @param maxMismatches Maximum allowed mismatches
+     * @return Hits sorted by position
+     */
+    public List<Hit> findMatches(long pattern, int patternLength, int maxMismatches) {
+        if (patternLength < 1 || patternLength > MAX_PATTERN_LENGTH) {
+            throw new IllegalArgumentException("Pattern length must be 1-32: " + patternLength);
+        }
+        List<Hit> hits = new ArrayList<>();
+        if (reference.length() < patternLength) return hits;
+
+        long reverse = PackedSequence.reverseComplement(pattern, patternLength);
+        if (maxMismatches > maxSeedableMismatches(patternLength)) {
+            // Too many mismatches for lossless seeding: verify every position instead
+            scanAll(pattern, patternLength, maxMismatches, false, hits);
+            if (reverse != pattern) scanAll(reverse, patternLength, maxMismatches, true, hits);
+        } else {
+            seedAndVerify(pattern, patternLength, maxMismatches, false, hits);
+            if (reverse != pattern) seedAndVerify(reverse, patternLength, maxMismatches, true, hits);
+        }
+        hits.sort((a, b) -> Long.compare(a.position(), b.position()));
+        return hits;
+    }
+
+    /**
+     * Convenience overload for String patterns.
+     */
+    public List<Hit> findMatches(String pattern, int maxMismatches) {
+        return findMatches(PackedSequence.pack(pattern), pattern.length(), maxMismatches);
+    }
+
+    private void seedAndVerify(long pattern, int patternLength, int maxMismatches, boolean reverse, List<Hit> out) {
+        int segments = maxMismatches + 1;
+        int[] seedOffsets = new int[segments];
+        int[] seedKeys = new int[segments];
+        long[] hashes = new long[w];
+        int candidateCount = 0;
+
+        for (int s = 0; s < segments; s++) {
+            int segStart = s * patternLength / segments;
+            int segEnd = (s + 1) * patternLength / segments;
+
+            // Every full window inside the segment is a valid seed; use the one with the smallest bucket
+            int bestBucket = Integer.MAX_VALUE;
+            for (int window = segStart; window + k + w - 1 <= segEnd; window++) {
+                for (int j = 0; j < w; j++) {
+                    hashes[j] = hash(subKmer(pattern, patternLength, window + j, k));
+                }
+                int offset = window + pickMinimizer(hashes, 0, w);
+                int key = (int) subKmer(pattern, patternLength, offset, k);
+                int bucket = offsets[key + 1] - offsets[key];
+                if (bucket < bestBucket) {
+                    bestBucket = bucket;
+                    seedOffsets[s] = offset;
+                    seedKeys[s] = key;
+                }
+            }
+
+            candidateCount += offsets[seedKeys[s] + 1] - offsets[seedKeys[s]];
+        }
+
+        // A site sharing several seeds is reached once per seed; sort the candidate starts
+        // so each is verified once. (An earlier seed that matches the reference need not be
+        // its minimizer there when w > 1, so seeds cannot be skipped by re-checking them.)
+        long[] candidates = new long[candidateCount];
+        int found = 0;
+        for (int s = 0; s < segments; s++) {
+            int key = seedKeys[s];
+            for (int n = offsets[key]; n < offsets[key + 1]; n++) {
+                long start = (long) positions[n] - seedOffsets[s];
+                if (start >= 0 && start + patternLength <= reference.length()) candidates[found++] = start;
+            }
+        }
+        Arrays.sort(candidates, 0, found);
+        for (int n = 0; n < found; n++) {
+            if (n > 0 && candidates[n] == candidates[n - 1]) continue;
+            verify(pattern, patternLength, maxMismatches, candidates[n], reverse, out);
+        }
+    }
+
+    private void scanAll(long pattern, int patternLength, int maxMismatches, boolean reverse, List<Hit> out) {
+        long last = reference.length() - patternLength;
+        for (long start = 0; start <= last; start++) {
+            verify(pattern, patternLength, maxMismatches, start, reverse, out);
+        }
+    }
+
+    private void verify(long pattern, int patternLength, int maxMismatches, long start, boolean reverse, List<Hit> out) {
+        int mm = PackedSequence.mismatches(pattern, reference.kmer(start, patternLength));
+        if (mm <= maxMismatches && !reference.hasN(start, patternLength)) {
+            out.add(new Hit(start, reverse, mm));
+        }
+    }
+
+    private static long subKmer(long pattern, int patternLength, int offset, int len) {
+        return (pattern >>> (2 * (patternLength - offset - len))) & ((1L << (2 * len)) - 1);
+    }
+
+    // ========== Persistence ==========
+
+    /**
+     * Write the index to disk. The reference itself is not stored; its fingerprint is.
+     */
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(reference.fingerprint());
+            out.writeLong(reference.length());
+            out.writeInt(k);
+            out.writeInt(w);
+            out.writeInt(positions.length);
+            for (int o : offsets) out.writeInt(o);
+            for (int p : positions) out.writeInt(p);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Load an index previously written by {@link #save(Path)}.
+     *
+     * @return The index, or null if the file is missing, corrupt or was built for a different sequence
+     */
+    public static MinimizerIndex load(Path file, PackedSequence reference) {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) return null;
+            if (buffer.getLong() != reference.fingerprint() || buffer.getLong() != reference.length()) return null;
+            int k = buffer.getInt();
+            int w = buffer.getInt();
+            int count = buffer.getInt();
+            int[] offsets = new int[(1 << (2 * k)) + 1];
+            int[] positions = new int[count];
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.get(offsets);
+            ints.get(positions);
+            return new MinimizerIndex(reference, k, w, offsets, positions);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
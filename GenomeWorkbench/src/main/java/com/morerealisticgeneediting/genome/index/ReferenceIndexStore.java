@@ -0,0 +1,228 @@
+package com.morerealisticgeneediting.genome.index;
+
+import com.morerealisticgeneediting.MoreRealisticGeneEditing;
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.crispr.CasVariant;
+import com.morerealisticgeneediting.genome.crispr.CrisprEngine;
+import com.morerealisticgeneediting.genome.crispr.GuideLibrary;
+import com.morerealisticgeneediting.genome.crispr.OffTargetSearch;
+import com.morerealisticgeneediting.genome.pcr.PcrSimulator;
+import com.morerealisticgeneediting.util.AsyncJobs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Builds, persists and caches per-reference indexes and tracks.
+ *
+ * Each genome is packed once; the minimizer index, repeat mask and guide libraries are then derived
+ * from the packed sequence on the {@link AsyncJobs} background thread the first time
+ * they are requested, and written to disk keyed by genome UUID and sequence
+ * fingerprint, so an edited genome (same UUID, different content) never reuses stale
+ * data. Entries are held weakly: once a Genome object is no longer referenced its
+ * derived data can be collected.
+ */
+public class ReferenceIndexStore {
+
+    private static final String INDEX_EXTENSION = ".mmi";
+    private static final String MASK_EXTENSION = ".rmask";
+    private static final String GUIDE_EXTENSION = ".guides";
+
+    private final Path directory;
+    private final Map<Genome, CompletableFuture<PackedSequence>> packed =
+        Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Genome, CompletableFuture<MinimizerIndex>> indexes =
+        Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Genome, CompletableFuture<RepeatMask>> masks =
+        Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Genome, Map<CasVariant, CompletableFuture<GuideLibrary>>> guides =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param directory Where index files are stored, or null to keep indexes in memory only
+     */
+    public ReferenceIndexStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Get the packed form of a genome, packing it in the background if needed.
+     */
+    public CompletableFuture<PackedSequence> requestPacked(Genome genome) {
+        return packed.computeIfAbsent(genome, g -> AsyncJobs.supply(() -> PackedSequence.fromGenome(g)));
+    }
+
+    /**
+     * Get the index for a genome, building (or loading) it in the background if needed.
+     */
+    public CompletableFuture<MinimizerIndex> request(Genome genome) {
+        return indexes.computeIfAbsent(genome, g -> derive(g, reference -> loadOrBuildIndex(g, reference)));
+    }
+
+    /**
+     * Get the repeat/low-complexity mask for a genome, computing (or loading) it in the background if needed.
+     */
+    public CompletableFuture<RepeatMask> requestMask(Genome genome) {
+        return masks.computeIfAbsent(genome, g -> derive(g, reference -> loadOrComputeMask(g, reference)));
+    }
+
+    /**
+     * Get the guide library for a genome and Cas variant, building (or loading) it in the background if needed.
+     */
+    public CompletableFuture<GuideLibrary> requestGuides(Genome genome, CasVariant variant) {
+        synchronized (guides) {
+            return guides.computeIfAbsent(genome, g -> new EnumMap<>(CasVariant.class))
+                .computeIfAbsent(variant, v -> derive(genome, reference -> loadOrBuildGuides(genome, reference, v)));
+        }
+    }
+
+    /**
+     * Get the index only if it has already finished building. Safe to call from the server thread.
+     *
+     * @return The index, or null if it is still being built (a build is started if none is running)
+     */
+    public MinimizerIndex getIfReady(Genome genome) {
+        return readyOrNull(request(genome));
+    }
+
+    /**
+     * Get the mask only if it has already been computed. Safe to call from the server thread.
+     */
+    public RepeatMask getMaskIfReady(Genome genome) {
+        return readyOrNull(requestMask(genome));
+    }
+
+    /**
+     * Get the guide library only if it has already been built. Safe to call from the server thread.
+     */
+    public GuideLibrary getGuidesIfReady(Genome genome, CasVariant variant) {
+        return readyOrNull(requestGuides(genome, variant));
+    }
+
+    /**
+     * Create a CRISPR engine for a genome that scores guides against whatever reference data
+     * is ready. Missing data is built in the background and used by later engines. Once the
+     * index is ready, SpCas9 off-target risk comes from its seeded search (up to
+     * {@value CrisprEngine#OFF_TARGET_MAX_MISMATCHES} mismatches, no bulges), which only
+     * verifies the loci sharing a seed with the guide.
+     *
+     * The exhaustive, bulge-aware {@link OffTargetSearch} scans the whole reference for every
+     * batch, so it is not installed here: callers that need it set it on the engine
+     * themselves and run the engine on an executor of their own.
+     */
+    public CrisprEngine createEngine(Genome genome, long seed) {
+        CrisprEngine engine = new CrisprEngine(seed);
+        engine.setReferenceIndex(getIfReady(genome));
+        engine.setRepeatMask(getMaskIfReady(genome));
+        return engine;
+    }
+
+    /**
+     * Create a PCR simulator for a genome whose primer design avoids the genome's repeat
+     * and low-complexity sequence once the mask has been computed, and whose reactions
+     * predict every product genome-wide once the index is ready.
+     */
+    public PcrSimulator createPcrSimulator(Genome genome, long seed) {
+        PcrSimulator simulator = new PcrSimulator(seed);
+        simulator.setRepeatMask(getMaskIfReady(genome));
+        simulator.setReferenceIndex(getIfReady(genome));
+        return simulator;
+    }
+
+    /**
+     * Drop all cached data (files on disk are kept).
+     */
+    public void clear() {
+        packed.clear();
+        indexes.clear();
+        masks.clear();
+        guides.clear();
+    }
+
+    private <T> CompletableFuture<T> derive(Genome genome, Function<PackedSequence, T> builder) {
+        return requestPacked(genome).thenCompose(reference -> AsyncJobs.supply(() -> builder.apply(reference)));
+    }
+
+    private static <T> T readyOrNull(CompletableFuture<T> future) {
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    private Path fileFor(Genome genome, PackedSequence reference, String extension) {
+        return directory == null ? null : directory.resolve(
+            genome.getUUID() + "-" + Long.toHexString(reference.fingerprint()) + extension);
+    }
+
+    private MinimizerIndex loadOrBuildIndex(Genome genome, PackedSequence reference) {
+        Path file = fileFor(genome, reference, INDEX_EXTENSION);
+        if (file != null) {
+            MinimizerIndex loaded = MinimizerIndex.load(file, reference);
+            if (loaded != null) return loaded;
+        }
+
+        long startNanos = System.nanoTime();
+        MinimizerIndex index = MinimizerIndex.build(reference);
+        MoreRealisticGeneEditing.LOGGER.debug("Built minimizer index for genome {} ({} bp, {} seeds) in {} ms",
+            genome.getUUID(), reference.length(), index.size(), (System.nanoTime() - startNanos) / 1_000_000);
+
+        if (file != null) {
+            try {
+                index.save(file);
+            } catch (IOException e) {
+                MoreRealisticGeneEditing.LOGGER.warn("Failed to persist minimizer index {}: {}", file, e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private RepeatMask loadOrComputeMask(Genome genome, PackedSequence reference) {
+        Path file = fileFor(genome, reference, MASK_EXTENSION);
+        if (file != null) {
+            RepeatMask loaded = RepeatMask.load(file, reference.fingerprint());
+            if (loaded != null) return loaded;
+        }
+
+        long startNanos = System.nanoTime();
+        RepeatMask mask = RepeatMask.compute(reference);
+        MoreRealisticGeneEditing.LOGGER.debug("Computed repeat mask for genome {} ({} bp, {}% masked) in {} ms",
+            genome.getUUID(), reference.length(), String.format("%.1f", mask.maskedFraction() * 100),
+            (System.nanoTime() - startNanos) / 1_000_000);
+
+        if (file != null) {
+            try {
+                mask.save(file, reference.fingerprint());
+            } catch (IOException e) {
+                MoreRealisticGeneEditing.LOGGER.warn("Failed to persist repeat mask {}: {}", file, e.getMessage());
+            }
+        }
+        return mask;
+    }
+
+    private GuideLibrary loadOrBuildGuides(Genome genome, PackedSequence reference, CasVariant variant) {
+        Path file = fileFor(genome, reference, "-" + variant.name().toLowerCase() + GUIDE_EXTENSION);
+        if (file != null) {
+            GuideLibrary loaded = GuideLibrary.load(file, reference, variant);
+            if (loaded != null) return loaded;
+        }
+
+        long startNanos = System.nanoTime();
+        GuideLibrary library = GuideLibrary.build(reference, variant);
+        MoreRealisticGeneEditing.LOGGER.debug("Built {} guide library for genome {} ({} guides) in {} ms",
+            variant.description, genome.getUUID(), library.size(), (System.nanoTime() - startNanos) / 1_000_000);
+
+        if (file != null) {
+            try {
+                library.save(file);
+            } catch (IOException e) {
+                MoreRealisticGeneEditing.LOGGER.warn("Failed to persist guide library {}: {}", file, e.getMessage());
+            }
+        }
+        return library;
+    }
+}
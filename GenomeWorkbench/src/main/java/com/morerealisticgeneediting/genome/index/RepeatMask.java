@@ -0,0 +1,257 @@
+package com.morerealisticgeneediting.genome.index;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Genome-wide low-complexity and repeat mask, computed once per reference.
+ *
+ * Two signals are combined into a single bitmap:
+ * - DUST: a sliding 64bp window scoring triplet over-representation
+ *   (score = sum of c(c-1)/2 over triplet counts, divided by l-1)
+ * - Tandem repeats: runs where every base equals the base one period earlier,
+ *   for periods 1-6 (homopolymers through hexanucleotide repeats)
+ * Ambiguous (N) bases are always masked.
+ *
+ * The bitmap is stored in 4096-base blocks. Blocks that are entirely clear or entirely
+ * set share a single constant instance, so a typical genome (mostly unmasked) costs
+ * little more than one pointer per block. Lookups are O(1).
+ *
+ * Educational note: repeat masking is why real primer and guide design tools refuse
+ * to place oligos in microsatellites - they bind in too many places.
+ */
+public final class RepeatMask {
+
+    public static final int DUST_WINDOW = 64;
+    public static final double DUST_THRESHOLD = 2.0;
+    public static final int MAX_TANDEM_PERIOD = 6;
+    public static final int MIN_TANDEM_LENGTH = 12;
+
+    private static final int BLOCK_BITS = 12;                 // 4096 bases per block
+    private static final int WORDS_PER_BLOCK = (1 << BLOCK_BITS) / 64;
+    private static final long[] EMPTY_BLOCK = new long[WORDS_PER_BLOCK];
+    private static final long[] FULL_BLOCK = new long[WORDS_PER_BLOCK];
+    private static final int FILE_MAGIC = 0x4D52524D; // "MRRM"
+    private static final int FILE_VERSION = 1;
+
+    static {
+        Arrays.fill(FULL_BLOCK, -1L);
+    }
+
+    private final long[][] blocks;
+    private final long length;
+
+    private RepeatMask(long[][] blocks, long length) {
+        this.blocks = blocks;
+        this.length = length;
+    }
+
+    // ========== Computation ==========
+
+    /**
+     * Compute the mask for a reference in a single pass per signal. Call off the main thread.
+     */
+    public static RepeatMask compute(PackedSequence reference) {
+        long length = reference.length();
+        Builder builder = new Builder(length);
+        markDust(reference, builder);
+        markTandemRepeats(reference, builder);
+        if (reference.hasN()) {
+            for (long i = 0; i < length; i++) {
+                if (reference.isN(i)) builder.set(i, i + 1);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void markDust(PackedSequence reference, Builder builder) {
+        long length = reference.length();
+        if (length < DUST_WINDOW) return;
+
+        int[] counts = new int[64];
+        int triplets = DUST_WINDOW - 2;
+        long pairSum = 0;     // sum of c(c-1)/2, maintained incrementally
+        long maskedUntil = 0;
+
+        for (long i = 0; i + 3 <= length; i++) {
+            int triplet = (int) reference.kmer(i, 3);
+            pairSum += counts[triplet]++;
+
+            long windowStart = i - triplets + 1;
+            if (windowStart < 0) continue;
+            if ((double) pairSum / (triplets - 1) > DUST_THRESHOLD) {
+                long end = windowStart + DUST_WINDOW;
+                builder.set(Math.max(windowStart, maskedUntil), end);
+                maskedUntil = Math.max(maskedUntil, end);
+            }
+            int leaving = (int) reference.kmer(windowStart, 3);
+            pairSum -= --counts[leaving];
+        }
+    }
+
+    private static void markTandemRepeats(PackedSequence reference, Builder builder) {
+        long length = reference.length();
+        for (int period = 1; period <= MAX_TANDEM_PERIOD; period++) {
+            long runStart = period;
+            for (long i = period; i <= length; i++) {
+                boolean continues = i < length && reference.baseAt(i) == reference.baseAt(i - period);
+                if (continues) continue;
+                // Bases [runStart - period, i) form a tandem repeat of this period
+                long repeatStart = runStart - period;
+                if (i - repeatStart >= Math.max(MIN_TANDEM_LENGTH, 2 * period)) {
+                    builder.set(repeatStart, i);
+                }
+                runStart = i + 1;
+            }
+        }
+    }
+
+    // ========== Queries ==========
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isMasked(long pos) {
+        if (pos < 0 || pos >= length) return false;
+        long[] block = blocks[(int) (pos >>> BLOCK_BITS)];
+        return (block[(int) ((pos >>> 6) & (WORDS_PER_BLOCK - 1))] & (1L << (pos & 63))) != 0;
+    }
+
+    /**
+     * Count masked bases in [pos, pos + len). Oligo-sized ranges touch at most two words.
+     */
+    public int maskedCount(long pos, int len) {
+        long start = Math.max(0, pos);
+        long end = Math.min(length, pos + len);
+        int count = 0;
+        while (start < end) {
+            long[] block = blocks[(int) (start >>> BLOCK_BITS)];
+            int from = (int) (start & 63);
+            int to = (int) Math.min(64, from + (end - start));
+            long bits = block[(int) ((start >>> 6) & (WORDS_PER_BLOCK - 1))] >>> from;
+            if (to - from < 64) bits &= (1L << (to - from)) - 1;
+            count += Long.bitCount(bits);
+            start += to - from;
+        }
+        return count;
+    }
+
+    public boolean anyMasked(long pos, int len) {
+        return maskedCount(pos, len) > 0;
+    }
+
+    /**
+     * Fraction of all bases that are masked.
+     */
+    public double maskedFraction() {
+        long total = 0;
+        for (long[] block : blocks) {
+            if (block == EMPTY_BLOCK) continue;
+            for (long word : block) total += Long.bitCount(word);
+        }
+        return length == 0 ? 0 : (double) total / length;
+    }
+
+    // ========== Persistence ==========
+
+    /**
+     * Write the mask to disk, storing only blocks that are neither empty nor full.
+     */
+    public void save(Path file, long fingerprint) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(fingerprint);
+            out.writeLong(length);
+            out.writeInt(blocks.length);
+            for (long[] block : blocks) {
+                if (block == EMPTY_BLOCK) {
+                    out.writeByte(0);
+                } else if (block == FULL_BLOCK) {
+                    out.writeByte(1);
+                } else {
+                    out.writeByte(2);
+                    for (long word : block) out.writeLong(word);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return The mask, or null if the file is missing, corrupt or belongs to a different sequence
+     */
+    public static RepeatMask load(Path file, long fingerprint) {
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION || in.readLong() != fingerprint) return null;
+            long length = in.readLong();
+            long[][] blocks = new long[in.readInt()][];
+            for (int b = 0; b < blocks.length; b++) {
+                int kind = in.readByte();
+                if (kind == 0) {
+                    blocks[b] = EMPTY_BLOCK;
+                } else if (kind == 1) {
+                    blocks[b] = FULL_BLOCK;
+                } else {
+                    long[] block = new long[WORDS_PER_BLOCK];
+                    for (int w = 0; w < WORDS_PER_BLOCK; w++) block[w] = in.readLong();
+                    blocks[b] = block;
+                }
+            }
+            return new RepeatMask(blocks, length);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ========== Builder ==========
+
+    private static final class Builder {
+        private final long[][] blocks;
+        private final long length;
+
+        Builder(long length) {
+            this.length = length;
+            int blockCount = (int) ((length + (1 << BLOCK_BITS) - 1) >>> BLOCK_BITS);
+            this.blocks = new long[blockCount][];
+            Arrays.fill(blocks, EMPTY_BLOCK);
+        }
+
+        /**
+         * Set bits [from, to).
+         */
+        void set(long from, long to) {
+            to = Math.min(to, length);
+            for (long pos = Math.max(0, from); pos < to; ) {
+                int b = (int) (pos >>> BLOCK_BITS);
+                if (blocks[b] == EMPTY_BLOCK) blocks[b] = new long[WORDS_PER_BLOCK];
+                long[] block = blocks[b];
+                int word = (int) ((pos >>> 6) & (WORDS_PER_BLOCK - 1));
+                int bit = (int) (pos & 63);
+                int span = (int) Math.min(64 - bit, to - pos);
+                long bits = span == 64 ? -1L : ((1L << span) - 1) << bit;
+                block[word] |= bits;
+                pos += span;
+            }
+        }
+
+        RepeatMask build() {
+            // Collapse fully-set blocks onto the shared constant
+            for (int b = 0; b < blocks.length; b++) {
+                if (blocks[b] != EMPTY_BLOCK && Arrays.equals(blocks[b], FULL_BLOCK)) {
+                    blocks[b] = FULL_BLOCK;
+                }
+            }
+            return new RepeatMask(blocks, length);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.morerealisticgeneediting.genome.pcr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.analysis.GelElectrophoresisSimulator;
+import com.morerealisticgeneediting.genome.index.MinimizerIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Genome-wide in-silico PCR: every product a primer pair can amplify, not just the intended one.
+ *
+ * Both primers are looked up in a {@link MinimizerIndex} with up to {@code maxMismatches}
+ * mismatches on both strands. A hit is kept only if the primer's 3' end matches exactly,
+ * since polymerase cannot extend a mismatched 3' terminus. Hits are then split into
+ * sites that extend rightwards (primer on the minus strand) and leftwards (primer on the
+ * plus strand), and every right-facing site is paired with each left-facing site within
+ * the maximum product size using a sorted sweep. Either primer can pair with itself, so
+ * single-primer products are reported too.
+ *
+ * Educational note: this is what tools like UCSC isPCR and Primer-BLAST do, and it is why
+ * a "specific" primer pair can still give extra bands on a gel.
+ */
+public final class InSilicoPcr {
+
+    public static final int DEFAULT_MAX_MISMATCHES = 2;
+    public static final int DEFAULT_MAX_PRODUCT_SIZE = 4000;
+    // Bases at the primer's 3' end that must match for extension
+    public static final int THREE_PRIME_EXACT = 3;
+
+    // Stop collecting past this many sites per primer (highly repetitive primers)
+    private static final int MAX_SITES_PER_PRIMER = 10_000;
+    private static final int MAX_AMPLICONS = 1000;
+    // Relative amplification per mismatched primer base and per extra kb of product
+    private static final double MISMATCH_PENALTY = 0.3;
+    private static final double LENGTH_SCALE = 2000.0;
+
+    private final MinimizerIndex index;
+    private final PackedSequence reference;
+    private final int maxMismatches;
+    private final int maxProductSize;
+
+    /**
+     * Where a primer anneals.
+     *
+     * @param primer       0 for the forward primer, 1 for the reverse primer
+     * @param position     Forward-strand start of the bound bases
+     * @param length       Primer length
+     * @param extendsRight True if the primer binds the minus strand and extends towards higher positions
+     * @param mismatches   Mismatched bases (none of them in the 3' end)
+     */
+    public record BindingSite(int primer, long position, int length, boolean extendsRight, int mismatches) {}
+
+    /**
+     * A predicted PCR product.
+     *
+     * @param start         Forward-strand start of the product
+     * @param size          Product length in bp
+     * @param left          Site of the primer extending rightwards
+     * @param right         Site of the primer extending leftwards
+     * @param relativeYield Share of the total product mass (0-1)
+     */
+    public record Amplicon(long start, int size, BindingSite left, BindingSite right, double relativeYield) {
+        /**
+         * The designed product: forward primer on the left, reverse on the right, both perfect.
+         */
+        public boolean isIntended() {
+            return left.primer() == 0 && right.primer() == 1 && left.mismatches() == 0 && right.mismatches() == 0;
+        }
+
+        public int mismatches() {
+            return left.mismatches() + right.mismatches();
+        }
+    }
+
+    /**
+     * All sites and products for one primer pair.
+     *
+     * @param sites      Binding sites of both primers, sorted by position
+     * @param amplicons  Products, by descending yield
+     * @param truncated  True if a site or product limit was hit and the lists are incomplete
+     */
+    public record Result(List<BindingSite> sites, List<Amplicon> amplicons, boolean truncated) {
+        public boolean hasNonSpecificProducts() {
+            return amplicons.size() > 1 || (amplicons.size() == 1 && !amplicons.get(0).isIntended());
+        }
+
+        /**
+         * Load the products into a gel lane.
+         */
+        public GelElectrophoresisSimulator.DnaSample toGelSample(String name, double concentration) {
+            return new GelElectrophoresisSimulator.DnaSample(name, gelFragments(amplicons), concentration);
+        }
+    }
+
+    public InSilicoPcr(MinimizerIndex index) {
+        this(index, DEFAULT_MAX_MISMATCHES, DEFAULT_MAX_PRODUCT_SIZE);
+    }
+
+    public InSilicoPcr(MinimizerIndex index, int maxMismatches, int maxProductSize) {
+        if (maxMismatches < 0 || maxProductSize < 1) {
+            throw new IllegalArgumentException("Invalid in-silico PCR limits: " + maxMismatches + " mismatches, "
+                + maxProductSize + " bp");
+        }
+        this.index = index;
+        this.reference = index.getReference();
+        this.maxMismatches = maxMismatches;
+        this.maxProductSize = maxProductSize;
+    }
+
+    // ========== Amplification ==========
+
+    /**
+     * Predict every product of a primer pair. Both primers are 5' to 3'; the reverse primer
+     * is written as ordered (the reverse complement of the plus strand it lands on).
+     */
+    public Result amplify(String forwardPrimer, String reversePrimer) {
+        List<BindingSite> sites = new ArrayList<>();
+        boolean truncated = findSites(0, forwardPrimer, sites) | findSites(1, reversePrimer, sites);
+        sites.sort(Comparator.comparingLong(BindingSite::position));
+
+        List<BindingSite> rightward = new ArrayList<>();
+        List<BindingSite> leftward = new ArrayList<>();
+        for (BindingSite site : sites) {
+            (site.extendsRight() ? rightward : leftward).add(site);
+        }
+        // Left-facing sites by product end, so each right-facing site scans a contiguous run
+        leftward.sort(Comparator.comparingLong(site -> site.position() + site.length()));
+
+        // Raw weights first, normalised to yields once the total is known
+        List<Amplicon> products = new ArrayList<>();
+        double total = 0;
+        int first = 0;
+        pairing:
+        for (BindingSite left : rightward) {
+            while (first < leftward.size() && end(leftward.get(first)) <= left.position()) first++;
+            for (int j = first; j < leftward.size(); j++) {
+                BindingSite right = leftward.get(j);
+                long size = end(right) - left.position();
+                if (size > maxProductSize) break;
+                if (right.position() < left.position()) continue;
+                if (products.size() == MAX_AMPLICONS) {
+                    truncated = true;
+                    break pairing;
+                }
+                double weight = Math.pow(MISMATCH_PENALTY, left.mismatches() + right.mismatches())
+                    / (1 + size / LENGTH_SCALE);
+                total += weight;
+                products.add(new Amplicon(left.position(), (int) size, left, right, weight));
+            }
+        }
+
+        List<Amplicon> amplicons = new ArrayList<>(products.size());
+        for (Amplicon a : products) {
+            amplicons.add(new Amplicon(a.start(), a.size(), a.left(), a.right(), a.relativeYield() / total));
+        }
+        amplicons.sort(Comparator.comparingDouble(Amplicon::relativeYield).reversed()
+            .thenComparingLong(Amplicon::start));
+        return new Result(sites, amplicons, truncated);
+    }
+
+    /**
+     * Sequence of a product on the plus strand.
+     */
+    public String sequence(Amplicon amplicon) {
+        return reference.substring(amplicon.start(), amplicon.size());
+    }
+
+    /**
+     * One gel band per distinct product size; products of the same size co-migrate.
+     */
+    static List<GelElectrophoresisSimulator.DnaFragment> gelFragments(List<Amplicon> amplicons) {
+        Map<Integer, Double> bySize = new LinkedHashMap<>();
+        for (Amplicon amplicon : amplicons) {
+            bySize.merge(amplicon.size(), amplicon.relativeYield(), Double::sum);
+        }
+        List<GelElectrophoresisSimulator.DnaFragment> fragments = new ArrayList<>(bySize.size());
+        bySize.forEach((size, yield) -> fragments.add(new GelElectrophoresisSimulator.DnaFragment(size, yield)));
+        return fragments;
+    }
+
+    private static long end(BindingSite site) {
+        return site.position() + site.length();
+    }
+
+    /**
+     * Collect one primer's extendable binding sites.
+     *
+     * @return True if the site limit was reached
+     */
+    private boolean findSites(int primerId, String primer, List<BindingSite> out) {
+        int length = primer.length();
+        if (length < THREE_PRIME_EXACT || length > MinimizerIndex.MAX_PATTERN_LENGTH) {
+            throw new IllegalArgumentException("Primer length must be " + THREE_PRIME_EXACT + "-"
+                + MinimizerIndex.MAX_PATTERN_LENGTH + ": " + length);
+        }
+        long packed = PackedSequence.pack(primer);
+        long threePrime = (1L << (2 * THREE_PRIME_EXACT)) - 1;
+        int found = 0;
+
+        for (MinimizerIndex.Hit hit : index.findMatches(packed, length, maxMismatches)) {
+            // Compare in primer orientation so the 3' end is always the low bits
+            long target = reference.kmer(hit.position(), length);
+            if (hit.reverse()) target = PackedSequence.reverseComplement(target, length);
+            if (((packed ^ target) & threePrime) != 0) continue;
+
+            if (found == MAX_SITES_PER_PRIMER) return true;
+            // A forward-strand match means the primer anneals to the minus strand and extends rightwards
+            out.add(new BindingSite(primerId, hit.position(), length, !hit.reverse(), hit.mismatches()));
+            found++;
+        }
+        return false;
+    }
+}
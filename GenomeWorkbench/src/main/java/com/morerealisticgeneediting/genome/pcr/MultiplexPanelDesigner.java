@@ -0,0 +1,450 @@
+package com.morerealisticgeneediting.genome.pcr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Designs multiplex PCR panels: one primer pair per target, chosen so that no two
+ * primers in the shared reaction form a stable dimer.
+ *
+ * Every distinct primer in the candidate pool is scored against every other (and
+ * itself) to build a primer x primer interaction matrix, in parallel over row chunks.
+ * Each score is the free energy of the strongest complementary stretch over all
+ * antiparallel alignments of the two primers:
+ * - Both primers are packed into words and one is reverse-complemented, so at each
+ *   alignment offset a single XOR marks the base-paired positions, and a popcount
+ *   skips offsets with too few pairs to matter.
+ * - Runs of consecutive pairs are read off with leading-zero counts and scored with
+ *   {@link NearestNeighborThermodynamics#deltaG}. Runs that include either 3' end can
+ *   be extended by the polymerase and count in full; internal runs count half.
+ *
+ * Selection starts greedily, placing the targets with the fewest alternatives first,
+ * then refines the panel with simulated annealing over per-target choices. The cost
+ * counts dimers below the free-energy threshold, Tm outliers (all primers share one
+ * annealing step) and pair quality. The random generator is seeded, so the same pool
+ * always gives the same panel.
+ *
+ * Educational note: the number of possible primer dimers grows with the square of the
+ * panel size, which is why large multiplex panels (e.g. AmpliSeq) are designed by
+ * software and split into several pools rather than assembled by hand.
+ */
+public final class MultiplexPanelDesigner {
+
+    // Dimers more stable than this (kcal/mol) are treated as incompatible
+    public static final double DEFAULT_MAX_DIMER_DELTA_G = -6.0;
+    // Allowed spread of pair Tm around the panel's common annealing temperature (°C)
+    public static final double DEFAULT_MAX_TM_SPREAD = 5.0;
+    public static final int MAX_PRIMERS = 4096;
+
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final int MIN_DIMER_RUN = 3;
+    private static final double INTERNAL_DIMER_WEIGHT = 0.5;
+    private static final int CHUNK_ROWS = 16;
+
+    // Cost weights: any dimer conflict outweighs all Tm and quality differences
+    private static final double CONFLICT_COST = 100.0;
+    private static final double TM_COST = 2.0;
+    private static final double SCORE_COST = 0.1;
+
+    // Annealing schedule
+    private static final int ANNEALING_SWEEPS = 200;
+    private static final double START_TEMPERATURE = 20.0;
+    private static final double END_TEMPERATURE = 0.05;
+
+    private final double maxDimerDeltaG;
+    private final double maxTmSpread;
+
+    /**
+     * Dimer free energies between all primers of a pool.
+     */
+    public static final class InteractionMatrix {
+        private final List<String> primers;
+        private final float[] deltaG;   // upper triangle, row by row
+
+        private InteractionMatrix(List<String> primers, float[] deltaG) {
+            this.primers = primers;
+            this.deltaG = deltaG;
+        }
+
+        public int size() {
+            return primers.size();
+        }
+
+        public String primer(int index) {
+            return primers.get(index);
+        }
+
+        /**
+         * Free energy (kcal/mol) of the strongest dimer between two primers; 0 if none.
+         */
+        public double deltaG(int i, int j) {
+            return deltaG[triangleIndex(Math.min(i, j), Math.max(i, j), primers.size())];
+        }
+    }
+
+    /**
+     * A primer dimer in a panel.
+     *
+     * @param first   One primer, 5' to 3'
+     * @param second  The other primer (equal to {@code first} for a self-dimer)
+     * @param deltaG  Free energy of the dimer (kcal/mol)
+     */
+    public record Dimer(String first, String second, double deltaG) {}
+
+    /**
+     * A designed panel.
+     *
+     * @param pairs                  Chosen pair for each target, in target order
+     * @param annealingTemperature   Common annealing temperature (°C): 5 °C below the lowest primer Tm
+     * @param tmSpread               Highest minus lowest primer Tm in the panel (°C)
+     * @param conflicts              Dimers beyond the free-energy threshold, strongest first
+     * @param worstDimerDeltaG       Free energy of the strongest dimer in the panel
+     */
+    public record Panel(
+        List<PrimerPairOptimizer.PrimerPair> pairs,
+        double annealingTemperature,
+        double tmSpread,
+        List<Dimer> conflicts,
+        double worstDimerDeltaG
+    ) {
+        public boolean isCompatible() {
+            return conflicts.isEmpty();
+        }
+
+        /**
+         * All primer sequences to pool into the reaction, forward then reverse per target.
+         */
+        public List<String> primerSequences() {
+            List<String> sequences = new ArrayList<>(pairs.size() * 2);
+            for (PrimerPairOptimizer.PrimerPair pair : pairs) {
+                sequences.add(pair.forward().sequence());
+                sequences.add(pair.reverse().sequence());
+            }
+            return sequences;
+        }
+    }
+
+    public MultiplexPanelDesigner() {
+        this(DEFAULT_MAX_DIMER_DELTA_G, DEFAULT_MAX_TM_SPREAD);
+    }
+
+    public MultiplexPanelDesigner(double maxDimerDeltaG, double maxTmSpread) {
+        if (maxDimerDeltaG > 0 || maxTmSpread < 0) {
+            throw new IllegalArgumentException("Invalid multiplex constraints: dG " + maxDimerDeltaG
+                + ", Tm spread " + maxTmSpread);
+        }
+        this.maxDimerDeltaG = maxDimerDeltaG;
+        this.maxTmSpread = maxTmSpread;
+    }
+
+    // ========== Dimer scoring ==========
+
+    /**
+     * Free energy (kcal/mol) of the strongest dimer two primers can form; 0 if they
+     * share no complementary stretch of at least {@value #MIN_DIMER_RUN} bases.
+     */
+    public static double dimerDeltaG(String first, String second) {
+        return dimerDeltaG(PackedSequence.pack(first), first.length(), PackedSequence.pack(second), second.length());
+    }
+
+    /**
+     * Dimer free energy of two packed primers (first base most significant).
+     */
+    static double dimerDeltaG(long first, int firstLength, long second, int secondLength) {
+        NearestNeighborThermodynamics thermo = NearestNeighborThermodynamics.standard();
+        // Left-justify so slot i (bits 63-2i, 62-2i) is base i; slot 0 of the second
+        // primer's reverse complement stands for its 3' base
+        long a = first << (64 - 2 * firstLength);
+        long b = PackedSequence.reverseComplement(second, secondLength) << (64 - 2 * secondLength);
+
+        double best = 0;
+        // Offset s puts base j of the reverse complement under base j + s of the first primer
+        for (int s = 1 - secondLength; s < firstLength; s++) {
+            long shifted = s >= 0 ? b >>> (2 * s) : b << (-2 * s);
+            int from = Math.max(0, s);
+            int to = Math.min(firstLength, secondLength + s);
+            long overlap = slotMask(from, to);
+
+            long diff = a ^ shifted;
+            long paired = ~(diff | (diff >>> 1)) & LOW_BITS & overlap;
+            if (Long.bitCount(paired) < MIN_DIMER_RUN) continue;
+
+            while (paired != 0) {
+                int start = Long.numberOfLeadingZeros(paired) >>> 1;
+                long aligned = paired << (2 * start);
+                int run = Long.numberOfLeadingZeros(~(aligned | (aligned << 1))) >>> 1;
+                paired &= ~slotMask(start, start + run);
+                if (run < MIN_DIMER_RUN) continue;
+
+                long stretch = (a << (2 * start)) >>> (64 - 2 * run);
+                double dg = thermo.deltaG(stretch, run);
+                // Extensible if the run reaches the first primer's 3' end or the second's (slot s)
+                boolean threePrime = start + run == firstLength || start == s;
+                best = Math.min(best, threePrime ? dg : dg * INTERNAL_DIMER_WEIGHT);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Low bits of slots {@code from} (inclusive) to {@code to} (exclusive) of a left-justified word.
+     */
+    private static long slotMask(int from, int to) {
+        if (to <= from) return 0;
+        long upTo = to >= 32 ? -1L : ~(-1L >>> (2 * to));
+        long before = from == 0 ? 0 : ~(-1L >>> (2 * from));
+        return upTo & ~before & LOW_BITS;
+    }
+
+    /**
+     * Score every pair of primers in parallel.
+     *
+     * @param primers Distinct primer sequences, 5' to 3', at most 32 bases each
+     */
+    public InteractionMatrix interactionMatrix(List<String> primers) {
+        int n = primers.size();
+        if (n > MAX_PRIMERS) {
+            throw new IllegalArgumentException("Too many primers for one interaction matrix: " + n);
+        }
+        long[] packed = new long[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = PackedSequence.pack(primers.get(i));
+            lengths[i] = primers.get(i).length();
+        }
+
+        // Row chunks write disjoint slices of the triangle
+        float[] deltaG = new float[n * (n + 1) / 2];
+        int chunks = (n + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int end = Math.min(n, (c + 1) * CHUNK_ROWS);
+            for (int i = c * CHUNK_ROWS; i < end; i++) {
+                int row = triangleIndex(i, i, n);
+                for (int j = i; j < n; j++) {
+                    deltaG[row + j - i] = (float) dimerDeltaG(packed[i], lengths[i], packed[j], lengths[j]);
+                }
+            }
+        });
+        return new InteractionMatrix(List.copyOf(primers), deltaG);
+    }
+
+    private static int triangleIndex(int i, int j, int n) {
+        return i * n - i * (i - 1) / 2 + (j - i);
+    }
+
+    // ========== Panel selection ==========
+
+    /**
+     * Choose one pair per target.
+     *
+     * @param alternatives Ranked primer pair alternatives for each target (e.g. from
+     *                     {@link PcrSimulator#designPrimerPairs}); none may be empty
+     * @param seed         Seed for the annealing search
+     */
+    public Panel design(List<List<PrimerPairOptimizer.PrimerPair>> alternatives, long seed) {
+        int targets = alternatives.size();
+        if (targets == 0) {
+            return new Panel(List.of(), Double.NaN, 0, List.of(), 0);
+        }
+
+        // Distinct primers across all alternatives, and each alternative's two matrix rows
+        Map<String, Integer> primerIds = new LinkedHashMap<>();
+        int[][] forwardId = new int[targets][];
+        int[][] reverseId = new int[targets][];
+        for (int t = 0; t < targets; t++) {
+            List<PrimerPairOptimizer.PrimerPair> options = alternatives.get(t);
+            if (options.isEmpty()) {
+                throw new IllegalArgumentException("Target " + t + " has no primer pair alternatives");
+            }
+            forwardId[t] = new int[options.size()];
+            reverseId[t] = new int[options.size()];
+            for (int a = 0; a < options.size(); a++) {
+                forwardId[t][a] = primerIds.computeIfAbsent(options.get(a).forward().sequence(), s -> primerIds.size());
+                reverseId[t][a] = primerIds.computeIfAbsent(options.get(a).reverse().sequence(), s -> primerIds.size());
+            }
+        }
+        InteractionMatrix matrix = interactionMatrix(new ArrayList<>(primerIds.keySet()));
+
+        // Shared annealing step: aim for the median pair Tm
+        double[] allTm = alternatives.stream().flatMap(List::stream)
+            .mapToDouble(MultiplexPanelDesigner::meanTm).sorted().toArray();
+        double targetTm = allTm[allTm.length / 2];
+
+        // Own cost of each alternative: its self- and cross-dimers, Tm offset and quality
+        double[][] ownCost = new double[targets][];
+        for (int t = 0; t < targets; t++) {
+            List<PrimerPairOptimizer.PrimerPair> options = alternatives.get(t);
+            ownCost[t] = new double[options.size()];
+            for (int a = 0; a < options.size(); a++) {
+                int f = forwardId[t][a], r = reverseId[t][a];
+                double tmOffset = Math.max(0, Math.abs(meanTm(options.get(a)) - targetTm) - maxTmSpread / 2);
+                ownCost[t][a] = penalty(matrix.deltaG(f, f)) + penalty(matrix.deltaG(r, r)) + penalty(matrix.deltaG(f, r))
+                    + TM_COST * tmOffset - SCORE_COST * options.get(a).score();
+            }
+        }
+
+        Selection selection = new Selection(matrix, forwardId, reverseId, ownCost);
+        selection.greedy();
+        selection.anneal(new SplittableRandom(seed));
+
+        List<PrimerPairOptimizer.PrimerPair> chosen = new ArrayList<>(targets);
+        for (int t = 0; t < targets; t++) {
+            chosen.add(alternatives.get(t).get(selection.best[t]));
+        }
+        return summarize(chosen, matrix, primerIds);
+    }
+
+    private double penalty(double deltaG) {
+        return deltaG < maxDimerDeltaG ? CONFLICT_COST + (maxDimerDeltaG - deltaG) : 0;
+    }
+
+    private static double meanTm(PrimerPairOptimizer.PrimerPair pair) {
+        return (pair.forward().meltingTemperature() + pair.reverse().meltingTemperature()) / 2;
+    }
+
+    /**
+     * Search state: the current choice per target and the best panel seen so far.
+     */
+    private final class Selection {
+        private final InteractionMatrix matrix;
+        private final int[][] forwardId;
+        private final int[][] reverseId;
+        private final double[][] ownCost;
+        private final int[] current;
+        private final int[] best;
+        private double currentCost;
+        private double bestCost;
+
+        Selection(InteractionMatrix matrix, int[][] forwardId, int[][] reverseId, double[][] ownCost) {
+            this.matrix = matrix;
+            this.forwardId = forwardId;
+            this.reverseId = reverseId;
+            this.ownCost = ownCost;
+            this.current = new int[ownCost.length];
+            this.best = new int[ownCost.length];
+        }
+
+        /**
+         * Cost of the dimers between alternative {@code a} of target {@code t} and alternative {@code b} of target {@code u}.
+         */
+        double crossCost(int t, int a, int u, int b) {
+            int f1 = forwardId[t][a], r1 = reverseId[t][a];
+            int f2 = forwardId[u][b], r2 = reverseId[u][b];
+            return penalty(matrix.deltaG(f1, f2)) + penalty(matrix.deltaG(f1, r2))
+                + penalty(matrix.deltaG(r1, f2)) + penalty(matrix.deltaG(r1, r2));
+        }
+
+        /**
+         * Cost of placing alternative {@code a} for target {@code t} against the targets already placed.
+         */
+        double placementCost(int t, int a, boolean[] placed) {
+            double cost = ownCost[t][a];
+            for (int u = 0; u < current.length; u++) {
+                if (u != t && placed[u]) cost += crossCost(t, a, u, current[u]);
+            }
+            return cost;
+        }
+
+        /**
+         * Place the most constrained targets first, each with its cheapest alternative.
+         */
+        void greedy() {
+            Integer[] order = new Integer[current.length];
+            for (int t = 0; t < order.length; t++) order[t] = t;
+            Arrays.sort(order, Comparator.comparingInt(t -> ownCost[t].length));
+
+            boolean[] placed = new boolean[current.length];
+            currentCost = 0;
+            for (int t : order) {
+                int choice = 0;
+                double cheapest = Double.POSITIVE_INFINITY;
+                for (int a = 0; a < ownCost[t].length; a++) {
+                    double cost = placementCost(t, a, placed);
+                    if (cost < cheapest) {
+                        cheapest = cost;
+                        choice = a;
+                    }
+                }
+                current[t] = choice;
+                placed[t] = true;
+                currentCost += cheapest;
+            }
+            System.arraycopy(current, 0, best, 0, current.length);
+            bestCost = currentCost;
+        }
+
+        /**
+         * Move one target to another alternative at a time, accepting worse panels with
+         * a probability that falls as the temperature cools.
+         */
+        void anneal(SplittableRandom random) {
+            int targets = current.length;
+            int steps = ANNEALING_SWEEPS * targets;
+            boolean[] all = new boolean[targets];
+            Arrays.fill(all, true);
+            double cooling = Math.pow(END_TEMPERATURE / START_TEMPERATURE, 1.0 / steps);
+            double temperature = START_TEMPERATURE;
+
+            for (int step = 0; step < steps; step++, temperature *= cooling) {
+                int t = random.nextInt(targets);
+                int options = ownCost[t].length;
+                if (options < 2) continue;
+                int a = random.nextInt(options - 1);
+                if (a >= current[t]) a++;
+
+                double delta = placementCost(t, a, all) - placementCost(t, current[t], all);
+                if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                    current[t] = a;
+                    currentCost += delta;
+                    if (currentCost < bestCost - 1e-9) {
+                        bestCost = currentCost;
+                        System.arraycopy(current, 0, best, 0, targets);
+                    }
+                }
+            }
+        }
+    }
+
+    private Panel summarize(List<PrimerPairOptimizer.PrimerPair> chosen, InteractionMatrix matrix,
+                            Map<String, Integer> primerIds) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (PrimerPairOptimizer.PrimerPair pair : chosen) {
+            distinct.add(pair.forward().sequence());
+            distinct.add(pair.reverse().sequence());
+        }
+        List<String> pool = new ArrayList<>(distinct);
+
+        List<Dimer> conflicts = new ArrayList<>();
+        double worst = 0;
+        for (int i = 0; i < pool.size(); i++) {
+            int p = primerIds.get(pool.get(i));
+            for (int j = i; j < pool.size(); j++) {
+                double dg = matrix.deltaG(p, primerIds.get(pool.get(j)));
+                worst = Math.min(worst, dg);
+                if (dg < maxDimerDeltaG) conflicts.add(new Dimer(pool.get(i), pool.get(j), dg));
+            }
+        }
+        conflicts.sort(Comparator.comparingDouble(Dimer::deltaG));
+
+        double minTm = Double.POSITIVE_INFINITY, maxTm = Double.NEGATIVE_INFINITY;
+        for (PrimerPairOptimizer.PrimerPair pair : chosen) {
+            for (PcrSimulator.Primer primer : List.of(pair.forward(), pair.reverse())) {
+                minTm = Math.min(minTm, primer.meltingTemperature());
+                maxTm = Math.max(maxTm, primer.meltingTemperature());
+            }
+        }
+        return new Panel(Collections.unmodifiableList(chosen), minTm - 5, maxTm - minTm,
+            Collections.unmodifiableList(conflicts), worst);
+    }
+}
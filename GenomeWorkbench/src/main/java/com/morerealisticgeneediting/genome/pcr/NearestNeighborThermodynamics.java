@@ -0,0 +1,253 @@
+package com.morerealisticgeneediting.genome.pcr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.TwoBitEncoding;
+
+/**
+ * Duplex stability from SantaLucia (1998) unified nearest-neighbour parameters.
+ *
+ * A duplex's enthalpy and entropy are the sums over its ten distinct dinucleotide
+ * stacks plus initiation terms for each terminal pair. Stacks are looked up in 16-entry
+ * tables indexed by the two bases' 2-bit codes, so packed oligos are scored four bits
+ * at a time without any String work. Region scans keep prefix sums of the stack terms,
+ * which gives every window's Tm in one O(n) pass regardless of window length.
+ *
+ * Salt is handled with SantaLucia's entropy correction, using the sodium equivalent of
+ * magnesium and dNTPs from von Ahsen et al. (2001).
+ *
+ * Educational note: the nearest-neighbour model explains why two primers with the same
+ * GC content can melt several degrees apart: GC/CG stacks are far more stable than
+ * GG/CC or AT/TA stacks.
+ */
+public final class NearestNeighborThermodynamics {
+
+    private static final double GAS_CONSTANT = 1.9872;   // cal/(K mol)
+    private static final double KELVIN = 273.15;
+    private static final double T37 = 310.15;
+
+    // Stack enthalpy (kcal/mol) and entropy (cal/(K mol)), indexed (5' base << 2) | 3' base
+    private static final double[] STACK_DH = new double[16];
+    private static final double[] STACK_DS = new double[16];
+    // Terminal pair initiation, indexed by the terminal base
+    private static final double[] INIT_DH = {2.3, 0.1, 0.1, 2.3};
+    private static final double[] INIT_DS = {4.1, -2.8, -2.8, 4.1};
+    private static final double SYMMETRY_DS = -1.4;
+
+    static {
+        stack("AA", -7.9, -22.2); stack("TT", -7.9, -22.2);
+        stack("AT", -7.2, -20.4);
+        stack("TA", -7.2, -21.3);
+        stack("CA", -8.5, -22.7); stack("TG", -8.5, -22.7);
+        stack("GT", -8.4, -22.4); stack("AC", -8.4, -22.4);
+        stack("CT", -7.8, -21.0); stack("AG", -7.8, -21.0);
+        stack("GA", -8.2, -22.2); stack("TC", -8.2, -22.2);
+        stack("CG", -10.6, -27.2);
+        stack("GC", -9.8, -24.4);
+        stack("GG", -8.0, -19.9); stack("CC", -8.0, -19.9);
+    }
+
+    private static void stack(String pair, double dh, double ds) {
+        int index = TwoBitEncoding.encodeBase(pair.charAt(0)) << 2 | TwoBitEncoding.encodeBase(pair.charAt(1));
+        STACK_DH[index] = dh;
+        STACK_DS[index] = ds;
+    }
+
+    private static final NearestNeighborThermodynamics STANDARD = new NearestNeighborThermodynamics(Conditions.standard());
+
+    private final Conditions conditions;
+    private final double saltPerStack;      // entropy correction per stack
+    private final double logConcentration;  // R ln(C/4) for non-self-complementary duplexes
+    private final double logConcentrationSelf;
+
+    /**
+     * Reaction conditions.
+     *
+     * @param sodiumMillimolar    Monovalent cation concentration (mM)
+     * @param magnesiumMillimolar Free Mg2+ concentration (mM)
+     * @param dntpMillimolar      Total dNTP concentration (mM), which chelates Mg2+
+     * @param oligoNanomolar      Primer concentration (nM)
+     */
+    public record Conditions(double sodiumMillimolar, double magnesiumMillimolar,
+                             double dntpMillimolar, double oligoNanomolar) {
+        /**
+         * Typical PCR conditions: 50 mM Na+, 1.5 mM Mg2+, 0.2 mM dNTPs, 250 nM primer.
+         */
+        public static Conditions standard() {
+            return new Conditions(50, 1.5, 0.2, 250);
+        }
+
+        /**
+         * Sodium-equivalent molarity: [Na+] + 120 * sqrt([Mg2+] - [dNTP]).
+         */
+        public double equivalentSodiumMolar() {
+            double freeMagnesium = Math.max(0, magnesiumMillimolar - dntpMillimolar);
+            return (sodiumMillimolar + 120 * Math.sqrt(freeMagnesium)) / 1000;
+        }
+    }
+
+    public NearestNeighborThermodynamics(Conditions conditions) {
+        if (conditions.oligoNanomolar() <= 0 || conditions.equivalentSodiumMolar() <= 0) {
+            throw new IllegalArgumentException("Oligo and salt concentrations must be positive: " + conditions);
+        }
+        this.conditions = conditions;
+        this.saltPerStack = 0.368 * Math.log(conditions.equivalentSodiumMolar());
+        double molar = conditions.oligoNanomolar() * 1e-9;
+        this.logConcentration = GAS_CONSTANT * Math.log(molar / 4);
+        this.logConcentrationSelf = GAS_CONSTANT * Math.log(molar);
+    }
+
+    /**
+     * The engine for {@link Conditions#standard()}.
+     */
+    public static NearestNeighborThermodynamics standard() {
+        return STANDARD;
+    }
+
+    public Conditions getConditions() {
+        return conditions;
+    }
+
+    // ========== Single oligos ==========
+
+    /**
+     * Melting temperature (°C) of an oligo with its perfect complement.
+     *
+     * @return The Tm, or NaN for sequences shorter than 2 bases or containing non-ACGT characters
+     */
+    public double meltingTemperature(CharSequence sequence) {
+        int length = sequence.length();
+        if (length < 2) return Double.NaN;
+        double dh = 0, ds = 0;
+        int previous = TwoBitEncoding.encodeBase(sequence.charAt(0));
+        if (previous < 0) return Double.NaN;
+        for (int i = 1; i < length; i++) {
+            int base = TwoBitEncoding.encodeBase(sequence.charAt(i));
+            if (base < 0) return Double.NaN;
+            int stack = previous << 2 | base;
+            dh += STACK_DH[stack];
+            ds += STACK_DS[stack];
+            previous = base;
+        }
+        int first = TwoBitEncoding.encodeBase(sequence.charAt(0));
+        return tm(dh, ds, length, first, previous, isSelfComplementary(sequence));
+    }
+
+    /**
+     * Melting temperature (°C) of a packed oligo (first base most significant, up to 32 bases).
+     */
+    public double meltingTemperature(long packed, int length) {
+        if (length < 2 || length > 32) return Double.NaN;
+        int first = (int) (packed >>> (2 * (length - 1))) & 0b11;
+        int last = (int) packed & 0b11;
+        return tm(stackSum(STACK_DH, packed, length), stackSum(STACK_DS, packed, length), length, first, last,
+            PackedSequence.reverseComplement(packed, length) == packed);
+    }
+
+    /**
+     * Melting temperatures of many packed oligos of equal length.
+     */
+    public void meltingTemperatures(long[] packed, int length, int count, double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = meltingTemperature(packed[i], length);
+        }
+    }
+
+    /**
+     * Duplex free energy at 37 °C (kcal/mol, negative is stable) for a packed oligo.
+     */
+    public double deltaG(long packed, int length) {
+        if (length < 2 || length > 32) return Double.NaN;
+        int first = (int) (packed >>> (2 * (length - 1))) & 0b11;
+        int last = (int) packed & 0b11;
+        double dh = stackSum(STACK_DH, packed, length) + INIT_DH[first] + INIT_DH[last];
+        double ds = stackSum(STACK_DS, packed, length) + INIT_DS[first] + INIT_DS[last] + saltPerStack * (length - 1);
+        if (PackedSequence.reverseComplement(packed, length) == packed) ds += SYMMETRY_DS;
+        return dh - T37 * ds / 1000;
+    }
+
+    // ========== Region scans ==========
+
+    /**
+     * Tm of every window of a region in one pass.
+     *
+     * @param region Sequence to scan
+     * @param window Window (primer) length, at least 2
+     * @return Tm of the window starting at each offset; NaN where the window contains a non-ACGT base
+     */
+    public double[] windowMeltingTemperatures(CharSequence region, int window) {
+        if (window < 2) {
+            throw new IllegalArgumentException("Window must be at least 2 bases: " + window);
+        }
+        int n = region.length();
+        if (n < window) return new double[0];
+
+        byte[] codes = new byte[n];
+        int[] invalidBefore = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int code = TwoBitEncoding.encodeBase(region.charAt(i));
+            codes[i] = (byte) Math.max(0, code);
+            invalidBefore[i + 1] = invalidBefore[i] + (code < 0 ? 1 : 0);
+        }
+
+        // Prefix sums over stacks: entry i covers stacks 0 .. i-1 (stack j joins bases j and j+1)
+        double[] dhBefore = new double[n];
+        double[] dsBefore = new double[n];
+        for (int j = 0; j + 1 < n; j++) {
+            int stack = codes[j] << 2 | codes[j + 1];
+            dhBefore[j + 1] = dhBefore[j] + STACK_DH[stack];
+            dsBefore[j + 1] = dsBefore[j] + STACK_DS[stack];
+        }
+
+        double[] result = new double[n - window + 1];
+        long mask = window >= 32 ? -1L : (1L << (2 * window)) - 1;
+        long forward = 0, reverse = 0;
+        for (int i = 0; i < n; i++) {
+            // Rolling packed window and its reverse complement for the symmetry check
+            if (window <= 32) {
+                forward = ((forward << 2) | codes[i]) & mask;
+                reverse = (reverse >>> 2) | ((long) (3 - codes[i]) << (2 * (window - 1)));
+            }
+            int start = i - window + 1;
+            if (start < 0) continue;
+            if (invalidBefore[i + 1] != invalidBefore[start]) {
+                result[start] = Double.NaN;
+                continue;
+            }
+            double dh = dhBefore[i] - dhBefore[start];
+            double ds = dsBefore[i] - dsBefore[start];
+            boolean symmetric = window <= 32 && forward == reverse;
+            result[start] = tm(dh, ds, window, codes[start], codes[i], symmetric);
+        }
+        return result;
+    }
+
+    // ========== Internals ==========
+
+    private double tm(double dh, double ds, int length, int first, int last, boolean selfComplementary) {
+        dh += INIT_DH[first] + INIT_DH[last];
+        ds += INIT_DS[first] + INIT_DS[last] + saltPerStack * (length - 1);
+        if (selfComplementary) ds += SYMMETRY_DS;
+        return 1000 * dh / (ds + (selfComplementary ? logConcentrationSelf : logConcentration)) - KELVIN;
+    }
+
+    /**
+     * Sum a stack table over a packed oligo: each overlapping 4-bit field is one stack.
+     */
+    private static double stackSum(double[] table, long packed, int length) {
+        double sum = 0;
+        for (int i = length - 2; i >= 0; i--) {
+            sum += table[(int) (packed >>> (2 * i)) & 0xF];
+        }
+        return sum;
+    }
+
+    private static boolean isSelfComplementary(CharSequence sequence) {
+        int length = sequence.length();
+        for (int i = 0; i < (length + 1) / 2; i++) {
+            int a = TwoBitEncoding.encodeBase(sequence.charAt(i));
+            int b = TwoBitEncoding.encodeBase(sequence.charAt(length - 1 - i));
+            if (a + b != 3) return false;
+        }
+        return true;
+    }
+}
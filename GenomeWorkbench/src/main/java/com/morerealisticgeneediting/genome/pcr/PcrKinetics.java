@@ -0,0 +1,309 @@
+package com.morerealisticgeneediting.genome.pcr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * PCR amplification as a branching process, with polymerase errors sampled by skipping.
+ *
+ * Each cycle every duplex is copied with probability E, which falls as primers and
+ * dNTPs run out: E = E0 * (1 - N / plateau). While there are few molecules the number
+ * copied is drawn exactly (a binomial draw), so low-input reactions vary from run to
+ * run; past {@link #STOCHASTIC_LIMIT} copies growth is deterministic. Counts are
+ * doubles, so a 40-cycle reaction cannot overflow.
+ *
+ * Errors are never drawn base by base. With a per-base error rate p, the gap to the
+ * next error is geometric, so one draw skips straight to each error:
+ * - The reported product follows one molecule's lineage back through the cycles. In
+ *   each cycle it was newly synthesised with probability q = 2E/(1+E) and then gains
+ *   the errors of one new strand.
+ * - Errors made while there are only a few hundred molecules are carried by a
+ *   sizeable share of the final product ("jackpot" mutations), so they are kept
+ *   individually with their frequency. Later errors are only summarised.
+ * Both cost O(cycles + errors) rather than O(cycles * length).
+ *
+ * In a multiplex reaction several products grow in one tube. They draw on the same
+ * dNTPs, so each slows as the total copy number approaches the plateau, while each
+ * pair's primers are only its 1/k share of a k-plex pool: a product also stops once it
+ * alone reaches plateau / k. Whichever runs out first limits it.
+ *
+ * Educational note: this is why PCR error frequency is usually quoted as
+ * error rate x length x doublings (Cline et al. 1996), and why an early error can show
+ * up in a large fraction of cloned products.
+ */
+public final class PcrKinetics {
+
+    // Typical copy number at which a 25 µL reaction stops growing
+    public static final double DEFAULT_PLATEAU_COPIES = 1e12;
+    // Mutations carried by at least this share of the product are tracked individually
+    public static final double TRACKED_FREQUENCY = 1e-3;
+    // Below this many copies each duplication is drawn at random
+    public static final long STOCHASTIC_LIMIT = 10_000;
+    // Share of polymerase substitutions that are transitions (A<->G, C<->T)
+    public static final double TRANSITION_FRACTION = 0.7;
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final RandomGenerator random;
+    private final double plateauCopies;
+
+    /**
+     * An individually tracked early mutation.
+     *
+     * @param position  Offset in the amplicon
+     * @param from      Template base
+     * @param to        Incorporated base
+     * @param cycle     Cycle in which the error was made (1-based)
+     * @param frequency Expected share of final product strands carrying it
+     */
+    public record Mutation(int position, char from, char to, int cycle, double frequency) {
+        /**
+         * Compact notation, e.g. {@code 12:A>G}.
+         */
+        public String notation() {
+            return String.format("%d:%c>%c", position, from, to);
+        }
+    }
+
+    /**
+     * Errors across the whole product.
+     *
+     * @param earlyMutations        Mutations above {@link #TRACKED_FREQUENCY}, most frequent first
+     * @param meanErrorsPerMolecule Expected errors per final duplex
+     * @param errorFreeFraction     Expected share of product with no errors
+     * @param transitionFraction    Share of errors that are transitions
+     */
+    public record MutationSpectrum(List<Mutation> earlyMutations, double meanErrorsPerMolecule,
+                                   double errorFreeFraction, double transitionFraction) {
+        public static MutationSpectrum none() {
+            return new MutationSpectrum(List.of(), 0, 1, 0);
+        }
+    }
+
+    /**
+     * Outcome of one reaction.
+     *
+     * @param copiesByCycle    Duplex copies after each cycle (index 0 is the input)
+     * @param product          Sequence of one sampled product molecule
+     * @param productMutations Errors in that molecule, in the order they were made
+     * @param spectrum         Errors across the whole product
+     */
+    public record Result(double[] copiesByCycle, String product, List<Mutation> productMutations,
+                         MutationSpectrum spectrum) {
+        public double finalCopies() {
+            return copiesByCycle[copiesByCycle.length - 1];
+        }
+
+        public double log10Copies() {
+            return Math.log10(finalCopies());
+        }
+
+        /**
+         * Mean per-cycle efficiency actually achieved, plateau included.
+         */
+        public double realizedEfficiency() {
+            int cycles = copiesByCycle.length - 1;
+            if (cycles == 0 || copiesByCycle[0] <= 0) return 0;
+            return Math.pow(finalCopies() / copiesByCycle[0], 1.0 / cycles) - 1;
+        }
+
+        /**
+         * First cycle whose copy number reaches a detection threshold (the qPCR Ct), or -1.
+         */
+        public int thresholdCycle(double copies) {
+            for (int cycle = 0; cycle < copiesByCycle.length; cycle++) {
+                if (copiesByCycle[cycle] >= copies) return cycle;
+            }
+            return -1;
+        }
+    }
+
+    public PcrKinetics(RandomGenerator random) {
+        this(random, DEFAULT_PLATEAU_COPIES);
+    }
+
+    public PcrKinetics(RandomGenerator random, double plateauCopies) {
+        if (!(plateauCopies > 0)) {
+            throw new IllegalArgumentException("Plateau copy number must be positive: " + plateauCopies);
+        }
+        this.random = random;
+        this.plateauCopies = plateauCopies;
+    }
+
+    // ========== Amplification ==========
+
+    /**
+     * Amplify a template.
+     *
+     * @param template       Amplicon sequence
+     * @param initialCopies  Template duplexes in the reaction (at least 1)
+     * @param efficiency     Per-cycle efficiency before plateau (0-1)
+     * @param cycles         Number of cycles
+     * @param errorRate      Polymerase errors per base per duplication
+     */
+    public Result amplify(String template, double initialCopies, double efficiency, int cycles, double errorRate) {
+        checkArguments(initialCopies, efficiency, cycles, errorRate);
+        return sample(template, growth(initialCopies, efficiency, cycles), errorRate);
+    }
+
+    /**
+     * Amplify several products in one tube, sharing dNTPs and a primer pool.
+     *
+     * @param templates     Amplicon sequences, one per product
+     * @param initialCopies Template duplexes of each product (at least 1)
+     * @param efficiencies  Per-cycle efficiency of each product before plateau (0-1)
+     * @param cycles        Number of cycles
+     * @param errorRate     Polymerase errors per base per duplication
+     * @return One result per template, in order
+     */
+    public List<Result> amplifyMultiplex(List<String> templates, double initialCopies, double[] efficiencies,
+                                         int cycles, double errorRate) {
+        if (templates.size() != efficiencies.length || templates.isEmpty()) {
+            throw new IllegalArgumentException("Need one efficiency per product: " + templates.size()
+                + " templates, " + efficiencies.length + " efficiencies");
+        }
+        for (double efficiency : efficiencies) checkArguments(initialCopies, efficiency, cycles, errorRate);
+        double[][] copies = growth(initialCopies, efficiencies, cycles);
+        List<Result> results = new ArrayList<>(templates.size());
+        for (int i = 0; i < templates.size(); i++) {
+            results.add(sample(templates.get(i), copies[i], errorRate));
+        }
+        return results;
+    }
+
+    private static void checkArguments(double initialCopies, double efficiency, int cycles, double errorRate) {
+        if (initialCopies < 1 || cycles < 0 || efficiency < 0 || efficiency > 1 || errorRate < 0 || errorRate >= 1) {
+            throw new IllegalArgumentException("Invalid PCR kinetics: " + initialCopies + " copies, E=" + efficiency
+                + ", " + cycles + " cycles, error rate " + errorRate);
+        }
+    }
+
+    /**
+     * Sample the reported product and the early errors of a product that grew as {@code copies}.
+     */
+    private Result sample(String template, double[] copies, double errorRate) {
+        int cycles = copies.length - 1;
+        int length = template.length();
+
+        // One lineage, for the reported product
+        char[] product = template.toCharArray();
+        List<Mutation> productMutations = new ArrayList<>();
+        double meanErrors = 0;
+        for (int cycle = 1; cycle <= cycles; cycle++) {
+            double newShare = newlySynthesizedShare(copies, cycle);
+            meanErrors += newShare * errorRate * length;
+            if (random.nextDouble() >= newShare) continue;
+            for (long pos = nextError(-1, errorRate); pos < length; pos = nextError(pos, errorRate)) {
+                productMutations.add(mutate(product, (int) pos, cycle, 1.0));
+            }
+        }
+
+        // Early errors across all new strands: position in the concatenation of every new strand
+        List<Mutation> early = new ArrayList<>();
+        char[] scratch = template.toCharArray();
+        for (int cycle = 1; cycle <= cycles; cycle++) {
+            double frequency = 1 / (2 * copies[cycle]);
+            if (frequency < TRACKED_FREQUENCY) break;
+            long newStrands = Math.round(2 * (copies[cycle] - copies[cycle - 1]));
+            long bases = newStrands * length;
+            for (long pos = nextError(-1, errorRate); pos < bases; pos = nextError(pos, errorRate)) {
+                int offset = (int) (pos % length);
+                early.add(mutate(scratch, offset, cycle, frequency));
+                scratch[offset] = template.charAt(offset);
+            }
+        }
+        early.sort((a, b) -> Double.compare(b.frequency(), a.frequency()));
+
+        int transitions = 0;
+        for (Mutation mutation : early) if (isTransition(mutation)) transitions++;
+        for (Mutation mutation : productMutations) if (isTransition(mutation)) transitions++;
+        int sampled = early.size() + productMutations.size();
+        MutationSpectrum spectrum = new MutationSpectrum(early, meanErrors, Math.exp(-meanErrors),
+            sampled == 0 ? TRANSITION_FRACTION : (double) transitions / sampled);
+
+        return new Result(copies, new String(product), productMutations, spectrum);
+    }
+
+    /**
+     * Duplex copies after each cycle.
+     */
+    public double[] growth(double initialCopies, double efficiency, int cycles) {
+        return growth(initialCopies, new double[] {efficiency}, cycles)[0];
+    }
+
+    /**
+     * Duplex copies of each product of a multiplex reaction after each cycle.
+     *
+     * @return [product][cycle]
+     */
+    public double[][] growth(double initialCopies, double[] efficiencies, int cycles) {
+        int products = efficiencies.length;
+        double primerPlateau = plateauCopies / products;
+        double[][] copies = new double[products][cycles + 1];
+        for (int i = 0; i < products; i++) copies[i][0] = initialCopies;
+        for (int cycle = 1; cycle <= cycles; cycle++) {
+            double total = 0;
+            for (int i = 0; i < products; i++) total += copies[i][cycle - 1];
+            for (int i = 0; i < products; i++) {
+                double n = copies[i][cycle - 1];
+                double depletion = Math.max(total / plateauCopies, n / primerPlateau);
+                double e = efficiencies[i] * Math.max(0, 1 - depletion);
+                copies[i][cycle] = n < STOCHASTIC_LIMIT ? n + binomial((long) n, e) : n * (1 + e);
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Probability that a random duplex after {@code cycle} was made in that cycle:
+     * each duplication yields two duplexes, both containing one new strand.
+     */
+    private static double newlySynthesizedShare(double[] copies, int cycle) {
+        return copies[cycle] <= 0 ? 0 : Math.min(1, 2 * (copies[cycle] - copies[cycle - 1]) / copies[cycle]);
+    }
+
+    // ========== Sampling ==========
+
+    /**
+     * Index of the next error after {@code pos}: one geometric draw per error.
+     */
+    private long nextError(long pos, double rate) {
+        if (rate <= 0) return Long.MAX_VALUE;
+        double gap = Math.floor(Math.log(1 - random.nextDouble()) / Math.log1p(-rate));
+        return gap >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE : pos + 1 + (long) gap;
+    }
+
+    /**
+     * Successes in {@code n} trials, drawn by skipping over the rarer outcome.
+     */
+    private long binomial(long n, double p) {
+        if (p <= 0 || n == 0) return 0;
+        if (p >= 1) return n;
+        if (p > 0.5) return n - binomial(n, 1 - p);
+        long count = 0;
+        for (long pos = nextError(-1, p); pos < n; pos = nextError(pos, p)) count++;
+        return count;
+    }
+
+    private Mutation mutate(char[] sequence, int position, int cycle, double frequency) {
+        char from = sequence[position];
+        int code = switch (from) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> random.nextInt(4);
+        };
+        // Transition flips the purine/pyrimidine-preserving bit; transversions the others
+        int substituted = random.nextDouble() < TRANSITION_FRACTION ? code ^ 2 : code ^ (random.nextBoolean() ? 1 : 3);
+        sequence[position] = BASES[substituted];
+        return new Mutation(position, from, BASES[substituted], cycle, frequency);
+    }
+
+    private static boolean isTransition(Mutation mutation) {
+        String purines = "AG";
+        return (purines.indexOf(Character.toUpperCase(mutation.from())) >= 0)
+            == (purines.indexOf(mutation.to()) >= 0);
+    }
+}
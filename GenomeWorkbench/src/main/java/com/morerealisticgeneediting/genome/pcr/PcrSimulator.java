@@ -1,6 +1,9 @@
 package com.morerealisticgeneediting.genome.pcr;
 
 import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.analysis.GelElectrophoresisSimulator;
+import com.morerealisticgeneediting.genome.index.MinimizerIndex;
+import com.morerealisticgeneediting.genome.index.RepeatMask;
 
 import java.util.*;
 
@@ -26,20 +29,47 @@ public class PcrSimulator {
     public static final int MIN_PRIMER_LENGTH = 18;
     public static final int MAX_PRIMER_LENGTH = 30;
     public static final int OPTIMAL_PRIMER_LENGTH = 20;
+    public static final int MAX_STANDARD_AMPLICON = 10000;
+    // Template duplexes in a typical reaction (~30 ng of human genomic DNA)
+    public static final double TEMPLATE_COPIES = 10_000;
     
-    // Melting temperature constants (simplified)
-    private static final double TM_BASE = 64.9;
-    private static final double TM_GC_CONTRIB = 0.41;
-    private static final double TM_LENGTH_PENALTY = 600.0;
+    // Acceptable primer melting temperature range (°C)
+    private static final double MIN_PRIMER_TM = 55.0;
+    private static final double MAX_PRIMER_TM = 65.0;
+    
+    // A primer is repetitive when more than this fraction of it is repeat-masked
+    private static final double MAX_PRIMER_MASKED_FRACTION = 0.25;
     
     private final Random random;
     private final long seed;
+    private RepeatMask repeatMask;
+    private MinimizerIndex referenceIndex;
     
     public PcrSimulator(long seed) {
         this.seed = seed;
         this.random = new Random(seed);
     }
     
+    /**
+     * Use a precomputed repeat mask when designing primers instead of rescanning each candidate.
+     * The mask must cover the same coordinates as the genomes passed to {@link #designPrimers}.
+     *
+     * @param repeatMask The mask, or null to fall back to per-primer repeat detection
+     */
+    public void setRepeatMask(RepeatMask repeatMask) {
+        this.repeatMask = repeatMask;
+    }
+    
+    /**
+     * Predict products with genome-wide in-silico PCR instead of taking the first binding site of each primer.
+     * The index must cover the same coordinates as the genomes passed to {@link #runPcr}.
+     *
+     * @param referenceIndex The reference index, or null to fall back to a sequential scan
+     */
+    public void setReferenceIndex(MinimizerIndex referenceIndex) {
+        this.referenceIndex = referenceIndex;
+    }
+    
     /**
      * Represents a PCR primer with its properties.
      */
@@ -53,9 +83,22 @@ public class PcrSimulator {
         boolean hasPrimerDimerRisk
     ) {
         public static Primer design(String sequence, boolean isForward) {
-            double tm = calculateMeltingTemperature(sequence);
+            return design(sequence, isForward, hasRepeats(sequence));
+        }
+        
+        /**
+         * Design a primer whose repeat status is already known (e.g. from a {@link RepeatMask}).
+         */
+        public static Primer design(String sequence, boolean isForward, boolean repetitive) {
+            return design(sequence, isForward, repetitive, calculateMeltingTemperature(sequence));
+        }
+        
+        /**
+         * Design a primer whose Tm was already computed (e.g. by a region scan).
+         */
+        public static Primer design(String sequence, boolean isForward, boolean repetitive, double tm) {
             double gc = calculateGcContent(sequence);
-            double specificity = calculateSpecificity(sequence);
+            double specificity = calculateSpecificity(sequence, repetitive);
             boolean selfComp = checkSelfComplementarity(sequence);
             boolean dimerRisk = checkPrimerDimerRisk(sequence);
             
@@ -63,30 +106,25 @@ public class PcrSimulator {
         }
         
         private static double calculateMeltingTemperature(String seq) {
-            // Simplified Tm calculation (Wallace rule + salt adjustment)
-            int gc = 0, at = 0;
-            for (char c : seq.toUpperCase().toCharArray()) {
-                if (c == 'G' || c == 'C') gc++;
-                else if (c == 'A' || c == 'T') at++;
-            }
-            // Basic formula: Tm = 4(G+C) + 2(A+T) for short oligos
-            // More accurate: Tm = 64.9 + 41*(G+C-16.4)/N
-            return TM_BASE + TM_GC_CONTRIB * (gc - 16.4) * 100 / seq.length() - TM_LENGTH_PENALTY / seq.length();
+            // SantaLucia nearest-neighbour Tm under standard PCR salt conditions
+            return NearestNeighborThermodynamics.standard().meltingTemperature(seq);
         }
         
         private static double calculateGcContent(String seq) {
-            long gc = seq.toUpperCase().chars()
-                .filter(c -> c == 'G' || c == 'C')
-                .count();
+            int gc = 0;
+            for (int i = 0; i < seq.length(); i++) {
+                char c = seq.charAt(i);
+                if (c == 'G' || c == 'C' || c == 'g' || c == 'c') gc++;
+            }
             return (double) gc / seq.length();
         }
         
-        private static double calculateSpecificity(String seq) {
+        private static double calculateSpecificity(String seq, boolean repetitive) {
             // Simplified specificity score based on sequence uniqueness
             double score = 0.8;
             
             // Penalize repetitive sequences
-            if (hasRepeats(seq)) score -= 0.2;
+            if (repetitive) score -= 0.2;
             
             // Penalize low complexity
             Set<Character> uniqueBases = new HashSet<>();
@@ -162,12 +200,33 @@ public class PcrSimulator {
         String amplicon,
         int ampliconLength,
         double yield,           // Relative yield (0-1)
-        int totalCopies,        // Estimated copy number
+        double totalCopies,     // Estimated copy number (can exceed 2^31)
         double errorRate,
         List<String> mutations, // List of introduced mutations
         List<String> warnings,
-        PcrQualityMetrics quality
-    ) {}
+        PcrQualityMetrics quality,
+        List<InSilicoPcr.Amplicon> products,  // Every predicted product (empty without a reference index)
+        PcrKinetics.MutationSpectrum errorSpectrum  // Polymerase errors across the whole product
+    ) {
+        public double log10Copies() {
+            return totalCopies > 0 ? Math.log10(totalCopies) : Double.NEGATIVE_INFINITY;
+        }
+        
+        /**
+         * Load the reaction into a gel lane: one band per predicted product, or the main amplicon alone.
+         */
+        public GelElectrophoresisSimulator.DnaSample toGelSample(String name, double concentration) {
+            if (products.isEmpty()) {
+                return GelElectrophoresisSimulator.DnaSample.single(name, ampliconLength, concentration);
+            }
+            return new GelElectrophoresisSimulator.DnaSample(name, InSilicoPcr.gelFragments(products), concentration);
+        }
+    }
+    
+    /**
+     * One primer pair of a (possibly multiplexed) reaction.
+     */
+    public record Assay(Primer forward, Primer reverse) {}
     
     /**
      * Quality metrics for PCR result.
@@ -190,34 +249,75 @@ public class PcrSimulator {
      * @return Pair of forward and reverse primers
      */
     public List<Primer> designPrimers(Genome genome, long targetStart, long targetEnd, int primerLength) {
-        // Get flanking sequences for primer design
-        int flankingSize = primerLength + 50;  // Extra for optimization
-        
-        String upstreamRegion = genome.getSequence(targetStart - flankingSize, flankingSize);
+        // Flanking sequences for primer design, with some extra room for optimization
+        List<PrimerPairOptimizer.PrimerPair> best =
+            designPrimerPairs(genome, targetStart, targetEnd, primerLength, primerLength + 50, 1);
+        if (best.isEmpty()) {
+            return List.of();
+        }
+        return List.of(best.get(0).forward(), best.get(0).reverse());
+    }
+    
+    /**
+     * Design ranked primer pair alternatives for a target region. Flanks of several
+     * kilobases are fine: pairs are pruned by Tm and product size instead of all being scored.
+     * 
+     * @param genome Target genome
+     * @param targetStart Start position of region to amplify
+     * @param targetEnd End position of region to amplify
+     * @param primerLength Desired primer length
+     * @param flankingSize Bases either side of the target to place primers in
+     * @param limit Maximum number of pairs to return
+     * @return Primer pairs, best first
+     */
+    public List<PrimerPairOptimizer.PrimerPair> designPrimerPairs(Genome genome, long targetStart, long targetEnd,
+                                                                  int primerLength, int flankingSize, int limit) {
+        long upstreamStart = Math.max(0, targetStart - flankingSize);
+        String upstreamRegion = genome.getSequence(upstreamStart, (int) (targetStart - upstreamStart));
         String downstreamRegion = genome.getSequence(targetEnd, flankingSize);
         
-        List<Primer> candidates = new ArrayList<>();
+        List<PrimerPairOptimizer.Candidate> forward = new ArrayList<>();
+        List<PrimerPairOptimizer.Candidate> reverse = new ArrayList<>();
+        
+        // Tm of every window in one pass; a duplex melts the same from either strand,
+        // so downstream windows also give the reverse primers' Tm
+        NearestNeighborThermodynamics thermo = NearestNeighborThermodynamics.standard();
+        double[] upstreamTm = thermo.windowMeltingTemperatures(upstreamRegion, primerLength);
+        double[] downstreamTm = thermo.windowMeltingTemperatures(downstreamRegion, primerLength);
         
         // Design forward primers from upstream region
-        for (int i = 0; i <= upstreamRegion.length() - primerLength; i++) {
+        for (int i = 0; i < upstreamTm.length; i++) {
+            if (!isTmAcceptable(upstreamTm[i])) continue;
             String seq = upstreamRegion.substring(i, i + primerLength);
-            Primer primer = Primer.design(seq, true);
+            Primer primer = Primer.design(seq, true, isRepetitive(seq, upstreamStart + i), upstreamTm[i]);
             if (isPrimerAcceptable(primer)) {
-                candidates.add(primer);
+                forward.add(new PrimerPairOptimizer.Candidate(primer, upstreamStart + i));
             }
         }
         
         // Design reverse primers from downstream region (reverse complement)
-        for (int i = 0; i <= downstreamRegion.length() - primerLength; i++) {
+        for (int i = 0; i < downstreamTm.length; i++) {
+            if (!isTmAcceptable(downstreamTm[i])) continue;
             String seq = reverseComplement(downstreamRegion.substring(i, i + primerLength));
-            Primer primer = Primer.design(seq, false);
+            Primer primer = Primer.design(seq, false, isRepetitive(seq, targetEnd + i), downstreamTm[i]);
             if (isPrimerAcceptable(primer)) {
-                candidates.add(primer);
+                reverse.add(new PrimerPairOptimizer.Candidate(primer, targetEnd + i));
             }
         }
         
-        // Select best primer pair
-        return selectBestPrimerPair(candidates);
+        // Select the best primer pairs
+        return new PrimerPairOptimizer(1, MAX_STANDARD_AMPLICON).optimize(forward, reverse, limit);
+    }
+    
+    /**
+     * Repeat check for a primer at a genomic position: a mask lookup when available,
+     * otherwise a scan of the primer sequence itself.
+     */
+    private boolean isRepetitive(String seq, long genomicStart) {
+        if (repeatMask != null && genomicStart >= 0) {
+            return repeatMask.maskedCount(genomicStart, seq.length()) > seq.length() * MAX_PRIMER_MASKED_FRACTION;
+        }
+        return Primer.hasRepeats(seq);
     }
     
     /**
@@ -230,74 +330,213 @@ public class PcrSimulator {
      * @return PCR result
      */
     public PcrResult runPcr(Genome genome, Primer forwardPrimer, Primer reversePrimer, ReactionParameters params) {
+        return runPcr(genome, forwardPrimer, reversePrimer, params, null);
+    }
+    
+    /**
+     * Run a PCR simulation with an in-silico prediction shared between reactions that use
+     * the same primers (see {@link PlatePcr}).
+     * 
+     * @param prediction Products of this primer pair, or null to predict them here
+     *                   (with a reference index) or scan for binding sites
+     */
+    PcrResult runPcr(Genome genome, Primer forwardPrimer, Primer reversePrimer, ReactionParameters params,
+                     InSilicoPcr.Result prediction) {
         List<String> warnings = new ArrayList<>();
+        Reaction reaction = prepare(genome, forwardPrimer, reversePrimer, params, prediction, warnings);
+        if (reaction == null) return failedResult(warnings);
         
-        // Validate primers
-        if (!validatePrimerPair(forwardPrimer, reversePrimer, warnings)) {
-            return new PcrResult(false, "", 0, 0, 0, 0, List.of(), warnings,
-                new PcrQualityMetrics(0, 0, false, false, 0));
+        double errorRate = errorRate(params);
+        return finish(reaction, amplify(reaction.template(), reaction.efficiency(), errorRate, params), errorRate);
+    }
+    
+    /**
+     * Run a multiplex PCR: every assay's primers in one tube. The products compete for the
+     * same dNTPs and primer pool (see {@link PcrKinetics}), so a strong product holds the
+     * others back.
+     * 
+     * @return One result per assay, in order
+     */
+    public List<PcrResult> runMultiplexPcr(Genome genome, List<Assay> assays, ReactionParameters params) {
+        return runMultiplexPcr(genome, assays, params, Collections.nCopies(assays.size(), null));
+    }
+    
+    /**
+     * Run a multiplex PCR with in-silico predictions shared between reactions.
+     * 
+     * @param predictions Products of each assay (an element may be null, as for {@link #runPcr})
+     */
+    List<PcrResult> runMultiplexPcr(Genome genome, List<Assay> assays, ReactionParameters params,
+                                    List<InSilicoPcr.Result> predictions) {
+        PcrResult[] results = new PcrResult[assays.size()];
+        List<Reaction> reactions = new ArrayList<>();
+        List<Integer> amplified = new ArrayList<>();
+        for (int i = 0; i < assays.size(); i++) {
+            Assay assay = assays.get(i);
+            List<String> warnings = new ArrayList<>();
+            Reaction reaction = prepare(genome, assay.forward(), assay.reverse(), params, predictions.get(i), warnings);
+            if (reaction == null) {
+                results[i] = failedResult(warnings);
+            } else {
+                reactions.add(reaction);
+                amplified.add(i);
+            }
         }
         
-        // Find primer binding sites
-        long forwardSite = findPrimerBindingSite(genome, forwardPrimer, 0, genome.getTotalLength());
-        if (forwardSite < 0) {
-            warnings.add("Forward primer binding site not found");
-            return failedResult(warnings);
+        if (!reactions.isEmpty()) {
+            double errorRate = errorRate(params);
+            double[] efficiencies = new double[reactions.size()];
+            List<String> templates = new ArrayList<>(reactions.size());
+            for (int j = 0; j < reactions.size(); j++) {
+                efficiencies[j] = reactions.get(j).efficiency();
+                templates.add(reactions.get(j).template());
+            }
+            List<PcrKinetics.Result> kinetics = new PcrKinetics(random, plateau(params))
+                .amplifyMultiplex(templates, TEMPLATE_COPIES, efficiencies, params.cycles(), errorRate);
+            for (int j = 0; j < reactions.size(); j++) {
+                results[amplified.get(j)] = finish(reactions.get(j), kinetics.get(j), errorRate);
+            }
         }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * A reaction whose product has been located but not yet amplified.
+     * 
+     * @param prediction In-silico prediction the product came from, or null if binding sites were scanned
+     */
+    private record Reaction(Primer forward, Primer reverse, String template, int ampliconLength,
+                            double efficiency, InSilicoPcr.Result prediction, List<String> warnings) {}
+    
+    /**
+     * Validate the primers and locate the product, from an in-silico prediction when there
+     * is one and by scanning for binding sites otherwise.
+     * 
+     * @return The reaction, or null if nothing can be amplified (the reason is in {@code warnings})
+     */
+    private Reaction prepare(Genome genome, Primer forwardPrimer, Primer reversePrimer, ReactionParameters params,
+                             InSilicoPcr.Result prediction, List<String> warnings) {
+        if (!validatePrimerPair(forwardPrimer, reversePrimer, warnings)) return null;
         
-        long reverseSite = findPrimerBindingSite(genome, reversePrimer, forwardSite, genome.getTotalLength());
-        if (reverseSite < 0) {
-            warnings.add("Reverse primer binding site not found");
-            return failedResult(warnings);
+        if (prediction == null && referenceIndex != null) {
+            prediction = new InSilicoPcr(referenceIndex).amplify(forwardPrimer.sequence(), reversePrimer.sequence());
         }
         
-        // Calculate amplicon length
-        int ampliconLength = (int)(reverseSite - forwardSite + reversePrimer.sequence().length());
-        if (ampliconLength > 10000) {
+        long start;
+        int ampliconLength;
+        if (prediction != null) {
+            if (prediction.amplicons().isEmpty()) {
+                warnings.add("No amplicon predicted for this primer pair");
+                return null;
+            }
+            InSilicoPcr.Amplicon primary = prediction.amplicons().get(0);
+            start = primary.start();
+            ampliconLength = primary.size();
+        } else {
+            // Find primer binding sites
+            long forwardSite = findPrimerBindingSite(genome, forwardPrimer, 0, genome.getTotalLength());
+            if (forwardSite < 0) {
+                warnings.add("Forward primer binding site not found");
+                return null;
+            }
+            
+            long reverseSite = findPrimerBindingSite(genome, reversePrimer, forwardSite, genome.getTotalLength());
+            if (reverseSite < 0) {
+                warnings.add("Reverse primer binding site not found");
+                return null;
+            }
+            
+            start = forwardSite;
+            ampliconLength = (int)(reverseSite - forwardSite + reversePrimer.sequence().length());
+        }
+        if (ampliconLength > MAX_STANDARD_AMPLICON) {
             warnings.add("Amplicon too long for standard PCR: " + ampliconLength + "bp");
         }
         
-        // Get template sequence
-        String template = genome.getSequence(forwardSite, ampliconLength);
-        
-        // Simulate amplification
-        double efficiency = calculateEfficiency(forwardPrimer, reversePrimer, params);
-        int copies = simulateAmplification(params.cycles(), efficiency);
+        return new Reaction(forwardPrimer, reversePrimer, genome.getSequence(start, ampliconLength), ampliconLength,
+            calculateEfficiency(forwardPrimer, reversePrimer, params), prediction, warnings);
+    }
+    
+    /**
+     * Build the result of an amplified reaction. With an in-silico prediction the strongest
+     * product is amplified and sequenced and the others become the reaction's non-specific bands.
+     */
+    private PcrResult finish(Reaction reaction, PcrKinetics.Result kinetics, double errorRate) {
+        Primer forwardPrimer = reaction.forward();
+        Primer reversePrimer = reaction.reverse();
+        InSilicoPcr.Result prediction = reaction.prediction();
+        List<String> warnings = reaction.warnings();
+        double efficiency = reaction.efficiency();
+        double copies = kinetics.finalCopies();
+        String amplicon = kinetics.product();
+        List<String> mutations = mutationNotations(kinetics);
+        boolean hasDimers = forwardPrimer.hasPrimerDimerRisk() || reversePrimer.hasPrimerDimerRisk();
         
-        // Introduce PCR errors
-        double errorRate = params.useHighFidelityPolymerase() ? 
-            HF_POLYMERASE_ERROR_RATE : TAQ_ERROR_RATE;
-        List<String> mutations = new ArrayList<>();
-        String amplicon = introduceErrors(template, errorRate, params.cycles(), mutations);
+        if (prediction == null) {
+            // Calculate quality metrics
+            double specificity = calculateSpecificityScore(forwardPrimer, reversePrimer);
+            boolean hasNonSpecific = random.nextDouble() < (1 - specificity);
+            
+            PcrQualityMetrics quality = new PcrQualityMetrics(
+                efficiency,
+                specificity,
+                hasDimers,
+                hasNonSpecific,
+                hasDimers || hasNonSpecific ? 0.7 : 0.95
+            );
+            
+            // Check for warnings
+            if (hasDimers) warnings.add("Primer dimers detected");
+            if (hasNonSpecific) warnings.add("Non-specific amplification detected");
+            if (!mutations.isEmpty()) warnings.add("PCR errors introduced: " + mutations.size());
+            
+            return new PcrResult(
+                true,
+                amplicon,
+                reaction.ampliconLength(),
+                efficiency,
+                copies,
+                errorRate,
+                mutations,
+                warnings,
+                quality,
+                List.of(),
+                kinetics.spectrum()
+            );
+        }
         
-        // Calculate quality metrics
-        double specificity = calculateSpecificityScore(forwardPrimer, reversePrimer);
-        boolean hasDimers = forwardPrimer.hasPrimerDimerRisk() || reversePrimer.hasPrimerDimerRisk();
-        boolean hasNonSpecific = random.nextDouble() < (1 - specificity);
+        InSilicoPcr.Amplicon primary = prediction.amplicons().get(0);
+        boolean hasNonSpecific = prediction.hasNonSpecificProducts();
+        double specificity = primary.relativeYield();
         
         PcrQualityMetrics quality = new PcrQualityMetrics(
             efficiency,
             specificity,
             hasDimers,
             hasNonSpecific,
-            hasDimers || hasNonSpecific ? 0.7 : 0.95
+            hasDimers ? Math.min(0.7, specificity) : specificity
         );
         
-        // Check for warnings
         if (hasDimers) warnings.add("Primer dimers detected");
-        if (hasNonSpecific) warnings.add("Non-specific amplification detected");
+        if (hasNonSpecific) {
+            warnings.add("Non-specific amplification: " + (prediction.amplicons().size() - 1)
+                + " additional product(s)" + (prediction.truncated() ? " (search truncated)" : ""));
+        }
+        if (!primary.isIntended()) warnings.add("Main product has " + primary.mismatches() + " primer mismatch(es)");
         if (!mutations.isEmpty()) warnings.add("PCR errors introduced: " + mutations.size());
         
         return new PcrResult(
             true,
             amplicon,
-            ampliconLength,
-            efficiency,
-            copies,
+            reaction.ampliconLength(),
+            efficiency * specificity,       // Off-target products take their share of the yield
+            copies * specificity,
             errorRate,
             mutations,
             warnings,
-            quality
+            quality,
+            prediction.amplicons(),
+            kinetics.spectrum()
         );
     }
     
@@ -374,38 +613,27 @@ public class PcrSimulator {
     }
     
     /**
-     * Simulate exponential amplification.
+     * Amplify a template as a branching process with plateau, sampling polymerase errors.
      */
-    private int simulateAmplification(int cycles, double efficiency) {
-        // PCR amplification: N = N0 * (1 + E)^n
-        // Where E is efficiency (0-1) and n is number of cycles
-        double copies = Math.pow(1 + efficiency, cycles);
-        return (int) Math.min(copies, Integer.MAX_VALUE);
+    private PcrKinetics.Result amplify(String template, double efficiency, double errorRate, ReactionParameters params) {
+        return new PcrKinetics(random, plateau(params)).amplify(template, TEMPLATE_COPIES, efficiency, params.cycles(), errorRate);
     }
     
-    /**
-     * Introduce polymerase errors into the amplicon.
-     */
-    private String introduceErrors(String template, double errorRate, int cycles, List<String> mutations) {
-        char[] result = template.toCharArray();
-        char[] bases = {'A', 'C', 'G', 'T'};
-        
-        // Error probability increases with cycles (errors accumulate)
-        // Simplified model: total error rate = 1 - (1 - errorRate)^(cycles * length)
-        for (int i = 0; i < result.length; i++) {
-            if (random.nextDouble() < errorRate * cycles) {
-                char original = result[i];
-                char newBase;
-                do {
-                    newBase = bases[random.nextInt(4)];
-                } while (newBase == original);
-                
-                result[i] = newBase;
-                mutations.add(String.format("%d:%c>%c", i, original, newBase));
-            }
+    private static double plateau(ReactionParameters params) {
+        // dNTPs run out first, so the plateau scales with their concentration
+        return PcrKinetics.DEFAULT_PLATEAU_COPIES * Math.max(0.1, params.dntpConcentration() / 200.0);
+    }
+    
+    private static double errorRate(ReactionParameters params) {
+        return params.useHighFidelityPolymerase() ? HF_POLYMERASE_ERROR_RATE : TAQ_ERROR_RATE;
+    }
+    
+    private static List<String> mutationNotations(PcrKinetics.Result kinetics) {
+        List<String> mutations = new ArrayList<>(kinetics.productMutations().size());
+        for (PcrKinetics.Mutation mutation : kinetics.productMutations()) {
+            mutations.add(mutation.notation());
         }
-        
-        return new String(result);
+        return mutations;
     }
     
     /**
@@ -413,7 +641,7 @@ public class PcrSimulator {
      */
     private boolean isPrimerAcceptable(Primer primer) {
         // Tm should be between 55-65°C
-        if (primer.meltingTemperature() < 55 || primer.meltingTemperature() > 65) return false;
+        if (!isTmAcceptable(primer.meltingTemperature())) return false;
         
         // GC content should be 40-60%
         if (primer.gcContent() < 0.4 || primer.gcContent() > 0.6) return false;
@@ -424,6 +652,10 @@ public class PcrSimulator {
         return true;
     }
     
+    private static boolean isTmAcceptable(double tm) {
+        return tm >= MIN_PRIMER_TM && tm <= MAX_PRIMER_TM;  // false for NaN (windows with N)
+    }
+    
     /**
      * Validate a primer pair for PCR.
      */
@@ -459,65 +691,6 @@ public class PcrSimulator {
         return (forward.specificity() + reverse.specificity()) / 2;
     }
     
-    /**
-     * Select the best primer pair from candidates.
-     */
-    private List<Primer> selectBestPrimerPair(List<Primer> candidates) {
-        List<Primer> forward = candidates.stream().filter(Primer::isForward).toList();
-        List<Primer> reverse = candidates.stream().filter(p -> !p.isForward()).toList();
-        
-        if (forward.isEmpty() || reverse.isEmpty()) {
-            return List.of();
-        }
-        
-        // Score each pair and select best
-        Primer bestF = forward.get(0);
-        Primer bestR = reverse.get(0);
-        double bestScore = 0;
-        
-        for (Primer f : forward) {
-            for (Primer r : reverse) {
-                double score = scorePrimerPair(f, r);
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestF = f;
-                    bestR = r;
-                }
-            }
-        }
-        
-        return List.of(bestF, bestR);
-    }
-    
-    /**
-     * Score a primer pair.
-     */
-    private double scorePrimerPair(Primer forward, Primer reverse) {
-        double score = 0;
-        
-        // Prefer similar Tm
-        double tmDiff = Math.abs(forward.meltingTemperature() - reverse.meltingTemperature());
-        score += Math.max(0, 10 - tmDiff);
-        
-        // Prefer optimal GC content
-        score += (1 - Math.abs(forward.gcContent() - 0.5)) * 5;
-        score += (1 - Math.abs(reverse.gcContent() - 0.5)) * 5;
-        
-        // Prefer high specificity
-        score += forward.specificity() * 10;
-        score += reverse.specificity() * 10;
-        
-        // Penalize self-complementarity
-        if (forward.hasSelfComplementarity()) score -= 5;
-        if (reverse.hasSelfComplementarity()) score -= 5;
-        
-        // Penalize primer dimer risk
-        if (forward.hasPrimerDimerRisk()) score -= 3;
-        if (reverse.hasPrimerDimerRisk()) score -= 3;
-        
-        return score;
-    }
-    
     /**
      * Get reverse complement of a sequence.
      */
@@ -541,6 +714,7 @@ public class PcrSimulator {
      */
     private PcrResult failedResult(List<String> warnings) {
         return new PcrResult(false, "", 0, 0, 0, 0, List.of(), warnings,
-            new PcrQualityMetrics(0, 0, false, false, 0));
+            new PcrQualityMetrics(0, 0, false, false, 0), List.of(),
+            PcrKinetics.MutationSpectrum.none());
     }
 }
@@ -0,0 +1,276 @@
+package com.morerealisticgeneediting.genome.pcr;
+
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.index.MinimizerIndex;
+import com.morerealisticgeneediting.util.AsyncJobs;
+import com.morerealisticgeneediting.util.LongDoubleCache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+/**
+ * Runs PCR on a whole 96- or 384-well plate at once.
+ *
+ * A plate map assigns a template, one or more primer pairs (assays) and reaction
+ * parameters to each well. A well with several assays is a multiplex reaction: all of
+ * its products are simulated together and share the well's dNTPs and primer pool.
+ * Wells usually share primers (one assay across many samples, or a panel replicated),
+ * so genome-wide product prediction against the indexed reference runs once per
+ * distinct primer pair and is reused by every well with that pair whose template is
+ * the reference; wells with other templates scan their own template.
+ * The wells themselves then run in
+ * parallel, each with its own simulator seeded from the plate seed and the well
+ * position, so results do not depend on thread scheduling. {@link #runAsync} does the
+ * whole plate as one background job.
+ *
+ * Educational note: plate layouts are row letter + column number (A1 to H12 on a
+ * 96-well plate, A1 to P24 on a 384-well plate), and real assays always include
+ * no-template and positive control wells for exactly this kind of batch comparison.
+ */
+public final class PlatePcr {
+
+    private final MinimizerIndex referenceIndex;
+
+    /**
+     * Standard microplate layouts.
+     */
+    public enum PlateFormat {
+        WELLS_96(8, 12),
+        WELLS_384(16, 24);
+
+        public final int rows;
+        public final int columns;
+
+        PlateFormat(int rows, int columns) {
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        public int wellCount() {
+            return rows * columns;
+        }
+
+        /**
+         * Name of a well in row-major order, e.g. 0 -> A1, 12 -> B1 on a 96-well plate.
+         */
+        public String wellName(int index) {
+            if (index < 0 || index >= wellCount()) {
+                throw new IllegalArgumentException("Well index out of range for " + name() + ": " + index);
+            }
+            return (char) ('A' + index / columns) + Integer.toString(index % columns + 1);
+        }
+
+        /**
+         * Row-major index of a well name such as "H12".
+         */
+        public int wellIndex(String name) {
+            int row = name.isEmpty() ? -1 : Character.toUpperCase(name.charAt(0)) - 'A';
+            int column;
+            try {
+                column = Integer.parseInt(name.substring(1)) - 1;
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                column = -1;
+            }
+            if (row < 0 || row >= rows || column < 0 || column >= columns) {
+                throw new IllegalArgumentException("Invalid well for " + name() + ": " + name);
+            }
+            return row * columns + column;
+        }
+    }
+
+    /**
+     * One reaction on the plate.
+     *
+     * @param index    Row-major well index
+     * @param template Template genome
+     * @param assays   Primer pairs in the well; more than one makes it a multiplex reaction
+     * @param params   Reaction parameters
+     */
+    public record Well(int index, Genome template, List<PcrSimulator.Assay> assays,
+                       PcrSimulator.ReactionParameters params) {
+        public Well {
+            if (assays.isEmpty()) {
+                throw new IllegalArgumentException("Well " + index + " has no primers");
+            }
+            assays = List.copyOf(assays);
+        }
+
+        /**
+         * A singleplex well with one primer pair.
+         */
+        public Well(int index, Genome template, PcrSimulator.Primer forward, PcrSimulator.Primer reverse,
+                    PcrSimulator.ReactionParameters params) {
+            this(index, template, List.of(new PcrSimulator.Assay(forward, reverse)), params);
+        }
+    }
+
+    /**
+     * Which reaction goes in which well. Empty wells are simply absent.
+     */
+    public record PlateMap(PlateFormat format, List<Well> wells) {
+        public PlateMap {
+            boolean[] used = new boolean[format.wellCount()];
+            for (Well well : wells) {
+                if (well.index() < 0 || well.index() >= used.length || used[well.index()]) {
+                    throw new IllegalArgumentException("Invalid or duplicate well in plate map: " + well.index());
+                }
+                used[well.index()] = true;
+            }
+            wells = List.copyOf(wells);
+        }
+    }
+
+    /**
+     * Result for one well.
+     *
+     * @param index   Row-major well index
+     * @param name    Well name, e.g. "C7"
+     * @param results One result per assay, in the well's assay order
+     */
+    public record WellResult(int index, String name, List<PcrSimulator.PcrResult> results) {
+        /**
+         * The first assay's result (the only one in a singleplex well).
+         */
+        public PcrSimulator.PcrResult result() {
+            return results.get(0);
+        }
+
+        /**
+         * Whether every assay in the well amplified.
+         */
+        public boolean success() {
+            for (PcrSimulator.PcrResult result : results) if (!result.success()) return false;
+            return true;
+        }
+    }
+
+    /**
+     * Results for a whole plate.
+     *
+     * @param format              Plate layout
+     * @param wells               One row per filled well, in well order
+     * @param distinctPrimerPairs Number of index-based product predictions shared between wells
+     */
+    public record PlateResult(PlateFormat format, List<WellResult> wells, int distinctPrimerPairs) {
+        public WellResult get(String wellName) {
+            int index = format.wellIndex(wellName);
+            for (WellResult well : wells) {
+                if (well.index() == index) return well;
+            }
+            return null;
+        }
+
+        public int successCount() {
+            int count = 0;
+            for (WellResult well : wells) if (well.success()) count++;
+            return count;
+        }
+
+        /**
+         * The result table as tab-separated lines with a header, one line per assay.
+         */
+        public List<String> toTable() {
+            List<String> lines = new ArrayList<>(wells.size() + 1);
+            lines.add("well\tassay\tsuccess\tlength\tlog10_copies\tyield\tproducts\tmutations\twarnings");
+            for (WellResult well : wells) {
+                for (int assay = 0; assay < well.results().size(); assay++) {
+                    PcrSimulator.PcrResult result = well.results().get(assay);
+                    lines.add(String.format("%s\t%d\t%b\t%d\t%.2f\t%.3f\t%d\t%d\t%s", well.name(), assay + 1,
+                        result.success(), result.ampliconLength(), result.success() ? result.log10Copies() : 0.0,
+                        result.yield(), result.products().size(), result.mutations().size(),
+                        String.join("; ", result.warnings())));
+                }
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * @param referenceIndex Index for genome-wide product prediction, or null to scan each template
+     */
+    public PlatePcr(MinimizerIndex referenceIndex) {
+        this.referenceIndex = referenceIndex;
+    }
+
+    // ========== Running ==========
+
+    /**
+     * Run every well of a plate, in parallel.
+     */
+    public PlateResult run(PlateMap plate, long seed) {
+        List<Well> wells = new ArrayList<>(plate.wells());
+        wells.sort(Comparator.comparingInt(Well::index));
+
+        // Index predictions hold only for the indexed sequence, so only wells whose template is it share them
+        Map<Genome, Boolean> indexed = new IdentityHashMap<>();
+        for (Well well : wells) indexed.computeIfAbsent(well.template(), this::isIndexedReference);
+
+        // One prediction per distinct primer pair, shared by all its wells on the reference
+        Map<String, PcrSimulator.Assay> byPair = new LinkedHashMap<>();
+        for (Well well : wells) {
+            if (!indexed.get(well.template())) continue;
+            for (PcrSimulator.Assay assay : well.assays()) byPair.putIfAbsent(pairKey(assay), assay);
+        }
+        Map<String, InSilicoPcr.Result> predictions = new HashMap<>();
+        if (!byPair.isEmpty()) {
+            InSilicoPcr pcr = new InSilicoPcr(referenceIndex);
+            List<PcrSimulator.Assay> representatives = new ArrayList<>(byPair.values());
+            List<InSilicoPcr.Result> shared = representatives.parallelStream()
+                .map(assay -> pcr.amplify(assay.forward().sequence(), assay.reverse().sequence()))
+                .toList();
+            for (int i = 0; i < shared.size(); i++) predictions.put(pairKey(representatives.get(i)), shared.get(i));
+        }
+
+        List<WellResult> results = IntStream.range(0, wells.size()).parallel()
+            .mapToObj(i -> {
+                Well well = wells.get(i);
+                PcrSimulator simulator = new PcrSimulator(LongDoubleCache.mix(seed ^ LongDoubleCache.mix(well.index())));
+                boolean onReference = indexed.get(well.template());
+                List<PcrSimulator.PcrResult> wellResults;
+                if (well.assays().size() == 1) {
+                    PcrSimulator.Assay assay = well.assays().get(0);
+                    wellResults = List.of(simulator.runPcr(well.template(), assay.forward(), assay.reverse(),
+                        well.params(), onReference ? predictions.get(pairKey(assay)) : null));
+                } else {
+                    List<InSilicoPcr.Result> wellPredictions = new ArrayList<>(well.assays().size());
+                    for (PcrSimulator.Assay assay : well.assays()) {
+                        wellPredictions.add(onReference ? predictions.get(pairKey(assay)) : null);
+                    }
+                    wellResults = simulator.runMultiplexPcr(well.template(), well.assays(), well.params(), wellPredictions);
+                }
+                return new WellResult(well.index(), plate.format().wellName(well.index()), wellResults);
+            })
+            .toList();
+        return new PlateResult(plate.format(), results, byPair.size());
+    }
+
+    /**
+     * Run a plate as a single background job.
+     */
+    public CompletableFuture<PlateResult> runAsync(PlateMap plate, long seed) {
+        return AsyncJobs.supply(() -> run(plate, seed));
+    }
+
+    /**
+     * Whether a template has the same sequence as the indexed reference. Only templates of
+     * the reference's length are packed to compare fingerprints.
+     */
+    private boolean isIndexedReference(Genome template) {
+        if (referenceIndex == null) return false;
+        PackedSequence reference = referenceIndex.getReference();
+        return template.getTotalLength() == reference.length()
+            && PackedSequence.fromGenome(template).fingerprint() == reference.fingerprint();
+    }
+
+    private static String pairKey(PcrSimulator.Assay assay) {
+        return assay.forward().sequence() + '/' + assay.reverse().sequence();
+    }
+}
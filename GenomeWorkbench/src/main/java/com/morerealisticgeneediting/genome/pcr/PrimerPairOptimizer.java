@@ -0,0 +1,188 @@
+package com.morerealisticgeneediting.genome.pcr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the best forward/reverse primer combinations without scoring the full cross product.
+ *
+ * A pair's score splits into a Tm-match term (at most {@link #MAX_TM_MATCH_SCORE}) plus
+ * one term per primer, so:
+ * - Reverse candidates are sorted by Tm once; each forward primer binary-searches the
+ *   slice within the allowed Tm difference and checks product size only inside it.
+ * - Forward candidates are visited in descending order of their own term. Once a
+ *   forward primer's best possible pair score cannot beat the worst of the current
+ *   top K, it and every forward primer after it are skipped.
+ * Forward primers are split into chunks evaluated in parallel, each keeping a bounded
+ * min-heap of its best K pairs; the heaps are merged at the end. Chunks share the
+ * pruning threshold, which only ever discards pairs strictly worse than K others, so
+ * the result does not depend on thread timing.
+ *
+ * Educational note: tools like Primer3 face the same combinatorial explosion and also
+ * filter on Tm and product size before scoring pairs.
+ */
+public final class PrimerPairOptimizer {
+
+    public static final double DEFAULT_MAX_TM_DIFFERENCE = 5.0;
+    public static final double MAX_TM_MATCH_SCORE = 10.0;
+
+    private static final int CHUNK_SIZE = 256;
+    private static final Comparator<PrimerPair> BY_SCORE = Comparator.comparingDouble(PrimerPair::score)
+        .thenComparing(pair -> -pair.forwardPosition())
+        .thenComparing(pair -> -pair.reversePosition());
+
+    private final double maxTmDifference;
+    private final int minProductSize;
+    private final int maxProductSize;
+
+    /**
+     * A primer at a known genomic position.
+     *
+     * @param primer   The primer
+     * @param position Forward-strand start of the bases it covers (for reverse primers, of its reverse complement)
+     */
+    public record Candidate(PcrSimulator.Primer primer, long position) {}
+
+    /**
+     * A ranked primer pair.
+     *
+     * @param forward         Forward primer
+     * @param reverse         Reverse primer
+     * @param forwardPosition Forward-strand start of the forward primer
+     * @param reversePosition Forward-strand start of the reverse primer's binding site
+     * @param productSize     Amplicon length in bp
+     * @param score           Pair score (higher is better)
+     */
+    public record PrimerPair(PcrSimulator.Primer forward, PcrSimulator.Primer reverse,
+                             long forwardPosition, long reversePosition, int productSize, double score) {}
+
+    public PrimerPairOptimizer(int minProductSize, int maxProductSize) {
+        this(DEFAULT_MAX_TM_DIFFERENCE, minProductSize, maxProductSize);
+    }
+
+    public PrimerPairOptimizer(double maxTmDifference, int minProductSize, int maxProductSize) {
+        if (maxTmDifference < 0 || minProductSize < 1 || maxProductSize < minProductSize) {
+            throw new IllegalArgumentException("Invalid primer pair constraints: dTm " + maxTmDifference
+                + ", product " + minProductSize + "-" + maxProductSize);
+        }
+        this.maxTmDifference = maxTmDifference;
+        this.minProductSize = minProductSize;
+        this.maxProductSize = maxProductSize;
+    }
+
+    // ========== Scoring ==========
+
+    /**
+     * Score a primer pair: similar Tm, balanced GC, high specificity, no self-complementarity or dimer risk.
+     */
+    public static double score(PcrSimulator.Primer forward, PcrSimulator.Primer reverse) {
+        double tmDiff = Math.abs(forward.meltingTemperature() - reverse.meltingTemperature());
+        return Math.max(0, MAX_TM_MATCH_SCORE - tmDiff) + primerScore(forward) + primerScore(reverse);
+    }
+
+    /**
+     * The part of the pair score that depends on one primer only.
+     */
+    static double primerScore(PcrSimulator.Primer primer) {
+        double score = (1 - Math.abs(primer.gcContent() - 0.5)) * 5;   // Prefer optimal GC content
+        score += primer.specificity() * 10;                               // Prefer high specificity
+        if (primer.hasSelfComplementarity()) score -= 5;
+        if (primer.hasPrimerDimerRisk()) score -= 3;
+        return score;
+    }
+
+    // ========== Search ==========
+
+    /**
+     * The best {@code limit} pairs, best first.
+     */
+    public List<PrimerPair> optimize(List<Candidate> forwards, List<Candidate> reverses, int limit) {
+        if (forwards.isEmpty() || reverses.isEmpty() || limit < 1) return List.of();
+
+        // Reverse candidates sorted by Tm, with parallel primitive arrays for the inner loop
+        Candidate[] reverse = reverses.toArray(new Candidate[0]);
+        Arrays.sort(reverse, Comparator.comparingDouble(c -> c.primer().meltingTemperature()));
+        double[] reverseTm = new double[reverse.length];
+        double[] reverseScore = new double[reverse.length];
+        for (int i = 0; i < reverse.length; i++) {
+            reverseTm[i] = reverse[i].primer().meltingTemperature();
+            reverseScore[i] = primerScore(reverse[i].primer());
+        }
+        double maxReverseScore = Arrays.stream(reverseScore).max().orElse(0);
+
+        // Forward candidates by descending own score, so each chunk can stop early
+        Candidate[] forward = forwards.toArray(new Candidate[0]);
+        double[] forwardScore = new double[forward.length];
+        Integer[] order = new Integer[forward.length];
+        for (int i = 0; i < forward.length; i++) {
+            forwardScore[i] = primerScore(forward[i].primer());
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(forwardScore[b], forwardScore[a]));
+
+        // Worst score in any full chunk heap: nothing strictly below it can reach the overall top K
+        DoubleAccumulator threshold = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+        int chunks = (forward.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<PriorityQueue<PrimerPair>> heaps = IntStream.range(0, chunks).parallel()
+            .mapToObj(c -> {
+                PriorityQueue<PrimerPair> heap = new PriorityQueue<>(limit + 1, BY_SCORE);
+                int end = Math.min(forward.length, (c + 1) * CHUNK_SIZE);
+                for (int n = c * CHUNK_SIZE; n < end; n++) {
+                    int f = order[n];
+                    double bound = MAX_TM_MATCH_SCORE + forwardScore[f] + maxReverseScore;
+                    if (bound < threshold.get()) break;
+                    pairWith(forward[f], forwardScore[f], reverse, reverseTm, reverseScore, heap, limit);
+                    if (heap.size() == limit) threshold.accumulate(heap.peek().score());
+                }
+                return heap;
+            })
+            .toList();
+
+        PriorityQueue<PrimerPair> merged = new PriorityQueue<>(limit + 1, BY_SCORE);
+        for (PriorityQueue<PrimerPair> heap : heaps) {
+            for (PrimerPair pair : heap) offer(merged, pair, limit);
+        }
+        List<PrimerPair> ranked = new ArrayList<>(merged);
+        ranked.sort(BY_SCORE.reversed());
+        return ranked;
+    }
+
+    private void pairWith(Candidate forward, double forwardScore, Candidate[] reverse, double[] reverseTm,
+                          double[] reverseScore, PriorityQueue<PrimerPair> heap, int limit) {
+        double tm = forward.primer().meltingTemperature();
+        for (int r = lowerBound(reverseTm, tm - maxTmDifference); r < reverse.length && reverseTm[r] <= tm + maxTmDifference; r++) {
+            long productEnd = reverse[r].position() + reverse[r].primer().sequence().length();
+            long size = productEnd - forward.position();
+            if (size < minProductSize || size > maxProductSize) continue;
+
+            double score = Math.max(0, MAX_TM_MATCH_SCORE - Math.abs(tm - reverseTm[r])) + forwardScore + reverseScore[r];
+            if (heap.size() == limit && score < heap.peek().score()) continue;
+            offer(heap, new PrimerPair(forward.primer(), reverse[r].primer(), forward.position(),
+                reverse[r].position(), (int) size, score), limit);
+        }
+    }
+
+    private static void offer(PriorityQueue<PrimerPair> heap, PrimerPair pair, int limit) {
+        if (heap.size() < limit) {
+            heap.add(pair);
+        } else if (BY_SCORE.compare(pair, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(pair);
+        }
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
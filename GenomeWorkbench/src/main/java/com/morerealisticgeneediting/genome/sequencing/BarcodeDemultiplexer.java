@@ -0,0 +1,501 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.util.LongDoubleCache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+/**
+ * Splits a multiplexed run into per-sample reads by inline index barcode.
+ *
+ * Every sample barcode is packed 2 bits per base into a long, and so is every
+ * barcode one substitution away from it. All of them go into one open-addressing
+ * table built up front, mapping packed barcode to sample, so assigning a read is one
+ * pack and one lookup whether its barcode is exact or carries a sequencing error:
+ * - Exact barcodes always win over neighbours.
+ * - A neighbour shared by two samples (their barcodes are 2 apart) is marked
+ *   ambiguous, and such reads are left undetermined rather than guessed.
+ * - A barcode with a single N is tried with each base, exact matches only.
+ * Pairs of barcodes closer than {@link #MIN_SAFE_DISTANCE} are reported as
+ * collisions when the demultiplexer is built.
+ *
+ * Barcodes sit at the start of the read and are trimmed off together with their
+ * qualities before the read is passed on.
+ *
+ * Educational note: pooling a whole 96-well plate of libraries into one run is only
+ * possible because each library carries its own index. Index sets are designed so any
+ * two differ in at least 3 positions; then one sequencing error still leaves a read
+ * closer to its own sample than to any other, which is what bcl2fastq and similar
+ * tools rely on when they allow one mismatch.
+ */
+public final class BarcodeDemultiplexer {
+
+    public static final int MAX_BARCODE_LENGTH = 31;
+    public static final int DEFAULT_BARCODE_LENGTH = 10;
+    public static final int PLATE_WELLS = 96;
+    // Barcodes this far apart can be corrected for one error without ambiguity
+    public static final int MIN_SAFE_DISTANCE = 3;
+
+    public static final int UNDETERMINED = -1;
+    public static final int AMBIGUOUS = -2;
+
+    private static final int MAX_TRACKED_UNKNOWN = 10_000;
+    private static final int TOP_UNKNOWN = 10;
+    private static final int DESIGN_ATTEMPTS = 1_000_000;
+    private static final int WRITER_BUFFER = 1 << 16;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    private final List<Sample> samples;
+    private final int barcodeLength;
+    private final List<Collision> collisions;
+
+    // Table values: sample << 1 | 1 if one mismatch away, or AMBIGUOUS
+    private final long[] keys;      // packed barcode + 1, 0 = empty
+    private final int[] values;
+    private final int mask;
+
+    /**
+     * A multiplexed sample.
+     *
+     * @param name    Sample name, also used for its output file
+     * @param barcode Index barcode (A, C, G, T)
+     */
+    public record Sample(String name, String barcode) {}
+
+    /**
+     * Two sample barcodes too close for one-mismatch correction.
+     *
+     * @param distance Hamming distance (1 = a read error can turn one into the other)
+     */
+    public record Collision(String first, String second, int distance) {}
+
+    /**
+     * Reads assigned to one sample.
+     *
+     * @param corrected Reads whose barcode had one mismatch
+     */
+    public record SampleCount(String sample, String barcode, long reads, long corrected) {}
+
+    /**
+     * A barcode seen on undetermined reads.
+     */
+    public record UnknownBarcode(String barcode, long reads) {}
+
+    /**
+     * Demultiplexing statistics.
+     *
+     * @param reads        Reads processed
+     * @param exact        Reads with an exact barcode
+     * @param corrected    Reads assigned with one mismatch
+     * @param ambiguous    Reads one mismatch from two samples, left undetermined
+     * @param undetermined Reads matching no sample (including the ambiguous ones)
+     * @param samples      Per-sample counts, in sample order
+     * @param topUnknown   Most frequent barcodes among undetermined reads
+     * @param collisions   Barcode pairs closer than {@link #MIN_SAFE_DISTANCE}
+     */
+    public record Report(long reads, long exact, long corrected, long ambiguous, long undetermined,
+                         List<SampleCount> samples, List<UnknownBarcode> topUnknown, List<Collision> collisions) {
+        public double assignedFraction() {
+            return reads == 0 ? 0 : (double) (exact + corrected) / reads;
+        }
+
+        /**
+         * Coefficient of variation of reads per sample; 0 for a perfectly balanced pool.
+         */
+        public double poolingCv() {
+            if (samples.isEmpty()) return 0;
+            double mean = samples.stream().mapToLong(SampleCount::reads).average().orElse(0);
+            if (mean == 0) return 0;
+            double variance = samples.stream().mapToDouble(s -> (s.reads() - mean) * (s.reads() - mean))
+                .sum() / samples.size();
+            return Math.sqrt(variance) / mean;
+        }
+    }
+
+    /**
+     * Receives demultiplexed reads.
+     */
+    public interface Sink {
+        /**
+         * @param sample Sample index, or {@link #UNDETERMINED} (the read is then untrimmed)
+         */
+        void accept(int sample, SequencingSimulator.SequencingRead read) throws IOException;
+    }
+
+    public BarcodeDemultiplexer(List<Sample> samples) {
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("At least one sample is required");
+        }
+        this.samples = List.copyOf(samples);
+        this.barcodeLength = samples.get(0).barcode().length();
+        if (barcodeLength < 1 || barcodeLength > MAX_BARCODE_LENGTH) {
+            throw new IllegalArgumentException("Barcodes must be 1 to " + MAX_BARCODE_LENGTH + " bases: "
+                + samples.get(0).barcode());
+        }
+
+        long[] packed = new long[samples.size()];
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            if (!names.add(sample.name())) {
+                throw new IllegalArgumentException("Duplicate sample name: " + sample.name());
+            }
+            if (sample.barcode().length() != barcodeLength) {
+                throw new IllegalArgumentException("All barcodes must be " + barcodeLength + " bases: "
+                    + sample.barcode());
+            }
+            packed[i] = pack(sample.barcode(), barcodeLength);
+            if (packed[i] < 0) {
+                throw new IllegalArgumentException("Barcode must be A, C, G and T only: " + sample.barcode());
+            }
+        }
+
+        // Each barcode and its 3 * length neighbours, at most half full
+        int entries = samples.size() * (1 + 3 * barcodeLength);
+        int capacity = Integer.highestOneBit(Math.max(16, entries * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+
+        // Exact barcodes first so that neighbours never displace them
+        for (int i = 0; i < packed.length; i++) {
+            int slot = slot(packed[i]);
+            if (keys[slot] != 0) {
+                throw new IllegalArgumentException("Duplicate barcode: " + samples.get(i).barcode());
+            }
+            keys[slot] = packed[i] + 1;
+            values[slot] = i << 1;
+        }
+        for (int i = 0; i < packed.length; i++) {
+            for (int position = 0; position < barcodeLength; position++) {
+                int shift = 2 * (barcodeLength - 1 - position);
+                int original = (int) (packed[i] >>> shift) & 3;
+                for (int base = 0; base < 4; base++) {
+                    if (base == original) continue;
+                    long neighbour = packed[i] & ~(3L << shift) | (long) base << shift;
+                    int slot = slot(neighbour);
+                    if (keys[slot] == 0) {
+                        keys[slot] = neighbour + 1;
+                        values[slot] = i << 1 | 1;
+                    } else if ((values[slot] & 1) == 1 && values[slot] >> 1 != i) {
+                        values[slot] = AMBIGUOUS;
+                    }
+                }
+            }
+        }
+
+        List<Collision> collisions = new ArrayList<>();
+        for (int i = 0; i < packed.length; i++) {
+            for (int j = i + 1; j < packed.length; j++) {
+                int distance = distance(packed[i], packed[j]);
+                if (distance < MIN_SAFE_DISTANCE) {
+                    collisions.add(new Collision(samples.get(i).name(), samples.get(j).name(), distance));
+                }
+            }
+        }
+        this.collisions = List.copyOf(collisions);
+    }
+
+    /**
+     * One sample per well of a plate, named by well (A1, A2, ... H12) with designed barcodes.
+     */
+    public static BarcodeDemultiplexer forPlate(int wells, long seed) {
+        List<String> barcodes = designBarcodes(wells, DEFAULT_BARCODE_LENGTH, MIN_SAFE_DISTANCE, seed);
+        List<Sample> samples = new ArrayList<>(wells);
+        for (int i = 0; i < wells; i++) samples.add(new Sample(wellName(i), barcodes.get(i)));
+        return new BarcodeDemultiplexer(samples);
+    }
+
+    public List<Sample> samples() {
+        return samples;
+    }
+
+    public int barcodeLength() {
+        return barcodeLength;
+    }
+
+    public List<Collision> collisions() {
+        return collisions;
+    }
+
+    // ========== Assignment ==========
+
+    /**
+     * Sample for the barcode at the start of a sequence.
+     *
+     * @return Sample index, {@link #UNDETERMINED} or {@link #AMBIGUOUS}
+     */
+    public int assign(CharSequence sequence) {
+        int match = lookup(sequence);
+        return match < 0 ? match : match >> 1;
+    }
+
+    /**
+     * Table value for the barcode at the start of a sequence: sample << 1 | mismatch, or a negative code.
+     */
+    private int lookup(CharSequence sequence) {
+        if (sequence.length() < barcodeLength) return UNDETERMINED;
+        long packed = pack(sequence, barcodeLength);
+        if (packed >= 0) {
+            int slot = find(packed);
+            return slot < 0 ? UNDETERMINED : values[slot];
+        }
+        // One N is the one allowed mismatch, so only exact barcodes may match
+        int unknown = -1;
+        long base = 0;
+        for (int i = 0; i < barcodeLength; i++) {
+            int code = code(sequence.charAt(i));
+            if (code < 0) {
+                if (unknown >= 0) return UNDETERMINED;
+                unknown = i;
+                code = 0;
+            }
+            base = base << 2 | code;
+        }
+        int shift = 2 * (barcodeLength - 1 - unknown);
+        int match = UNDETERMINED;
+        for (long b = 0; b < 4; b++) {
+            int slot = find(base | b << shift);
+            if (slot < 0 || (values[slot] & 1) != 0) continue;
+            if (match != UNDETERMINED) return AMBIGUOUS;
+            match = values[slot] | 1;
+        }
+        return match;
+    }
+
+    /**
+     * Assign every read and pass it on, trimmed of its barcode, to the sink.
+     */
+    public Report demultiplex(Stream<SequencingSimulator.SequencingRead> reads, Sink sink) throws IOException {
+        long[] exact = new long[samples.size()];
+        long[] corrected = new long[samples.size()];
+        long ambiguous = 0, undetermined = 0, total = 0;
+        Map<Long, long[]> unknown = new HashMap<>();
+
+        Iterator<SequencingSimulator.SequencingRead> iterator = reads.iterator();
+        while (iterator.hasNext()) {
+            SequencingSimulator.SequencingRead read = iterator.next();
+            total++;
+            int match = lookup(read.sequence());
+            if (match < 0) {
+                undetermined++;
+                if (match == AMBIGUOUS) ambiguous++;
+                long packed = read.sequence().length() < barcodeLength ? -1 : pack(read.sequence(), barcodeLength);
+                if (packed >= 0 && (unknown.size() < MAX_TRACKED_UNKNOWN || unknown.containsKey(packed))) {
+                    unknown.computeIfAbsent(packed, key -> new long[1])[0]++;
+                }
+                sink.accept(UNDETERMINED, read);
+                continue;
+            }
+            int sample = match >> 1;
+            if ((match & 1) == 0) exact[sample]++; else corrected[sample]++;
+            sink.accept(sample, trim(read));
+        }
+
+        List<SampleCount> counts = new ArrayList<>(samples.size());
+        long exactTotal = 0, correctedTotal = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            counts.add(new SampleCount(samples.get(i).name(), samples.get(i).barcode(),
+                exact[i] + corrected[i], corrected[i]));
+            exactTotal += exact[i];
+            correctedTotal += corrected[i];
+        }
+        List<UnknownBarcode> topUnknown = unknown.entrySet().stream()
+            .sorted(Comparator.comparingLong((Map.Entry<Long, long[]> e) -> e.getValue()[0]).reversed())
+            .limit(TOP_UNKNOWN)
+            .map(e -> new UnknownBarcode(unpack(e.getKey()), e.getValue()[0]))
+            .toList();
+        return new Report(total, exactTotal, correctedTotal, ambiguous, undetermined, counts, topUnknown, collisions);
+    }
+
+    /**
+     * Demultiplex into one FASTQ per sample ({@code <name>.fastq}) plus {@code Undetermined.fastq}.
+     * Every file is written, empty or not, so a missing sample is visible as an empty file.
+     */
+    public Report demultiplexToFastq(Stream<SequencingSimulator.SequencingRead> reads, Path directory, boolean gzip)
+            throws IOException {
+        String extension = gzip ? ".fastq.gz" : ".fastq";
+        SequencingExporter.FastqWriter[] writers = new SequencingExporter.FastqWriter[samples.size() + 1];
+        try {
+            for (int i = 0; i < samples.size(); i++) {
+                writers[i] = new SequencingExporter.FastqWriter(
+                    directory.resolve(fileName(samples.get(i).name()) + extension), gzip, WRITER_BUFFER);
+            }
+            writers[samples.size()] = new SequencingExporter.FastqWriter(
+                directory.resolve("Undetermined" + extension), gzip, WRITER_BUFFER);
+            return demultiplex(reads, (sample, read) ->
+                writers[sample == UNDETERMINED ? samples.size() : sample].write(read));
+        } finally {
+            IOException failure = null;
+            for (SequencingExporter.FastqWriter writer : writers) {
+                if (writer == null) continue;
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e; else failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    private SequencingSimulator.SequencingRead trim(SequencingSimulator.SequencingRead read) {
+        int[] qualities = read.qualityScores();
+        return new SequencingSimulator.SequencingRead(read.id(), read.sequence().substring(barcodeLength),
+            Arrays.copyOfRange(qualities, Math.min(barcodeLength, qualities.length), qualities.length),
+            read.referencePosition(), read.isReversed(), read.mateId());
+    }
+
+    // ========== Simulation ==========
+
+    /**
+     * Prefix a read with a barcode as the sequencer would read it: each barcode base is
+     * substituted with probability {@code errorRate} and reported at low quality if so.
+     */
+    public static SequencingSimulator.SequencingRead addBarcode(SequencingSimulator.SequencingRead read,
+                                                                String barcode, double errorRate,
+                                                                RandomGenerator random) {
+        int n = barcode.length();
+        char[] bases = barcode.toCharArray();
+        int[] qualities = new int[n + read.qualityScores().length];
+        for (int i = 0; i < n; i++) {
+            if (random.nextDouble() < errorRate) {
+                bases[i] = BASES[(code(bases[i]) + 1 + random.nextInt(3)) & 3];
+                qualities[i] = ErrorModel.ERROR_QUALITY;
+            } else {
+                qualities[i] = ErrorModel.MAX_QUALITY - 5;
+            }
+        }
+        System.arraycopy(read.qualityScores(), 0, qualities, n, read.qualityScores().length);
+        return new SequencingSimulator.SequencingRead(read.id(), new String(bases) + read.sequence(), qualities,
+            read.referencePosition(), read.isReversed(), read.mateId());
+    }
+
+    /**
+     * Random barcodes, pairwise at least {@code minDistance} apart, with 30-70% GC and no
+     * homopolymer longer than 2 (both sequence poorly).
+     *
+     * @throws IllegalArgumentException if that many barcodes cannot be found
+     */
+    public static List<String> designBarcodes(int count, int length, int minDistance, long seed) {
+        if (length < 1 || length > MAX_BARCODE_LENGTH) {
+            throw new IllegalArgumentException("Barcodes must be 1 to " + MAX_BARCODE_LENGTH + " bases: " + length);
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] chosen = new long[count];
+        int found = 0;
+        for (int attempt = 0; attempt < DESIGN_ATTEMPTS && found < count; attempt++) {
+            long candidate = random.nextLong() >>> (64 - 2 * length);
+            if (!wellFormed(candidate, length)) continue;
+            boolean distinct = true;
+            for (int i = 0; i < found && distinct; i++) {
+                distinct = distance(candidate, chosen[i]) >= minDistance;
+            }
+            if (distinct) chosen[found++] = candidate;
+        }
+        if (found < count) {
+            throw new IllegalArgumentException("Found only " + found + " of " + count + " barcodes of length "
+                + length + " at distance " + minDistance);
+        }
+        List<String> barcodes = new ArrayList<>(count);
+        for (long packed : chosen) barcodes.add(unpack(packed, length));
+        return barcodes;
+    }
+
+    private static boolean wellFormed(long packed, int length) {
+        int gc = 0, run = 1;
+        int previous = -1;
+        for (int i = length - 1; i >= 0; i--) {
+            int base = (int) (packed >>> (2 * i)) & 3;
+            if (base == 1 || base == 2) gc++;
+            run = base == previous ? run + 1 : 1;
+            if (run > 2) return false;
+            previous = base;
+        }
+        return gc * 10 >= length * 3 && gc * 10 <= length * 7;
+    }
+
+    /**
+     * Plate well name in row-major order: 0 -> A1, 12 -> B1.
+     */
+    public static String wellName(int index) {
+        return (char) ('A' + index / 12) + Integer.toString(index % 12 + 1);
+    }
+
+    // ========== Packing ==========
+
+    /**
+     * Hamming distance between packed barcodes of equal length.
+     */
+    static int distance(long a, long b) {
+        long x = a ^ b;
+        return Long.bitCount((x | x >>> 1) & LOW_BITS);
+    }
+
+    /**
+     * The first {@code length} bases packed, or -1 if any is not A, C, G or T.
+     */
+    private static long pack(CharSequence sequence, int length) {
+        long packed = 0;
+        for (int i = 0; i < length; i++) {
+            int code = code(sequence.charAt(i));
+            if (code < 0) return -1;
+            packed = packed << 2 | code;
+        }
+        return packed;
+    }
+
+    private String unpack(long packed) {
+        return unpack(packed, barcodeLength);
+    }
+
+    private static String unpack(long packed, int length) {
+        char[] bases = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            bases[i] = BASES[(int) (packed & 3)];
+            packed >>>= 2;
+        }
+        return new String(bases);
+    }
+
+    private static int code(char base) {
+        return switch (base) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> -1;
+        };
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    // ========== Table ==========
+
+    private int slot(long packed) {
+        long key = packed + 1;
+        int slot = (int) LongDoubleCache.mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private int find(long packed) {
+        int slot = slot(packed);
+        return keys[slot] == 0 ? -1 : slot;
+    }
+}
@@ -0,0 +1,287 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.util.AliasTable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * Per-technology read length, quality and error models, compiled into alias tables.
+ *
+ * Each {@link SequencingSimulator.Technology} gets:
+ * - A read length distribution: fixed for short reads, log-normal (mean equal to the
+ *   technology's nominal length) for long reads, binned on a log scale.
+ * - Position-dependent qualities: one Phred distribution per tenth-of-a-read bin, so
+ *   Illumina quality decays towards the 3' end while long-read quality stays flat.
+ * - An error spectrum: the share of errors that are substitutions, insertions and
+ *   deletions, indel lengths, and a transition-biased substitution table per base.
+ * Every distribution is a {@link AliasTable}, so each draw costs O(1) and no loop has
+ * to reject the original base. Error positions are not tested base by base either:
+ * the gap to the next error is geometric, so one draw skips straight to it.
+ *
+ * Models are immutable and shared; callers bring their own generator.
+ *
+ * Educational note: the spectra follow published error profiles - Illumina errors
+ * are almost all substitutions, PacBio CLR errors are mostly insertions, and nanopore
+ * reads lose bases in homopolymers, so deletions dominate.
+ */
+public final class ErrorModel {
+
+    public static final int MIN_QUALITY = 2;
+    public static final int MAX_QUALITY = 41;
+    // Bases next to an error are reported with at most this quality
+    public static final int ERROR_QUALITY = 10;
+    public static final int MAX_INDEL_LENGTH = 8;
+
+    private static final int POSITION_BINS = 10;
+    private static final int LENGTH_BINS = 64;
+    private static final double QUALITY_SD = 5;
+    private static final int SUBSTITUTION = 0, INSERTION = 1, DELETION = 2;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private static final Map<SequencingSimulator.Technology, ErrorModel> MODELS =
+        new EnumMap<>(SequencingSimulator.Technology.class);
+
+    static {
+        for (SequencingSimulator.Technology technology : SequencingSimulator.Technology.values()) {
+            MODELS.put(technology, build(technology));
+        }
+    }
+
+    private final SequencingSimulator.Technology technology;
+    private final double errorRate;
+    private final double logErrorGap;
+    private final double indelFraction;       // share of errors that are insertions or deletions
+    private final AliasTable lengthBins;      // null for fixed-length reads
+    private final double[] lengthBinEdges;    // log-space bin edges, LENGTH_BINS + 1
+    private final AliasTable[] qualities;     // per position bin, outcome q - MIN_QUALITY
+    private final AliasTable errorTypes;
+    private final AliasTable indelLengths;    // outcome length - 1
+    private final AliasTable[] substitutions; // per original base code
+
+    /**
+     * A sequenced read written into caller buffers.
+     *
+     * @param length   Bases written
+     * @param consumed Template bases used (differs from length when indels occurred)
+     */
+    public record Sequenced(int length, int consumed) {}
+
+    private ErrorModel(SequencingSimulator.Technology technology, AliasTable lengthBins, double[] lengthBinEdges,
+                       AliasTable[] qualities, double indelFraction, AliasTable errorTypes, AliasTable indelLengths,
+                       AliasTable[] substitutions) {
+        this.technology = technology;
+        this.errorRate = technology.errorRate;
+        this.indelFraction = indelFraction;
+        this.logErrorGap = errorRate > 0 ? Math.log1p(-errorRate) : 0;
+        this.lengthBins = lengthBins;
+        this.lengthBinEdges = lengthBinEdges;
+        this.qualities = qualities;
+        this.errorTypes = errorTypes;
+        this.indelLengths = indelLengths;
+        this.substitutions = substitutions;
+    }
+
+    public static ErrorModel forTechnology(SequencingSimulator.Technology technology) {
+        return MODELS.get(technology);
+    }
+
+    // ========== Model Construction ==========
+
+    private static ErrorModel build(SequencingSimulator.Technology technology) {
+        // Length spread (log-normal sigma), quality decay over the read, error spectrum, indel length decay
+        double sigma, decay, substitutions, insertions, deletions, indelContinue;
+        switch (technology) {
+            case PACBIO_HIFI -> { sigma = 0.25; decay = 0.05; substitutions = 0.40; insertions = 0.30; deletions = 0.30; indelContinue = 0.3; }
+            case PACBIO_CLR -> { sigma = 0.6; decay = 0.0; substitutions = 0.15; insertions = 0.55; deletions = 0.30; indelContinue = 0.4; }
+            case NANOPORE_R10 -> { sigma = 1.0; decay = 0.05; substitutions = 0.45; insertions = 0.20; deletions = 0.35; indelContinue = 0.5; }
+            case SANGER -> { sigma = 0; decay = 0.3; substitutions = 0.80; insertions = 0.10; deletions = 0.10; indelContinue = 0.2; }
+            default -> { sigma = 0; decay = 0.3; substitutions = 0.95; insertions = 0.025; deletions = 0.025; indelContinue = 0.2; }
+        }
+
+        AliasTable lengthBins = null;
+        double[] edges = null;
+        if (sigma > 0) {
+            // Mean of a log-normal is exp(mu + sigma^2 / 2); bins span mu +- 4 sigma
+            double mu = Math.log(technology.readLength) - sigma * sigma / 2;
+            edges = new double[LENGTH_BINS + 1];
+            double[] weights = new double[LENGTH_BINS];
+            for (int b = 0; b <= LENGTH_BINS; b++) edges[b] = mu - 4 * sigma + 8 * sigma * b / LENGTH_BINS;
+            for (int b = 0; b < LENGTH_BINS; b++) {
+                weights[b] = normalCdf((edges[b + 1] - mu) / sigma) - normalCdf((edges[b] - mu) / sigma);
+            }
+            lengthBins = new AliasTable(weights);
+        }
+
+        // Same shape as the old per-base model: mean * (1 - decay * position) + N(0, 5), truncated and clamped
+        AliasTable[] qualities = new AliasTable[POSITION_BINS];
+        for (int bin = 0; bin < POSITION_BINS; bin++) {
+            double position = (bin + 0.5) / POSITION_BINS;
+            double mean = technology.avgQuality * (1 - decay * position);
+            double[] weights = new double[MAX_QUALITY - MIN_QUALITY + 1];
+            for (int q = MIN_QUALITY; q <= MAX_QUALITY; q++) {
+                double lower = q == MIN_QUALITY ? Double.NEGATIVE_INFINITY : (q - mean) / QUALITY_SD;
+                double upper = q == MAX_QUALITY ? Double.POSITIVE_INFINITY : (q + 1 - mean) / QUALITY_SD;
+                weights[q - MIN_QUALITY] = normalCdf(upper) - normalCdf(lower);
+            }
+            qualities[bin] = new AliasTable(weights);
+        }
+
+        double[] indelWeights = new double[MAX_INDEL_LENGTH];
+        for (int length = 1; length <= MAX_INDEL_LENGTH; length++) {
+            indelWeights[length - 1] = Math.pow(indelContinue, length - 1);
+        }
+
+        // Transitions (A<->G, C<->T) twice as likely as each transversion
+        AliasTable[] substitutionTables = new AliasTable[4];
+        for (int base = 0; base < 4; base++) {
+            double[] weights = new double[4];
+            for (int to = 0; to < 4; to++) {
+                if (to != base) weights[to] = (to ^ base) == 2 ? 2 : 1;
+            }
+            substitutionTables[base] = new AliasTable(weights);
+        }
+
+        return new ErrorModel(technology, lengthBins, edges, qualities, insertions + deletions,
+            new AliasTable(new double[]{substitutions, insertions, deletions}),
+            new AliasTable(indelWeights), substitutionTables);
+    }
+
+    /**
+     * Standard normal CDF via the Abramowitz-Stegun 7.1.26 erf approximation (error < 1.5e-7).
+     */
+    static double normalCdf(double z) {
+        if (z == Double.NEGATIVE_INFINITY) return 0;
+        if (z == Double.POSITIVE_INFINITY) return 1;
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+            + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+
+    // ========== Sampling ==========
+
+    public SequencingSimulator.Technology technology() {
+        return technology;
+    }
+
+    /**
+     * Probability that a base is followed by an insertion or deletion error.
+     */
+    public double indelRate() {
+        return errorRate * indelFraction;
+    }
+
+    /**
+     * Whether read lengths vary from read to read (long-read technologies).
+     */
+    public boolean variableLength() {
+        return lengthBins != null;
+    }
+
+    /**
+     * Draw a read length, at most {@code maxLength}.
+     */
+    public int sampleLength(RandomGenerator random, int maxLength) {
+        if (lengthBins == null) return Math.min(technology.readLength, maxLength);
+        int bin = lengthBins.sample(random);
+        double log = lengthBinEdges[bin] + random.nextDouble() * (lengthBinEdges[bin + 1] - lengthBinEdges[bin]);
+        return (int) Math.max(1, Math.min(maxLength, Math.round(Math.exp(log))));
+    }
+
+    /**
+     * Draw a Phred score for a base at a relative position (0 = first cycle, 1 = last).
+     */
+    public int sampleQuality(double relativePosition, RandomGenerator random) {
+        int bin = (int) Math.min(POSITION_BINS - 1, Math.max(0, relativePosition * POSITION_BINS));
+        return MIN_QUALITY + qualities[bin].sample(random);
+    }
+
+    /**
+     * Longest template a read of this length can consume: its own length plus room for deletions.
+     */
+    public int templateLength(int readLength) {
+        return readLength + MAX_INDEL_LENGTH + (int) Math.ceil(4 * readLength * errorRate);
+    }
+
+    /**
+     * Sequence a template into a read: fill qualities bin by bin, then jump from error to
+     * error, applying a substitution, insertion or deletion at each.
+     *
+     * @param template       Template bases, in sequencing direction
+     * @param templateLength Usable template bases
+     * @param read           Output bases, at least {@code readLength} long
+     * @param readQualities  Output qualities, at least {@code readLength} long
+     * @param readLength     Bases to produce
+     */
+    public Sequenced sequence(char[] template, int templateLength, char[] read, int[] readQualities, int readLength,
+                              RandomGenerator random) {
+        for (int bin = 0; bin < POSITION_BINS; bin++) {
+            AliasTable table = qualities[bin];
+            int end = (int) ((long) readLength * (bin + 1) / POSITION_BINS);
+            for (int i = (int) ((long) readLength * bin / POSITION_BINS); i < end; i++) {
+                readQualities[i] = MIN_QUALITY + table.sample(random);
+            }
+        }
+
+        int out = 0;
+        int in = 0;
+        long nextError = nextError(-1, random);
+        while (out < readLength && in < templateLength) {
+            if (out != nextError) {
+                // Copy the error-free run up to the next error in one go
+                int run = (int) Math.min(Math.min(readLength - out, templateLength - in), nextError - out);
+                System.arraycopy(template, in, read, out, run);
+                out += run;
+                in += run;
+                continue;
+            }
+            switch (errorTypes.sample(random)) {
+                case SUBSTITUTION -> {
+                    int code = code(template[in++]);
+                    read[out] = code < 0 ? 'N' : BASES[substitutions[code].sample(random)];
+                    readQualities[out] = Math.min(readQualities[out], ERROR_QUALITY);
+                    out++;
+                }
+                case INSERTION -> {
+                    int length = Math.min(readLength - out, 1 + indelLengths.sample(random));
+                    for (int i = 0; i < length; i++, out++) {
+                        read[out] = BASES[random.nextInt(4)];
+                        readQualities[out] = Math.min(readQualities[out], ERROR_QUALITY);
+                    }
+                }
+                default -> {
+                    in += 1 + indelLengths.sample(random);
+                    if (in < templateLength) {
+                        read[out] = template[in++];
+                        readQualities[out] = Math.min(readQualities[out], ERROR_QUALITY);
+                        out++;
+                    }
+                }
+            }
+            nextError = nextError(out - 1, random);
+        }
+        return new Sequenced(out, Math.min(in, templateLength));
+    }
+
+    /**
+     * Index of the next errored read position after {@code position}.
+     */
+    private long nextError(long position, RandomGenerator random) {
+        if (errorRate <= 0) return Long.MAX_VALUE;
+        double gap = Math.floor(Math.log(1 - random.nextDouble()) / logErrorGap);
+        return gap >= Integer.MAX_VALUE ? Long.MAX_VALUE : position + 1 + (long) gap;
+    }
+
+    private static int code(char base) {
+        return switch (base) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> -1;
+        };
+    }
+}
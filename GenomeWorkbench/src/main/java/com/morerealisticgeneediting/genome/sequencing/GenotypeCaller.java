@@ -0,0 +1,586 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.genome.Genome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Bayesian genotype caller for SNPs and small indels over aligned reads.
+ *
+ * For a site with a reference and an alternate allele and ploidy {@code p}, the
+ * genotypes are the number of alternate copies {@code g = 0..p}. A base observed with
+ * error probability {@code e} has likelihood {@code (k/p)(1-e) + (1-k/p)(e/3)} under a
+ * genotype with {@code k} copies of that base, so it depends only on {@code k} and the
+ * base quality. All {@code p + 1} log values per Phred score are precomputed into one
+ * table, and the pileup keeps, for each column and base, a running sum of those rows:
+ * adding a read base adds one contiguous table row into one contiguous sum row, with
+ * no logarithm, branch on genotype or allocation. A genotype's log-likelihood is then
+ * three lookups, so evaluating a site costs {@code O(p)} however deep it is.
+ *
+ * Indels are biallelic per anchor base: reads carrying the most frequent indel at the
+ * anchor support it, reads aligned straight across the anchor support the reference.
+ * Base qualities do not describe gap errors, so indel observations use a fixed error
+ * rate ({@code indelQuality}), which should be lower for long-read technologies.
+ *
+ * Genotypes are chosen by posterior with the usual population prior
+ * ({@code P(g) ~ theta / g}). QUAL is the Phred-scaled posterior of no variant; PL
+ * holds the Phred-scaled genotype likelihoods normalised to the best, and GQ is the
+ * second smallest PL, capped at 99, as in GATK.
+ *
+ * Reads are swept in reference order through a ring buffer of columns, as in
+ * {@link PileupCaller}, and {@link #call} runs independent regions in parallel.
+ * Reads are placed by their {@link ReadAligner.Alignment} CIGARs, so indels in the
+ * reads shift nothing.
+ *
+ * Educational note: this is the genotype likelihood model of samtools/bcftools and
+ * GATK's HaplotypeCaller genotyper, minus local reassembly. Working with log
+ * likelihoods keeps hundreds of reads' probabilities from underflowing.
+ */
+public final class GenotypeCaller {
+
+    public static final int DEFAULT_PLOIDY = 2;
+    public static final int MAX_PLOIDY = 8;
+    public static final int DEFAULT_INDEL_QUALITY = 30;
+    public static final int DEFAULT_REGION_SIZE = 1 << 20;
+    public static final int MAX_GQ = 99;
+
+    // Qualities above this are clamped; the table has one row per score up to it
+    private static final int MAX_QUALITY = 60;
+    // Error probability at or above which a base carries no information (all bases equally likely)
+    private static final double MAX_ERROR = 0.75;
+    private static final double SNP_HETEROZYGOSITY = 1e-3;
+    private static final double INDEL_HETEROZYGOSITY = 1.25e-4;
+    private static final double PHRED_PER_LN = 10 / Math.log(10);
+    private static final int MIN_WINDOW = 1 << 12;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int code = 0; code < 4; code++) {
+            CODES[BASES[code]] = (byte) code;
+            CODES[Character.toLowerCase(BASES[code])] = (byte) code;
+        }
+    }
+
+    private final Genome reference;
+    private final int ploidy;
+    private final int stride;             // ploidy + 1: genotypes per site
+    private final int minDepth;
+    private final int minMapq;
+    private final double minQuality;
+    private final double[] baseTable;     // [quality * stride + k] = ln P(base | k of ploidy copies are that base)
+    private final double[] indelTable;    // [k] = ln P(indel observation | k copies carry it)
+    private final double[] snpPrior;      // [g] = ln P(g alternate copies)
+    private final double[] indelPrior;
+
+    /**
+     * A genotyped variant site.
+     *
+     * @param position        0-based reference position (of the anchor base for indels)
+     * @param ploidy          Copies of the locus
+     * @param altCopies       Called alternate copies (1..ploidy)
+     * @param depth           Informative reads at the site
+     * @param altDepth        Reads supporting the alternate allele
+     * @param quality         QUAL: Phred-scaled posterior probability that there is no variant
+     * @param genotypeQuality GQ
+     * @param likelihoods     PL for 0..ploidy alternate copies
+     */
+    public record Call(long position, String referenceAllele, String alternateAllele,
+                       SequencingSimulator.Variant.VariantType type, int ploidy, int altCopies, int depth,
+                       int altDepth, double quality, int genotypeQuality, int[] likelihoods) {
+        /**
+         * Unphased VCF genotype, e.g. {@code 0/1}.
+         */
+        public String genotype() {
+            StringBuilder genotype = new StringBuilder(2 * ploidy);
+            for (int i = 0; i < ploidy; i++) {
+                if (i > 0) genotype.append('/');
+                genotype.append(i < ploidy - altCopies ? '0' : '1');
+            }
+            return genotype.toString();
+        }
+
+        public double alleleFrequency() {
+            return depth == 0 ? 0 : (double) altDepth / depth;
+        }
+
+        public SequencingSimulator.Variant toVariant() {
+            return new SequencingSimulator.Variant(position, referenceAllele, alternateAllele, type, depth,
+                alleleFrequency(), quality);
+        }
+    }
+
+    /**
+     * Diploid caller with default indel error rate and no mapping quality filter.
+     */
+    public GenotypeCaller(Genome reference, int minDepth, double minQuality) {
+        this(reference, DEFAULT_PLOIDY, minDepth, minQuality, 0, DEFAULT_INDEL_QUALITY);
+    }
+
+    /**
+     * @param reference    Reference genome the reads were aligned to
+     * @param ploidy       Copies of each locus (1 to {@link #MAX_PLOIDY})
+     * @param minDepth     Minimum informative reads for a call
+     * @param minQuality   Minimum QUAL for a call
+     * @param minMapq      Alignments below this mapping quality are ignored
+     * @param indelQuality Phred-scaled probability that a read shows a given indel by error
+     */
+    public GenotypeCaller(Genome reference, int ploidy, int minDepth, double minQuality, int minMapq,
+                          int indelQuality) {
+        if (ploidy < 1 || ploidy > MAX_PLOIDY) {
+            throw new IllegalArgumentException("Ploidy must be 1 to " + MAX_PLOIDY + ": " + ploidy);
+        }
+        if (indelQuality < 1) {
+            throw new IllegalArgumentException("Indel quality must be positive: " + indelQuality);
+        }
+        this.reference = reference;
+        this.ploidy = ploidy;
+        this.stride = ploidy + 1;
+        this.minDepth = minDepth;
+        this.minQuality = minQuality;
+        this.minMapq = minMapq;
+
+        baseTable = new double[(MAX_QUALITY + 1) * stride];
+        for (int q = 0; q <= MAX_QUALITY; q++) {
+            double error = Math.min(MAX_ERROR, Math.pow(10, -q / 10.0));
+            for (int k = 0; k <= ploidy; k++) {
+                double copies = (double) k / ploidy;
+                baseTable[q * stride + k] = Math.log(copies * (1 - error) + (1 - copies) * error / 3);
+            }
+        }
+        double indelError = Math.pow(10, -indelQuality / 10.0);
+        indelTable = new double[stride];
+        for (int k = 0; k <= ploidy; k++) {
+            double copies = (double) k / ploidy;
+            indelTable[k] = Math.log(copies * (1 - indelError) + (1 - copies) * indelError);
+        }
+        snpPrior = prior(SNP_HETEROZYGOSITY);
+        indelPrior = prior(INDEL_HETEROZYGOSITY);
+    }
+
+    /**
+     * ln P(g alternate copies): theta / g for g >= 1, the rest for g = 0.
+     */
+    private double[] prior(double theta) {
+        double[] prior = new double[stride];
+        double variant = 0;
+        for (int g = 1; g <= ploidy; g++) {
+            prior[g] = Math.log(theta / g);
+            variant += theta / g;
+        }
+        prior[0] = Math.log(1 - variant);
+        return prior;
+    }
+
+    /**
+     * Phred-scaled indel error rate of a technology's reads, for {@code indelQuality}.
+     */
+    public static int indelQuality(SequencingSimulator.Technology technology) {
+        double rate = ErrorModel.forTechnology(technology).indelRate();
+        return rate <= 0 ? MAX_QUALITY : (int) Math.max(1, Math.min(MAX_QUALITY, Math.round(-10 * Math.log10(rate))));
+    }
+
+    public int ploidy() {
+        return ploidy;
+    }
+
+    // ========== Calling ==========
+
+    /**
+     * Genotype the whole reference in parallel regions.
+     *
+     * @param reads      Reads, in any order
+     * @param alignments One alignment per read (as returned by {@link ReadAligner#alignAll})
+     * @return Calls in position order
+     */
+    public List<Call> call(List<SequencingSimulator.SequencingRead> reads, List<ReadAligner.Alignment> alignments) {
+        return call(reads, alignments, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param regionSize Bases per parallel region
+     */
+    public List<Call> call(List<SequencingSimulator.SequencingRead> reads, List<ReadAligner.Alignment> alignments,
+                           int regionSize) {
+        if (reads.size() != alignments.size()) {
+            throw new IllegalArgumentException("Expected one alignment per read: " + reads.size() + " reads, "
+                + alignments.size() + " alignments");
+        }
+        if (regionSize < 1) {
+            throw new IllegalArgumentException("Region size must be positive: " + regionSize);
+        }
+
+        // Usable alignments, sorted by reference start
+        int[] order = IntStream.range(0, alignments.size())
+            .filter(i -> alignments.get(i).mapped() && alignments.get(i).mapq() >= minMapq)
+            .boxed()
+            .sorted((a, b) -> Long.compare(alignments.get(a).position(), alignments.get(b).position()))
+            .mapToInt(Integer::intValue)
+            .toArray();
+        long[] starts = new long[order.length];
+        long reach = 0;
+        for (int i = 0; i < order.length; i++) {
+            ReadAligner.Alignment alignment = alignments.get(order[i]);
+            starts[i] = alignment.position();
+            reach = Math.max(reach, referenceSpan(alignment.cigar()));
+        }
+
+        long genomeLength = reference.getTotalLength();
+        int regions = (int) ((genomeLength + regionSize - 1) / regionSize);
+        long maxSpan = reach;
+        List<List<Call>> calls = IntStream.range(0, regions).parallel()
+            .mapToObj(r -> {
+                long from = (long) r * regionSize;
+                long to = Math.min(genomeLength, from + regionSize);
+                List<Call> regionCalls = new ArrayList<>();
+                Window window = new Window(from, regionCalls::add);
+                for (int i = lowerBound(starts, from - maxSpan); i < order.length && starts[i] < to; i++) {
+                    window.advanceTo(Math.max(from, starts[i]));
+                    window.add(reads.get(order[i]), alignments.get(order[i]), from, to);
+                }
+                window.flushBefore(to);
+                return regionCalls;
+            })
+            .toList();
+
+        List<Call> merged = new ArrayList<>();
+        calls.forEach(merged::addAll);
+        return merged;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ========== Genotyping ==========
+
+    /**
+     * Turn per-genotype log-likelihoods into a call, or null if the best genotype has no
+     * alternate copy or the site fails the filters.
+     */
+    private Call genotype(long position, String ref, String alt, SequencingSimulator.Variant.VariantType type,
+                          int depth, int altDepth, double[] logLikelihood, double[] prior) {
+        if (depth < minDepth) return null;
+        double maxLikelihood = Double.NEGATIVE_INFINITY, maxPosterior = Double.NEGATIVE_INFINITY;
+        int best = 0;
+        for (int g = 0; g <= ploidy; g++) {
+            maxLikelihood = Math.max(maxLikelihood, logLikelihood[g]);
+            double posterior = logLikelihood[g] + prior[g];
+            if (posterior > maxPosterior) {
+                maxPosterior = posterior;
+                best = g;
+            }
+        }
+        if (best == 0) return null;
+
+        // log-sum-exp of the posteriors, relative to the largest
+        double sum = 0;
+        for (int g = 0; g <= ploidy; g++) sum += Math.exp(logLikelihood[g] + prior[g] - maxPosterior);
+        double logNoVariant = logLikelihood[0] + prior[0] - maxPosterior - Math.log(sum);
+        double quality = -PHRED_PER_LN * logNoVariant;
+        if (quality < minQuality) return null;
+
+        int[] likelihoods = new int[stride];
+        int lowest = Integer.MAX_VALUE, secondLowest = Integer.MAX_VALUE;
+        for (int g = 0; g <= ploidy; g++) {
+            int pl = (int) Math.round(PHRED_PER_LN * (maxLikelihood - logLikelihood[g]));
+            likelihoods[g] = pl;
+            if (pl < lowest) {
+                secondLowest = lowest;
+                lowest = pl;
+            } else if (pl < secondLowest) {
+                secondLowest = pl;
+            }
+        }
+        return new Call(position, ref, alt, type, ploidy, best, depth, altDepth, quality,
+            Math.min(MAX_GQ, secondLowest), likelihoods);
+    }
+
+    // ========== Window ==========
+
+    /**
+     * Ring buffer of pileup columns from {@code start} (the first column not yet emitted) onwards.
+     */
+    private final class Window {
+        private final Consumer<Call> out;
+        private int capacity = MIN_WINDOW;
+        private double[] sums = new double[4 * stride * MIN_WINDOW];  // per column and base, summed table rows
+        private int[] counts = new int[4 * MIN_WINDOW];               // A, C, G, T per column
+        private int[] junctions = new int[MIN_WINDOW];                // reads aligned straight from column to the next
+        // Indels by anchor column: allele key (+BASES or -length) to supporting reads
+        private final Map<Long, Map<String, int[]>> indels = new HashMap<>();
+        private final double[] logLikelihood = new double[stride];
+        private long start;
+        private long end;                                              // one past the last touched column
+
+        Window(long start, Consumer<Call> out) {
+            this.start = start;
+            this.end = start;
+            this.out = out;
+        }
+
+        /**
+         * Note that every column before {@code position} is final; flush once enough have built up.
+         */
+        void advanceTo(long position) {
+            if (position - start >= capacity / 2 || position >= end) flushBefore(position);
+        }
+
+        /**
+         * Add a read's bases, junctions and indels that fall inside {@code [from, to)}, walking its CIGAR.
+         */
+        void add(SequencingSimulator.SequencingRead read, ReadAligner.Alignment alignment, long from, long to) {
+            String cigar = alignment.cigar();
+            long readStart = alignment.position();
+            long first = Math.max(Math.max(from, start), readStart);
+            long last = Math.min(to, readStart + referenceSpan(cigar));
+            if (last <= first) return;
+            if (last - start > capacity) flushBefore(first);   // Columns before the read are final
+            ensureCapacity(last - start);
+
+            // The CIGAR is on the aligned strand; reverse reads are complemented back onto it
+            String sequence = read.sequence();
+            int[] qualities = read.qualityScores();
+            int m = sequence.length();
+            boolean reverse = alignment.reverse();
+
+            long pos = readStart;
+            int query = 0;
+            int length = 0;
+            for (int c = 0; c < cigar.length(); c++) {
+                char op = cigar.charAt(c);
+                if (op >= '0' && op <= '9') {
+                    length = length * 10 + (op - '0');
+                    continue;
+                }
+                switch (op) {
+                    case 'M', '=', 'X' -> {
+                        addRun(sequence, qualities, reverse, query, pos, length, first, last);
+                        pos += length;
+                        query += length;
+                    }
+                    case 'I' -> {
+                        if (pos - 1 >= first && pos - 1 < last) {
+                            StringBuilder inserted = new StringBuilder(length + 1).append('+');
+                            for (int j = 0; j < length; j++) {
+                                int i = reverse ? m - 1 - (query + j) : query + j;
+                                int code = code(sequence.charAt(i));
+                                inserted.append(code < 0 ? 'N' : BASES[reverse ? 3 - code : code]);
+                            }
+                            addIndel(pos - 1, inserted.toString());
+                        }
+                        query += length;
+                    }
+                    case 'D' -> {
+                        if (pos - 1 >= first && pos - 1 < last) addIndel(pos - 1, "-" + length);
+                        pos += length;
+                    }
+                    case 'S' -> query += length;
+                    default -> { }
+                }
+                length = 0;
+            }
+            end = Math.max(end, last);
+        }
+
+        /**
+         * Add a run of aligned bases: {@code count} columns from {@code pos}, read offsets
+         * from {@code query} on the aligned strand. Columns outside {@code [first, last)}
+         * are skipped, but a base at {@code last} still completes the junction before it.
+         */
+        private void addRun(String sequence, int[] qualities, boolean reverse, int query, long pos, int count,
+                            long first, long last) {
+            int m = sequence.length();
+            int mask = capacity - 1;
+            // Offsets into the run as ints, so the JIT sees a counted loop
+            int from = (int) Math.max(0, first - pos);
+            int to = (int) Math.min(count, last - pos);
+            int base = (int) pos;
+            boolean previousValid = false;
+            for (int j = from; j < to; j++) {
+                int i = reverse ? m - 1 - (query + j) : query + j;
+                int code = code(sequence.charAt(i));
+                if (code < 0) {
+                    previousValid = false;
+                    continue;
+                }
+                if (reverse) code = 3 - code;
+                int slot = (base + j) & mask;
+                if (previousValid) junctions[(slot - 1) & mask]++;
+                previousValid = true;
+
+                int row = Math.max(0, Math.min(MAX_QUALITY, qualities[i])) * stride;
+                int sum = (4 * slot + code) * stride;
+                if (stride == 3) {
+                    // Diploid: a 3-iteration loop costs more in loop overhead than in additions
+                    sums[sum] += baseTable[row];
+                    sums[sum + 1] += baseTable[row + 1];
+                    sums[sum + 2] += baseTable[row + 2];
+                } else {
+                    for (int k = 0; k < stride; k++) sums[sum + k] += baseTable[row + k];
+                }
+                counts[4 * slot + code]++;
+            }
+            // The column after the last belongs to the next region; only the junction into it is ours
+            if (previousValid && to == last - pos && to < count) {
+                int offset = query + (int) (last - pos);
+                if (code(sequence.charAt(reverse ? m - 1 - offset : offset)) >= 0) {
+                    junctions[(int) (last - 1) & mask]++;
+                }
+            }
+        }
+
+        private void addIndel(long anchor, String allele) {
+            indels.computeIfAbsent(anchor, a -> new HashMap<>()).computeIfAbsent(allele, a -> new int[1])[0]++;
+        }
+
+        /**
+         * Emit and clear every column before {@code position}, fetching their reference in one call.
+         */
+        void flushBefore(long position) {
+            long stop = Math.min(position, end);
+            if (stop > start) {
+                String ref = reference.getSequence(start, (int) (stop - start));
+                int mask = capacity - 1;
+                for (long pos = start; pos < stop; pos++) {
+                    int slot = (int) pos & mask;
+                    int offset = (int) (pos - start);
+                    if (offset < ref.length()) {
+                        emitSnp(pos, ref.charAt(offset), slot);
+                        if (!indels.isEmpty()) emitIndel(pos, ref.charAt(offset), slot);
+                    }
+                    clear(slot);
+                }
+            }
+            start = Math.max(start, position);
+            end = Math.max(end, start);
+        }
+
+        private void emitSnp(long position, char refBase, int slot) {
+            int refCode = code(refBase);
+            if (refCode < 0) return;
+            int alt = -1, depth = 0;
+            for (int base = 0; base < 4; base++) {
+                int count = counts[4 * slot + base];
+                depth += count;
+                if (base != refCode && count > 0 && (alt < 0 || count > counts[4 * slot + alt])) alt = base;
+            }
+            if (alt < 0) return;
+
+            // Bases other than ref and alt have 0 copies under every genotype
+            double other = 0;
+            for (int base = 0; base < 4; base++) {
+                if (base != refCode && base != alt) other += sums[(4 * slot + base) * stride];
+            }
+            int refSums = (4 * slot + refCode) * stride;
+            int altSums = (4 * slot + alt) * stride;
+            for (int g = 0; g <= ploidy; g++) {
+                logLikelihood[g] = sums[altSums + g] + sums[refSums + ploidy - g] + other;
+            }
+            Call call = genotype(position, String.valueOf(refBase), String.valueOf(BASES[alt]),
+                SequencingSimulator.Variant.VariantType.SNP, depth, counts[4 * slot + alt], logLikelihood, snpPrior);
+            if (call != null) out.accept(call);
+        }
+
+        private void emitIndel(long position, char refBase, int slot) {
+            Map<String, int[]> alleles = indels.remove(position);
+            if (alleles == null || code(refBase) < 0) return;
+            String allele = null;
+            int support = 0;
+            for (Map.Entry<String, int[]> entry : alleles.entrySet()) {
+                if (entry.getValue()[0] > support) {
+                    allele = entry.getKey();
+                    support = entry.getValue()[0];
+                }
+            }
+            int referenceSupport = junctions[slot];
+            for (int g = 0; g <= ploidy; g++) {
+                logLikelihood[g] = support * indelTable[g] + referenceSupport * indelTable[ploidy - g];
+            }
+
+            String ref, alt;
+            SequencingSimulator.Variant.VariantType type;
+            if (allele.charAt(0) == '+') {
+                ref = String.valueOf(refBase);
+                alt = refBase + allele.substring(1);
+                type = SequencingSimulator.Variant.VariantType.INSERTION;
+            } else {
+                int length = Integer.parseInt(allele, 1, allele.length(), 10);
+                ref = reference.getSequence(position, length + 1);
+                alt = String.valueOf(refBase);
+                type = SequencingSimulator.Variant.VariantType.DELETION;
+            }
+            Call call = genotype(position, ref, alt, type, support + referenceSupport, support, logLikelihood,
+                indelPrior);
+            if (call != null) out.accept(call);
+        }
+
+        private void clear(int slot) {
+            Arrays.fill(sums, 4 * slot * stride, 4 * (slot + 1) * stride, 0);
+            counts[4 * slot] = counts[4 * slot + 1] = counts[4 * slot + 2] = counts[4 * slot + 3] = 0;
+            junctions[slot] = 0;
+        }
+
+        /**
+         * Grow to hold {@code span} columns from {@code start}, re-laying the ring.
+         */
+        private void ensureCapacity(long span) {
+            if (span <= capacity) return;
+            int grown = capacity;
+            while (grown < span) grown <<= 1;
+            double[] newSums = new double[4 * stride * grown];
+            int[] newCounts = new int[4 * grown];
+            int[] newJunctions = new int[grown];
+            for (long pos = start; pos < end; pos++) {
+                int from = (int) pos & (capacity - 1);
+                int to = (int) pos & (grown - 1);
+                System.arraycopy(sums, 4 * stride * from, newSums, 4 * stride * to, 4 * stride);
+                System.arraycopy(counts, 4 * from, newCounts, 4 * to, 4);
+                newJunctions[to] = junctions[from];
+            }
+            capacity = grown;
+            sums = newSums;
+            counts = newCounts;
+            junctions = newJunctions;
+        }
+    }
+
+    /**
+     * Reference bases covered by a CIGAR (M, =, X and D operations).
+     */
+    private static long referenceSpan(String cigar) {
+        long span = 0;
+        int length = 0;
+        for (int c = 0; c < cigar.length(); c++) {
+            char op = cigar.charAt(c);
+            if (op >= '0' && op <= '9') {
+                length = length * 10 + (op - '0');
+                continue;
+            }
+            if (op == 'M' || op == '=' || op == 'X' || op == 'D') span += length;
+            length = 0;
+        }
+        return span;
+    }
+
+    /**
+     * 2-bit code of a base, or -1. A table rather than a switch: bases are random, so a
+     * switch's branches mispredict on nearly every base of the pileup.
+     */
+    private static int code(char base) {
+        return base < CODES.length ? CODES[base] : -1;
+    }
+}
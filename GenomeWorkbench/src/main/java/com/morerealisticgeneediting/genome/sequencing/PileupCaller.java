@@ -0,0 +1,256 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.genome.Genome;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming pileup and SNP caller over coordinate-sorted reads.
+ *
+ * Per-position evidence lives in a ring buffer of primitive columns (A/C/G/T counts,
+ * depth and quality sum) covering only the positions that reads overlapping the current
+ * read can still touch. Reads must arrive sorted by reference position, so when a read
+ * starting at {@code s} arrives, every column before {@code s} is final. Final columns
+ * are flushed in batches of half a window: the batch's reference bases are fetched in
+ * one call, its calls are emitted and the columns are reused. Memory is proportional
+ * to the longest read, not to region length times depth.
+ *
+ * Reverse-strand reads are mapped back onto the forward strand before counting. N
+ * bases add depth but are never called as alternate alleles.
+ *
+ * {@link #callRegions} splits the genome into regions that run in parallel; each
+ * region starts from the first read that can reach it and only emits its own columns,
+ * so the output is identical to a single sweep.
+ *
+ * Educational note: this is the same sorted-sweep design that samtools mpileup and
+ * bcftools use, and the reason aligned reads are almost always stored sorted by coordinate.
+ */
+public final class PileupCaller {
+
+    public static final int DEFAULT_REGION_SIZE = 1 << 20;
+    private static final int MIN_WINDOW = 1 << 12;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final Genome reference;
+    private final int minDepth;
+    private final double minQuality;
+
+    /**
+     * @param reference  Reference genome the reads were aligned to
+     * @param minDepth   Minimum read depth for calling
+     * @param minQuality Minimum mean base quality at the position
+     */
+    public PileupCaller(Genome reference, int minDepth, double minQuality) {
+        this.reference = reference;
+        this.minDepth = minDepth;
+        this.minQuality = minQuality;
+    }
+
+    // ========== Calling ==========
+
+    /**
+     * Sweep sorted reads once, emitting calls for columns in {@code [from, to)} as soon as they are final.
+     */
+    public void call(Iterator<SequencingSimulator.SequencingRead> sortedReads, long from, long to,
+                     Consumer<SequencingSimulator.Variant> out) {
+        Window window = new Window(from, out);
+        while (sortedReads.hasNext()) {
+            SequencingSimulator.SequencingRead read = sortedReads.next();
+            long start = read.referencePosition();
+            if (start >= to) break;
+            if (start + read.sequence().length() <= from) continue;
+            window.advanceTo(Math.max(from, start));
+            window.add(read, from, to);
+        }
+        window.flushBefore(to);
+    }
+
+    /**
+     * Call the whole genome in parallel regions.
+     *
+     * @param sortedReads Reads sorted by reference position
+     * @param regionSize  Bases per parallel region
+     * @return Calls in position order
+     */
+    public List<SequencingSimulator.Variant> callRegions(List<SequencingSimulator.SequencingRead> sortedReads,
+                                                         int regionSize) {
+        if (regionSize < 1) {
+            throw new IllegalArgumentException("Region size must be positive: " + regionSize);
+        }
+        int n = sortedReads.size();
+        long[] starts = new long[n];
+        int maxLength = 0;
+        for (int i = 0; i < n; i++) {
+            SequencingSimulator.SequencingRead read = sortedReads.get(i);
+            starts[i] = read.referencePosition();
+            if (i > 0 && starts[i] < starts[i - 1]) {
+                throw new IllegalArgumentException("Reads are not sorted by position at index " + i);
+            }
+            maxLength = Math.max(maxLength, read.sequence().length());
+        }
+        long genomeLength = reference.getTotalLength();
+        int regions = (int) ((genomeLength + regionSize - 1) / regionSize);
+        int reach = maxLength;
+
+        List<List<SequencingSimulator.Variant>> calls = IntStream.range(0, regions).parallel()
+            .mapToObj(r -> {
+                long from = (long) r * regionSize;
+                long to = Math.min(genomeLength, from + regionSize);
+                List<SequencingSimulator.Variant> regionCalls = new ArrayList<>();
+                int first = lowerBound(starts, from - reach);
+                call(sortedReads.subList(first, n).iterator(), from, to, regionCalls::add);
+                return regionCalls;
+            })
+            .toList();
+
+        List<SequencingSimulator.Variant> merged = new ArrayList<>();
+        calls.forEach(merged::addAll);
+        return merged;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ========== Window ==========
+
+    /**
+     * Ring buffer of pileup columns from {@code start} (the first column not yet emitted) onwards.
+     */
+    private final class Window {
+        private final Consumer<SequencingSimulator.Variant> out;
+        private int capacity = MIN_WINDOW;
+        private int[] counts = new int[4 * MIN_WINDOW];   // A, C, G, T per column
+        private int[] depth = new int[MIN_WINDOW];        // all bases, N included
+        private long[] qualitySum = new long[MIN_WINDOW];
+        private long start;
+        private long end;                                  // one past the last touched column
+
+        Window(long start, Consumer<SequencingSimulator.Variant> out) {
+            this.start = start;
+            this.end = start;
+            this.out = out;
+        }
+
+        /**
+         * Note that every column before {@code position} is final; flush once enough have built up.
+         */
+        void advanceTo(long position) {
+            if (position - start >= capacity / 2 || position >= end) flushBefore(position);
+        }
+
+        /**
+         * Add a read's bases that fall inside {@code [from, to)}.
+         */
+        void add(SequencingSimulator.SequencingRead read, long from, long to) {
+            String sequence = read.sequence();
+            int[] qualities = read.qualityScores();
+            int length = sequence.length();
+            long readStart = read.referencePosition();
+            long first = Math.max(Math.max(from, start), readStart);
+            long last = Math.min(to, readStart + length);
+            if (last <= first) return;
+            if (last - start > capacity) flushBefore(first);   // Columns before the read are final
+            ensureCapacity(last - start);
+
+            int mask = capacity - 1;
+            boolean reversed = read.isReversed();
+            for (long pos = first; pos < last; pos++) {
+                int offset = (int) (pos - readStart);
+                int i = reversed ? length - 1 - offset : offset;
+                int code = code(sequence.charAt(i));
+                if (code >= 0 && reversed) code = 3 - code;   // Complement back to the forward strand
+                int slot = (int) pos & mask;
+                if (code >= 0) counts[4 * slot + code]++;
+                depth[slot]++;
+                qualitySum[slot] += qualities[i];
+            }
+            end = Math.max(end, last);
+        }
+
+        /**
+         * Emit and clear every column before {@code position}, fetching their reference in one call.
+         */
+        void flushBefore(long position) {
+            long stop = Math.min(position, end);
+            if (stop > start) {
+                String ref = reference.getSequence(start, (int) (stop - start));
+                int mask = capacity - 1;
+                for (long pos = start; pos < stop; pos++) {
+                    int slot = (int) pos & mask;
+                    int offset = (int) (pos - start);
+                    if (depth[slot] > 0 && offset < ref.length()) emit(pos, ref.charAt(offset), slot);
+                    clear(slot);
+                }
+            }
+            start = Math.max(start, position);
+            end = Math.max(end, start);
+        }
+
+        private void emit(long position, char refBase, int slot) {
+            int total = depth[slot];
+            if (total < minDepth) return;
+            double meanQuality = (double) qualitySum[slot] / total;
+            if (meanQuality < minQuality) return;
+
+            int refCode = code(refBase);
+            for (int base = 0; base < 4; base++) {
+                int count = counts[4 * slot + base];
+                if (base == refCode || count == 0 || count < minDepth / 3) continue;
+                double af = (double) count / total;
+                if (af < 0.1) continue;
+                out.accept(new SequencingSimulator.Variant(position, String.valueOf(refBase),
+                    String.valueOf(BASES[base]), SequencingSimulator.Variant.VariantType.SNP, total, af, meanQuality));
+            }
+        }
+
+        private void clear(int slot) {
+            counts[4 * slot] = counts[4 * slot + 1] = counts[4 * slot + 2] = counts[4 * slot + 3] = 0;
+            depth[slot] = 0;
+            qualitySum[slot] = 0;
+        }
+
+        /**
+         * Grow to hold {@code span} columns from {@code start}, re-laying the ring.
+         */
+        private void ensureCapacity(long span) {
+            if (span <= capacity) return;
+            int grown = capacity;
+            while (grown < span) grown <<= 1;
+            int[] newCounts = new int[4 * grown];
+            int[] newDepth = new int[grown];
+            long[] newQuality = new long[grown];
+            for (long pos = start; pos < end; pos++) {
+                int from = (int) pos & (capacity - 1);
+                int to = (int) pos & (grown - 1);
+                System.arraycopy(counts, 4 * from, newCounts, 4 * to, 4);
+                newDepth[to] = depth[from];
+                newQuality[to] = qualitySum[from];
+            }
+            capacity = grown;
+            counts = newCounts;
+            depth = newDepth;
+            qualitySum = newQuality;
+        }
+    }
+
+    private static int code(char base) {
+        return switch (base) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> -1;
+        };
+    }
+}
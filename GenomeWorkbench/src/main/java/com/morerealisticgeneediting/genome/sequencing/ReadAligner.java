@@ -0,0 +1,589 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.index.MinimizerIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Maps reads back to a reference by seed-and-extend.
+ *
+ * Seeding: exact 20-mers taken at a fixed stride along the read are looked up in the
+ * reference's {@link MinimizerIndex} on both strands. Each hit votes for a diagonal
+ * (reference position minus read offset); votes within one band of each other form a
+ * candidate locus, and the best few loci are kept.
+ *
+ * Extension: each candidate is scored with affine-gap Smith-Waterman using Farrar's
+ * striped layout. The read is split into {@link #LANES} interleaved segments so that
+ * one inner-loop step updates {@code LANES} independent cells; those loops are plain
+ * int-array loops the JIT can vectorise, and the rare vertical-gap corrections are
+ * applied afterwards in a short "lazy F" pass. The best candidate is then re-aligned
+ * with a banded Gotoh DP around its diagonal, which records a traceback for the CIGAR.
+ * All DP buffers live in a per-worker {@link Workspace} and are reused between reads.
+ *
+ * {@link #alignAll} spreads reads over a small fixed pool of daemon threads, so a big
+ * run never takes every core from the server thread.
+ *
+ * Educational note: this is the seed-chain-extend design of BWA-MEM and minimap2, and
+ * the scoring defaults are BWA-MEM's (match 1, mismatch 4, gap open 6, extend 1).
+ * Because reads are aligned to a reference rather than placed at their true origin,
+ * an edited genome's reads show the edit as mismatches or I/D operations in the CIGAR.
+ */
+public final class ReadAligner {
+
+    public static final int SEED_LENGTH = 20;
+    public static final int DEFAULT_BAND = 32;
+    // BWA-MEM's default minimum output score
+    public static final int MIN_SCORE = 30;
+    public static final int MAX_MAPQ = 60;
+
+    // Lanes per striped vector: 8 x 32-bit, one AVX2 register
+    static final int LANES = 8;
+    private static final int MAX_SEEDS = 16;
+    // Seeds hitting more loci than this are repeats and are skipped
+    private static final int MAX_SEED_HITS = 64;
+    private static final int MAX_CANDIDATES = 4;
+    // Longer reads skip striped scoring, whose cost grows with read length squared
+    private static final int MAX_STRIPED_LENGTH = 1024;
+    private static final int BATCH_SIZE = 256;
+    private static final int NEG_INF = -(1 << 28);
+
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(WORKERS, runnable -> {
+        Thread thread = new Thread(runnable, "MRGE Read Aligner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Trace bits: H source in the low two bits, then whether E and F extended a gap
+    private static final byte FROM_ZERO = 0, FROM_DIAG = 1, FROM_E = 2, FROM_F = 3;
+    private static final byte E_EXTEND = 4, F_EXTEND = 8;
+
+    private final MinimizerIndex index;
+    private final PackedSequence reference;
+    private final int match;
+    private final int mismatch;
+    private final int gapOpen;
+    private final int gapExtend;
+    private final int band;
+
+    /**
+     * One read's placement.
+     *
+     * @param readId       Read name
+     * @param mapped       False if no locus scored at least {@link #MIN_SCORE}
+     * @param position     Forward-strand reference position of the first aligned base
+     * @param reverse      True if the read's reverse complement aligned
+     * @param cigar        SAM-style CIGAR (M, I, D, S), relative to the aligned strand
+     * @param score        Alignment score
+     * @param mapq         Mapping quality, from the gap to the next best locus
+     * @param editDistance Mismatches plus inserted and deleted bases (SAM NM)
+     */
+    public record Alignment(String readId, boolean mapped, long position, boolean reverse, String cigar,
+                            int score, int mapq, int editDistance) {
+        public static Alignment unmapped(String readId) {
+            return new Alignment(readId, false, -1, false, "*", 0, 0, 0);
+        }
+
+        /**
+         * Reference position one past the last aligned base.
+         */
+        public long referenceEnd() {
+            long end = position;
+            for (CigarOp op : operations()) {
+                if (op.op() == 'M' || op.op() == 'D') end += op.length();
+            }
+            return end;
+        }
+
+        public List<CigarOp> operations() {
+            List<CigarOp> ops = new ArrayList<>();
+            if (!mapped) return ops;
+            int length = 0;
+            for (int i = 0; i < cigar.length(); i++) {
+                char c = cigar.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    length = length * 10 + (c - '0');
+                } else {
+                    ops.add(new CigarOp(c, length));
+                    length = 0;
+                }
+            }
+            return ops;
+        }
+
+        /**
+         * Insertions and deletions against the reference, at reference coordinates.
+         */
+        public List<Indel> indels() {
+            List<Indel> indels = new ArrayList<>();
+            long pos = position;
+            for (CigarOp op : operations()) {
+                switch (op.op()) {
+                    case 'M' -> pos += op.length();
+                    case 'D' -> {
+                        indels.add(new Indel(pos, op.length(), false));
+                        pos += op.length();
+                    }
+                    case 'I' -> indels.add(new Indel(pos, op.length(), true));
+                    default -> { }
+                }
+            }
+            return indels;
+        }
+    }
+
+    /**
+     * One CIGAR operation.
+     */
+    public record CigarOp(char op, int length) {}
+
+    /**
+     * An insertion (before {@code position}) or deletion (starting at {@code position}).
+     */
+    public record Indel(long position, int length, boolean insertion) {}
+
+    public ReadAligner(MinimizerIndex index) {
+        this(index, 1, 4, 6, 1, DEFAULT_BAND);
+    }
+
+    /**
+     * @param index     Index of the reference to align to
+     * @param match     Score for a matching base
+     * @param mismatch  Penalty for a mismatch (positive)
+     * @param gapOpen   Penalty for opening a gap (positive)
+     * @param gapExtend Penalty per gap base, including the first (positive)
+     * @param band      Extra diagonals searched either side of the seeds
+     */
+    public ReadAligner(MinimizerIndex index, int match, int mismatch, int gapOpen, int gapExtend, int band) {
+        if (match < 1 || mismatch < 0 || gapOpen < 0 || gapExtend < 1 || band < 0) {
+            throw new IllegalArgumentException("Invalid alignment scoring: " + match + "/" + mismatch + "/"
+                + gapOpen + "/" + gapExtend + ", band " + band);
+        }
+        this.index = index;
+        this.reference = index.getReference();
+        this.match = match;
+        this.mismatch = mismatch;
+        this.gapOpen = gapOpen;
+        this.gapExtend = gapExtend;
+        this.band = band;
+    }
+
+    // ========== Batch Alignment ==========
+
+    /**
+     * Align reads on the aligner pool, blocking until done.
+     *
+     * @return One alignment per read, in input order
+     */
+    public List<Alignment> alignAll(List<SequencingSimulator.SequencingRead> reads) {
+        List<CompletableFuture<List<Alignment>>> batches = new ArrayList<>();
+        for (int from = 0; from < reads.size(); from += BATCH_SIZE) {
+            List<SequencingSimulator.SequencingRead> batch = reads.subList(from, Math.min(reads.size(), from + BATCH_SIZE));
+            batches.add(CompletableFuture.supplyAsync(() -> {
+                Workspace workspace = new Workspace();
+                List<Alignment> aligned = new ArrayList<>(batch.size());
+                for (SequencingSimulator.SequencingRead read : batch) {
+                    aligned.add(align(read.id(), read.sequence(), workspace));
+                }
+                return aligned;
+            }, POOL));
+        }
+        List<Alignment> alignments = new ArrayList<>(reads.size());
+        for (CompletableFuture<List<Alignment>> batch : batches) alignments.addAll(batch.join());
+        return alignments;
+    }
+
+    /**
+     * Align a single read on the calling thread.
+     */
+    public Alignment align(String readId, String sequence) {
+        return align(readId, sequence, new Workspace());
+    }
+
+    // ========== Seeding ==========
+
+    private Alignment align(String readId, String sequence, Workspace ws) {
+        int m = sequence.length();
+        if (m < SEED_LENGTH || reference.length() < m) return Alignment.unmapped(readId);
+        byte[] forward = ws.query(m);
+        for (int i = 0; i < m; i++) forward[i] = code(sequence.charAt(i));
+        byte[] reverse = ws.reverseQuery(m);
+        for (int i = 0; i < m; i++) reverse[m - 1 - i] = forward[i] == 4 ? 4 : (byte) (3 - forward[i]);
+
+        List<Candidate> candidates = seed(forward, m);
+        if (candidates.isEmpty()) return Alignment.unmapped(readId);
+
+        // Rank loci by striped SW score; long reads keep the seed ranking
+        Candidate best = candidates.get(0);
+        int second = 0;
+        if (candidates.size() > 1 && m <= MAX_STRIPED_LENGTH) {
+            best = null;
+            for (Candidate candidate : candidates) {
+                long start = windowStart(candidate);
+                int length = windowLength(candidate, start, m);
+                candidate.score = stripedScore(candidate.reverse ? reverse : forward, m,
+                    ws.reference(reference, start, length), length, ws);
+                if (best == null || candidate.score > best.score) {
+                    if (best != null) second = Math.max(second, best.score);
+                    best = candidate;
+                } else {
+                    second = Math.max(second, candidate.score);
+                }
+            }
+        }
+
+        long start = windowStart(best);
+        int length = windowLength(best, start, m);
+        int lo = (int) (best.diagonalLow - band - start);
+        int width = (int) (best.diagonalHigh - best.diagonalLow) + 2 * band + 1;
+        return bandedAlign(readId, best.reverse ? reverse : forward, m,
+            ws.reference(reference, start, length), length, start, lo, width, best.reverse, second, ws);
+    }
+
+    /**
+     * Look up read k-mers on both strands and cluster their hits by diagonal.
+     */
+    private List<Candidate> seed(byte[] query, int m) {
+        int seeds = Math.min(MAX_SEEDS, (m - SEED_LENGTH) / SEED_LENGTH + 1);
+        int stride = seeds > 1 ? (m - SEED_LENGTH) / (seeds - 1) : 0;
+        List<long[]> votes = new ArrayList<>();   // {strand, diagonal}
+        for (int s = 0; s < seeds; s++) {
+            int offset = s * stride;
+            long packed = 0;
+            boolean valid = true;
+            for (int i = offset; i < offset + SEED_LENGTH; i++) {
+                if (query[i] == 4) {
+                    valid = false;
+                    break;
+                }
+                packed = (packed << 2) | query[i];
+            }
+            if (!valid) continue;
+            List<MinimizerIndex.Hit> hits = index.findMatches(packed, SEED_LENGTH, 0);
+            if (hits.size() > MAX_SEED_HITS) continue;
+            for (MinimizerIndex.Hit hit : hits) {
+                // A reverse hit places the seed at offset m - offset - SEED_LENGTH of the reverse complement
+                long diagonal = hit.reverse() ? hit.position() - (m - offset - SEED_LENGTH) : hit.position() - offset;
+                votes.add(new long[]{hit.reverse() ? 1 : 0, diagonal});
+            }
+        }
+        votes.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        List<Candidate> candidates = new ArrayList<>();
+        Candidate current = null;
+        for (long[] vote : votes) {
+            boolean reverse = vote[0] == 1;
+            if (current == null || current.reverse != reverse || vote[1] - current.diagonalHigh > band) {
+                current = new Candidate(reverse, vote[1]);
+                candidates.add(current);
+            } else {
+                current.diagonalHigh = vote[1];
+                current.votes++;
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(b.votes, a.votes));
+        return candidates.size() > MAX_CANDIDATES ? new ArrayList<>(candidates.subList(0, MAX_CANDIDATES)) : candidates;
+    }
+
+    private long windowStart(Candidate candidate) {
+        return Math.max(0, candidate.diagonalLow - band);
+    }
+
+    private int windowLength(Candidate candidate, long start, int m) {
+        long end = Math.min(reference.length(), candidate.diagonalHigh + m + band);
+        return (int) Math.max(0, end - start);
+    }
+
+    // ========== Striped Smith-Waterman ==========
+
+    /**
+     * Best local alignment score of a query against a reference window (Farrar 2007).
+     * Query position {@code i} sits in segment {@code i % segLen}, lane {@code i / segLen}.
+     */
+    int stripedScore(byte[] query, int m, byte[] ref, int n, Workspace ws) {
+        int segLen = (m + LANES - 1) / LANES;
+        int size = segLen * LANES;
+        ws.ensureStriped(size);
+        int[] profile = ws.profile;
+        for (int c = 0; c < 5; c++) {
+            for (int j = 0; j < segLen; j++) {
+                for (int lane = 0; lane < LANES; lane++) {
+                    int i = lane * segLen + j;
+                    profile[c * size + j * LANES + lane] = i < m ? score(query[i], (byte) c) : NEG_INF;
+                }
+            }
+        }
+        int[] hStore = ws.hStore;
+        int[] hLoad = ws.hLoad;
+        int[] e = ws.e;
+        int[] vH = ws.vH;
+        int[] vF = ws.vF;
+        int[] vMax = ws.vMax;
+        Arrays.fill(hStore, 0, size, 0);
+        Arrays.fill(e, 0, size, 0);
+        Arrays.fill(vMax, 0);
+        int openCost = gapOpen + gapExtend;
+
+        for (int t = 0; t < n; t++) {
+            int p = ref[t] * size;
+            int last = (segLen - 1) * LANES;
+            // H from the previous column, shifted down one query position
+            vH[0] = 0;
+            for (int lane = 1; lane < LANES; lane++) vH[lane] = hStore[last + lane - 1];
+            Arrays.fill(vF, 0);
+            int[] swap = hLoad;
+            hLoad = hStore;
+            hStore = swap;
+
+            for (int j = 0; j < segLen; j++) {
+                int base = j * LANES;
+                for (int lane = 0; lane < LANES; lane++) {
+                    int h = vH[lane] + profile[p + base + lane];
+                    int ej = e[base + lane];
+                    h = Math.max(Math.max(h, ej), Math.max(vF[lane], 0));
+                    hStore[base + lane] = h;
+                    vMax[lane] = Math.max(vMax[lane], h);
+                    int open = h - openCost;
+                    e[base + lane] = Math.max(ej - gapExtend, open);
+                    vF[lane] = Math.max(vF[lane] - gapExtend, open);
+                    vH[lane] = hLoad[base + lane];
+                }
+            }
+
+            // Lazy F: carry vertical gaps across segment boundaries until they stop mattering
+            lazy:
+            for (int pass = 0; pass < LANES; pass++) {
+                for (int lane = LANES - 1; lane > 0; lane--) vF[lane] = vF[lane - 1];
+                vF[0] = NEG_INF;
+                for (int j = 0; j < segLen; j++) {
+                    int base = j * LANES;
+                    boolean more = false;
+                    for (int lane = 0; lane < LANES; lane++) {
+                        int h = Math.max(hStore[base + lane], vF[lane]);
+                        hStore[base + lane] = h;
+                        vMax[lane] = Math.max(vMax[lane], h);
+                        e[base + lane] = Math.max(e[base + lane], h - openCost);
+                        vF[lane] -= gapExtend;
+                        more |= vF[lane] > h - openCost;
+                    }
+                    if (!more) break lazy;
+                }
+            }
+        }
+        ws.hStore = hStore;
+        ws.hLoad = hLoad;
+
+        int best = 0;
+        for (int lane = 0; lane < LANES; lane++) best = Math.max(best, vMax[lane]);
+        return best;
+    }
+
+    // ========== Banded Traceback ==========
+
+    /**
+     * Local Gotoh alignment restricted to {@code width} diagonals, with traceback.
+     * Row {@code i} covers window columns {@code i + lo} to {@code i + lo + width - 1}.
+     */
+    private Alignment bandedAlign(String readId, byte[] query, int m, byte[] ref, int n, long windowStart,
+                                  int lo, int width, boolean reverse, int secondScore, Workspace ws) {
+        ws.ensureBanded(m, width);
+        int[] hPrev = ws.hPrev, hCur = ws.hCur, fPrev = ws.fPrev, fCur = ws.fCur;
+        byte[] trace = ws.trace;
+        Arrays.fill(hPrev, 0, width + 1, 0);
+        Arrays.fill(fPrev, 0, width + 1, NEG_INF);
+        int openCost = gapOpen + gapExtend;
+        int bestScore = 0, bestI = -1, bestD = -1;
+
+        for (int i = 0; i < m; i++) {
+            int hLeft = 0, eLeft = NEG_INF;
+            hCur[width] = 0;
+            fCur[width] = NEG_INF;
+            for (int d = 0; d < width; d++) {
+                int j = i + lo + d;
+                if (j < 0 || j >= n) {
+                    hCur[d] = 0;
+                    fCur[d] = NEG_INF;
+                    trace[i * width + d] = FROM_ZERO;
+                    hLeft = 0;
+                    eLeft = NEG_INF;
+                    continue;
+                }
+                byte flags = 0;
+                int eOpen = hLeft - openCost, eExt = eLeft - gapExtend;
+                int eScore = Math.max(eOpen, eExt);
+                if (eExt > eOpen) flags |= E_EXTEND;
+                int fOpen = hPrev[d + 1] - openCost, fExt = fPrev[d + 1] - gapExtend;
+                int fScore = Math.max(fOpen, fExt);
+                if (fExt > fOpen) flags |= F_EXTEND;
+                int diag = hPrev[d] + score(query[i], ref[j]);
+
+                int h = 0;
+                byte from = FROM_ZERO;
+                if (diag > h) { h = diag; from = FROM_DIAG; }
+                if (eScore > h) { h = eScore; from = FROM_E; }
+                if (fScore > h) { h = fScore; from = FROM_F; }
+                trace[i * width + d] = (byte) (flags | from);
+                hCur[d] = h;
+                fCur[d] = fScore;
+                hLeft = h;
+                eLeft = eScore;
+                if (h > bestScore) {
+                    bestScore = h;
+                    bestI = i;
+                    bestD = d;
+                }
+            }
+            int[] swap = hPrev; hPrev = hCur; hCur = swap;
+            swap = fPrev; fPrev = fCur; fCur = swap;
+        }
+        ws.hPrev = hPrev; ws.hCur = hCur; ws.fPrev = fPrev; ws.fCur = fCur;
+        if (bestScore < MIN_SCORE) return Alignment.unmapped(readId);
+
+        // Walk back from the best cell; ops are collected end-first
+        StringBuilder ops = ws.ops;
+        ops.setLength(0);
+        int i = bestI, d = bestD, state = FROM_DIAG, edits = 0;
+        int firstI = i, firstJ = i + lo + d;
+        while (i >= 0) {
+            byte cell = trace[i * width + d];
+            if (state == FROM_DIAG) {
+                int from = cell & 3;
+                if (from == FROM_ZERO) break;
+                if (from == FROM_DIAG) {
+                    int j = i + lo + d;
+                    if (query[i] != ref[j] || query[i] == 4) edits++;
+                    ops.append('M');
+                    firstI = i;
+                    firstJ = j;
+                    i--;
+                    continue;
+                }
+                state = from;
+            }
+            if (state == FROM_E) {
+                ops.append('D');
+                edits++;
+                if ((cell & E_EXTEND) == 0) state = FROM_DIAG;
+                d--;
+            } else {
+                ops.append('I');
+                edits++;
+                if ((cell & F_EXTEND) == 0) state = FROM_DIAG;
+                i--;
+                d++;
+            }
+        }
+
+        StringBuilder cigar = new StringBuilder();
+        if (firstI > 0) cigar.append(firstI).append('S');
+        for (int k = ops.length() - 1; k >= 0; ) {
+            char op = ops.charAt(k);
+            int run = 0;
+            while (k >= 0 && ops.charAt(k) == op) {
+                run++;
+                k--;
+            }
+            cigar.append(run).append(op);
+        }
+        if (bestI < m - 1) cigar.append(m - 1 - bestI).append('S');
+
+        int mapq = secondScore <= 0 ? MAX_MAPQ
+            : Math.max(0, Math.min(MAX_MAPQ, (int) Math.round(MAX_MAPQ * (1.0 - (double) secondScore / bestScore))));
+        return new Alignment(readId, true, windowStart + firstJ, reverse, cigar.toString(), bestScore, mapq, edits);
+    }
+
+    // ========== Scoring ==========
+
+    private int score(byte a, byte b) {
+        if (a == 4 || b == 4) return -1;   // N scores like BWA: a small penalty either way
+        return a == b ? match : -mismatch;
+    }
+
+    private static byte code(char base) {
+        return switch (base) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> 4;
+        };
+    }
+
+    /**
+     * A locus suggested by seeds on one strand.
+     */
+    private static final class Candidate {
+        final boolean reverse;
+        final long diagonalLow;
+        long diagonalHigh;
+        int votes = 1;
+        int score;
+
+        Candidate(boolean reverse, long diagonal) {
+            this.reverse = reverse;
+            this.diagonalLow = diagonal;
+            this.diagonalHigh = diagonal;
+        }
+    }
+
+    /**
+     * Reusable DP buffers for one worker thread. Arrays only ever grow.
+     */
+    static final class Workspace {
+        private byte[] query = new byte[0];
+        private byte[] reverseQuery = new byte[0];
+        private byte[] window = new byte[0];
+        private char[] decoded = new char[0];
+        private int[] profile = new int[0];
+        private int[] hStore = new int[0], hLoad = new int[0], e = new int[0];
+        private final int[] vH = new int[LANES], vF = new int[LANES], vMax = new int[LANES];
+        private int[] hPrev = new int[0], hCur = new int[0], fPrev = new int[0], fCur = new int[0];
+        private byte[] trace = new byte[0];
+        private final StringBuilder ops = new StringBuilder();
+
+        byte[] query(int m) {
+            if (query.length < m) query = new byte[m];
+            return query;
+        }
+
+        byte[] reverseQuery(int m) {
+            if (reverseQuery.length < m) reverseQuery = new byte[m];
+            return reverseQuery;
+        }
+
+        byte[] reference(PackedSequence reference, long start, int length) {
+            if (window.length < length) {
+                window = new byte[length];
+                decoded = new char[length];
+            }
+            reference.decode(start, length, decoded, 0);
+            for (int i = 0; i < length; i++) window[i] = code(decoded[i]);
+            return window;
+        }
+
+        void ensureStriped(int size) {
+            if (hStore.length < size) {
+                profile = new int[5 * size];
+                hStore = new int[size];
+                hLoad = new int[size];
+                e = new int[size];
+            }
+        }
+
+        void ensureBanded(int m, int width) {
+            if (hPrev.length < width + 1) {
+                hPrev = new int[width + 1];
+                hCur = new int[width + 1];
+                fPrev = new int[width + 1];
+                fCur = new int[width + 1];
+            }
+            if (trace.length < m * width) trace = new byte[m * width];
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.util.LongDoubleCache;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates sequencing reads on demand instead of materialising a whole run.
+ *
+ * Read {@code i} depends only on the run seed and {@code i}: every fragment draws its
+ * position, insert size and strand from a generator seeded with a hash of the seed
+ * and the fragment number, and each mate its errors from one derived from that. A
+ * {@link #stream()} can therefore be split across threads in any way and still yield
+ * exactly the same reads, and consumers (statistics, pileups, writers) can process a
+ * deep run without ever holding more than a few reads per thread.
+ *
+ * The region is packed once when the generator is built, so reads are decoded from
+ * 2-bit words rather than fetched from the genome one String at a time. Lengths,
+ * qualities and errors come from the technology's {@link ErrorModel}.
+ *
+ * Educational note: a real sequencer also produces reads as an unordered stream of
+ * clusters or molecules; "30x coverage" is just how many of them are collected.
+ */
+public final class ReadGenerator {
+
+    // Paired-end insert size range (bp)
+    public static final int MIN_INSERT_SIZE = 300;
+    public static final int MAX_INSERT_SIZE = 500;
+
+    // Don't split ranges smaller than this between threads
+    private static final int MIN_SPLIT = 256;
+    private static final char[] PREFIX = "READ_".toCharArray();
+
+    private final PackedSequence region;
+    private final long regionStart;
+    private final SequencingSimulator.Technology technology;
+    private final ErrorModel model;
+    private final long seed;
+    private final long fragments;
+
+    /**
+     * @param region         The packed region to sequence
+     * @param regionStart    Genome coordinate of the region's first base
+     * @param technology     Sequencing technology
+     * @param targetCoverage Desired average coverage depth
+     * @param seed           Run seed
+     */
+    public ReadGenerator(PackedSequence region, long regionStart, SequencingSimulator.Technology technology,
+                         int targetCoverage, long seed) {
+        if (targetCoverage < 0) {
+            throw new IllegalArgumentException("Coverage must not be negative: " + targetCoverage);
+        }
+        this.region = region;
+        this.regionStart = regionStart;
+        this.technology = technology;
+        this.model = ErrorModel.forTechnology(technology);
+        this.seed = seed;
+        // Long reads are cut at the region's end, so a plasmid shorter than the mean read length still gets reads
+        long meanLength = model.variableLength() ? Math.min(technology.readLength, region.length())
+            : technology.readLength;
+        long reads = meanLength == 0 || region.length() < meanLength ? 0
+            : region.length() * targetCoverage / meanLength;
+        this.fragments = technology.pairedEnd ? reads / 2 : reads;   // Each pair covers 2x
+    }
+
+    /**
+     * Sequence one region of a genome, packing it once up front.
+     *
+     * @param regionLength Length of the region, or 0 for the whole genome
+     */
+    public static ReadGenerator forGenome(Genome genome, SequencingSimulator.Technology technology,
+                                          int targetCoverage, long regionStart, long regionLength, long seed) {
+        long genomeLength = genome.getTotalLength();
+        if (regionLength <= 0) {
+            regionStart = 0;
+            regionLength = genomeLength;
+        }
+        regionLength = Math.max(0, Math.min(regionLength, genomeLength - regionStart));
+        return new ReadGenerator(PackedSequence.fromGenome(genome, regionStart, regionLength), regionStart,
+            technology, targetCoverage, seed);
+    }
+
+    public long readCount() {
+        return technology.pairedEnd ? fragments * 2 : fragments;
+    }
+
+    public long regionStart() {
+        return regionStart;
+    }
+
+    public long regionLength() {
+        return region.length();
+    }
+
+    public SequencingSimulator.Technology technology() {
+        return technology;
+    }
+
+    /**
+     * All reads in index order; call {@code parallel()} to generate them on several threads.
+     */
+    public Stream<SequencingSimulator.SequencingRead> stream() {
+        return StreamSupport.stream(new ReadSpliterator(0, readCount()), false);
+    }
+
+    // ========== Reads ==========
+
+    /**
+     * Generate read {@code index}. Paired-end mates are reads {@code 2f} and {@code 2f + 1} of fragment {@code f}.
+     * Long-read technologies draw a length per read; the run's read count assumes their mean length.
+     */
+    public SequencingSimulator.SequencingRead read(long index) {
+        if (index < 0 || index >= readCount()) {
+            throw new IndexOutOfBoundsException("Read " + index + " of " + readCount());
+        }
+        long fragment = technology.pairedEnd ? index >>> 1 : index;
+        int mate = technology.pairedEnd ? (int) (index & 1) : 0;
+
+        long fragmentSeed = LongDoubleCache.mix(seed ^ LongDoubleCache.mix(fragment));
+        SplittableRandom random = new SplittableRandom(fragmentSeed);
+        int readLength = model.sampleLength(random, (int) Math.min(Integer.MAX_VALUE, region.length()));
+        long span = region.length() - readLength;
+        long offset = Math.min(span, (long) (random.nextDouble() * span));
+
+        if (!technology.pairedEnd) {
+            boolean reversed = random.nextBoolean();
+            return generate(offset, readLength, reversed, readId(fragment, 0), null,
+                new SplittableRandom(fragmentSeed + 1));
+        }
+        // Mate 2 comes from the other end of the insert; it is kept inside the region
+        int insertSize = MIN_INSERT_SIZE + random.nextInt(MAX_INSERT_SIZE - MIN_INSERT_SIZE);
+        long mateOffset = Math.max(0, Math.min(span, offset + insertSize - readLength));
+        SplittableRandom errors = new SplittableRandom(fragmentSeed + 1 + mate);
+        return mate == 0
+            ? generate(offset, readLength, false, readId(fragment, 1), readId(fragment, 2), errors)
+            : generate(mateOffset, readLength, true, readId(fragment, 2), readId(fragment, 1), errors);
+    }
+
+    /**
+     * Sequence the molecule at {@code [offset, offset + length)}. The template runs on past
+     * the read (before it, for the reverse strand) so deletions have bases to skip; a
+     * reverse read's position is wherever the bases it consumed begin.
+     */
+    private SequencingSimulator.SequencingRead generate(long offset, int length, boolean reversed, String id,
+                                                        String mateId, SplittableRandom random) {
+        int window = (int) Math.min(model.templateLength(length), reversed ? offset + length : region.length() - offset);
+        long start = reversed ? offset + length - window : offset;
+        char[] template = new char[window];
+        region.decode(start, window, template, 0);
+        if (reversed) reverseComplement(template);
+
+        char[] bases = new char[length];
+        int[] qualities = new int[length];
+        ErrorModel.Sequenced sequenced = model.sequence(template, window, bases, qualities, length, random);
+        int produced = sequenced.length();
+        long position = reversed ? offset + length - sequenced.consumed() : offset;
+        return new SequencingSimulator.SequencingRead(id, new String(bases, 0, produced),
+            produced == length ? qualities : Arrays.copyOf(qualities, produced),
+            regionStart + position, reversed, mateId);
+    }
+
+    /**
+     * READ_%08d with an optional /1 or /2 suffix, without String.format.
+     */
+    static String readId(long fragment, int mate) {
+        String digits = Long.toString(fragment);
+        int pad = Math.max(0, 8 - digits.length());
+        char[] id = new char[PREFIX.length + pad + digits.length() + (mate > 0 ? 2 : 0)];
+        System.arraycopy(PREFIX, 0, id, 0, PREFIX.length);
+        int pos = PREFIX.length;
+        for (int i = 0; i < pad; i++) id[pos++] = '0';
+        digits.getChars(0, digits.length(), id, pos);
+        pos += digits.length();
+        if (mate > 0) {
+            id[pos++] = '/';
+            id[pos] = (char) ('0' + mate);
+        }
+        return new String(id);
+    }
+
+    private static void reverseComplement(char[] bases) {
+        for (int i = 0, j = bases.length - 1; i <= j; i++, j--) {
+            char left = complement(bases[i]);
+            bases[i] = complement(bases[j]);
+            bases[j] = left;
+        }
+    }
+
+    private static char complement(char base) {
+        return switch (Character.toUpperCase(base)) {
+            case 'A' -> 'T';
+            case 'T' -> 'A';
+            case 'G' -> 'C';
+            case 'C' -> 'G';
+            default -> 'N';
+        };
+    }
+
+    /**
+     * A range of read indices; splitting halves the range.
+     */
+    private final class ReadSpliterator implements Spliterator<SequencingSimulator.SequencingRead> {
+        private long next;
+        private final long end;
+
+        ReadSpliterator(long from, long end) {
+            this.next = from;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SequencingSimulator.SequencingRead> action) {
+            if (next >= end) return false;
+            action.accept(read(next++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super SequencingSimulator.SequencingRead> action) {
+            while (next < end) action.accept(read(next++));
+        }
+
+        @Override
+        public Spliterator<SequencingSimulator.SequencingRead> trySplit() {
+            long remaining = end - next;
+            if (remaining < 2 * MIN_SPLIT) return null;
+            long mid = next + remaining / 2;
+            ReadSpliterator prefix = new ReadSpliterator(next, mid);
+            next = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+    }
+}
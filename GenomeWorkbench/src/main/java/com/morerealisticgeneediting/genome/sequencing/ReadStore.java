@@ -0,0 +1,613 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Block-compressed on-disk container for sequencing reads.
+ *
+ * Reads are grouped by reference coordinate into blocks of up to {@link #BLOCK_READS}.
+ * Within a block each field is stored in its own stream:
+ * - Metadata: flags, position deltas, lengths and front-coded read names, as varints.
+ * - Bases: 2 bits per base; N positions are listed separately, so the 2-bit stream
+ *   never needs a fifth symbol.
+ * - Qualities: binned to the 8 Illumina levels, then Huffman-coded with a code
+ *   built from that block's own level frequencies.
+ * A 150 bp read takes roughly 40 bytes of bases and 40-60 of qualities, against
+ * several hundred bytes for the String and int[] on heap.
+ *
+ * An index of each block's file offset and coordinate span sits at the end of the
+ * file. {@link #open} reads only that index; {@link #query} then memory-maps and
+ * decodes only the blocks overlapping the requested region, one block at a time, so
+ * a run can be re-examined without regenerating it or holding it in memory.
+ *
+ * Quality binning is lossy: a read comes back with the representative score of its
+ * bin (Q30 stays at least 30, Q29 stays below). Lowercase bases come back uppercase.
+ *
+ * Educational note: this is how CRAM and BAM keep multi-gigabyte runs manageable -
+ * columnar streams, quality binning (which Illumina instruments do on-board) and a
+ * coordinate index for random access.
+ */
+public final class ReadStore implements Closeable {
+
+    public static final int BLOCK_READS = 4096;
+    // Reads are grouped into coordinate bins of this many bases before blocking
+    public static final int BIN_SHIFT = 16;
+
+    private static final int FILE_MAGIC = 0x4D524453; // "MRDS"
+    private static final int FILE_VERSION = 1;
+    // Writers flush their largest bin once this many reads are buffered
+    private static final int MAX_BUFFERED_READS = 1 << 16;
+
+    // Illumina 8-level quality binning: upper bound and representative score per bin
+    private static final int[] BIN_UPPER = {2, 9, 19, 24, 29, 34, 39, Integer.MAX_VALUE};
+    private static final int[] BIN_SCORE = {2, 6, 15, 22, 27, 33, 37, 40};
+    private static final int LEVELS = BIN_SCORE.length;
+    // Eight symbols never need a code longer than seven bits
+    private static final int MAX_CODE_LENGTH = LEVELS - 1;
+
+    private static final byte FLAG_REVERSED = 1, FLAG_MATE = 2;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final FileChannel channel;
+    private final long readCount;
+    private final long[] blockOffset;
+    private final int[] blockLength;
+    private final long[] blockStart;
+    private final long[] blockEnd;
+
+    private ReadStore(FileChannel channel, long readCount, long[] blockOffset, int[] blockLength,
+                      long[] blockStart, long[] blockEnd) {
+        this.channel = channel;
+        this.readCount = readCount;
+        this.blockOffset = blockOffset;
+        this.blockLength = blockLength;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+    }
+
+    // ========== Writing ==========
+
+    /**
+     * Store a stream of reads, e.g. {@code ReadGenerator.stream()}.
+     *
+     * @return Number of reads written
+     */
+    public static long write(Path file, Stream<SequencingSimulator.SequencingRead> reads) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            Iterator<SequencingSimulator.SequencingRead> iterator = reads.iterator();
+            while (iterator.hasNext()) writer.add(iterator.next());
+            return writer.written + writer.buffered;
+        }
+    }
+
+    /**
+     * Incremental writer. Reads may arrive in any order: they are buffered per coordinate
+     * bin and written as a block when the bin fills, so each block covers a narrow span.
+     * The file only appears at its final path once {@link #close()} succeeds.
+     */
+    public static final class Writer implements Closeable {
+        private final Path file;
+        private final Path tmp;
+        private final FileChannel out;
+        private final Map<Long, List<SequencingSimulator.SequencingRead>> bins = new HashMap<>();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final Encoder encoder = new Encoder();
+        private int blocks;
+        private long written;
+        private int buffered;
+
+        public Writer(Path file) throws IOException {
+            this.file = file;
+            Files.createDirectories(file.getParent());
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+            writeFully(header);
+        }
+
+        public void add(SequencingSimulator.SequencingRead read) throws IOException {
+            long bin = read.referencePosition() >> BIN_SHIFT;
+            List<SequencingSimulator.SequencingRead> reads = bins.computeIfAbsent(bin, b -> new ArrayList<>());
+            reads.add(read);
+            buffered++;
+            if (reads.size() >= BLOCK_READS) {
+                flush(bin);
+            } else if (buffered >= MAX_BUFFERED_READS) {
+                long largest = bin;
+                for (Map.Entry<Long, List<SequencingSimulator.SequencingRead>> entry : bins.entrySet()) {
+                    if (entry.getValue().size() > bins.get(largest).size()) largest = entry.getKey();
+                }
+                flush(largest);
+            }
+        }
+
+        private void flush(long bin) throws IOException {
+            List<SequencingSimulator.SequencingRead> reads = bins.remove(bin);
+            reads.sort(Comparator.comparingLong(SequencingSimulator.SequencingRead::referencePosition));
+            long offset = out.position();
+            ByteBuffer block = encoder.encode(reads);
+            int length = block.remaining();
+            writeFully(block);
+
+            long end = 0;
+            for (SequencingSimulator.SequencingRead read : reads) {
+                end = Math.max(end, read.referencePosition() + read.sequence().length());
+            }
+            ByteBuffer entry = ByteBuffer.allocate(32).putLong(offset).putInt(length).putInt(reads.size())
+                .putLong(reads.get(0).referencePosition()).putLong(end);
+            index.write(entry.array(), 0, entry.position());
+            blocks++;
+            written += reads.size();
+            buffered -= reads.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                List<Long> remaining = new ArrayList<>(bins.keySet());
+                remaining.sort(null);
+                for (long bin : remaining) flush(bin);
+                long indexOffset = out.position();
+                writeFully(ByteBuffer.wrap(index.toByteArray()));
+                ByteBuffer footer = ByteBuffer.allocate(24).putLong(indexOffset).putLong(written)
+                    .putInt(blocks).putInt(FILE_MAGIC).flip();
+                writeFully(footer);
+                out.force(false);
+            } finally {
+                out.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) out.write(buffer);
+        }
+    }
+
+    // ========== Reading ==========
+
+    /**
+     * Open a store and read its block index.
+     *
+     * @return The store, or null if the file is missing or corrupt
+     */
+    public static ReadStore open(Path file) {
+        if (!Files.isRegularFile(file)) return null;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size < 32) throw new IOException("Truncated read store");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+            if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) throw new IOException("Not a read store");
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - 24, 24);
+            long indexOffset = footer.getLong();
+            long readCount = footer.getLong();
+            int blocks = footer.getInt();
+            if (footer.getInt() != FILE_MAGIC || blocks < 0 || indexOffset + 32L * blocks != size - 24) {
+                throw new IOException("Corrupt read store footer");
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, 32L * blocks);
+            long[] offsets = new long[blocks];
+            int[] lengths = new int[blocks];
+            long[] starts = new long[blocks];
+            long[] ends = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                offsets[b] = index.getLong();
+                lengths[b] = index.getInt();
+                index.getInt();   // read count, kept for tools that only scan the index
+                starts[b] = index.getLong();
+                ends[b] = index.getLong();
+            }
+            return new ReadStore(channel, readCount, offsets, lengths, starts, ends);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Already failing
+                }
+            }
+            return null;
+        }
+    }
+
+    public long readCount() {
+        return readCount;
+    }
+
+    public int blockCount() {
+        return blockOffset.length;
+    }
+
+    /**
+     * Every read in the store, block by block.
+     */
+    public Stream<SequencingSimulator.SequencingRead> stream() {
+        return IntStream.range(0, blockCount()).mapToObj(this::readBlock).flatMap(List::stream);
+    }
+
+    /**
+     * Reads overlapping {@code [start, end)}. Only the blocks whose span overlaps the region
+     * are mapped and decoded, lazily. Reads are sorted within each block, not across blocks.
+     */
+    public Stream<SequencingSimulator.SequencingRead> query(long start, long end) {
+        return IntStream.range(0, blockCount())
+            .filter(b -> blockStart[b] < end && blockEnd[b] > start)
+            .mapToObj(this::readBlock)
+            .flatMap(List::stream)
+            .filter(read -> read.referencePosition() < end
+                && read.referencePosition() + read.sequence().length() > start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<SequencingSimulator.SequencingRead> readBlock(int block) {
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, blockOffset[block], blockLength[block]);
+            return decode(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ========== Block Encoding ==========
+
+    /**
+     * Block layout: read count, first position, stream lengths, quality code lengths,
+     * then the metadata, base and quality streams.
+     */
+    private static final class Encoder {
+        private final ByteSink meta = new ByteSink();
+        private final BitSink bases = new BitSink();
+        private final BitSink qualities = new BitSink();
+        private final long[] frequencies = new long[LEVELS];
+
+        ByteBuffer encode(List<SequencingSimulator.SequencingRead> reads) {
+            meta.reset();
+            bases.reset();
+            qualities.reset();
+            Arrays.fill(frequencies, 0);
+            for (SequencingSimulator.SequencingRead read : reads) {
+                for (int q : read.qualityScores()) frequencies[bin(q)]++;
+            }
+            int[] codeLengths = huffmanLengths(frequencies);
+            int[] codes = canonicalCodes(codeLengths);
+
+            long firstPosition = reads.get(0).referencePosition();
+            long previousPosition = firstPosition;
+            String previousId = "";
+            for (SequencingSimulator.SequencingRead read : reads) {
+                String sequence = read.sequence();
+                int length = sequence.length();
+                meta.put((read.isReversed() ? FLAG_REVERSED : 0) | (read.mateId() != null ? FLAG_MATE : 0));
+                meta.putVarLong(read.referencePosition() - previousPosition);
+                meta.putVarInt(length);
+                meta.putFrontCoded(previousId, read.id());
+                if (read.mateId() != null) meta.putFrontCoded(read.id(), read.mateId());
+                previousPosition = read.referencePosition();
+                previousId = read.id();
+
+                int nCount = 0;
+                for (int i = 0; i < length; i++) if (code(sequence.charAt(i)) < 0) nCount++;
+                meta.putVarInt(nCount);
+                int lastN = 0;
+                for (int i = 0; i < length; i++) {
+                    int code = code(sequence.charAt(i));
+                    if (code < 0) {
+                        meta.putVarInt(i - lastN);
+                        lastN = i;
+                        code = 0;
+                    }
+                    bases.put(code, 2);
+                }
+                for (int q : read.qualityScores()) {
+                    int level = bin(q);
+                    qualities.put(codes[level], codeLengths[level]);
+                }
+            }
+
+            int metaLength = meta.size();
+            int baseLength = bases.byteLength();
+            int qualityLength = qualities.byteLength();
+            ByteBuffer block = ByteBuffer.allocate(4 + 8 + 12 + LEVELS + metaLength + baseLength + qualityLength);
+            block.putInt(reads.size()).putLong(firstPosition);
+            block.putInt(metaLength).putInt(baseLength).putInt(qualityLength);
+            for (int length : codeLengths) block.put((byte) length);
+            block.put(meta.array(), 0, metaLength);
+            bases.writeTo(block);
+            qualities.writeTo(block);
+            return block.flip();
+        }
+    }
+
+    private static List<SequencingSimulator.SequencingRead> decode(ByteBuffer block) {
+        block.order(ByteOrder.BIG_ENDIAN);
+        int count = block.getInt();
+        long position = block.getLong();
+        int metaLength = block.getInt();
+        int baseLength = block.getInt();
+        int qualityLength = block.getInt();
+        int[] codeLengths = new int[LEVELS];
+        for (int i = 0; i < LEVELS; i++) codeLengths[i] = block.get();
+        int[] decodeTable = decodeTable(codeLengths);
+
+        ByteBuffer meta = block.slice(block.position(), metaLength);
+        BitSource bases = new BitSource(block.slice(block.position() + metaLength, baseLength));
+        BitSource qualities = new BitSource(block.slice(block.position() + metaLength + baseLength, qualityLength));
+
+        List<SequencingSimulator.SequencingRead> reads = new ArrayList<>(count);
+        String id = "";
+        for (int r = 0; r < count; r++) {
+            int flags = meta.get();
+            position += getVarLong(meta);
+            int length = getVarInt(meta);
+            id = getFrontCoded(meta, id);
+            String mateId = (flags & FLAG_MATE) != 0 ? getFrontCoded(meta, id) : null;
+
+            char[] sequence = new char[length];
+            for (int i = 0; i < length; i++) sequence[i] = BASES[bases.get(2)];
+            int nCount = getVarInt(meta);
+            for (int n = 0, at = 0; n < nCount; n++) {
+                at += getVarInt(meta);
+                sequence[at] = 'N';
+            }
+            int[] scores = new int[length];
+            for (int i = 0; i < length; i++) {
+                int entry = decodeTable[qualities.peek(MAX_CODE_LENGTH)];
+                qualities.skip(entry & 0xFF);
+                scores[i] = BIN_SCORE[entry >>> 8];
+            }
+            reads.add(new SequencingSimulator.SequencingRead(id, new String(sequence), scores, position,
+                (flags & FLAG_REVERSED) != 0, mateId));
+        }
+        return reads;
+    }
+
+    // ========== Quality Coding ==========
+
+    private static int bin(int quality) {
+        int level = 0;
+        while (quality > BIN_UPPER[level]) level++;
+        return level;
+    }
+
+    /**
+     * Huffman code lengths for the quality levels; unused levels get length 0.
+     */
+    static int[] huffmanLengths(long[] frequencies) {
+        int[] lengths = new int[LEVELS];
+        // Nodes 0..LEVELS-1 are leaves; parents are appended after them
+        int[] parent = new int[2 * LEVELS];
+        long[] weight = new long[2 * LEVELS];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.<Integer>comparingLong(n -> weight[n])
+            .thenComparingInt(n -> n));
+        for (int level = 0; level < LEVELS; level++) {
+            if (frequencies[level] > 0) {
+                weight[level] = frequencies[level];
+                queue.add(level);
+            }
+        }
+        if (queue.size() == 1) {
+            lengths[queue.peek()] = 1;
+            return lengths;
+        }
+        int next = LEVELS;
+        while (queue.size() > 1) {
+            int a = queue.poll(), b = queue.poll();
+            weight[next] = weight[a] + weight[b];
+            parent[a] = parent[b] = next;
+            queue.add(next++);
+        }
+        int root = next - 1;
+        for (int level = 0; level < LEVELS; level++) {
+            if (frequencies[level] == 0) continue;
+            int depth = 0;
+            for (int node = level; node != root; node = parent[node]) depth++;
+            lengths[level] = depth;
+        }
+        return lengths;
+    }
+
+    /**
+     * Canonical codes: shorter codes first, ties broken by level.
+     */
+    private static int[] canonicalCodes(int[] lengths) {
+        int[] codes = new int[LEVELS];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            for (int level = 0; level < LEVELS; level++) {
+                if (lengths[level] == length) codes[level] = code++;
+            }
+            code <<= 1;
+        }
+        return codes;
+    }
+
+    /**
+     * Table indexed by the next {@link #MAX_CODE_LENGTH} bits: level in the high byte, code length in the low.
+     */
+    private static int[] decodeTable(int[] lengths) {
+        int[] codes = canonicalCodes(lengths);
+        int[] table = new int[1 << MAX_CODE_LENGTH];
+        for (int level = 0; level < LEVELS; level++) {
+            int length = lengths[level];
+            if (length == 0) continue;
+            int first = codes[level] << (MAX_CODE_LENGTH - length);
+            Arrays.fill(table, first, first + (1 << (MAX_CODE_LENGTH - length)), (level << 8) | length);
+        }
+        return table;
+    }
+
+    // ========== Streams ==========
+
+    private static int code(char base) {
+        return switch (base) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> -1;
+        };
+    }
+
+    private static int getVarInt(ByteBuffer in) {
+        return (int) getVarLong(in);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return (value >>> 1) ^ -(value & 1);   // Undo zigzag
+        }
+    }
+
+    private static String getFrontCoded(ByteBuffer in, String previous) {
+        int shared = getVarInt(in);
+        int length = getVarInt(in);
+        byte[] suffix = new byte[length];
+        in.get(suffix);
+        return previous.substring(0, shared) + new String(suffix, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Growable byte buffer writing zigzag varints.
+     */
+    private static final class ByteSink extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+
+        void put(int b) {
+            write(b);
+        }
+
+        void putVarInt(int value) {
+            putVarLong(value);
+        }
+
+        void putVarLong(long value) {
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        /**
+         * Store a name as the length of its common prefix with the previous name plus the rest.
+         */
+        void putFrontCoded(String previous, String name) {
+            int shared = 0;
+            int limit = Math.min(previous.length(), name.length());
+            while (shared < limit && previous.charAt(shared) == name.charAt(shared)) shared++;
+            byte[] suffix = name.substring(shared).getBytes(StandardCharsets.UTF_8);
+            putVarInt(shared);
+            putVarInt(suffix.length);
+            write(suffix, 0, suffix.length);
+        }
+    }
+
+    /**
+     * MSB-first bit writer.
+     */
+    private static final class BitSink {
+        private byte[] bytes = new byte[1 << 12];
+        private long bits;
+        private long accumulator;
+        private int pending;
+
+        void reset() {
+            bits = 0;
+            accumulator = 0;
+            pending = 0;
+        }
+
+        void put(int value, int length) {
+            accumulator = (accumulator << length) | value;
+            pending += length;
+            bits += length;
+            while (pending >= 8) {
+                pending -= 8;
+                append((byte) (accumulator >>> pending));
+            }
+        }
+
+        private void append(byte b) {
+            int at = (int) ((bits - pending - 8) >>> 3);
+            if (at >= bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[at] = b;
+        }
+
+        int byteLength() {
+            return (int) ((bits + 7) >>> 3);
+        }
+
+        void writeTo(ByteBuffer out) {
+            int full = (int) (bits >>> 3);
+            out.put(bytes, 0, full);
+            if (pending > 0) out.put((byte) (accumulator << (8 - pending)));
+        }
+    }
+
+    /**
+     * MSB-first bit reader; reads past the end as zeros.
+     */
+    private static final class BitSource {
+        private final ByteBuffer bytes;
+        private long position;
+
+        BitSource(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        int peek(int length) {
+            int byteIndex = (int) (position >>> 3);
+            int value = 0;
+            for (int i = 0; i < 3; i++) {
+                int index = byteIndex + i;
+                value = (value << 8) | (index < bytes.limit() ? bytes.get(index) & 0xFF : 0);
+            }
+            return (value >>> (24 - (int) (position & 7) - length)) & ((1 << length) - 1);
+        }
+
+        void skip(int length) {
+            position += length;
+        }
+
+        int get(int length) {
+            int value = peek(length);
+            position += length;
+            return value;
+        }
+    }
+}
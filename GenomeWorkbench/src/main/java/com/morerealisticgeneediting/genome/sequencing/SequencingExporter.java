@@ -0,0 +1,396 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming FASTQ, SAM and VCF writers for sequencing results.
+ *
+ * Records are encoded straight from their fields into one reusable byte buffer -
+ * bases, Phred+33 qualities and numbers are written as ASCII bytes without building a
+ * String per read - and the buffer is drained to a {@link FileChannel} whenever it
+ * fills. With gzip the same buffer is fed through a {@link GZIPOutputStream} on top of
+ * the channel instead. Heap use is therefore one buffer per writer however large the
+ * run, so reads can be streamed from a {@link ReadGenerator} or {@link ReadStore}
+ * directly into a file.
+ *
+ * Each writer fills a temporary file that is moved into place on {@link Output#close()},
+ * so external tools never see a half-written export.
+ *
+ * Educational note: FASTQ, SAM and VCF are the plain-text interchange formats of
+ * sequencing - raw reads, reads placed on a reference, and the differences found.
+ * Positions are 1-based in SAM and VCF.
+ */
+public final class SequencingExporter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Room for the longest number putLong writes
+    private static final int MIN_BUFFER_SIZE = 64;
+    private static final String SOURCE = "MoreRealisticGeneEditing";
+
+    private SequencingExporter() {}
+
+    // ========== Convenience ==========
+
+    /**
+     * Write reads as FASTQ.
+     *
+     * @return Number of reads written
+     */
+    public static long writeFastq(Path file, Stream<SequencingSimulator.SequencingRead> reads, boolean gzip)
+            throws IOException {
+        try (FastqWriter writer = new FastqWriter(file, gzip)) {
+            Iterator<SequencingSimulator.SequencingRead> iterator = reads.iterator();
+            while (iterator.hasNext()) writer.write(iterator.next());
+            return writer.records();
+        }
+    }
+
+    /**
+     * Write reads with their alignments (as returned by {@link ReadAligner#alignAll}) as SAM.
+     *
+     * @return Number of records written
+     */
+    public static long writeSam(Path file, String contig, long contigLength,
+                                List<SequencingSimulator.SequencingRead> reads,
+                                List<ReadAligner.Alignment> alignments, boolean gzip) throws IOException {
+        if (reads.size() != alignments.size()) {
+            throw new IllegalArgumentException("Expected one alignment per read: " + reads.size() + " reads, "
+                + alignments.size() + " alignments");
+        }
+        try (SamWriter writer = new SamWriter(file, contig, contigLength, gzip)) {
+            for (int i = 0; i < reads.size(); i++) writer.write(reads.get(i), alignments.get(i));
+            return writer.records();
+        }
+    }
+
+    /**
+     * Write variants as a sites-only VCF.
+     *
+     * @return Number of records written
+     */
+    public static long writeVcf(Path file, String contig, long contigLength,
+                                Iterable<SequencingSimulator.Variant> variants, boolean gzip) throws IOException {
+        try (VcfWriter writer = new VcfWriter(file, contig, contigLength, gzip)) {
+            for (SequencingSimulator.Variant variant : variants) writer.write(variant);
+            return writer.records();
+        }
+    }
+
+    /**
+     * Write genotype calls as a single-sample VCF with GT, GQ and PL.
+     *
+     * @return Number of records written
+     */
+    public static long writeGenotypes(Path file, String contig, long contigLength, String sample,
+                                      Iterable<GenotypeCaller.Call> calls, boolean gzip) throws IOException {
+        try (VcfWriter writer = new VcfWriter(file, contig, contigLength, sample, gzip)) {
+            for (GenotypeCaller.Call call : calls) writer.write(call);
+            return writer.records();
+        }
+    }
+
+    // ========== Writers ==========
+
+    /**
+     * FASTQ: {@code @name}, bases, {@code +}, Phred+33 qualities.
+     */
+    public static final class FastqWriter extends Output {
+        public FastqWriter(Path file, boolean gzip) throws IOException {
+            super(file, gzip, BUFFER_SIZE);
+        }
+
+        /**
+         * @param bufferSize Buffer bytes; use a smaller one when many writers are open at once
+         */
+        public FastqWriter(Path file, boolean gzip, int bufferSize) throws IOException {
+            super(file, gzip, bufferSize);
+        }
+
+        public void write(SequencingSimulator.SequencingRead read) throws IOException {
+            put('@').putAscii(read.id()).put('\n');
+            putAscii(read.sequence()).put('\n');
+            put('+').put('\n');
+            putQualities(read.qualityScores(), false).put('\n');
+            recordWritten();
+        }
+    }
+
+    /**
+     * SAM against a single reference sequence, with NM and AS tags.
+     */
+    public static final class SamWriter extends Output {
+        private final String contig;
+
+        public SamWriter(Path file, String contig, long contigLength, boolean gzip) throws IOException {
+            super(file, gzip, BUFFER_SIZE);
+            this.contig = contig;
+            putAscii("@HD\tVN:1.6\tSO:unsorted\n");
+            putAscii("@SQ\tSN:").putAscii(contig).putAscii("\tLN:").putLong(contigLength).put('\n');
+            putAscii("@PG\tID:").putAscii(SOURCE).putAscii("\tPN:").putAscii(SOURCE).put('\n');
+        }
+
+        /**
+         * Write one read and its alignment. A reverse-strand alignment stores the read
+         * reverse-complemented, as SAM requires.
+         */
+        public void write(SequencingSimulator.SequencingRead read, ReadAligner.Alignment alignment) throws IOException {
+            String id = read.id();
+            int mate = id.endsWith("/1") ? 1 : id.endsWith("/2") ? 2 : 0;
+            int flags = 0;
+            if (read.mateId() != null) flags |= 0x1;
+            if (mate == 1) flags |= 0x40;
+            if (mate == 2) flags |= 0x80;
+            if (!alignment.mapped()) flags |= 0x4;
+            boolean reverse = alignment.mapped() && alignment.reverse();
+            if (reverse) flags |= 0x10;
+
+            putAscii(id, 0, mate > 0 ? id.length() - 2 : id.length()).put('\t');
+            putLong(flags).put('\t');
+            if (alignment.mapped()) {
+                putAscii(contig).put('\t').putLong(alignment.position() + 1).put('\t');
+                putLong(alignment.mapq()).put('\t').putAscii(alignment.cigar()).put('\t');
+            } else {
+                putAscii("*\t0\t0\t*\t");
+            }
+            putAscii("*\t0\t0\t");
+            if (reverse) {
+                putReverseComplement(read.sequence());
+            } else {
+                putAscii(read.sequence());
+            }
+            put('\t');
+            putQualities(read.qualityScores(), reverse);
+            if (alignment.mapped()) {
+                putAscii("\tNM:i:").putLong(alignment.editDistance());
+                putAscii("\tAS:i:").putLong(alignment.score());
+            }
+            put('\n');
+            recordWritten();
+        }
+    }
+
+    /**
+     * VCF 4.2 with depth, allele frequency and variant type in INFO. Sites-only unless
+     * given a sample name, in which case genotype calls also get a GT:GQ:PL sample column.
+     */
+    public static final class VcfWriter extends Output {
+        private final String contig;
+        private final boolean genotypes;
+
+        public VcfWriter(Path file, String contig, long contigLength, boolean gzip) throws IOException {
+            this(file, contig, contigLength, null, gzip);
+        }
+
+        /**
+         * @param sample Sample name for the genotype column, or null for a sites-only VCF
+         */
+        public VcfWriter(Path file, String contig, long contigLength, String sample, boolean gzip) throws IOException {
+            super(file, gzip, BUFFER_SIZE);
+            this.contig = contig;
+            this.genotypes = sample != null;
+            putAscii("##fileformat=VCFv4.2\n");
+            putAscii("##source=").putAscii(SOURCE).put('\n');
+            putAscii("##contig=<ID=").putAscii(contig).putAscii(",length=").putLong(contigLength).putAscii(">\n");
+            putAscii("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">\n");
+            putAscii("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Alternate allele fraction\">\n");
+            putAscii("##INFO=<ID=TYPE,Number=A,Type=String,Description=\"Variant type\">\n");
+            if (genotypes) {
+                putAscii("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+                putAscii("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n");
+                putAscii("##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Phred-scaled genotype likelihoods\">\n");
+                putAscii("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t").putAscii(sample).put('\n');
+            } else {
+                putAscii("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+            }
+        }
+
+        public void write(SequencingSimulator.Variant variant) throws IOException {
+            putSite(variant);
+            if (genotypes) putAscii("\tGT\t./.");
+            put('\n');
+            recordWritten();
+        }
+
+        public void write(GenotypeCaller.Call call) throws IOException {
+            putSite(call.toVariant());
+            if (genotypes) {
+                putAscii("\tGT:GQ:PL\t").putAscii(call.genotype()).put(':').putLong(call.genotypeQuality());
+                int[] likelihoods = call.likelihoods();
+                for (int i = 0; i < likelihoods.length; i++) put(i == 0 ? ':' : ',').putLong(likelihoods[i]);
+            }
+            put('\n');
+            recordWritten();
+        }
+
+        private void putSite(SequencingSimulator.Variant variant) throws IOException {
+            putAscii(contig).put('\t').putLong(variant.position() + 1).putAscii("\t.\t");
+            putAscii(variant.referenceAllele()).put('\t').putAscii(variant.alternateAllele()).put('\t');
+            putFixed(variant.quality(), 1).putAscii("\tPASS\tDP=").putLong(variant.depth());
+            putAscii(";AF=").putFixed(variant.alleleFrequency(), 3);
+            putAscii(";TYPE=").putAscii(variant.type().name());
+        }
+    }
+
+    // ========== Output ==========
+
+    /**
+     * A byte buffer drained to a file channel, optionally through gzip.
+     */
+    public abstract static class Output implements Closeable {
+        private final Path file;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final OutputStream gzip;
+        private final byte[] buffer;
+        private int length;
+        private long records;
+
+        protected Output(Path file, boolean gzip, int bufferSize) throws IOException {
+            if (bufferSize < MIN_BUFFER_SIZE) {
+                throw new IllegalArgumentException("Buffer must hold at least " + MIN_BUFFER_SIZE + " bytes: " + bufferSize);
+            }
+            this.buffer = new byte[bufferSize];
+            this.file = file;
+            Files.createDirectories(file.getParent());
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            this.gzip = gzip ? new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) : null;
+        }
+
+        public long records() {
+            return records;
+        }
+
+        protected void recordWritten() {
+            records++;
+        }
+
+        protected Output put(char c) throws IOException {
+            if (length == buffer.length) drain();
+            buffer[length++] = (byte) c;
+            return this;
+        }
+
+        protected Output putAscii(String s) throws IOException {
+            return putAscii(s, 0, s.length());
+        }
+
+        protected Output putAscii(String s, int from, int to) throws IOException {
+            while (from < to) {
+                if (length == buffer.length) drain();
+                int count = Math.min(to - from, buffer.length - length);
+                for (int i = 0; i < count; i++) buffer[length + i] = (byte) s.charAt(from + i);
+                length += count;
+                from += count;
+            }
+            return this;
+        }
+
+        protected Output putReverseComplement(String bases) throws IOException {
+            for (int i = bases.length() - 1; i >= 0; i--) {
+                put(switch (bases.charAt(i)) {
+                    case 'A', 'a' -> 'T';
+                    case 'C', 'c' -> 'G';
+                    case 'G', 'g' -> 'C';
+                    case 'T', 't' -> 'A';
+                    default -> 'N';
+                });
+            }
+            return this;
+        }
+
+        /**
+         * Phred+33 qualities, optionally in reverse order.
+         */
+        protected Output putQualities(int[] qualities, boolean reversed) throws IOException {
+            int n = qualities.length;
+            for (int start = 0; start < n; ) {
+                if (length == buffer.length) drain();
+                int count = Math.min(n - start, buffer.length - length);
+                for (int i = 0; i < count; i++) {
+                    int q = qualities[reversed ? n - 1 - start - i : start + i];
+                    buffer[length + i] = (byte) (Math.max(0, Math.min(93, q)) + 33);
+                }
+                length += count;
+                start += count;
+            }
+            return this;
+        }
+
+        /**
+         * Decimal digits of a long, written without an intermediate String.
+         */
+        protected Output putLong(long value) throws IOException {
+            if (buffer.length - length < 20) drain();
+            if (value < 0) {
+                buffer[length++] = '-';
+                if (value == Long.MIN_VALUE) return putAscii("9223372036854775808");
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) digits++;
+            for (int i = length + digits - 1; i >= length; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        /**
+         * A double with a fixed number of decimals, rounded half up.
+         */
+        protected Output putFixed(double value, int decimals) throws IOException {
+            if (!Double.isFinite(value)) return putAscii(".");
+            long scale = 1;
+            for (int i = 0; i < decimals; i++) scale *= 10;
+            long scaled = Math.round(Math.abs(value) * scale);
+            if (value < 0 && scaled != 0) put('-');
+            putLong(scaled / scale);
+            if (decimals > 0) {
+                put('.');
+                long fraction = scaled % scale;
+                for (long digit = scale / 10; digit > 0; digit /= 10) {
+                    put((char) ('0' + fraction / digit % 10));
+                }
+            }
+            return this;
+        }
+
+        private void drain() throws IOException {
+            if (length == 0) return;
+            if (gzip != null) {
+                gzip.write(buffer, 0, length);
+            } else {
+                ByteBuffer out = ByteBuffer.wrap(buffer, 0, length);
+                while (out.hasRemaining()) channel.write(out);
+            }
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                if (gzip != null) gzip.close();
+            } finally {
+                channel.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.morerealisticgeneediting.genome.sequencing;
 import com.morerealisticgeneediting.genome.Genome;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * SequencingSimulator - Simulates next-generation DNA sequencing with realistic outcomes.
@@ -87,7 +88,7 @@ public class SequencingSimulator {
      * Summary statistics for a sequencing run.
      */
     public record SequencingStats(
-        int totalReads,
+        long totalReads,
         long totalBases,
         double meanReadLength,
         double meanQuality,
@@ -126,6 +127,9 @@ public class SequencingSimulator {
         }
     }
     
+    // Depth profiles cost an int per base per worker; larger regions only report mean depth
+    private static final long MAX_DEPTH_TRACKED = 1 << 22;
+    
     private final Random random;
     private final long seed;
     
@@ -135,75 +139,61 @@ public class SequencingSimulator {
     }
     
     /**
-     * Run a sequencing simulation.
+     * Run a sequencing simulation. Reads are streamed through the statistics and not kept;
+     * use {@link #streamReads} to export or pile them up.
      * 
      * @param genome Target genome to sequence
      * @param technology Sequencing technology to simulate
      * @param targetCoverage Desired average coverage depth
      * @param regionStart Start position (0 for whole genome)
      * @param regionLength Length of region (0 for whole genome)
-     * @return SequencingResult with reads and statistics
+     * @return SequencingResult with statistics and an empty read list
      */
     public SequencingResult runSequencing(Genome genome, Technology technology, 
                                           int targetCoverage, long regionStart, long regionLength) {
-        
-        List<SequencingRead> allReads = new ArrayList<>();
-        List<String> warnings = new ArrayList<>();
-        
-        // Calculate region
-        long genomeLength = genome.getTotalLength();
-        if (regionLength <= 0) {
-            regionStart = 0;
-            regionLength = genomeLength;
-        }
-        regionLength = Math.min(regionLength, genomeLength - regionStart);
-        
-        // Calculate number of reads needed
-        int readLength = technology.readLength;
-        int numReads = (int) ((regionLength * targetCoverage) / readLength);
-        if (technology.pairedEnd) {
-            numReads /= 2;  // Each pair covers 2x
-        }
-        
-        // Generate reads
-        int readCounter = 0;
-        for (int i = 0; i < numReads; i++) {
-            // Random position within region
-            long position = regionStart + (long) (random.nextDouble() * (regionLength - readLength));
-            position = Math.max(regionStart, Math.min(position, regionStart + regionLength - readLength));
-            
-            if (technology.pairedEnd) {
-                // Generate paired-end reads
-                int insertSize = 300 + random.nextInt(200);  // 300-500bp insert
-                
-                String readId1 = String.format("READ_%08d/1", readCounter);
-                String readId2 = String.format("READ_%08d/2", readCounter);
-                
-                SequencingRead read1 = generateRead(genome, position, readLength, 
-                    technology, readId1, false, readId2);
-                allReads.add(read1);
-                
-                long mate2Pos = position + insertSize - readLength;
-                if (mate2Pos > 0 && mate2Pos + readLength <= genomeLength) {
-                    SequencingRead read2 = generateRead(genome, mate2Pos, readLength,
-                        technology, readId2, true, readId1);
-                    allReads.add(read2);
-                }
-            } else {
-                // Single-end read
-                String readId = String.format("READ_%08d", readCounter);
-                boolean reversed = random.nextBoolean();
-                SequencingRead read = generateRead(genome, position, readLength,
-                    technology, readId, reversed, null);
-                allReads.add(read);
-            }
-            readCounter++;
+        return runSequencing(genome, technology, targetCoverage, regionStart, regionLength, false);
+    }
+    
+    /**
+     * Run a sequencing simulation, optionally keeping the reads.
+     * 
+     * @param retainReads True to also return every read, for small runs whose reads are used
+     *                    directly; false to stream them through the statistics in parallel and
+     *                    return an empty read list
+     */
+    public SequencingResult runSequencing(Genome genome, Technology technology, int targetCoverage,
+                                          long regionStart, long regionLength, boolean retainReads) {
+        ReadGenerator generator = streamReads(genome, technology, targetCoverage, regionStart, regionLength);
+        
+        // Depth is tracked per position unless the region is too large for an int array
+        long regionSize = generator.regionLength();
+        int depthLength = regionSize <= MAX_DEPTH_TRACKED ? (int) regionSize : 0;
+        long depthStart = generator.regionStart();
+        
+        List<SequencingRead> allReads;
+        SequencingStatsAccumulator totals;
+        if (retainReads) {
+            allReads = generator.stream().toList();
+            totals = new SequencingStatsAccumulator(depthStart, depthLength);
+            allReads.forEach(totals::add);
+        } else {
+            allReads = List.of();
+            // One accumulator, and so one depth array, per core rather than per stream split
+            long readCount = generator.readCount();
+            int chunks = (int) Math.max(1, Math.min(readCount, Runtime.getRuntime().availableProcessors()));
+            totals = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+                SequencingStatsAccumulator part = new SequencingStatsAccumulator(depthStart, depthLength);
+                long end = readCount * (chunk + 1) / chunks;
+                for (long i = readCount * chunk / chunks; i < end; i++) part.add(generator.read(i));
+                return part;
+            }).reduce(SequencingStatsAccumulator::merge).orElseThrow();
         }
         
         // Calculate statistics
-        SequencingStats stats = calculateStats(allReads, regionLength, technology);
+        SequencingStats stats = calculateStats(totals, generator.regionLength(), technology);
         
         // Generate warnings
+        List<String> warnings = new ArrayList<>();
         if (stats.coverageDepth() < 10) {
             warnings.add("Low coverage: <10x may miss variants");
         }
@@ -220,6 +210,17 @@ public class SequencingSimulator {
         return new SequencingResult(allReads, stats, technology, warnings, report);
     }
     
+    /**
+     * Reads for a run, generated lazily. Each call draws a new run seed, so repeated runs differ
+     * like repeated runs on a real instrument, while one generator always yields the same reads.
+     * 
+     * @param regionLength Length of region (0 for whole genome)
+     */
+    public ReadGenerator streamReads(Genome genome, Technology technology, int targetCoverage,
+                                     long regionStart, long regionLength) {
+        return ReadGenerator.forGenome(genome, technology, targetCoverage, regionStart, regionLength, random.nextLong());
+    }
+    
     /**
      * Call variants from sequencing data.
      * 
@@ -227,142 +228,50 @@ public class SequencingSimulator {
      * @param reference Reference genome
      * @param minDepth Minimum read depth for calling
      * @param minQuality Minimum quality score
-     * @return List of called variants
+     * @return List of called variants, by position
      */
     public List<Variant> callVariants(List<SequencingRead> reads, Genome reference,
                                       int minDepth, double minQuality) {
-        
-        List<Variant> variants = new ArrayList<>();
-        
-        // Build pileup (simplified)
-        Map<Long, List<Character>> pileup = new HashMap<>();
-        Map<Long, List<Integer>> qualityPileup = new HashMap<>();
-        
-        for (SequencingRead read : reads) {
-            for (int i = 0; i < read.sequence().length(); i++) {
-                long pos = read.referencePosition() + i;
-                pileup.computeIfAbsent(pos, k -> new ArrayList<>()).add(read.sequence().charAt(i));
-                qualityPileup.computeIfAbsent(pos, k -> new ArrayList<>()).add(read.qualityScores()[i]);
-            }
-        }
-        
-        // Call variants at each position
-        for (Map.Entry<Long, List<Character>> entry : pileup.entrySet()) {
-            long pos = entry.getKey();
-            List<Character> bases = entry.getValue();
-            List<Integer> qualities = qualityPileup.get(pos);
-            
-            if (bases.size() < minDepth) continue;
-            
-            // Get reference base
-            String refSeq = reference.getSequence(pos, 1);
-            if (refSeq.isEmpty()) continue;
-            char refBase = refSeq.charAt(0);
-            
-            // Count alleles
-            Map<Character, Integer> alleleCounts = new HashMap<>();
-            for (char base : bases) {
-                alleleCounts.merge(base, 1, Integer::sum);
-            }
-            
-            // Check for non-reference alleles
-            for (Map.Entry<Character, Integer> allele : alleleCounts.entrySet()) {
-                char altBase = allele.getKey();
-                int count = allele.getValue();
-                
-                if (altBase != refBase && count >= minDepth / 3) {
-                    double af = (double) count / bases.size();
-                    double avgQual = qualities.stream().mapToInt(Integer::intValue).average().orElse(0);
-                    
-                    if (avgQual >= minQuality && af >= 0.1) {
-                        variants.add(new Variant(
-                            pos,
-                            String.valueOf(refBase),
-                            String.valueOf(altBase),
-                            Variant.VariantType.SNP,
-                            bases.size(),
-                            af,
-                            avgQual
-                        ));
-                    }
-                }
-            }
-        }
-        
-        return variants;
+        // The pileup sweeps reads in coordinate order
+        List<SequencingRead> sorted = new ArrayList<>(reads);
+        sorted.sort(Comparator.comparingLong(SequencingRead::referencePosition));
+        return new PileupCaller(reference, minDepth, minQuality).callRegions(sorted, PileupCaller.DEFAULT_REGION_SIZE);
     }
     
     /**
-     * Generate a single sequencing read.
+     * Genotype aligned reads: SNPs and small indels with genotype likelihoods from base qualities.
+     * 
+     * @param reads Sequencing reads
+     * @param alignments One alignment per read, from {@link ReadAligner#alignAll}
+     * @param reference Reference genome the reads were aligned to
+     * @param technology Technology that produced the reads, for its indel error rate
+     * @param ploidy Copies of each locus
+     * @param minDepth Minimum read depth for calling
+     * @param minQuality Minimum call quality (QUAL)
+     * @return Genotyped variants, by position
      */
-    private SequencingRead generateRead(Genome genome, long position, int length,
-                                        Technology tech, String id, boolean reversed, String mateId) {
-        
-        // Get sequence from genome
-        String sequence = genome.getSequence(position, length);
-        
-        // Reverse complement if needed
-        if (reversed) {
-            sequence = reverseComplement(sequence);
-        }
-        
-        // Add sequencing errors
-        char[] chars = sequence.toCharArray();
-        int[] qualities = new int[length];
-        
-        for (int i = 0; i < chars.length; i++) {
-            // Quality decreases towards end of read (typical for Illumina)
-            double positionEffect = 1.0 - (double) i / length * 0.3;
-            int baseQuality = (int) (tech.avgQuality * positionEffect);
-            baseQuality += random.nextGaussian() * 5;  // Add noise
-            baseQuality = Math.max(2, Math.min(41, baseQuality));
-            qualities[i] = baseQuality;
-            
-            // Introduce errors based on technology error rate
-            if (random.nextDouble() < tech.errorRate) {
-                // Error type: mostly substitutions
-                double errorType = random.nextDouble();
-                if (errorType < 0.9) {
-                    // Substitution
-                    chars[i] = substituteBase(chars[i]);
-                    qualities[i] = Math.min(qualities[i], 10);  // Low quality for errors
-                }
-                // Could add insertions/deletions for long-read tech
-            }
-        }
-        
-        return new SequencingRead(id, new String(chars), qualities, position, reversed, mateId);
+    public List<GenotypeCaller.Call> callGenotypes(List<SequencingRead> reads, List<ReadAligner.Alignment> alignments,
+                                                   Genome reference, Technology technology, int ploidy,
+                                                   int minDepth, double minQuality) {
+        return new GenotypeCaller(reference, ploidy, minDepth, minQuality, 0, GenotypeCaller.indelQuality(technology))
+            .call(reads, alignments);
     }
     
     /**
-     * Calculate statistics from reads.
+     * Calculate statistics from read totals.
      */
-    private SequencingStats calculateStats(List<SequencingRead> reads, long regionLength, Technology tech) {
-        if (reads.isEmpty()) {
+    private SequencingStats calculateStats(SequencingStatsAccumulator totals, long regionLength, Technology tech) {
+        if (totals.reads() == 0) {
             return new SequencingStats(0, 0, 0, 0, 0, 0, 0, 0, Map.of());
         }
         
-        long totalBases = 0;
-        long q30Bases = 0;
-        long gcBases = 0;
-        double totalQuality = 0;
-        
-        for (SequencingRead read : reads) {
-            totalBases += read.sequence().length();
-            
-            for (int i = 0; i < read.sequence().length(); i++) {
-                if (read.qualityScores()[i] >= 30) q30Bases++;
-                char base = read.sequence().charAt(i);
-                if (base == 'G' || base == 'C' || base == 'g' || base == 'c') gcBases++;
-                totalQuality += read.qualityScores()[i];
-            }
-        }
-        
-        double meanLength = (double) totalBases / reads.size();
-        double meanQuality = totalQuality / totalBases;
-        double q30Pct = (double) q30Bases / totalBases * 100;
+        SequencingStatsAccumulator.Snapshot snapshot = totals.snapshot();
+        long totalBases = snapshot.bases();
+        double meanLength = snapshot.meanReadLength();
+        double meanQuality = snapshot.meanQuality();
+        double q30Pct = snapshot.q30Percentage();
         double coverage = (double) totalBases / regionLength;
-        double gcContent = (double) gcBases / totalBases;
+        double gcContent = snapshot.gcContent();
         
         // Estimate variants (rough heuristic)
         int estimatedVariants = (int) (regionLength * 0.001 * (coverage / 30));
@@ -371,9 +280,12 @@ public class SequencingSimulator {
         additional.put("technology", tech.description);
         additional.put("readLength", tech.readLength);
         additional.put("pairedEnd", tech.pairedEnd);
+        additional.put("n50", snapshot.n50());
+        additional.put("breadth1x", totals.breadth(1));
+        additional.put("breadth10x", totals.breadth(10));
         
         return new SequencingStats(
-            reads.size(),
+            snapshot.reads(),
             totalBases,
             meanLength,
             meanQuality,
@@ -421,55 +333,12 @@ public class SequencingSimulator {
         return sb.toString();
     }
     
-    /**
-     * Substitute a base with a random different base.
-     */
-    private char substituteBase(char original) {
-        char[] bases = {'A', 'C', 'G', 'T'};
-        char result;
-        do {
-            result = bases[random.nextInt(4)];
-        } while (result == Character.toUpperCase(original));
-        return result;
-    }
-    
-    /**
-     * Get reverse complement of a sequence.
-     */
-    private String reverseComplement(String seq) {
-        StringBuilder sb = new StringBuilder(seq.length());
-        for (int i = seq.length() - 1; i >= 0; i--) {
-            char c = seq.charAt(i);
-            sb.append(switch (Character.toUpperCase(c)) {
-                case 'A' -> 'T';
-                case 'T' -> 'A';
-                case 'G' -> 'C';
-                case 'C' -> 'G';
-                default -> 'N';
-            });
-        }
-        return sb.toString();
-    }
-    
     /**
      * Calculate N50 (common quality metric for assemblies).
      */
     public int calculateN50(List<SequencingRead> reads) {
-        List<Integer> lengths = reads.stream()
-            .map(r -> r.sequence().length())
-            .sorted(Comparator.reverseOrder())
-            .toList();
-        
-        long totalLength = lengths.stream().mapToLong(Integer::longValue).sum();
-        long halfLength = totalLength / 2;
-        
-        long cumulative = 0;
-        for (int length : lengths) {
-            cumulative += length;
-            if (cumulative >= halfLength) {
-                return length;
-            }
-        }
-        return 0;
+        SequencingStatsAccumulator lengths = new SequencingStatsAccumulator();
+        for (SequencingRead read : reads) lengths.addReads(1, read.sequence().length());
+        return lengths.n50();
     }
 }
@@ -0,0 +1,235 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass, mergeable run statistics.
+ *
+ * Every statistic is kept as counts that can be added up: read and base totals, a
+ * Phred score histogram (mean quality and Q30 come from it), GC and called-base counts, a read
+ * length histogram (N50 comes from walking it from the longest length down) and,
+ * optionally, a per-position depth difference array. A read covering
+ * {@code [s, e)} adds one at {@code s} and subtracts one at {@code e}; a prefix sum
+ * turns the array into depth only when a profile is asked for.
+ *
+ * Each worker fills its own accumulator while reads are generated and the results
+ * are combined with {@link #merge}, so a run never has to be kept in memory or walked
+ * twice. {@link #snapshot()} costs one pass over the two histograms, cheap enough for
+ * a progress display every tick. Accumulators are not thread-safe; use one per thread.
+ *
+ * Educational note: these are the headline numbers of a FastQC or instrument run
+ * report - yield, %Q30, GC, read length N50 and depth/breadth of coverage.
+ */
+public final class SequencingStatsAccumulator {
+
+    // Phred+33 tops out at '~', Q93
+    public static final int MAX_QUALITY = 93;
+
+    private long reads;
+    private long bases;
+    private long gcBases;
+    private long calledBases;   // A, C, G or T
+    private final long[] qualityHistogram = new long[MAX_QUALITY + 1];
+    private long[] lengthHistogram = new long[256];
+    private int maxLength;
+
+    private final long regionStart;
+    private final int regionLength;
+    private int[] depthDelta;   // Allocated on first use; regionLength + 1 entries
+
+    /**
+     * Statistics without depth tracking.
+     */
+    public SequencingStatsAccumulator() {
+        this(0, 0);
+    }
+
+    /**
+     * Statistics with per-position depth over {@code [regionStart, regionStart + regionLength)}.
+     */
+    public SequencingStatsAccumulator(long regionStart, int regionLength) {
+        if (regionLength < 0) {
+            throw new IllegalArgumentException("Region length must not be negative: " + regionLength);
+        }
+        this.regionStart = regionStart;
+        this.regionLength = regionLength;
+    }
+
+    /**
+     * Point-in-time summary.
+     *
+     * @param reads            Reads seen
+     * @param bases            Bases seen
+     * @param meanReadLength   Mean read length
+     * @param meanQuality      Mean Phred score over bases with a quality
+     * @param q30Percentage    % of those bases at Q30 or above
+     * @param gcContent        G+C fraction of called (non-N) bases
+     * @param n50              Read length N50
+     * @param maxReadLength    Longest read
+     * @param qualityHistogram Bases per Phred score, 0 to {@link #MAX_QUALITY}
+     */
+    public record Snapshot(long reads, long bases, double meanReadLength, double meanQuality, double q30Percentage,
+                           double gcContent, int n50, int maxReadLength, long[] qualityHistogram) {}
+
+    // ========== Updates ==========
+
+    public void add(SequencingSimulator.SequencingRead read) {
+        String sequence = read.sequence();
+        int[] qualities = read.qualityScores();
+        int length = sequence.length();
+        for (int i = 0; i < length; i++) {
+            switch (sequence.charAt(i)) {
+                case 'G', 'C', 'g', 'c' -> {
+                    gcBases++;
+                    calledBases++;
+                }
+                case 'A', 'T', 'a', 't' -> calledBases++;
+                default -> { }
+            }
+            qualityHistogram[Math.max(0, Math.min(MAX_QUALITY, qualities[i]))]++;
+        }
+        countReads(1, length);
+        addCoverage(read.referencePosition(), length);
+    }
+
+    /**
+     * Bulk update for {@code count} reads of one length whose bases are not available,
+     * e.g. an instrument model that only tracks yield.
+     */
+    public void addReads(long count, int length) {
+        if (count < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid read batch: " + count + " x " + length + " bp");
+        }
+        countReads(count, length);
+    }
+
+    /**
+     * Bulk update of the quality histogram: {@code count} bases at one Phred score.
+     */
+    public void addQualities(int quality, long count) {
+        qualityHistogram[Math.max(0, Math.min(MAX_QUALITY, quality))] += count;
+    }
+
+    /**
+     * Add one read's span to the depth profile (no-op without depth tracking).
+     */
+    public void addCoverage(long start, int length) {
+        if (regionLength == 0) return;
+        long from = Math.max(start, regionStart) - regionStart;
+        long to = Math.min(start + length, regionStart + regionLength) - regionStart;
+        if (to <= from) return;
+        if (depthDelta == null) depthDelta = new int[regionLength + 1];
+        depthDelta[(int) from]++;
+        depthDelta[(int) to]--;
+    }
+
+    private void countReads(long count, int length) {
+        reads += count;
+        bases += count * length;
+        if (length >= lengthHistogram.length) {
+            lengthHistogram = Arrays.copyOf(lengthHistogram, Integer.highestOneBit(length) << 1);
+        }
+        lengthHistogram[length] += count;
+        maxLength = Math.max(maxLength, length);
+    }
+
+    /**
+     * Add another accumulator's counts to this one.
+     *
+     * @return this, so it can be used as a {@code Stream.collect} or {@code reduce} combiner
+     */
+    public SequencingStatsAccumulator merge(SequencingStatsAccumulator other) {
+        if (other.regionStart != regionStart || other.regionLength != regionLength) {
+            throw new IllegalArgumentException("Cannot merge statistics for different regions");
+        }
+        reads += other.reads;
+        bases += other.bases;
+        gcBases += other.gcBases;
+        calledBases += other.calledBases;
+        for (int q = 0; q <= MAX_QUALITY; q++) qualityHistogram[q] += other.qualityHistogram[q];
+        if (other.lengthHistogram.length > lengthHistogram.length) {
+            lengthHistogram = Arrays.copyOf(lengthHistogram, other.lengthHistogram.length);
+        }
+        for (int length = 0; length <= other.maxLength; length++) {
+            lengthHistogram[length] += other.lengthHistogram[length];
+        }
+        maxLength = Math.max(maxLength, other.maxLength);
+        if (other.depthDelta != null) {
+            if (depthDelta == null) {
+                depthDelta = other.depthDelta.clone();
+            } else {
+                for (int i = 0; i <= regionLength; i++) depthDelta[i] += other.depthDelta[i];
+            }
+        }
+        return this;
+    }
+
+    // ========== Results ==========
+
+    public long reads() {
+        return reads;
+    }
+
+    public long bases() {
+        return bases;
+    }
+
+    public Snapshot snapshot() {
+        long qualified = 0;
+        long qualitySum = 0;
+        long q30 = 0;
+        for (int q = 0; q <= MAX_QUALITY; q++) {
+            long count = qualityHistogram[q];
+            qualified += count;
+            qualitySum += count * q;
+            if (q >= 30) q30 += count;
+        }
+        return new Snapshot(reads, bases,
+            reads == 0 ? 0 : (double) bases / reads,
+            qualified == 0 ? 0 : (double) qualitySum / qualified,
+            qualified == 0 ? 0 : (double) q30 / qualified * 100,
+            calledBases == 0 ? 0 : (double) gcBases / calledBases,
+            n50(), maxLength, qualityHistogram.clone());
+    }
+
+    /**
+     * Length such that reads at least this long hold half of all bases.
+     */
+    public int n50() {
+        long half = bases / 2;
+        long cumulative = 0;
+        for (int length = maxLength; length > 0; length--) {
+            cumulative += lengthHistogram[length] * length;
+            if (cumulative >= half) return length;
+        }
+        return 0;
+    }
+
+    /**
+     * Depth at every position of the tracked region (all zero without depth tracking).
+     */
+    public int[] depthProfile() {
+        int[] depth = new int[regionLength];
+        if (depthDelta == null) return depth;
+        int running = 0;
+        for (int i = 0; i < regionLength; i++) {
+            running += depthDelta[i];
+            depth[i] = running;
+        }
+        return depth;
+    }
+
+    /**
+     * Fraction of the tracked region covered by at least {@code minDepth} reads.
+     */
+    public double breadth(int minDepth) {
+        if (regionLength == 0 || depthDelta == null) return 0;
+        long covered = 0;
+        int running = 0;
+        for (int i = 0; i < regionLength; i++) {
+            running += depthDelta[i];
+            if (running >= minDepth) covered++;
+        }
+        return (double) covered / regionLength;
+    }
+}
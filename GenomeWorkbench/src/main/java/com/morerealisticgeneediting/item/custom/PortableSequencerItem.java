@@ -1,12 +1,20 @@
 package com.morerealisticgeneediting.item.custom;
 
+import com.morerealisticgeneediting.genome.PackedSequence;
+import com.morerealisticgeneediting.genome.assembly.DeBruijnAssembler;
+import com.morerealisticgeneediting.genome.sequencing.ErrorModel;
+import com.morerealisticgeneediting.genome.sequencing.ReadGenerator;
+import com.morerealisticgeneediting.genome.sequencing.SequencingSimulator;
 import com.morerealisticgeneediting.item.ModItems;
+import com.morerealisticgeneediting.util.TickJobs;
 import net.minecraft.client.item.TooltipContext;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
 import net.minecraft.screen.SimpleNamedScreenHandlerFactory;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.text.Text;
 import net.minecraft.util.ActionResult;
 import net.minecraft.util.Formatting;
@@ -16,8 +24,12 @@ import net.minecraft.world.World;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.random.RandomGenerator;
 
 /**
  * Portable Nanopore Sequencer - Based on Oxford Nanopore MinION Mk1C
@@ -35,6 +47,9 @@ import java.util.Random;
  * - Returns sequence data with quality scores
  * - Flow cell has limited lifespan (uses)
  * - Higher quality = more accurate gene identification
+ * - Samples carrying their sequence (plasmids, small edited loci) are really
+ *   sequenced and assembled de novo over a few ticks; the result arrives when the
+ *   assembly finishes
  */
 public class PortableSequencerItem extends Item {
 
@@ -43,6 +58,11 @@ public class PortableSequencerItem extends Item {
     private static final float BASE_ACCURACY = 0.90f;  // 90% base accuracy
     private static final int MAX_READ_LENGTH = 50000;   // Simplified for gameplay
 
+    // In-game assembly of samples that carry a "Sequence" tag
+    private static final int ASSEMBLY_K = 21;
+    private static final int ASSEMBLY_COVERAGE = 30;
+    private static final int MAX_ASSEMBLY_LENGTH = 50000;
+
     public PortableSequencerItem(Settings settings) {
         super(settings.maxDamage(MAX_FLOW_CELL_USES));
     }
@@ -64,15 +84,15 @@ public class PortableSequencerItem extends Item {
         }
 
         if (!world.isClient) {
-            // Perform sequencing
-            SequencingResult result = performSequencing(sample, sequencer);
-            
-            // Create result item
-            ItemStack resultItem = createSequencingResult(result);
-            
-            // Give to player or drop
-            if (!player.getInventory().insertStack(resultItem)) {
-                player.dropItem(resultItem, false);
+            String sequence = assemblableSequence(sample.getNbt());
+            if (sequence != null) {
+                // Sequence and assemble over the next ticks; the result is delivered by the job
+                startAssembly(world, player, sequence, sampleType(sample.getNbt()));
+                player.sendMessage(Text.translatable("message.morerealisticgeneediting.assembly_started")
+                    .formatted(Formatting.AQUA), true);
+            } else {
+                // Perform sequencing
+                deliver(player, performSequencing(world, sample, sequencer));
             }
             
             // Consume sample
@@ -80,97 +100,178 @@ public class PortableSequencerItem extends Item {
             
             // Damage flow cell
             sequencer.damage(1, player, p -> p.sendToolBreakStatus(hand));
-            
-            // Send result message
-            player.sendMessage(Text.translatable("message.morerealisticgeneediting.sequencing_complete",
-                result.readCount, String.format("%.1f", result.meanQuality))
-                .formatted(Formatting.GREEN), true);
         }
 
         return TypedActionResult.success(sequencer, world.isClient);
     }
 
-    private SequencingResult performSequencing(ItemStack sample, ItemStack sequencer) {
-        Random random = new Random();
+    private SequencingResult performSequencing(World world, ItemStack sample, ItemStack sequencer) {
+        // Seeded from the world so runs follow the world's random state instead of wall-clock seeds
+        SplittableRandom random = new SplittableRandom(world.getRandom().nextLong());
+        ErrorModel model = ErrorModel.forTechnology(SequencingSimulator.Technology.NANOPORE_R10);
         NbtCompound sampleNbt = sample.getNbt();
         
         // Determine sequence characteristics
         int sampleLength = 1000;  // Default
-        String sampleType = "unknown";
-        
-        if (sampleNbt != null) {
-            if (sampleNbt.contains("SequenceLength")) {
-                sampleLength = sampleNbt.getInt("SequenceLength");
-            }
-            if (sampleNbt.contains("Type")) {
-                sampleType = sampleNbt.getString("Type");
-            }
+        if (sampleNbt != null && sampleNbt.contains("SequenceLength")) {
+            sampleLength = sampleNbt.getInt("SequenceLength");
         }
 
         // Simulate nanopore sequencing
         SequencingResult result = new SequencingResult();
         result.technology = "nanopore";
-        result.sampleType = sampleType;
+        result.sampleType = sampleType(sampleNbt);
         
         // Generate reads (nanopore produces long reads)
         int numReads = 10 + random.nextInt(90);  // 10-100 reads
         result.readCount = numReads;
         
-        // Calculate coverage
-        int totalBases = 0;
         result.readLengths = new int[numReads];
         result.qualityScores = new float[numReads];
         
         for (int i = 0; i < numReads; i++) {
-            // Nanopore read length distribution (log-normal)
-            double logLength = 7 + random.nextGaussian() * 1.5;  // Mean ~1000bp, high variance
-            int readLength = (int) Math.min(MAX_READ_LENGTH, Math.exp(logLength));
-            result.readLengths[i] = readLength;
-            totalBases += readLength;
+            // Nanopore read length distribution (log-normal, long tail)
+            result.readLengths[i] = model.sampleLength(random, MAX_READ_LENGTH);
             
-            // Quality score (Phred-like, nanopore typically Q10-Q20)
-            result.qualityScores[i] = 10 + random.nextFloat() * 15;
+            // Read quality (Phred-like, nanopore typically Q10-Q20) from the model's quality distribution
+            result.qualityScores[i] = model.sampleQuality(random.nextDouble(), random);
         }
         
-        // Calculate statistics
+        summarize(result, sampleLength);
+        
+        // Generate consensus sequence (simplified)
+        result.consensusAccuracy = estimateConsensusAccuracy(result.coverage);
+        
+        // Identify features (genes, variants) based on coverage and quality
+        result.featuresIdentified = identifyFeatures(result, random);
+        
+        return result;
+    }
+
+    /**
+     * Coverage, mean length and quality, and N50 from the per-read lengths and qualities.
+     */
+    private static void summarize(SequencingResult result, int sampleLength) {
+        int numReads = result.readLengths.length;
+        int totalBases = 0;
+        for (int length : result.readLengths) totalBases += length;
+        result.readCount = numReads;
         result.totalBases = totalBases;
         result.coverage = (float) totalBases / sampleLength;
-        result.meanReadLength = totalBases / numReads;
+        result.meanReadLength = numReads == 0 ? 0 : totalBases / numReads;
         
         // Calculate mean quality
         float totalQ = 0;
         for (float q : result.qualityScores) totalQ += q;
-        result.meanQuality = totalQ / numReads;
+        result.meanQuality = numReads == 0 ? 0 : totalQ / numReads;
         
         // N50 calculation (simplified)
-        java.util.Arrays.sort(result.readLengths);
+        int[] sorted = result.readLengths.clone();
+        Arrays.sort(sorted);
         int halfBases = totalBases / 2;
         int cumulative = 0;
-        for (int i = result.readLengths.length - 1; i >= 0; i--) {
-            cumulative += result.readLengths[i];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            cumulative += sorted[i];
             if (cumulative >= halfBases) {
-                result.n50 = result.readLengths[i];
+                result.n50 = sorted[i];
                 break;
             }
         }
-        
-        // Generate consensus sequence (simplified)
-        if (result.coverage >= 10) {
-            result.consensusAccuracy = BASE_ACCURACY + (1 - BASE_ACCURACY) * (1 - 1.0f / result.coverage);
-        } else {
-            result.consensusAccuracy = BASE_ACCURACY * (result.coverage / 10);
+    }
+
+    private static float estimateConsensusAccuracy(float coverage) {
+        if (coverage >= 10) {
+            return BASE_ACCURACY + (1 - BASE_ACCURACY) * (1 - 1.0f / coverage);
         }
+        return BASE_ACCURACY * (coverage / 10);
+    }
+
+    // ========== Assembly ==========
+
+    /**
+     * The sample's own sequence, if it carries one short enough to assemble in-game.
+     */
+    @Nullable
+    private static String assemblableSequence(@Nullable NbtCompound nbt) {
+        if (nbt == null || !nbt.contains("Sequence", NbtElement.STRING_TYPE)) return null;
+        String sequence = nbt.getString("Sequence").toUpperCase();
+        if (sequence.length() < 2 * ASSEMBLY_K || sequence.length() > MAX_ASSEMBLY_LENGTH) return null;
+        for (int i = 0; i < sequence.length(); i++) {
+            if ("ACGT".indexOf(sequence.charAt(i)) < 0) return null;
+        }
+        return sequence;
+    }
+
+    /**
+     * Sequence the sample with the nanopore error model and assemble the reads as a
+     * {@link TickJobs} job. Reads are generated lazily as the job pulls them, and their
+     * lengths and qualities are recorded on the way for the run statistics.
+     */
+    private void startAssembly(World world, PlayerEntity player, String sequence, String sampleType) {
+        SplittableRandom random = new SplittableRandom(world.getRandom().nextLong());
+        ReadGenerator generator = new ReadGenerator(PackedSequence.fromString(sequence), 0,
+            SequencingSimulator.Technology.NANOPORE_R10, ASSEMBLY_COVERAGE, random.nextLong());
+
+        SequencingResult result = new SequencingResult();
+        result.technology = "nanopore";
+        result.sampleType = sampleType;
+        int numReads = (int) generator.readCount();
+        result.readLengths = new int[numReads];
+        result.qualityScores = new float[numReads];
+        int[] index = new int[1];
+        Iterator<String> reads = generator.stream().map(read -> {
+            int i = index[0]++;
+            result.readLengths[i] = read.sequence().length();
+            result.qualityScores[i] = (float) Arrays.stream(read.qualityScores()).average().orElse(0);
+            return read.sequence();
+        }).iterator();
+
+        UUID playerId = player.getUuid();
+        MinecraftServer server = world.getServer();
+        TickJobs.submit(new DeBruijnAssembler(ASSEMBLY_K).job(reads), assembly -> {
+            summarize(result, sequence.length());
+            if (assembly != null) {
+                result.contigs = assembly.unitigs().size();
+                result.largestContig = assembly.longest();
+                result.assemblyN50 = assembly.n50();
+                result.consensusAccuracy = (float) assembly.kmerCompleteness(sequence);
+            } else {
+                result.consensusAccuracy = estimateConsensusAccuracy(result.coverage);
+            }
+            result.featuresIdentified = identifyFeatures(result, random);
+
+            // The player may have respawned or logged out while the job ran
+            PlayerEntity recipient = server == null ? null : server.getPlayerManager().getPlayer(playerId);
+            if (recipient != null) deliver(recipient, result);
+        });
+    }
+
+    private static String sampleType(@Nullable NbtCompound nbt) {
+        return nbt != null && nbt.contains("Type") ? nbt.getString("Type") : "unknown";
+    }
+
+    private void deliver(PlayerEntity player, SequencingResult result) {
+        // Create result item
+        ItemStack resultItem = createSequencingResult(result);
         
-        // Identify features (genes, variants) based on coverage and quality
-        result.featuresIdentified = identifyFeatures(result, random);
+        // Give to player or drop
+        if (!player.getInventory().insertStack(resultItem)) {
+            player.dropItem(resultItem, false);
+        }
         
-        return result;
+        // Send result message
+        player.sendMessage(Text.translatable("message.morerealisticgeneediting.sequencing_complete",
+            result.readCount, String.format("%.1f", result.meanQuality))
+            .formatted(Formatting.GREEN), true);
     }
 
-    private List<String> identifyFeatures(SequencingResult result, Random random) {
+    private List<String> identifyFeatures(SequencingResult result, RandomGenerator random) {
         List<String> features = new ArrayList<>();
         
-        if (result.coverage >= 5) {
+        if (result.contigs > 0) {
+            features.add("Assembled into " + result.contigs + (result.contigs == 1 ? " contig" : " contigs"));
+            if (result.contigs == 1) features.add("Full sequence assembled");
+        } else if (result.coverage >= 5) {
             features.add("Full sequence assembled");
         }
         if (result.coverage >= 20 && result.consensusAccuracy > 0.95) {
@@ -205,6 +306,11 @@ public class PortableSequencerItem extends Item {
         nbt.putFloat("MeanQuality", result.meanQuality);
         nbt.putInt("N50", result.n50);
         nbt.putFloat("ConsensusAccuracy", result.consensusAccuracy);
+        if (result.contigs > 0) {
+            nbt.putInt("Contigs", result.contigs);
+            nbt.putInt("LargestContig", result.largestContig);
+            nbt.putInt("AssemblyN50", result.assemblyN50);
+        }
         
         // Store features as string list
         StringBuilder featuresStr = new StringBuilder();
@@ -271,6 +377,9 @@ public class PortableSequencerItem extends Item {
         float meanQuality;
         int n50;
         float consensusAccuracy;
+        int contigs;            // 0 = not assembled
+        int largestContig;
+        int assemblyN50;
         int[] readLengths;
         float[] qualityScores;
         List<String> featuresIdentified = new ArrayList<>();
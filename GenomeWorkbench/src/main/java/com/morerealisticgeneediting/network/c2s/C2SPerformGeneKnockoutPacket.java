@@ -2,18 +2,37 @@ package com.morerealisticgeneediting.network.c2s;
 
 import com.morerealisticgeneediting.MoreRealisticGeneEditing;
 import com.morerealisticgeneediting.genome.Genome;
+import com.morerealisticgeneediting.genome.crispr.CasVariant;
+import com.morerealisticgeneediting.genome.crispr.CrisprEngine;
+import com.morerealisticgeneediting.genome.crispr.GuideLibrary;
+import com.morerealisticgeneediting.genome.crispr.PopulationEditingSimulator;
 import com.morerealisticgeneediting.network.C2SPackets;
+import com.morerealisticgeneediting.util.AsyncJobs;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
 import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayNetworkHandler;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
 
+import java.util.List;
 import java.util.UUID;
 
 public class C2SPerformGeneKnockoutPacket {
 
+    // How far from the used guide to look for a better one in the guide library
+    private static final int GUIDE_SEARCH_RADIUS = 50;
+
+    /**
+     * What the background part of a knockout found: the guide's site (null if there is no
+     * SpCas9 PAM at the requested position), the edited cell population and the best
+     * library guide nearby.
+     */
+    private record KnockoutResult(CrisprEngine.TargetSite site,
+                                  PopulationEditingSimulator.PopulationResult population,
+                                  List<CrisprEngine.TargetSite> best) {}
+
     public static void send(String genomeIdentifier, long pamSiteAbsolutePosition, int protospacerLength) {
         PacketByteBuf buf = PacketByteBufs.create();
         buf.writeString(genomeIdentifier);
@@ -39,10 +58,7 @@ public class C2SPerformGeneKnockoutPacket {
                         return;
                     }
 
-                    Genome newGenome = genome.performKnockout(pamPosition, protospacerLength);
-                    UUID newId = newGenome.getUUID();
-                    MoreRealisticGeneEditing.genomeCache.put(newId, newGenome);
-                    MoreRealisticGeneEditing.LOGGER.info("Performed knockout on genome {}, created new genome {}", genomeUUID, newId);
+                    performKnockout(server, player.getUuid(), genome, pamPosition, protospacerLength);
                 } else {
                     MoreRealisticGeneEditing.LOGGER.warn("Player {} tried to perform knockout on unknown genome {}", player.getName().getString(), genomeUUID);
                 }
@@ -51,4 +67,109 @@ public class C2SPerformGeneKnockoutPacket {
             }
         });
     }
+
+    /**
+     * Edit a population of cells with the guide in the background, then apply the most
+     * common allele to the genome and tell the player how the edit went, how good the
+     * guide was, and whether the genome's guide library (once built) has a better one nearby.
+     */
+    private static void performKnockout(MinecraftServer server, UUID playerId, Genome genome,
+                                        long pamPosition, int protospacerLength) {
+        CrisprEngine engine = MoreRealisticGeneEditing.referenceIndexes.createEngine(
+            genome, genome.getUUID().getLeastSignificantBits());
+        long start = pamPosition - CrisprEngine.PROTOSPACER_LENGTH;
+        GuideLibrary library = MoreRealisticGeneEditing.referenceIndexes.getGuidesIfReady(genome, CasVariant.SPCAS9);
+
+        AsyncJobs.submit(server,
+            () -> {
+                if (start < 0) return new KnockoutResult(null, null, List.of());
+                CrisprEngine.TargetSite site = engine.findPamSites(genome, start,
+                        CrisprEngine.PROTOSPACER_LENGTH + CrisprEngine.SPCAS9_PAM.length(), CrisprEngine.SPCAS9_PAM)
+                    .stream().filter(s -> s.position() == pamPosition).findFirst().orElse(null);
+                if (site == null) return new KnockoutResult(null, null, List.of());
+                return new KnockoutResult(site,
+                    engine.performPopulationEditing(genome, site, null, PopulationEditingSimulator.DEFAULT_CELLS),
+                    library == null ? List.of() : engine.findBestGuides(library, start, GUIDE_SEARCH_RADIUS, 1));
+            },
+            result -> {
+                UUID genomeId = genome.getUUID();
+                if (MoreRealisticGeneEditing.genomeCache.get(genomeId) != genome) {
+                    MoreRealisticGeneEditing.LOGGER.warn("Genome {} changed while a knockout was being simulated; discarding it", genomeId);
+                    return;
+                }
+
+                Genome newGenome = result.site() == null
+                    // No SpCas9 PAM to score: remove the protospacer outright
+                    ? genome.performKnockout(pamPosition, protospacerLength)
+                    : applyDominantAllele(genome, result.site().cutPosition(), result.population());
+                MoreRealisticGeneEditing.genomeCache.put(genomeId, newGenome);
+                MoreRealisticGeneEditing.LOGGER.info("Performed knockout on genome {}", genomeId);
+
+                ServerPlayerEntity player = server.getPlayerManager().getPlayer(playerId);
+                if (player == null || result.site() == null) return;
+                reportKnockout(player, result);
+            });
+    }
+
+    /**
+     * Apply the most common indel in the edited population at the cut. Insertions duplicate
+     * the bases just before the cut, as templated end-joining insertions do.
+     */
+    private static Genome applyDominantAllele(Genome genome, long cutPosition,
+                                              PopulationEditingSimulator.PopulationResult population) {
+        int allele = dominantAllele(population);
+        if (allele > 0) {
+            return genome.performDeletion(cutPosition, allele);
+        } else if (allele < 0 && cutPosition >= -allele) {
+            return genome.performInsertion(cutPosition, genome.getSequence(cutPosition + allele, -allele));
+        }
+        return genome;
+    }
+
+    /**
+     * Most common indel among edited cells: positive for a deletion of that size,
+     * negative for an insertion, 0 if no cell carries an indel.
+     */
+    private static int dominantAllele(PopulationEditingSimulator.PopulationResult population) {
+        int allele = 0;
+        long cells = 0;
+        long[] deletions = population.deletionSizes();
+        long[] insertions = population.insertionSizes();
+        for (int size = 1; size < deletions.length; size++) {
+            if (deletions[size] > cells) {
+                cells = deletions[size];
+                allele = size;
+            }
+        }
+        for (int size = 1; size < insertions.length; size++) {
+            if (insertions[size] > cells) {
+                cells = insertions[size];
+                allele = -size;
+            }
+        }
+        return allele;
+    }
+
+    private static void reportKnockout(ServerPlayerEntity player, KnockoutResult result) {
+        CrisprEngine.TargetSite used = result.site();
+        PopulationEditingSimulator.PopulationResult population = result.population();
+        int allele = dominantAllele(population);
+
+        player.sendMessage(Text.translatable("message.morerealisticgeneediting.knockout_population",
+            String.format("%.0f", population.qualityMetrics().indelFrequency() * 100),
+            String.format("%,d", population.cells()),
+            String.format("%.0f", population.qualityMetrics().frameshiftProbability() * 100),
+            allele == 0 ? "WT" : allele > 0 ? "-" + allele + "bp" : "+" + -allele + "bp"), false);
+        player.sendMessage(Text.translatable("message.morerealisticgeneediting.guide_score",
+            String.format("%.0f", used.onTargetScore() * 100),
+            String.format("%.0f", used.offTargetRisk() * 100)), false);
+        result.best().stream()
+            .filter(best -> best.onTargetScore() > used.onTargetScore())
+            .findFirst()
+            .ifPresent(best -> player.sendMessage(Text.translatable(
+                "message.morerealisticgeneediting.guide_suggestion",
+                best.protospacer(), best.position(), best.reverse() ? "-" : "+",
+                String.format("%.0f", best.onTargetScore() * 100),
+                String.format("%.0f", best.offTargetRisk() * 100)), false));
+    }
 }
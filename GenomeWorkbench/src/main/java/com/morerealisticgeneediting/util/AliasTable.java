@@ -0,0 +1,89 @@
+package com.morerealisticgeneediting.util;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Walker/Vose alias table for sampling a fixed discrete distribution in O(1).
+ *
+ * Building is O(n); each sample then costs one uniform index, one uniform double and
+ * one comparison, regardless of how many outcomes there are or how skewed they are.
+ * Immutable and safe to share between threads (each thread brings its own generator).
+ */
+public final class AliasTable {
+
+    private final double[] threshold;
+    private final int[] alias;
+    private final double[] probabilities;
+
+    /**
+     * @param weights Non-negative relative weights; at least one must be positive
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        double total = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Alias table weights must be finite and non-negative: " + weight);
+            }
+            total += weight;
+        }
+        if (n == 0 || total <= 0) {
+            throw new IllegalArgumentException("Alias table needs at least one positive weight");
+        }
+
+        this.threshold = new double[n];
+        this.alias = new int[n];
+        this.probabilities = new double[n];
+
+        // Scale so the average column holds exactly 1, then pair short columns with tall ones
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0, largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            probabilities[i] = weights[i] / total;
+            scaled[i] = probabilities[i] * n;
+            if (scaled[i] < 1.0) small[smallCount++] = i;
+            else large[largeCount++] = i;
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+            threshold[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] -= 1.0 - scaled[s];
+            if (scaled[l] < 1.0) small[smallCount++] = l;
+            else large[largeCount++] = l;
+        }
+        // Leftovers are full columns (up to rounding error)
+        while (largeCount > 0) {
+            int l = large[--largeCount];
+            threshold[l] = 1.0;
+            alias[l] = l;
+        }
+        while (smallCount > 0) {
+            int s = small[--smallCount];
+            threshold[s] = 1.0;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Draw an outcome index.
+     */
+    public int sample(RandomGenerator random) {
+        int column = random.nextInt(threshold.length);
+        return random.nextDouble() < threshold[column] ? column : alias[column];
+    }
+
+    public int size() {
+        return threshold.length;
+    }
+
+    /**
+     * Normalised probability of an outcome.
+     */
+    public double probability(int outcome) {
+        return probabilities[outcome];
+    }
+}
@@ -2,6 +2,7 @@ package com.morerealisticgeneediting.util;
 
 import net.minecraft.server.MinecraftServer;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +36,18 @@ public final class AsyncJobs {
         });
     }
 
+    /**
+     * Submits a task to be run on a background thread without a main-thread callback.
+     * Useful for long-running data preparation (e.g. index builds) that other code awaits.
+     *
+     * @param backgroundTask The task to run asynchronously. It should not modify game state directly.
+     * @param <T> The type of the result.
+     * @return A future completed with the result on the background thread.
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> backgroundTask) {
+        return CompletableFuture.supplyAsync(backgroundTask, executor);
+    }
+
     /**
      * Shuts down the executor service. Should be called when the server is stopping.
      */
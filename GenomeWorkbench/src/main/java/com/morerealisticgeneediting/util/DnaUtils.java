@@ -1,5 +1,7 @@
 package com.morerealisticgeneediting.util;
 
+import com.morerealisticgeneediting.genome.pcr.NearestNeighborThermodynamics;
+
 import java.util.Random;
 
 /**
@@ -248,12 +250,16 @@ public final class DnaUtils {
     }
 
     /**
-     * Calculate melting temperature using the Wallace rule (for short oligos).
-     * Tm = 4(G+C) + 2(A+T)
+     * Calculate melting temperature with the nearest-neighbour model used for primer design
+     * (see {@link NearestNeighborThermodynamics}). Falls back to the Wallace rule,
+     * Tm = 4(G+C) + 2(A+T), for sequences the model cannot score (single bases, ambiguity codes).
      */
     public static double meltingTemperature(String sequence) {
         if (sequence == null || sequence.isEmpty()) return 0.0;
         
+        double tm = NearestNeighborThermodynamics.standard().meltingTemperature(sequence);
+        if (!Double.isNaN(tm)) return tm;
+        
         int gc = 0, at = 0;
         for (int i = 0; i < sequence.length(); i++) {
             char c = Character.toUpperCase(sequence.charAt(i));
@@ -0,0 +1,103 @@
+package com.morerealisticgeneediting.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity, primitive long-to-double memo table.
+ *
+ * Open addressing with short linear probes over two parallel arrays, so lookups and
+ * inserts never box or allocate. The table never grows: when a key's probe window is
+ * full, the first slot in the window is overwritten. That makes it a lossy cache, which
+ * is fine for memoizing values that are cheap to recompute but expensive in bulk.
+ *
+ * Not thread-safe; give each thread (or each owning object) its own cache.
+ */
+public final class LongDoubleCache {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MAX_PROBES = 8;
+
+    private final long[] keys;
+    private final double[] values;
+    private final int mask;
+    private int size;
+
+    /**
+     * @param capacity Requested number of slots; rounded up to a power of two
+     */
+    public LongDoubleCache(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Cache capacity must be 1-" + (1 << 30) + ": " + capacity);
+        }
+        int slots = Integer.highestOneBit(Math.max(MAX_PROBES, capacity) - 1) << 1;
+        this.keys = new long[slots];
+        this.values = new double[slots];
+        this.mask = slots - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Look up a key.
+     *
+     * @param key     Any key except {@link Long#MIN_VALUE}
+     * @param missing Value to return if the key is not cached
+     */
+    public double get(long key, double missing) {
+        int slot = slot(key);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            long stored = keys[(slot + probe) & mask];
+            if (stored == key) return values[(slot + probe) & mask];
+            if (stored == EMPTY) return missing;
+        }
+        return missing;
+    }
+
+    /**
+     * Cache a value, evicting an older entry if the key's probe window is full.
+     *
+     * @param key Any key except {@link Long#MIN_VALUE}
+     */
+    public void put(long key, double value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved cache key: " + key);
+        }
+        int slot = slot(key);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = (slot + probe) & mask;
+            if (keys[index] == key || keys[index] == EMPTY) {
+                if (keys[index] == EMPTY) size++;
+                keys[index] = key;
+                values[index] = value;
+                return;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    /**
+     * SplitMix64 finalizer: a cheap, well-distributed 64-bit hash.
+     */
+    public static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
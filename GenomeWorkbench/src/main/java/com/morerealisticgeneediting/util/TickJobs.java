@@ -0,0 +1,91 @@
+package com.morerealisticgeneediting.util;
+
+import com.morerealisticgeneediting.MoreRealisticGeneEditing;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Runs resumable jobs on the server thread, a few milliseconds per tick.
+ *
+ * Unlike {@link AsyncJobs}, nothing runs concurrently with the game: each job does a
+ * slice of work until the tick's shared budget runs out and continues where it left
+ * off next tick. Use it for work that is too slow for one tick but small enough that
+ * a background thread is not worth the hand-over, or for jobs that read game state.
+ */
+public final class TickJobs {
+
+    // Shared by all jobs; a tick is 50 ms
+    private static final long BUDGET_NANOS = 5_000_000;
+
+    private static final Deque<Entry<?>> jobs = new ArrayDeque<>();
+
+    private TickJobs() {}
+
+    /**
+     * A job that can be advanced in slices.
+     *
+     * @param <T> The type of the result.
+     */
+    public interface Job<T> {
+        /**
+         * Do work until {@code deadlineNanos} ({@link System#nanoTime()}) or completion.
+         *
+         * @return true once the job is finished
+         */
+        boolean step(long deadlineNanos);
+
+        /**
+         * The result, available once {@link #step} has returned true.
+         */
+        T result();
+    }
+
+    private record Entry<T>(Job<T> job, Consumer<T> callback) {
+        void complete(boolean succeeded) {
+            callback.accept(succeeded ? job.result() : null);
+        }
+    }
+
+    public static void register() {
+        ServerTickEvents.END_SERVER_TICK.register(server -> tick());
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> jobs.clear());
+    }
+
+    /**
+     * Queue a job. The callback runs on the server thread with the result, or with null if the job failed.
+     */
+    public static <T> void submit(Job<T> job, Consumer<T> callback) {
+        jobs.addLast(new Entry<>(job, callback));
+    }
+
+    private static void tick() {
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        // Each job gets an equal share of what is left, so one long job cannot starve the others
+        for (int remaining = jobs.size(); remaining > 0; remaining--) {
+            long now = System.nanoTime();
+            if (now >= deadline) break;
+            Entry<?> entry = jobs.pollFirst();
+            boolean done;
+            try {
+                done = entry.job().step(now + (deadline - now) / remaining);
+            } catch (RuntimeException e) {
+                MoreRealisticGeneEditing.LOGGER.error("Tick job failed", e);
+                entry.complete(false);
+                continue;
+            }
+            if (done) {
+                try {
+                    entry.complete(true);
+                } catch (RuntimeException e) {
+                    MoreRealisticGeneEditing.LOGGER.error("Tick job callback failed", e);
+                }
+            } else {
+                jobs.addLast(entry);
+            }
+        }
+    }
+}
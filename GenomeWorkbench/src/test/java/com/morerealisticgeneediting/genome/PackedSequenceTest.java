@@ -0,0 +1,127 @@
+package com.morerealisticgeneediting.genome;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the packed k-mer and reverse complement bit tricks against plain String operations.
+ */
+class PackedSequenceTest {
+
+    private static final String BASES = "ACGT";
+
+    @Test
+    void kmerMatchesPackedSubstring() {
+        String sequence = randomSequence(new Random(1), 1000);
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        assertEquals(sequence.length(), packed.length());
+        for (int k = 1; k <= PackedSequence.BASES_PER_WORD; k++) {
+            // Every offset within a word, including k-mers that straddle two words
+            for (int pos = 0; pos + k <= 100; pos++) {
+                assertEquals(naivePack(sequence.substring(pos, pos + k)), packed.kmer(pos, k),
+                    "k=" + k + " pos=" + pos);
+            }
+        }
+    }
+
+    @Test
+    void windowReadsPastTheEndAsA() {
+        String sequence = randomSequence(new Random(2), 77);
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        for (int pos = 0; pos < sequence.length(); pos++) {
+            String padded = (sequence.substring(pos) + "A".repeat(32)).substring(0, 32);
+            assertEquals(naivePack(padded), packed.window(pos), "pos=" + pos);
+        }
+    }
+
+    @Test
+    void substringRoundTripsWithN() {
+        StringBuilder builder = new StringBuilder(randomSequence(new Random(3), 300));
+        for (int pos : new int[]{0, 31, 32, 63, 64, 150, 299}) builder.setCharAt(pos, 'N');
+        String sequence = builder.toString();
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        for (int pos = 0; pos < sequence.length(); pos += 7) {
+            for (int len : new int[]{1, 5, 32, 33, 100}) {
+                int end = Math.min(sequence.length(), pos + len);
+                assertEquals(sequence.substring(pos, end), packed.substring(pos, len));
+                assertEquals(sequence.substring(pos, end).indexOf('N') >= 0, packed.hasN(pos, end - pos),
+                    "pos=" + pos + " len=" + len);
+            }
+        }
+    }
+
+    @Test
+    void builderChunksMatchOneString() {
+        String sequence = randomSequence(new Random(4), 500);
+        PackedSequence.Builder builder = new PackedSequence.Builder(sequence.length());
+        for (int pos = 0; pos < sequence.length(); pos += 37) {
+            builder.append(sequence.substring(pos, Math.min(sequence.length(), pos + 37)));
+        }
+        PackedSequence chunked = builder.build();
+        PackedSequence whole = PackedSequence.fromString(sequence);
+        assertEquals(whole.fingerprint(), chunked.fingerprint());
+        assertEquals(sequence, chunked.substring(0, sequence.length()));
+    }
+
+    @Test
+    void reverseComplementMatchesString() {
+        Random random = new Random(5);
+        for (int k = 1; k <= PackedSequence.BASES_PER_WORD; k++) {
+            for (int trial = 0; trial < 50; trial++) {
+                String kmer = randomSequence(random, k);
+                long packed = PackedSequence.pack(kmer);
+                assertEquals(naivePack(naiveReverseComplement(kmer)), PackedSequence.reverseComplement(packed, k), kmer);
+                assertEquals(kmer, PackedSequence.unpack(packed, k));
+            }
+        }
+    }
+
+    @Test
+    void mismatchesCountsDifferingBases() {
+        Random random = new Random(6);
+        for (int trial = 0; trial < 500; trial++) {
+            int k = 1 + random.nextInt(PackedSequence.BASES_PER_WORD);
+            String a = randomSequence(random, k);
+            String b = randomSequence(random, k);
+            int expected = 0;
+            for (int i = 0; i < k; i++) {
+                if (a.charAt(i) != b.charAt(i)) expected++;
+            }
+            assertEquals(expected, PackedSequence.mismatches(PackedSequence.pack(a), PackedSequence.pack(b)), a + " " + b);
+        }
+    }
+
+    @Test
+    void packRejectsInvalidInput() {
+        assertThrows(IllegalArgumentException.class, () -> PackedSequence.pack("ACGN"));
+        assertThrows(IllegalArgumentException.class, () -> PackedSequence.pack("A".repeat(33)));
+    }
+
+    // ========== Naive reference ==========
+
+    private static long naivePack(String sequence) {
+        long value = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            value = value * 4 + BASES.indexOf(sequence.charAt(i));
+        }
+        return value;
+    }
+
+    private static String naiveReverseComplement(String sequence) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = sequence.length() - 1; i >= 0; i--) {
+            builder.append(BASES.charAt(3 - BASES.indexOf(sequence.charAt(i))));
+        }
+        return builder.toString();
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) builder.append(BASES.charAt(random.nextInt(4)));
+        return builder.toString();
+    }
+}
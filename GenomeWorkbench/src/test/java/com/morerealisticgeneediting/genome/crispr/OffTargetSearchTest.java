@@ -0,0 +1,202 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the SpCas9 search, including the bulge alignment, against enumerating every
+ * alignment at every NRG PAM.
+ */
+class OffTargetSearchTest {
+
+    private static final String BASES = "ACGT";
+    private static final String GUIDE = "GACGTTACCGATCGGATCAA";
+    private static final int LENGTH = 20;
+    private static final int PAM_LENGTH = 3;
+    // Sites whose bulged windows could run off the sequence are left out of the comparison
+    private static final int EDGE = 30;
+
+    @Test
+    void mismatchOnlySitesEqualBruteForce() {
+        String reference = plantedReference(new Random(1));
+        List<String> guides = guides(reference, new Random(2));
+        for (int maxMismatches = 0; maxMismatches <= 4; maxMismatches++) {
+            assertEquals(naiveSearch(reference, guides, maxMismatches, 0), search(reference, guides, maxMismatches, 0),
+                "mismatches=" + maxMismatches);
+        }
+    }
+
+    @Test
+    void bulgedSitesEqualBruteForce() {
+        String reference = plantedReference(new Random(3));
+        List<String> guides = guides(reference, new Random(4));
+        for (int[] limits : new int[][]{{3, 1}, {4, 1}, {2, 2}, {3, 2}}) {
+            List<String> expected = naiveSearch(reference, guides, limits[0], limits[1]);
+            assertTrue(expected.stream().anyMatch(site -> !site.endsWith("b0")), "no bulged sites planted");
+            assertEquals(expected, search(reference, guides, limits[0], limits[1]),
+                "mismatches=" + limits[0] + " bulges=" + limits[1]);
+        }
+    }
+
+    @Test
+    void plantedSitesAreScored() {
+        String reference = plantedReference(new Random(5));
+        List<OffTargetSearch.Site> sites = new OffTargetSearch(PackedSequence.fromString(reference), CasVariant.SPCAS9, 3, 1)
+            .search(List.of(GUIDE)).get(0);
+        OffTargetSearch.Site perfect = sites.stream().filter(OffTargetSearch.Site::isPerfectMatch).findFirst().orElseThrow();
+        assertEquals(1000, perfect.position());
+        assertEquals(1.0, perfect.cfd(), 1e-9);
+        OffTargetSearch.Site bulged = sites.stream().filter(site -> site.dnaBulges() == 1).findFirst().orElseThrow();
+        assertEquals(21, bulged.length());
+        assertTrue(bulged.cfd() < 1.0);
+        // The intended site is left out of the aggregate
+        assertEquals(OffTargetSearch.aggregateCfd(sites, -1, false) - 1.0,
+            OffTargetSearch.aggregateCfd(sites, 1000, false), 1e-9);
+    }
+
+    // ========== Naive reference ==========
+
+    private static List<String> search(String reference, List<String> guides, int maxMismatches, int maxBulges) {
+        List<List<OffTargetSearch.Site>> results = new OffTargetSearch(PackedSequence.fromString(reference),
+            CasVariant.SPCAS9, maxMismatches, maxBulges).search(guides);
+        List<String> sites = new ArrayList<>();
+        for (List<OffTargetSearch.Site> guideSites : results) {
+            for (OffTargetSearch.Site site : guideSites) {
+                long pam = site.reverse() ? site.position() - PAM_LENGTH : site.position() + site.length();
+                if (pam < EDGE || pam > reference.length() - EDGE) continue;
+                sites.add(describe(site.guide(), pam, site.reverse(), site.mismatches(), site.dnaBulges() + site.rnaBulges()));
+            }
+        }
+        Collections.sort(sites);
+        return sites;
+    }
+
+    /**
+     * For every NRG PAM on either strand and every guide: the site without bulges if it is
+     * within the mismatch limit, otherwise the alignment with the fewest bulges and then the
+     * fewest mismatches, found by trying every alignment.
+     */
+    private static List<String> naiveSearch(String reference, List<String> guides, int maxMismatches, int maxBulges) {
+        List<String> sites = new ArrayList<>();
+        for (int pam = EDGE; pam <= reference.length() - EDGE; pam++) {
+            boolean forward = "AG".indexOf(reference.charAt(pam + 1)) >= 0 && reference.charAt(pam + 2) == 'G';
+            boolean reverse = reference.charAt(pam) == 'C' && "CT".indexOf(reference.charAt(pam + 1)) >= 0;
+            for (int g = 0; g < guides.size(); g++) {
+                if (forward) addSite(sites, reference, guides.get(g), g, pam, false, maxMismatches, maxBulges);
+                if (reverse) addSite(sites, reference, guides.get(g), g, pam, true, maxMismatches, maxBulges);
+            }
+        }
+        Collections.sort(sites);
+        return sites;
+    }
+
+    private static void addSite(List<String> sites, String reference, String guide, int g, int pam, boolean reverse,
+                                int maxMismatches, int maxBulges) {
+        // Both sequences read outwards from the PAM
+        char[] spacer = new char[LENGTH];
+        for (int p = 0; p < LENGTH; p++) spacer[p] = guide.charAt(LENGTH - 1 - p);
+        char[] genome = new char[LENGTH + maxBulges];
+        for (int d = 0; d < genome.length; d++) {
+            genome[d] = reverse ? complement(reference.charAt(pam + PAM_LENGTH + d)) : reference.charAt(pam - 1 - d);
+        }
+
+        int direct = 0;
+        for (int p = 0; p < LENGTH; p++) {
+            if (spacer[p] != genome[p]) direct++;
+        }
+        if (direct <= maxMismatches) {
+            sites.add(describe(g, pam, reverse, direct, 0));
+            return;
+        }
+        int[] best = {Integer.MAX_VALUE, Integer.MAX_VALUE};
+        align(spacer, genome, 0, 0, 0, 0, maxMismatches, maxBulges, best);
+        if (best[0] != Integer.MAX_VALUE) sites.add(describe(g, pam, reverse, best[1], best[0]));
+    }
+
+    /**
+     * Try every alignment from guide position {@code p} at genome offset {@code p + shift}.
+     * A DNA bulge skips a genome base, an RNA bulge a guide base; neither is placed next to
+     * the PAM or past the far end of the guide.
+     *
+     * @param best Fewest bulges and then fewest mismatches found so far
+     */
+    private static void align(char[] spacer, char[] genome, int p, int shift, int bulges, int mismatches,
+                              int maxMismatches, int maxBulges, int[] best) {
+        if (mismatches > maxMismatches) return;
+        if (p == LENGTH) {
+            if (bulges > 0 && (bulges < best[0] || bulges == best[0] && mismatches < best[1])) {
+                best[0] = bulges;
+                best[1] = mismatches;
+            }
+            return;
+        }
+        if (bulges < maxBulges && p >= 1 && shift < maxBulges) {
+            align(spacer, genome, p, shift + 1, bulges + 1, mismatches, maxMismatches, maxBulges, best);
+        }
+        int d = p + shift;
+        align(spacer, genome, p + 1, shift, bulges, mismatches + (spacer[p] == genome[d] ? 0 : 1),
+            maxMismatches, maxBulges, best);
+        if (bulges < maxBulges && p >= 1 && p <= LENGTH - 2 && shift > -maxBulges) {
+            align(spacer, genome, p + 1, shift - 1, bulges + 1, mismatches, maxMismatches, maxBulges, best);
+        }
+    }
+
+    private static String describe(int guide, long pam, boolean reverse, int mismatches, int bulges) {
+        return guide + "@" + pam + (reverse ? "-" : "+") + " m" + mismatches + " b" + bulges;
+    }
+
+    // ========== Test data ==========
+
+    /**
+     * Random sequence with exact, mismatched and bulged copies of {@link #GUIDE} next to PAMs.
+     */
+    private static String plantedReference(Random random) {
+        char[] sequence = new char[20_000];
+        for (int i = 0; i < sequence.length; i++) sequence[i] = BASES.charAt(random.nextInt(4));
+        plant(sequence, 1000, GUIDE + "TGG");
+        plant(sequence, 3000, reverseComplement(GUIDE + "AGG"));
+        plant(sequence, 5000, "GACGTTACCGTTCGGATCTA" + "CGG");          // Two mismatches
+        plant(sequence, 7000, "GACGTTACC" + "T" + "GATCGGATCAA" + "GGG"); // DNA bulge
+        plant(sequence, 9000, "GACGTTACCG" + "TCGGATCAA" + "TGG");        // RNA bulge
+        plant(sequence, 11000, reverseComplement("GACGTAACC" + "T" + "GATCGGATCAA" + "AGG")); // DNA bulge and a mismatch
+        plant(sequence, 13000, "GACGTTACCG" + "T" + "ATCGGATC" + "TGG");  // Two RNA bulges
+        plant(sequence, 15000, "GACG" + "A" + "TTACCGATCGG" + "C" + "ATCAA" + "CAG"); // Two DNA bulges, NAG
+        // Four mismatches, one on the PAM-distal base, which an RNA bulge must not skip
+        plant(sequence, 17000, "C" + "TACGTAACCGCTCGGCTCAA" + "TGG");
+        return new String(sequence);
+    }
+
+    private static void plant(char[] sequence, int at, String site) {
+        site.getChars(0, site.length(), sequence, at);
+    }
+
+    /**
+     * The planted guide, a one-base variant of it and random spacers from the reference.
+     */
+    private static List<String> guides(String reference, Random random) {
+        List<String> guides = new ArrayList<>(List.of(GUIDE, "GACGTTACCGATGGGATCAA"));
+        for (int i = 0; i < 4; i++) {
+            int start = random.nextInt(reference.length() - LENGTH);
+            guides.add(reference.substring(start, start + LENGTH));
+        }
+        return guides;
+    }
+
+    private static char complement(char base) {
+        return BASES.charAt(3 - BASES.indexOf(base));
+    }
+
+    private static String reverseComplement(String sequence) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = sequence.length() - 1; i >= 0; i--) builder.append(complement(sequence.charAt(i)));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package com.morerealisticgeneediting.genome.crispr;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the bit-parallel IUPAC matcher against matching one character at a time.
+ */
+class PamScannerTest {
+
+    private static final String[] PATTERNS = {"NGG", "NRG", "NNGRRT", "TTTV", "NNNNCNAA", "YG", "A", "BDHVSWKM"};
+
+    @Test
+    void scanMatchesNaiveIupacMatching() {
+        String sequence = randomSequence(new Random(1), 5000);
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        for (String pattern : PATTERNS) {
+            PamScanner scanner = PamScanner.compile(pattern);
+            assertEquals(naiveScan(sequence, pattern, 0, sequence.length()), scan(scanner, packed, 0, sequence.length()), pattern);
+        }
+    }
+
+    @Test
+    void reverseComplementMatchesReverseStrand() {
+        String sequence = randomSequence(new Random(2), 5000);
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        for (String pattern : PATTERNS) {
+            PamScanner scanner = PamScanner.compile(pattern).reverseComplement();
+            assertEquals(naiveScan(sequence, reverseComplement(pattern), 0, sequence.length()),
+                scan(scanner, packed, 0, sequence.length()), pattern);
+        }
+    }
+
+    @Test
+    void scanHonoursRangeAndSequenceEnd() {
+        String sequence = randomSequence(new Random(3), 300);
+        PackedSequence packed = PackedSequence.fromString(sequence);
+        Random random = new Random(4);
+        for (String pattern : PATTERNS) {
+            PamScanner scanner = PamScanner.compile(pattern);
+            for (int trial = 0; trial < 50; trial++) {
+                int from = random.nextInt(320) - 10;
+                int to = from + random.nextInt(100);
+                assertEquals(naiveScan(sequence, pattern, from, to), scan(scanner, packed, from, to),
+                    pattern + " [" + from + ", " + to + ")");
+                for (int start = Math.max(0, from); start < Math.min(to, sequence.length()); start++) {
+                    assertEquals(naiveMatches(sequence, pattern, start), scanner.matchesAt(packed, start),
+                        pattern + " at " + start);
+                }
+            }
+        }
+    }
+
+    // ========== Naive reference ==========
+
+    private static List<Long> scan(PamScanner scanner, PackedSequence sequence, long from, long to) {
+        List<Long> starts = new ArrayList<>();
+        scanner.scan(sequence, from, to, starts::add);
+        return starts;
+    }
+
+    private static List<Long> naiveScan(String sequence, String pattern, int from, int to) {
+        List<Long> starts = new ArrayList<>();
+        for (int start = Math.max(0, from); start < to; start++) {
+            if (naiveMatches(sequence, pattern, start)) starts.add((long) start);
+        }
+        return starts;
+    }
+
+    private static boolean naiveMatches(String sequence, String pattern, int start) {
+        if (start + pattern.length() > sequence.length()) return false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char base = sequence.charAt(start + i);
+            if (base == 'N' || allowed(pattern.charAt(i)).indexOf(base) < 0) return false;
+        }
+        return true;
+    }
+
+    private static String allowed(char code) {
+        return switch (code) {
+            case 'R' -> "AG";
+            case 'Y' -> "CT";
+            case 'S' -> "CG";
+            case 'W' -> "AT";
+            case 'K' -> "GT";
+            case 'M' -> "AC";
+            case 'B' -> "CGT";
+            case 'D' -> "AGT";
+            case 'H' -> "ACT";
+            case 'V' -> "ACG";
+            case 'N' -> "ACGT";
+            default -> String.valueOf(code);
+        };
+    }
+
+    private static String reverseComplement(String pattern) {
+        String from = "ACGTRYSWKMBDHVN";
+        String to = "TGCAYRSWMKVHDBN";
+        StringBuilder builder = new StringBuilder();
+        for (int i = pattern.length() - 1; i >= 0; i--) {
+            builder.append(to.charAt(from.indexOf(pattern.charAt(i))));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Random bases with occasional N, which no PAM position may match.
+     */
+    private static String randomSequence(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(random.nextInt(50) == 0 ? 'N' : "ACGT".charAt(random.nextInt(4)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.morerealisticgeneediting.genome.index;
+
+import com.morerealisticgeneediting.genome.PackedSequence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks seeded matching against a scan of every position and strand.
+ */
+class MinimizerIndexTest {
+
+    private static final String BASES = "ACGT";
+
+    @Test
+    void seededMatchesEqualBruteForce() {
+        Random random = new Random(1);
+        String reference = withPlantedCopies(random, 50_000);
+        PackedSequence packed = PackedSequence.fromString(reference);
+
+        for (int[] kw : new int[][]{{MinimizerIndex.DEFAULT_K, MinimizerIndex.DEFAULT_W}, {4, 2}, {6, 3}}) {
+            MinimizerIndex index = MinimizerIndex.build(packed, kw[0], kw[1]);
+            for (int trial = 0; trial < 20; trial++) {
+                int length = 12 + random.nextInt(21);
+                // Half the queries come from the planted segment
+                int start = trial % 2 == 0 ? 1000 + random.nextInt(40 - length + 1)
+                    : random.nextInt(reference.length() - length);
+                String pattern = reference.substring(start, start + length).replace('N', 'A');
+                for (int mismatches = 0; mismatches <= index.maxSeedableMismatches(length) + 1; mismatches++) {
+                    assertEquals(bruteForce(reference, pattern, mismatches), describe(index.findMatches(pattern, mismatches)),
+                        "k=" + kw[0] + " w=" + kw[1] + " pattern=" + pattern + " mismatches=" + mismatches);
+                }
+            }
+        }
+    }
+
+    @Test
+    void plantedCopiesAreFound() {
+        Random random = new Random(2);
+        String reference = randomSequence(random, 20_000);
+        String guide = reference.substring(5000, 5020);
+        // Two-mismatch forward copy and one-mismatch reverse copy
+        char[] forward = guide.toCharArray();
+        forward[3] = forward[3] == 'A' ? 'C' : 'A';
+        forward[15] = forward[15] == 'A' ? 'C' : 'A';
+        char[] reverse = guide.toCharArray();
+        reverse[10] = reverse[10] == 'G' ? 'T' : 'G';
+        StringBuilder builder = new StringBuilder(reference);
+        builder.replace(12_000, 12_020, new String(forward));
+        builder.replace(16_000, 16_020, reverseComplement(new String(reverse)));
+        MinimizerIndex index = MinimizerIndex.build(PackedSequence.fromString(builder));
+
+        List<String> hits = describe(index.findMatches(guide, 2));
+        assertTrue(hits.contains("5000+0"), hits.toString());
+        assertTrue(hits.contains("12000+2"), hits.toString());
+        assertTrue(hits.contains("16000-1"), hits.toString());
+    }
+
+    // ========== Naive reference ==========
+
+    /**
+     * Every forward and reverse-strand locus within the mismatch limit, without N bases, by position.
+     */
+    private static List<String> bruteForce(String reference, String pattern, int maxMismatches) {
+        String reverse = reverseComplement(pattern);
+        List<String> hits = new ArrayList<>();
+        for (int start = 0; start + pattern.length() <= reference.length(); start++) {
+            String window = reference.substring(start, start + pattern.length());
+            if (window.indexOf('N') >= 0) continue;
+            int forward = mismatches(window, pattern);
+            if (forward <= maxMismatches) hits.add(start + "+" + forward);
+            // A palindromic pattern is reported once, on the forward strand
+            if (!reverse.equals(pattern)) {
+                int reverseMismatches = mismatches(window, reverse);
+                if (reverseMismatches <= maxMismatches) hits.add(start + "-" + reverseMismatches);
+            }
+        }
+        return hits;
+    }
+
+    private static List<String> describe(List<MinimizerIndex.Hit> hits) {
+        List<String> described = new ArrayList<>();
+        for (MinimizerIndex.Hit hit : hits) {
+            described.add(hit.position() + (hit.reverse() ? "-" : "+") + hit.mismatches());
+        }
+        return described;
+    }
+
+    private static int mismatches(String a, String b) {
+        int count = 0;
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) count++;
+        }
+        return count;
+    }
+
+    private static String reverseComplement(String sequence) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = sequence.length() - 1; i >= 0; i--) {
+            builder.append(BASES.charAt(3 - BASES.indexOf(sequence.charAt(i))));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Random sequence with a few N runs and near-copies of one segment, so that queries hit
+     * several loci with varying mismatch counts.
+     */
+    private static String withPlantedCopies(Random random, int length) {
+        StringBuilder builder = new StringBuilder(randomSequence(random, length));
+        String segment = builder.substring(1000, 1040);
+        for (int copy = 0; copy < 30; copy++) {
+            char[] bases = (copy % 2 == 0 ? segment : reverseComplement(segment)).toCharArray();
+            for (int m = copy % 5; m > 0; m--) bases[random.nextInt(bases.length)] = BASES.charAt(random.nextInt(4));
+            int at = 2000 + copy * 1500;
+            builder.replace(at, at + bases.length, new String(bases));
+        }
+        for (int run = 0; run < 5; run++) {
+            int at = random.nextInt(length - 10);
+            for (int i = 0; i < 10; i++) builder.setCharAt(at + i, 'N');
+        }
+        return builder.toString();
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) builder.append(BASES.charAt(random.nextInt(4)));
+        return builder.toString();
+    }
+}
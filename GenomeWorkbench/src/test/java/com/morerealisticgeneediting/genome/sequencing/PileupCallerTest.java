@@ -0,0 +1,181 @@
+package com.morerealisticgeneediting.genome.sequencing;
+
+import com.morerealisticgeneediting.genome.Genome;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the streaming caller against a pileup built in a map, and the parallel regions
+ * against one sweep.
+ */
+class PileupCallerTest {
+
+    private static final String BASES = "ACGT";
+    private static final int MIN_DEPTH = 8;
+    private static final double MIN_QUALITY = 20;
+
+    @Test
+    void sweepEqualsNaivePileup() {
+        Random random = new Random(1);
+        String reference = randomSequence(random, 30_000);
+        List<SequencingSimulator.SequencingRead> reads = reads(reference, random);
+        PileupCaller caller = new PileupCaller(Genome.createFromUnpackedSequence(UUID.randomUUID(), reference),
+            MIN_DEPTH, MIN_QUALITY);
+
+        List<SequencingSimulator.Variant> swept = sweep(caller, reads, 0, reference.length());
+        assertFalse(swept.isEmpty());
+        assertEquals(naiveCalls(reference, reads, 0, reference.length()), swept);
+
+        // A sub-range only emits its own columns
+        assertEquals(naiveCalls(reference, reads, 10_000, 12_345), sweep(caller, reads, 10_000, 12_345));
+    }
+
+    @Test
+    void regionsEqualSingleSweep() {
+        Random random = new Random(2);
+        String reference = randomSequence(random, 30_000);
+        List<SequencingSimulator.SequencingRead> reads = reads(reference, random);
+        PileupCaller caller = new PileupCaller(Genome.createFromUnpackedSequence(UUID.randomUUID(), reference),
+            MIN_DEPTH, MIN_QUALITY);
+
+        List<SequencingSimulator.Variant> swept = sweep(caller, reads, 0, reference.length());
+        for (int regionSize : new int[]{7, 1000, 4096, 10_000, PileupCaller.DEFAULT_REGION_SIZE}) {
+            assertEquals(swept, caller.callRegions(reads, regionSize), "region size " + regionSize);
+        }
+    }
+
+    @Test
+    void unsortedReadsAreRejected() {
+        Random random = new Random(3);
+        String reference = randomSequence(random, 2000);
+        List<SequencingSimulator.SequencingRead> reads = new ArrayList<>(reads(reference, random));
+        reads.add(0, reads.remove(reads.size() - 1));
+        PileupCaller caller = new PileupCaller(Genome.createFromUnpackedSequence(UUID.randomUUID(), reference),
+            MIN_DEPTH, MIN_QUALITY);
+        assertThrows(IllegalArgumentException.class, () -> caller.callRegions(reads, 1000));
+    }
+
+    // ========== Naive reference ==========
+
+    private static List<SequencingSimulator.Variant> sweep(PileupCaller caller,
+                                                           List<SequencingSimulator.SequencingRead> reads,
+                                                           long from, long to) {
+        List<SequencingSimulator.Variant> calls = new ArrayList<>();
+        caller.call(reads.iterator(), from, to, calls::add);
+        return calls;
+    }
+
+    /**
+     * Count every base of every read into a map of columns, then apply the same calling
+     * thresholds column by column.
+     */
+    private static List<SequencingSimulator.Variant> naiveCalls(String reference,
+                                                                List<SequencingSimulator.SequencingRead> reads,
+                                                                long from, long to) {
+        TreeMap<Long, long[]> columns = new TreeMap<>();   // A, C, G, T, depth, quality sum
+        for (SequencingSimulator.SequencingRead read : reads) {
+            int length = read.sequence().length();
+            for (int offset = 0; offset < length; offset++) {
+                long position = read.referencePosition() + offset;
+                if (position < from || position >= to || position >= reference.length()) continue;
+                int i = read.isReversed() ? length - 1 - offset : offset;
+                int code = BASES.indexOf(read.sequence().charAt(i));
+                if (code >= 0 && read.isReversed()) code = 3 - code;
+                long[] column = columns.computeIfAbsent(position, p -> new long[6]);
+                if (code >= 0) column[code]++;
+                column[4]++;
+                column[5] += read.qualityScores()[i];
+            }
+        }
+
+        List<SequencingSimulator.Variant> calls = new ArrayList<>();
+        columns.forEach((position, column) -> {
+            int depth = (int) column[4];
+            double meanQuality = (double) column[5] / depth;
+            if (depth < MIN_DEPTH || meanQuality < MIN_QUALITY) return;
+            char refBase = reference.charAt((int) (long) position);
+            for (int base = 0; base < 4; base++) {
+                if (BASES.charAt(base) == refBase || column[base] == 0 || column[base] < MIN_DEPTH / 3) continue;
+                double af = (double) column[base] / depth;
+                if (af < 0.1) continue;
+                calls.add(new SequencingSimulator.Variant(position, String.valueOf(refBase),
+                    String.valueOf(BASES.charAt(base)), SequencingSimulator.Variant.VariantType.SNP, depth, af, meanQuality));
+            }
+        });
+        return calls;
+    }
+
+    // ========== Test data ==========
+
+    /**
+     * Sorted reads from a sample carrying SNPs at about a third of its copies, with
+     * sequencing errors, N bases, reverse-strand reads and a few long reads that make
+     * the window grow.
+     */
+    private static List<SequencingSimulator.SequencingRead> reads(String reference, Random random) {
+        char[] original = reference.toCharArray();
+        char[] alternate = reference.toCharArray();
+        for (int i = 0; i < reference.length() / 300; i++) {
+            int position = random.nextInt(reference.length());
+            alternate[position] = BASES.charAt((BASES.indexOf(alternate[position]) + 1 + random.nextInt(3)) % 4);
+        }
+
+        List<SequencingSimulator.SequencingRead> reads = new ArrayList<>();
+        int count = reference.length() * 30 / 100;
+        for (int r = 0; r < count; r++) {
+            int length = r % 500 == 0 ? 2000 + random.nextInt(8000) : 50 + random.nextInt(101);
+            int start = random.nextInt(reference.length()) - length / 2;
+            int end = Math.min(reference.length(), start + length);
+            start = Math.max(0, start);
+            char[] source = random.nextInt(3) == 0 ? alternate : original;
+            char[] bases = new char[end - start];
+            int[] qualities = new int[bases.length];
+            for (int i = 0; i < bases.length; i++) {
+                bases[i] = source[start + i];
+                int roll = random.nextInt(200);
+                if (roll == 0) bases[i] = 'N';
+                else if (roll < 4) bases[i] = BASES.charAt(random.nextInt(4));
+                qualities[i] = 15 + random.nextInt(26);
+            }
+            boolean reversed = random.nextBoolean();
+            String sequence = reversed ? reverseComplement(new String(bases)) : new String(bases);
+            if (reversed) reverse(qualities);
+            reads.add(new SequencingSimulator.SequencingRead("read" + r, sequence, qualities, start, reversed, null));
+        }
+        reads.sort(Comparator.comparingLong(SequencingSimulator.SequencingRead::referencePosition));
+        return reads;
+    }
+
+    private static String reverseComplement(String sequence) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = sequence.length() - 1; i >= 0; i--) {
+            char base = sequence.charAt(i);
+            builder.append(base == 'N' ? 'N' : BASES.charAt(3 - BASES.indexOf(base)));
+        }
+        return builder.toString();
+    }
+
+    private static void reverse(int[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) builder.append(BASES.charAt(random.nextInt(4)));
+        return builder.toString();
+    }
+}